@@ -0,0 +1,21 @@
+package com.victor.filestorageapi.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.util.zip.Deflater;
+
+@Component
+@ConfigurationProperties(prefix = "cloud.storage.archive")
+@Data
+public class ArchiveProperties {
+    //Objects opened ahead of the one being written, each holds at most one buffer or one open connection
+    private int prefetchDepth = 8;
+    //Objects up to this size are read fully while prefetching, larger ones are streamed from their open connection
+    private DataSize prefetchBufferSize = DataSize.ofMegabytes(1);
+    private int executorThreads = 16;
+    //Archives are built while the client waits, so speed wins over size
+    private int compressionLevel = Deflater.BEST_SPEED;
+}
@@ -0,0 +1,14 @@
+package com.victor.filestorageapi.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "cloud.storage.async")
+@Data
+public class AsyncProperties {
+    //Requests a bulk operation keeps in flight on the async client. Requests beyond the client's connection pool
+    //wait for a connection inside the client instead of holding a thread
+    private int maxInFlightRequests = 256;
+}
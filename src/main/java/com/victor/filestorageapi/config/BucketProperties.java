@@ -0,0 +1,30 @@
+package com.victor.filestorageapi.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@Component
+@ConfigurationProperties(prefix = "cloud.storage.buckets")
+@Data
+public class BucketProperties {
+    //Buckets objects are spread over. Adding one moves only the shards the ring now maps to it
+    private List<String> names = new ArrayList<>(List.of("my-local-bucket"));
+    //Points each bucket gets on the hash ring, more points spread shards more evenly
+    private int virtualNodes = 128;
+
+    private boolean rebalanceEnabled = true;
+    private int maxShardsPerRebalance = 10;
+    //Writes that resolved the old bucket just before a shard moved are given this long to land before the catch up copy
+    private Duration catchUpDelay = Duration.ofSeconds(30);
+    //How long an instance trusts its cached placement of a shard before reading it again. Other instances only see a
+    //moved shard once their entry expires, so the rebalancer waits at least twice this long before the catch up copy
+    private Duration placementCacheTtl = Duration.ofSeconds(5);
+    //Multipart uploads created just before a shard moved still complete in the old bucket. The rebalancer catches up
+    //this many more times, a catch up delay apart, before giving up on them and keeping the old versions
+    private int uploadDrainRounds = 10;
+}
@@ -0,0 +1,25 @@
+package com.victor.filestorageapi.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+
+@Component
+@ConfigurationProperties(prefix = "cloud.storage.cache")
+@Data
+public class CacheProperties {
+    private boolean enabled = true;
+    //Every instance caches into a subdirectory of its own, so the directory can be shared
+    private Path directory = Path.of(System.getProperty("java.io.tmpdir"), "filestorageapi-cache");
+    //Least recently read objects are evicted once the cached objects take up more than this
+    private DataSize maxSize = DataSize.ofGigabytes(5);
+    //Larger objects are always streamed from S3, caching them would evict many popular small ones at once
+    private DataSize maxObjectSize = DataSize.ofMegabytes(256);
+    //Fills copying objects from S3 at once, further misses wait for a thread before their first byte
+    private int fillThreads = 32;
+    //HEAD responses of object versions kept in memory, an entry takes well under a kilobyte
+    private int metadataMaxEntries = 50_000;
+}
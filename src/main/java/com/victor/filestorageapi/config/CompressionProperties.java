@@ -0,0 +1,28 @@
+package com.victor.filestorageapi.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Component
+@ConfigurationProperties(prefix = "cloud.storage.compression")
+@Data
+public class CompressionProperties {
+    private boolean enabled = true;
+
+    //Only types that compress well are listed, already compressed media and archives would just cost CPU
+    private List<String> compressibleTypes = new ArrayList<>(List.of(
+            "text/*",
+            "application/json",
+            "application/x-ndjson",
+            "application/xml",
+            "application/javascript",
+            "application/x-yaml",
+            "application/yaml",
+            "application/csv",
+            "application/x-log"
+    ));
+}
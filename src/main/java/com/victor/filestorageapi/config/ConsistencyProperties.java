@@ -0,0 +1,15 @@
+package com.victor.filestorageapi.config;
+
+import com.victor.filestorageapi.models.enums.ConsistencyMode;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "cloud.storage.consistency")
+@Data
+public class ConsistencyProperties {
+    private ConsistencyMode mode = ConsistencyMode.STRONG;
+    //Fraction of writes read back in sampled-verify mode
+    private double sampleRate = 0.01;
+}
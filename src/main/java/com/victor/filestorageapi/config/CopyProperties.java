@@ -0,0 +1,24 @@
+package com.victor.filestorageapi.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+@Component
+@ConfigurationProperties(prefix = "cloud.storage.copy")
+@Data
+public class CopyProperties {
+    //A single CopyObject can't copy a source larger than 5GB
+    public static final DataSize MAX_SINGLE_COPY_SIZE = DataSize.ofGigabytes(5);
+
+    //Sources from this size on are copied in parts. Kept well below the CopyObject limit, so a size hint taken before
+    //compression can't send a source over the limit to CopyObject
+    private DataSize multipartThreshold = DataSize.ofGigabytes(1);
+    private DataSize partSize = DataSize.ofMegabytes(256);
+    private int maxInFlightParts = 8;
+
+    public long getMultipartThresholdInBytes(){
+        return Math.min(multipartThreshold.toBytes(), MAX_SINGLE_COPY_SIZE.toBytes());
+    }
+}
@@ -0,0 +1,15 @@
+package com.victor.filestorageapi.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Component
+@ConfigurationProperties(prefix = "cloud.storage.dedup")
+@Data
+public class DedupProperties {
+    //Unreferenced blobs are kept this long so an upload racing the collector can still reference them
+    private Duration gcGracePeriod = Duration.ofHours(1);
+}
@@ -0,0 +1,88 @@
+package com.victor.filestorageapi.config;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@Configuration
+@RequiredArgsConstructor
+public class ExecutorConfig {
+
+    private final UploadProperties uploadProperties;
+    private final ArchiveProperties archiveProperties;
+    private final ProcessingProperties processingProperties;
+    private final ListingProperties listingProperties;
+    private final CacheProperties cacheProperties;
+
+    /**
+     * Shared pool that sends multipart upload parts to S3.
+     * Each upload bounds its own number of in-flight parts, this pool bounds the total across all uploads.
+     * */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService uploadPartExecutor(){
+        return Executors.newFixedThreadPool(uploadProperties.getExecutorThreads(),
+                new CustomizableThreadFactory("upload-part-"));
+    }
+
+    /**
+     * Pool that uploads the buffered entries of bulk uploads.
+     * Kept apart from the part pool, so a large bulk upload can't starve multipart uploads of threads.
+     * */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService bulkUploadExecutor(){
+        return Executors.newFixedThreadPool(uploadProperties.getExecutorThreads(),
+                new CustomizableThreadFactory("bulk-upload-"));
+    }
+
+    /**
+     * Pool that opens and prefetches the objects of folder archives ahead of the entry being written.
+     * */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService archivePrefetchExecutor(){
+        return Executors.newFixedThreadPool(archiveProperties.getExecutorThreads(),
+                new CustomizableThreadFactory("archive-prefetch-"));
+    }
+
+    /**
+     * Pool that fetches the next page of streamed prefix listings while the caller works through the current one.
+     * */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService listingPrefetchExecutor(){
+        return Executors.newFixedThreadPool(listingProperties.getExecutorThreads(),
+                new CustomizableThreadFactory("listing-prefetch-"));
+    }
+
+    /**
+     * Pool that pages through the sub-prefixes of large prefixes concurrently. Each task lists a whole sub-prefix,
+     * so it is kept apart from the prefetch pool whose tasks fetch a single page.
+     * */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService prefixListingExecutor(){
+        return Executors.newFixedThreadPool(listingProperties.getParallelExecutorThreads(),
+                new CustomizableThreadFactory("prefix-listing-"));
+    }
+
+    /**
+     * Pool that copies missed objects from S3 into the object cache. A fill runs apart from the downloads reading it,
+     * so one client going away doesn't stop the fill the others are waiting on.
+     * */
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService cacheFillExecutor(){
+        return Executors.newFixedThreadPool(cacheProperties.getFillThreads(),
+                new CustomizableThreadFactory("cache-fill-"));
+    }
+
+    /**
+     * Threads that process committed files. Each thread runs one long lived worker, so the pool is shut down with
+     * an interrupt to wake the workers waiting on an empty queue.
+     * */
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService fileProcessingExecutor(){
+        return Executors.newFixedThreadPool(processingProperties.getWorkerThreads(),
+                new CustomizableThreadFactory("file-processing-"));
+    }
+}
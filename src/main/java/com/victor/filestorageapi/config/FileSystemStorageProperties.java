@@ -0,0 +1,19 @@
+package com.victor.filestorageapi.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+
+@Component
+@ConfigurationProperties(prefix = "cloud.storage.filesystem")
+@Data
+public class FileSystemStorageProperties {
+    //Every bucket is a directory under the root
+    private Path root = Path.of("/var/lib/filestorageapi/objects");
+    //Flushes each written version to the device before it becomes visible, turn off only if losing recent writes on power loss is acceptable
+    private boolean fsync = true;
+    private DataSize writeBufferSize = DataSize.ofKilobytes(256);
+}
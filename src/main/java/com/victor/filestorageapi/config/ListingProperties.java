@@ -0,0 +1,18 @@
+package com.victor.filestorageapi.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "cloud.storage.listing")
+@Data
+public class ListingProperties {
+    //ListObjectsV2 returns at most 1000 keys per page, a streamed listing holds about two pages at once
+    private int pageSize = 1000;
+    private int executorThreads = 8;
+
+    //Sub-prefixes of a large prefix listed at once by one listing, and threads shared by all such listings
+    private int maxParallelPrefixes = 8;
+    private int parallelExecutorThreads = 32;
+}
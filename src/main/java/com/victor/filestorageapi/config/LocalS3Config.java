@@ -1,24 +1,48 @@
 package com.victor.filestorageapi.config;
 
+import com.victor.filestorageapi.service.utils.AdaptiveRateLimiter;
+import com.victor.filestorageapi.service.utils.RateLimitedS3AsyncClient;
+import com.victor.filestorageapi.service.utils.S3PoolMetricPublisher;
+import com.victor.filestorageapi.service.utils.S3ThrottlingInterceptor;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.awscore.retry.AwsRetryStrategy;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.crt.AwsCrtHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.retries.api.BackoffStrategy;
+import software.amazon.awssdk.retries.api.RetryStrategy;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.multipart.MultipartConfiguration;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 
 import java.net.URI;
 
 @Configuration
 @Profile("local")
 @RequiredArgsConstructor
+@Slf4j
 public class LocalS3Config
 {
      private final S3ConfigProperties configProperties;
+     private final TransferProperties transferProperties;
+     private final ThrottlingProperties throttlingProperties;
+     private final S3ThrottlingInterceptor s3ThrottlingInterceptor;
+     private final AdaptiveRateLimiter adaptiveRateLimiter;
+     private final MeterRegistry meterRegistry;
 
      @Value("${cloud.s3.endpoint}")
      private String endpoint;
@@ -31,7 +55,7 @@ public class LocalS3Config
        return S3Client
                .builder()
                .credentialsProvider(StaticCredentialsProvider.create(
-                       AwsBasicCredentials.create(configProperties.getAccessKey(), configProperties.getSecretKey())
+                       AwsBasicCredentials.create(configProperties.getCredentials().getAccessKey(), configProperties.getCredentials().getSecretKey())
                ))
                .region(Region.of(region))
                .endpointOverride(URI.create(endpoint))
@@ -39,7 +63,127 @@ public class LocalS3Config
                        .builder()
                        .pathStyleAccessEnabled(true)
                        .build())
+               .httpClientBuilder(syncHttpClientBuilder())
+               .overrideConfiguration(overrideConfiguration("sync"))
                .build();
 
      }
+
+     //Presigned URLs must be signed for the same endpoint and addressing style the client is built with
+     @Bean(destroyMethod = "close")
+     public S3Presigner s3Presigner(){
+       return S3Presigner
+               .builder()
+               .credentialsProvider(StaticCredentialsProvider.create(
+                       AwsBasicCredentials.create(configProperties.getCredentials().getAccessKey(), configProperties.getCredentials().getSecretKey())
+               ))
+               .region(Region.of(region))
+               .endpointOverride(URI.create(endpoint))
+               .serviceConfiguration(S3Configuration
+                       .builder()
+                       .pathStyleAccessEnabled(true)
+                       .build())
+               .build();
+     }
+
+     //Uploads above the threshold are split into parts that are sent concurrently over the client's connection pool.
+     //Requests wait for their prefix's rate before they are sent, so the wait doesn't use up their attempts
+     @Bean(destroyMethod = "close")
+     public S3AsyncClient s3AsyncClient(){
+       S3AsyncClient s3AsyncClient = S3AsyncClient
+               .builder()
+               .credentialsProvider(StaticCredentialsProvider.create(
+                       AwsBasicCredentials.create(configProperties.getCredentials().getAccessKey(), configProperties.getCredentials().getSecretKey())
+               ))
+               .region(Region.of(region))
+               .endpointOverride(URI.create(endpoint))
+               .forcePathStyle(true)
+               .httpClientBuilder(NettyNioAsyncHttpClient
+                       .builder()
+                       .maxConcurrency(transferProperties.getMaxConcurrency())
+                       .connectionAcquisitionTimeout(configProperties.getHttp().getConnectionAcquisitionTimeout())
+                       .connectionMaxIdleTime(configProperties.getHttp().getConnectionMaxIdleTime())
+                       .useIdleConnectionReaper(configProperties.getHttp().isUseIdleConnectionReaper())
+                       .tcpKeepAlive(configProperties.getHttp().isTcpKeepAlive())
+                       .connectionTimeout(configProperties.getHttp().getConnectionTimeout())
+                       .readTimeout(configProperties.getHttp().getSocketTimeout())
+                       .writeTimeout(configProperties.getHttp().getSocketTimeout()))
+               .overrideConfiguration(overrideConfiguration("async"))
+               .multipartEnabled(true)
+               .multipartConfiguration(MultipartConfiguration
+                       .builder()
+                       .thresholdInBytes(transferProperties.getThreshold().toBytes())
+                       .minimumPartSizeInBytes(transferProperties.getPartSizeInBytes())
+                       .build())
+               .build();
+       return new RateLimitedS3AsyncClient(s3AsyncClient, adaptiveRateLimiter);
+     }
+
+     //The blocking client serves every request thread, so its pool is sized and timed out explicitly instead of by SDK defaults.
+     //A builder is handed over so the client owns the HTTP client and closes it with itself
+     private SdkHttpClient.Builder<?> syncHttpClientBuilder(){
+       S3ConfigProperties.Http http = configProperties.getHttp();
+       log.info("Building the S3 client with the {} HTTP client (max connections: {}).", http.getClientType(), http.getMaxConnections());
+
+       return switch (http.getClientType()) {
+         case APACHE -> ApacheHttpClient
+                 .builder()
+                 .maxConnections(http.getMaxConnections())
+                 .connectionAcquisitionTimeout(http.getConnectionAcquisitionTimeout())
+                 .connectionMaxIdleTime(http.getConnectionMaxIdleTime())
+                 .useIdleConnectionReaper(http.isUseIdleConnectionReaper())
+                 .tcpKeepAlive(http.isTcpKeepAlive())
+                 .connectionTimeout(http.getConnectionTimeout())
+                 .socketTimeout(http.getSocketTimeout());
+         //HttpURLConnection has no managed pool, so only the timeouts apply
+         case URL_CONNECTION -> UrlConnectionHttpClient
+                 .builder()
+                 .connectionTimeout(http.getConnectionTimeout())
+                 .socketTimeout(http.getSocketTimeout());
+         case CRT -> {
+           AwsCrtHttpClient.Builder builder = AwsCrtHttpClient
+                   .builder()
+                   .maxConcurrency(http.getMaxConnections())
+                   .connectionAcquisitionTimeout(http.getConnectionAcquisitionTimeout())
+                   .connectionMaxIdleTime(http.getConnectionMaxIdleTime())
+                   .connectionTimeout(http.getConnectionTimeout());
+           if (http.isTcpKeepAlive()) {
+             builder.tcpKeepAliveConfiguration(keepAlive -> keepAlive
+                     .keepAliveInterval(http.getTcpKeepAliveInterval())
+                     .keepAliveTimeout(http.getConnectionTimeout()));
+           }
+           yield builder;
+         }
+       };
+     }
+
+     private ClientOverrideConfiguration overrideConfiguration(String clientName){
+       S3ConfigProperties.Http http = configProperties.getHttp();
+       ClientOverrideConfiguration.Builder builder = ClientOverrideConfiguration
+               .builder()
+               .addMetricPublisher(new S3PoolMetricPublisher(meterRegistry, clientName))
+               .addExecutionInterceptor(s3ThrottlingInterceptor)
+               .retryStrategy(retryStrategy());
+
+       if (http.getApiCallTimeout() != null) {
+         builder.apiCallTimeout(http.getApiCallTimeout());
+       }
+       if (http.getApiCallAttemptTimeout() != null) {
+         builder.apiCallAttemptTimeout(http.getApiCallAttemptTimeout());
+       }
+       return builder.build();
+     }
+
+     //Full jitter spreads the retries of requests throttled together instead of sending them back in lockstep.
+     //The SDK's own retry token bucket is shared by every operation, the interceptor keeps one per operation instead
+     private RetryStrategy retryStrategy(){
+       return AwsRetryStrategy
+               .standardRetryStrategy()
+               .toBuilder()
+               .maxAttempts(throttlingProperties.getMaxAttempts())
+               .backoffStrategy(BackoffStrategy.exponentialDelay(throttlingProperties.getBaseDelay(), throttlingProperties.getMaxBackoff()))
+               .throttlingBackoffStrategy(BackoffStrategy.exponentialDelay(throttlingProperties.getThrottlingBaseDelay(), throttlingProperties.getMaxBackoff()))
+               .circuitBreakerEnabled(false)
+               .build();
+     }
 }
@@ -0,0 +1,25 @@
+package com.victor.filestorageapi.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+@Component
+@ConfigurationProperties(prefix = "cloud.storage.pack")
+@Data
+public class PackProperties {
+    private boolean enabled = true;
+    //Content up to this size is appended to a shared pack object instead of getting an object of its own
+    private DataSize threshold = DataSize.ofKilobytes(64);
+    //A pack is written as soon as this much content is waiting
+    private DataSize targetPackSize = DataSize.ofMegabytes(8);
+    //Otherwise it is written this long after the first content started waiting, which bounds the upload latency added
+    private Duration maxPackDelay = Duration.ofMillis(200);
+    //Packs with less live content than this are rewritten by the compaction
+    private double minLiveRatio = 0.5;
+    //Compacted packs are kept this long so reads that started before the compaction can still finish
+    private Duration retiredPackGracePeriod = Duration.ofHours(1);
+}
@@ -0,0 +1,15 @@
+package com.victor.filestorageapi.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Component
+@ConfigurationProperties(prefix = "cloud.storage.presign")
+@Data
+public class PresignProperties {
+    private Duration uploadExpiry = Duration.ofMinutes(15);
+    private Duration downloadExpiry = Duration.ofMinutes(5);
+}
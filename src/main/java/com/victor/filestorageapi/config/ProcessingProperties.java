@@ -0,0 +1,25 @@
+package com.victor.filestorageapi.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+@Component
+@ConfigurationProperties(prefix = "cloud.storage.processing")
+@Data
+public class ProcessingProperties {
+    private boolean enabled = true;
+    private int workerThreads = 4;
+    //Files committed while the queue is full stay pending and are picked up by the sweep instead
+    private int queueCapacity = 10_000;
+    //Results are written back once this many files are processed or the batch delay runs out
+    private int batchSize = 100;
+    private Duration batchDelay = Duration.ofMillis(500);
+    //How much of the start of a file is kept for sniffing its type and reading its metadata
+    private DataSize headSize = DataSize.ofKilobytes(64);
+    //Files still pending this long after they were recorded are queued again by the sweep
+    private Duration sweepAge = Duration.ofMinutes(10);
+}
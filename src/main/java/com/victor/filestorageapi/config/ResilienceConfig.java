@@ -0,0 +1,85 @@
+package com.victor.filestorageapi.config;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.micrometer.tagged.TaggedBulkheadMetrics;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+@Configuration
+@RequiredArgsConstructor
+public class ResilienceConfig {
+
+    private final ResilienceProperties resilienceProperties;
+    private final MeterRegistry meterRegistry;
+
+    @Bean
+    public BulkheadRegistry bulkheadRegistry(){
+        BulkheadRegistry bulkheadRegistry = BulkheadRegistry.ofDefaults();
+        TaggedBulkheadMetrics.ofBulkheadRegistry(bulkheadRegistry).bindTo(meterRegistry);
+        return bulkheadRegistry;
+    }
+
+    @Bean
+    public Bulkhead s3InteractiveBulkhead(BulkheadRegistry bulkheadRegistry){
+        return bulkheadRegistry.bulkhead("s3-interactive", BulkheadConfig
+                .custom()
+                .maxConcurrentCalls(resilienceProperties.getInteractiveMaxConcurrentCalls())
+                .maxWaitDuration(resilienceProperties.getInteractiveMaxWait())
+                .build());
+    }
+
+    @Bean
+    public Bulkhead s3BulkBulkhead(BulkheadRegistry bulkheadRegistry){
+        return bulkheadRegistry.bulkhead("s3-bulk", BulkheadConfig
+                .custom()
+                .maxConcurrentCalls(resilienceProperties.getBulkMaxConcurrentCalls())
+                .maxWaitDuration(resilienceProperties.getBulkMaxWait())
+                .build());
+    }
+
+    /**
+     * Breaker shared by every S3 call. Only failures of S3 itself count towards it, a missing key or a rejected
+     * request is the caller's problem and says nothing about the health of S3.
+     * */
+    @Bean
+    public CircuitBreaker s3CircuitBreaker(){
+        CircuitBreakerRegistry circuitBreakerRegistry = CircuitBreakerRegistry.ofDefaults();
+        TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(circuitBreakerRegistry).bindTo(meterRegistry);
+
+        return circuitBreakerRegistry.circuitBreaker("s3", CircuitBreakerConfig
+                .custom()
+                .failureRateThreshold(resilienceProperties.getFailureRateThreshold())
+                .slowCallRateThreshold(resilienceProperties.getSlowCallRateThreshold())
+                .slowCallDurationThreshold(resilienceProperties.getSlowCallDuration())
+                .slidingWindowType(CircuitBreakerConfig.SlidingWindowType.COUNT_BASED)
+                .slidingWindowSize(resilienceProperties.getSlidingWindowSize())
+                .minimumNumberOfCalls(resilienceProperties.getMinimumNumberOfCalls())
+                .waitDurationInOpenState(resilienceProperties.getWaitDurationInOpenState())
+                .permittedNumberOfCallsInHalfOpenState(resilienceProperties.getPermittedCallsInHalfOpenState())
+                .recordException(ResilienceConfig::isS3Failure)
+                .build());
+    }
+
+    //Services wrap the SDK exceptions, so the cause chain is searched for what actually went wrong
+    private static boolean isS3Failure(Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof S3Exception s3Exception) {
+                return s3Exception.statusCode() >= 500 || s3Exception.statusCode() == 429;
+            }
+            if (cause instanceof SdkClientException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,33 @@
+package com.victor.filestorageapi.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Component
+@ConfigurationProperties(prefix = "cloud.storage.resilience")
+@Data
+public class ResilienceProperties {
+    //S3 calls made for a request, kept well below the Tomcat worker count so a slow S3 can't hold every worker
+    private int interactiveMaxConcurrentCalls = 64;
+    //Interactive calls fail fast with a 503 instead of queueing behind a slow S3
+    private Duration interactiveMaxWait = Duration.ofSeconds(1);
+    //S3 calls made by folder moves, deletes, snapshots, bulk uploads and background jobs
+    private int bulkMaxConcurrentCalls = 32;
+    //Bulk operations started by a request run on its Tomcat worker, so they can't queue for long either
+    private Duration bulkMaxWait = Duration.ofSeconds(5);
+    //Executor threads and scheduled jobs hold no worker, they keep waiting for a bulk permit up to this long
+    private Duration backgroundMaxWait = Duration.ofSeconds(60);
+
+    //Share of failed or slow calls over the sliding window that opens the breaker
+    private float failureRateThreshold = 50;
+    private float slowCallRateThreshold = 80;
+    private Duration slowCallDuration = Duration.ofSeconds(5);
+    private int slidingWindowSize = 100;
+    private int minimumNumberOfCalls = 20;
+    //How long the breaker stays open before letting trial calls through
+    private Duration waitDurationInOpenState = Duration.ofSeconds(30);
+    private int permittedCallsInHalfOpenState = 10;
+}
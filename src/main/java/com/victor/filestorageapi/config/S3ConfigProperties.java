@@ -1,16 +1,46 @@
 package com.victor.filestorageapi.config;
 
+import com.victor.filestorageapi.models.enums.S3HttpClientType;
 import lombok.Data;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
 
-@ConfigurationProperties("cloud.aws.credentials")
+
+@ConfigurationProperties("cloud.aws")
 @Data
 @Component
 public class S3ConfigProperties {
-    private String secretKey;
+    private Credentials credentials = new Credentials();
+
+    private Http http = new Http();
+
+    @Data
+    public static class Credentials {
+        private String secretKey;
+
+        private String accessKey;
+    }
+
+    @Data
+    public static class Http {
+        private S3HttpClientType clientType = S3HttpClientType.APACHE;
+
+        //Connections the blocking client may hold, the SDK default of 50 runs out as soon as folder moves run in parallel
+        private int maxConnections = 128;
+        //How long a request waits for a pooled connection before failing
+        private Duration connectionAcquisitionTimeout = Duration.ofSeconds(10);
+        //Idle connections are closed by the reaper after this long, before the server drops them mid request
+        private Duration connectionMaxIdleTime = Duration.ofSeconds(60);
+        private boolean useIdleConnectionReaper = true;
+        private boolean tcpKeepAlive = true;
+        private Duration tcpKeepAliveInterval = Duration.ofSeconds(30);
+        private Duration connectionTimeout = Duration.ofSeconds(2);
+        private Duration socketTimeout = Duration.ofSeconds(30);
 
-    private String accessKey;
+        //Left unset by default since a single call may stream a multi gigabyte object
+        private Duration apiCallTimeout;
+        private Duration apiCallAttemptTimeout;
+    }
 }
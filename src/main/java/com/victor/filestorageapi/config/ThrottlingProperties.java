@@ -0,0 +1,40 @@
+package com.victor.filestorageapi.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Component
+@ConfigurationProperties(prefix = "cloud.storage.throttling")
+@Data
+public class ThrottlingProperties {
+    private boolean enabled = true;
+
+    //Requests per second each key prefix starts with, S3 allows 3500 writes per second per prefix
+    private double initialRate = 500;
+    private double minRate = 10;
+    private double maxRate = 3500;
+    //Added to a prefix's rate for every successful request
+    private double additiveIncrease = 1;
+    //A prefix's rate is multiplied by this on a throttling response
+    private double multiplicativeDecrease = 0.5;
+    //Throttling responses to requests already in flight when the rate was cut don't cut it again within this window
+    private Duration decreaseCooldown = Duration.ofSeconds(1);
+    //A request that would wait longer than this for its prefix's rate fails instead
+    private Duration maxWait = Duration.ofSeconds(30);
+    private int maxPrefixes = 10_000;
+    private Duration idlePrefixExpiry = Duration.ofMinutes(10);
+
+    private int maxAttempts = 5;
+    //Retries wait a random time between zero and base * 2^attempt, capped at the max backoff
+    private Duration baseDelay = Duration.ofMillis(100);
+    private Duration throttlingBaseDelay = Duration.ofMillis(500);
+    private Duration maxBackoff = Duration.ofSeconds(20);
+
+    //Every operation has its own retry budget, so a failing bulk delete can't use up the retries of uploads
+    private int retryBudgetCapacity = 500;
+    private int retryCost = 5;
+    private int successRefund = 1;
+}
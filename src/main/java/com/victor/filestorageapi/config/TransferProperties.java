@@ -0,0 +1,21 @@
+package com.victor.filestorageapi.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+@Component
+@ConfigurationProperties(prefix = "cloud.storage.transfer")
+@Data
+public class TransferProperties {
+    //Objects the async client writes are sent as parallel parts from this size on instead of a single PUT
+    private DataSize threshold = DataSize.ofMegabytes(64);
+    private DataSize partSize = DataSize.ofMegabytes(16);
+    //Connections the async client may open across all transfers
+    private int maxConcurrency = 64;
+
+    public long getPartSizeInBytes(){
+        return Math.max(partSize.toBytes(), UploadProperties.MIN_PART_SIZE.toBytes());
+    }
+}
@@ -0,0 +1,32 @@
+package com.victor.filestorageapi.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+@Component
+@ConfigurationProperties(prefix = "cloud.storage.upload")
+@Data
+public class UploadProperties {
+    //S3 rejects multipart parts smaller than 5MB (except the last one)
+    public static final DataSize MIN_PART_SIZE = DataSize.ofMegabytes(5);
+    public static final DataSize MAX_PART_SIZE = DataSize.ofGigabytes(5);
+    public static final int MAX_PARTS = 10_000;
+
+    private DataSize partSize = DataSize.ofMegabytes(8);
+    private int maxInFlightParts = 4;
+    private int executorThreads = 16;
+    private Duration sessionExpiry = Duration.ofHours(24);
+
+    //Archive entries up to this size are buffered and uploaded concurrently, larger ones are streamed one at a time
+    private DataSize bulkBufferedEntrySize = DataSize.ofMegabytes(1);
+    private int bulkMaxInFlightEntries = 32;
+    private int bulkMaxEntries = 50_000;
+
+    public long getPartSizeInBytes(){
+        return Math.max(partSize.toBytes(), MIN_PART_SIZE.toBytes());
+    }
+}
@@ -0,0 +1,52 @@
+package com.victor.filestorageapi.controller;
+
+import com.victor.filestorageapi.mapper.UserFileMapper;
+import com.victor.filestorageapi.models.PresignedTransfer;
+import com.victor.filestorageapi.models.dtos.userfile.PresignedUrlResponseDto;
+import com.victor.filestorageapi.models.entities.UserPrincipal;
+import com.victor.filestorageapi.service.aws.FileDownloadService;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.util.UUID;
+
+@RestController
+@RequiredArgsConstructor
+@RequestMapping("api/v1/files")
+public class FileDownloadController {
+
+    private final FileDownloadService fileDownloadService;
+    private final UserFileMapper userFileMapper;
+
+    @GetMapping("/{fileId}/download-url")
+    @ResponseStatus(HttpStatus.OK)
+    public ResponseEntity<PresignedUrlResponseDto> getDownloadUrl(
+            @AuthenticationPrincipal UserPrincipal userPrincipal,
+            @PathVariable UUID fileId
+    ){
+        PresignedTransfer presignedTransfer = fileDownloadService.presignDownload(userPrincipal.getId(), fileId);
+        return ResponseEntity.ok(userFileMapper.mapPresignedTransferToResponse(presignedTransfer));
+    }
+
+    /**
+     * Streams a file's bytes to the client. Supports single and multiple byte ranges through the Range header,
+     * so players can seek and interrupted downloads can resume. Files stored compressed are sent as they are to clients
+     * that accept the codec and decompressed on the fly for everyone else.
+     * */
+    @GetMapping("/{fileId}/content")
+    public void getFileContent(
+            @AuthenticationPrincipal UserPrincipal userPrincipal,
+            @PathVariable UUID fileId,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            HttpServletResponse response
+    ) throws IOException {
+        fileDownloadService.streamFile(userPrincipal.getId(), fileId, range, acceptEncoding, response);
+    }
+}
@@ -1,28 +1,136 @@
 package com.victor.filestorageapi.controller;
 
+import com.victor.filestorageapi.exception.UserFileUploadException;
+import com.victor.filestorageapi.mapper.UserFileMapper;
+import com.victor.filestorageapi.models.BulkUploadResult;
+import com.victor.filestorageapi.models.PresignedTransfer;
+import com.victor.filestorageapi.models.dtos.userfile.BulkUploadResponseDto;
+import com.victor.filestorageapi.models.dtos.userfile.PresignedUploadCommitRequestDto;
+import com.victor.filestorageapi.models.dtos.userfile.PresignedUploadRequestDto;
+import com.victor.filestorageapi.models.dtos.userfile.PresignedUrlResponseDto;
+import com.victor.filestorageapi.models.dtos.userfile.UserFileResponseDto;
+import com.victor.filestorageapi.models.entities.UserFile;
 import com.victor.filestorageapi.models.entities.UserPrincipal;
+import com.victor.filestorageapi.service.aws.BulkUploadService;
+import com.victor.filestorageapi.service.aws.FileUploadService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
-import org.springframework.web.bind.annotation.PostMapping;
-import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.RequestParam;
-import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.List;
+import java.util.UUID;
+
 @RestController
 @RequiredArgsConstructor
 @RequestMapping("api/v1/files")
 public class FileUploadController {
 
+    private final FileUploadService fileUploadService;
+    private final BulkUploadService bulkUploadService;
+    private final UserFileMapper userFileMapper;
+
+    /**
+     * Uploads a file from the raw request body. The body is streamed straight to S3, so it is never spooled
+     * into memory or a temp file the way a multipart request would be.
+     * Sending the file's SHA-256 in the X-Content-SHA256 header lets the upload skip the body if the content is already stored.
+     * */
     @PostMapping("/upload")
-    public ResponseEntity<String> uploadFile(
+    @ResponseStatus(HttpStatus.CREATED)
+    public ResponseEntity<UserFileResponseDto> uploadFile(
+            @AuthenticationPrincipal UserPrincipal userPrincipal,
+            @RequestParam String fileName,
+            @RequestParam(required = false) UUID folderId,
+            @RequestHeader(value = HttpHeaders.CONTENT_TYPE, required = false) String contentType,
+            @RequestHeader(value = "X-Content-SHA256", required = false) String contentSha256,
+            HttpServletRequest request
+            ) throws IOException {
+        if (contentType != null && contentType.toLowerCase().startsWith("multipart/")) {
+            throw new UserFileUploadException("Multipart bodies are not supported. Send the file's bytes as the request body.");
+        }
+
+        try (InputStream inputStream = request.getInputStream()) {
+            UserFile userFile = fileUploadService.uploadFile(userPrincipal.getId(), folderId, fileName, contentType, contentSha256, inputStream);
+            var response = userFileMapper.mapUserFileToResponse(userFile);
+            URI uri = URI.create("/api/v1/files/" + userFile.getId());
+            return ResponseEntity.created(uri).body(response);
+        }
+    }
+
+    /**
+     * Issues a presigned URL the client PUTs the file's bytes to, so the bytes never pass through this API.
+     * The client must send the returned headers with the PUT, then call the commit endpoint to record the file.
+     * */
+    @PostMapping("/presigned-uploads")
+    @ResponseStatus(HttpStatus.OK)
+    public ResponseEntity<PresignedUrlResponseDto> presignUpload(
+            @AuthenticationPrincipal UserPrincipal userPrincipal,
+            @Valid @RequestBody PresignedUploadRequestDto requestDto
+    ){
+        PresignedTransfer presignedTransfer = fileUploadService.presignUpload(userPrincipal.getId(),
+                requestDto.folderId(),
+                requestDto.fileName(),
+                requestDto.contentType());
+        return ResponseEntity.ok(userFileMapper.mapPresignedTransferToResponse(presignedTransfer));
+    }
+
+    @PostMapping("/presigned-uploads/commit")
+    @ResponseStatus(HttpStatus.CREATED)
+    public ResponseEntity<UserFileResponseDto> commitPresignedUpload(
             @AuthenticationPrincipal UserPrincipal userPrincipal,
-            @RequestParam MultipartFile fileToUpload
-            ){
-        String fileName = fileToUpload.getName();
-        Long fileSize = fileToUpload.getSize();
-        String contentType = fileToUpload.getContentType();
+            @Valid @RequestBody PresignedUploadCommitRequestDto requestDto
+    ){
+        UserFile userFile = fileUploadService.commitPresignedUpload(userPrincipal.getId(),
+                requestDto.folderId(),
+                requestDto.fileName(),
+                requestDto.versionId());
+        var response = userFileMapper.mapUserFileToResponse(userFile);
+        URI uri = URI.create("/api/v1/files/" + userFile.getId());
+        return ResponseEntity.created(uri).body(response);
+    }
 
+    /**
+     * Unpacks a zip, tar or gzipped tar request body into a folder, creating the folders inside the archive as needed.
+     * The archive is unpacked while it streams in, so uploading a whole source tree takes one request.
+     * */
+    @PostMapping(value = "/bulk-uploads", consumes = {
+            "application/zip", "application/x-zip-compressed",
+            "application/x-tar", "application/tar",
+            "application/gzip", "application/x-gzip", "application/x-gtar", "application/x-compressed-tar"
+    })
+    @ResponseStatus(HttpStatus.CREATED)
+    public ResponseEntity<BulkUploadResponseDto> uploadArchive(
+            @AuthenticationPrincipal UserPrincipal userPrincipal,
+            @RequestParam(required = false) UUID folderId,
+            @RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+            HttpServletRequest request
+    ) throws IOException {
+        try (InputStream inputStream = request.getInputStream()) {
+            BulkUploadResult bulkUploadResult = bulkUploadService.uploadArchive(userPrincipal.getId(), folderId, contentType, inputStream);
+            return ResponseEntity.status(HttpStatus.CREATED).body(userFileMapper.mapBulkUploadResultToResponse(bulkUploadResult));
+        }
+    }
+
+    /**
+     * Uploads many files in one multipart request. File names may be relative paths, as sent by directory uploads.
+     * */
+    @PostMapping(value = "/bulk-uploads", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    @ResponseStatus(HttpStatus.CREATED)
+    public ResponseEntity<BulkUploadResponseDto> uploadFiles(
+            @AuthenticationPrincipal UserPrincipal userPrincipal,
+            @RequestParam(required = false) UUID folderId,
+            @RequestParam("files") List<MultipartFile> files
+    ){
+        BulkUploadResult bulkUploadResult = bulkUploadService.uploadFiles(userPrincipal.getId(), folderId, files);
+        return ResponseEntity.status(HttpStatus.CREATED).body(userFileMapper.mapBulkUploadResultToResponse(bulkUploadResult));
     }
 }
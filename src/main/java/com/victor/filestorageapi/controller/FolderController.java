@@ -6,10 +6,12 @@ import com.victor.filestorageapi.models.dtos.userfolder.UserFolderCreateRequestD
 import com.victor.filestorageapi.models.dtos.userfolder.UserFolderResponseDto;
 import com.victor.filestorageapi.models.entities.UserFolder;
 import com.victor.filestorageapi.models.entities.UserPrincipal;
+import com.victor.filestorageapi.service.aws.FolderArchiveService;
 import com.victor.filestorageapi.service.folder.UserFolderCreationService;
 import com.victor.filestorageapi.service.folder.UserFolderDeleteService;
 import com.victor.filestorageapi.service.folder.UserFolderMoveService;
 import com.victor.filestorageapi.service.snapshots.UserFolderSnapshotRestoreService;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
@@ -17,6 +19,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
 import java.net.URI;
 import java.util.UUID;
 
@@ -29,6 +32,7 @@ public class FolderController {
     private final UserFolderMoveService userFolderMoveService;
     private final UserFolderSnapshotRestoreService userFolderSnapshotRestoreService;
     private final UserFolderMapper userFolderMapper;
+    private final FolderArchiveService folderArchiveService;
 
 
     @PostMapping("/root")
@@ -78,4 +82,17 @@ public class FolderController {
                 requestDto.newParentFolderId());
         return ResponseEntity.ok().build();
     }
+
+    /**
+     * Streams a ZIP of the folder and everything under it. The archive is built while it is sent, so there is no
+     * Content-Length and the download starts right away.
+     * */
+    @GetMapping("/{folderId}/archive")
+    public void downloadFolderArchive(
+            @AuthenticationPrincipal UserPrincipal userPrincipal,
+            @PathVariable UUID folderId,
+            HttpServletResponse response
+    ) throws IOException {
+        folderArchiveService.streamFolderArchive(userPrincipal.getId(), folderId, response);
+    }
 }
@@ -0,0 +1,110 @@
+package com.victor.filestorageapi.controller;
+
+import com.victor.filestorageapi.exception.UploadSessionException;
+import com.victor.filestorageapi.mapper.UploadSessionMapper;
+import com.victor.filestorageapi.mapper.UserFileMapper;
+import com.victor.filestorageapi.models.dtos.upload.UploadPartResponseDto;
+import com.victor.filestorageapi.models.dtos.upload.UploadSessionCreateRequestDto;
+import com.victor.filestorageapi.models.dtos.upload.UploadSessionResponseDto;
+import com.victor.filestorageapi.models.dtos.userfile.UserFileResponseDto;
+import com.victor.filestorageapi.models.entities.UploadSession;
+import com.victor.filestorageapi.models.entities.UserFile;
+import com.victor.filestorageapi.models.entities.UserPrincipal;
+import com.victor.filestorageapi.service.upload.UploadSessionService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.validation.Valid;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Set;
+import java.util.UUID;
+
+@RestController
+@RequiredArgsConstructor
+@RequestMapping("/api/v1/uploads/sessions")
+public class UploadSessionController {
+
+    private final UploadSessionService uploadSessionService;
+    private final UploadSessionMapper uploadSessionMapper;
+    private final UserFileMapper userFileMapper;
+
+    @PostMapping
+    @ResponseStatus(HttpStatus.CREATED)
+    public ResponseEntity<UploadSessionResponseDto> createSession(
+            @AuthenticationPrincipal UserPrincipal userPrincipal,
+            @Valid @RequestBody UploadSessionCreateRequestDto requestDto
+    ){
+        UploadSession uploadSession = uploadSessionService.createSession(userPrincipal.getId(),
+                requestDto.folderId(),
+                requestDto.fileName(),
+                requestDto.contentType(),
+                requestDto.totalSize(),
+                requestDto.partSize());
+        var response = uploadSessionMapper.mapUploadSessionToResponse(uploadSession, Set.of());
+        URI uri = URI.create("/api/v1/uploads/sessions/" + uploadSession.getId());
+        return ResponseEntity.created(uri).body(response);
+    }
+
+    /**
+     * Uploads one part of a session from the raw request body. The body must have a Content-Length since every part
+     * is checked against the size the session expects before it is streamed to S3.
+     * */
+    @PutMapping("/{sessionId}/parts/{partNumber}")
+    @ResponseStatus(HttpStatus.OK)
+    public ResponseEntity<UploadPartResponseDto> uploadPart(
+            @AuthenticationPrincipal UserPrincipal userPrincipal,
+            @PathVariable UUID sessionId,
+            @PathVariable int partNumber,
+            HttpServletRequest request
+    ) throws IOException {
+        long contentLength = request.getContentLengthLong();
+        if (contentLength < 0) {
+            throw new UploadSessionException("Parts must be sent with a Content-Length header.");
+        }
+
+        try (InputStream inputStream = request.getInputStream()) {
+            CompletedPart completedPart = uploadSessionService.uploadPart(userPrincipal.getId(), sessionId, partNumber, contentLength, inputStream);
+            return ResponseEntity.ok(new UploadPartResponseDto(completedPart.partNumber(), completedPart.eTag()));
+        }
+    }
+
+    @GetMapping("/{sessionId}")
+    @ResponseStatus(HttpStatus.OK)
+    public ResponseEntity<UploadSessionResponseDto> getSession(
+            @AuthenticationPrincipal UserPrincipal userPrincipal,
+            @PathVariable UUID sessionId
+    ){
+        UploadSession uploadSession = uploadSessionService.findSession(userPrincipal.getId(), sessionId);
+        Set<Integer> uploadedParts = uploadSessionService.findUploadedPartNumbers(uploadSession);
+        return ResponseEntity.ok(uploadSessionMapper.mapUploadSessionToResponse(uploadSession, uploadedParts));
+    }
+
+    @PostMapping("/{sessionId}/commit")
+    @ResponseStatus(HttpStatus.CREATED)
+    public ResponseEntity<UserFileResponseDto> commitSession(
+            @AuthenticationPrincipal UserPrincipal userPrincipal,
+            @PathVariable UUID sessionId
+    ){
+        UserFile userFile = uploadSessionService.commitSession(userPrincipal.getId(), sessionId);
+        var response = userFileMapper.mapUserFileToResponse(userFile);
+        URI uri = URI.create("/api/v1/files/" + userFile.getId());
+        return ResponseEntity.created(uri).body(response);
+    }
+
+    @DeleteMapping("/{sessionId}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public ResponseEntity<Void> abortSession(
+            @AuthenticationPrincipal UserPrincipal userPrincipal,
+            @PathVariable UUID sessionId
+    ){
+        uploadSessionService.abortSession(userPrincipal.getId(), sessionId);
+        return ResponseEntity.noContent().build();
+    }
+}
@@ -2,7 +2,10 @@ package com.victor.filestorageapi.controlleradvice;
 
 import com.victor.filestorageapi.models.dtos.ApiError;
 import com.victor.filestorageapi.exception.*;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.CannotCreateTransactionException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 
@@ -94,4 +97,56 @@ public class GlobalExceptionHandler {
         ApiError apiError = new ApiError(500, ex.getMessage(), LocalDateTime.now());
         return ResponseEntity.status(500).body(apiError);
     }
+
+    @ExceptionHandler(UserFileUploadException.class)
+    public ResponseEntity<ApiError> handleUserFileUploadException(UserFileUploadException ex){
+        ApiError apiError = new ApiError(500, ex.getMessage(), LocalDateTime.now());
+        return ResponseEntity.status(500).body(apiError);
+    }
+
+    @ExceptionHandler(NoSuchUploadSessionException.class)
+    public ResponseEntity<ApiError> handleNoSuchUploadSessionException(NoSuchUploadSessionException ex){
+        ApiError apiError = new ApiError(404, ex.getMessage(), LocalDateTime.now());
+        return ResponseEntity.status(404).body(apiError);
+    }
+
+    @ExceptionHandler(UploadSessionException.class)
+    public ResponseEntity<ApiError> handleUploadSessionException(UploadSessionException ex){
+        ApiError apiError = new ApiError(409, ex.getMessage(), LocalDateTime.now());
+        return ResponseEntity.status(409).body(apiError);
+    }
+
+    @ExceptionHandler(InvalidRangeException.class)
+    public ResponseEntity<ApiError> handleInvalidRangeException(InvalidRangeException ex){
+        ApiError apiError = new ApiError(416, ex.getMessage(), LocalDateTime.now());
+        return ResponseEntity.status(416)
+                .header(HttpHeaders.CONTENT_RANGE, "bytes */" + ex.getResourceSize())
+                .body(apiError);
+    }
+
+    @ExceptionHandler(InvalidArchiveException.class)
+    public ResponseEntity<ApiError> handleInvalidArchiveException(InvalidArchiveException ex){
+        ApiError apiError = new ApiError(400, ex.getMessage(), LocalDateTime.now());
+        return ResponseEntity.status(400).body(apiError);
+    }
+
+    @ExceptionHandler(StorageUnavailableException.class)
+    public ResponseEntity<ApiError> handleStorageUnavailableException(StorageUnavailableException ex){
+        ApiError apiError = new ApiError(503, ex.getMessage(), LocalDateTime.now());
+        return ResponseEntity.status(503).header(HttpHeaders.RETRY_AFTER, "5").body(apiError);
+    }
+
+    //Raised for features only S3 offers, like presigned URLs, when objects are stored elsewhere
+    @ExceptionHandler(UnsupportedStorageOperationException.class)
+    public ResponseEntity<ApiError> handleUnsupportedStorageOperationException(UnsupportedStorageOperationException ex){
+        ApiError apiError = new ApiError(501, ex.getMessage(), LocalDateTime.now());
+        return ResponseEntity.status(501).body(apiError);
+    }
+
+    //Raised once no database connection frees up within the pool's connection timeout
+    @ExceptionHandler({CannotCreateTransactionException.class, DataAccessResourceFailureException.class})
+    public ResponseEntity<ApiError> handleDatabaseUnavailableException(RuntimeException ex){
+        ApiError apiError = new ApiError(503, "The database is temporarily unavailable. Please try again later.", LocalDateTime.now());
+        return ResponseEntity.status(503).header(HttpHeaders.RETRY_AFTER, "5").body(apiError);
+    }
 }
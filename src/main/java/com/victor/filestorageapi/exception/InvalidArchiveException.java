@@ -0,0 +1,11 @@
+package com.victor.filestorageapi.exception;
+
+public class InvalidArchiveException extends RuntimeException {
+    public InvalidArchiveException(String message) {
+        super(message);
+    }
+
+    public InvalidArchiveException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
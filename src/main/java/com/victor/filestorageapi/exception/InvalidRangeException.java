@@ -0,0 +1,20 @@
+package com.victor.filestorageapi.exception;
+
+//Carries the size of the requested file so the 416 response can tell the client which ranges it may ask for
+public class InvalidRangeException extends RuntimeException {
+    private final long resourceSize;
+
+    public InvalidRangeException(String message, long resourceSize) {
+        super(message);
+        this.resourceSize = resourceSize;
+    }
+
+    public InvalidRangeException(String message, long resourceSize, Throwable cause) {
+        super(message, cause);
+        this.resourceSize = resourceSize;
+    }
+
+    public long getResourceSize() {
+        return resourceSize;
+    }
+}
@@ -0,0 +1,11 @@
+package com.victor.filestorageapi.exception;
+
+public class NoSuchUploadSessionException extends RuntimeException {
+    public NoSuchUploadSessionException(String message) {
+        super(message);
+    }
+
+    public NoSuchUploadSessionException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,11 @@
+package com.victor.filestorageapi.exception;
+
+public class StorageUnavailableException extends RuntimeException {
+    public StorageUnavailableException(String message) {
+        super(message);
+    }
+
+    public StorageUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
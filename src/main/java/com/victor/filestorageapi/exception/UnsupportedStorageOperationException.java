@@ -0,0 +1,7 @@
+package com.victor.filestorageapi.exception;
+
+public class UnsupportedStorageOperationException extends RuntimeException {
+    public UnsupportedStorageOperationException(String message) {
+        super(message);
+    }
+}
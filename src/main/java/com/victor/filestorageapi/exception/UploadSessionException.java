@@ -0,0 +1,11 @@
+package com.victor.filestorageapi.exception;
+
+public class UploadSessionException extends RuntimeException {
+    public UploadSessionException(String message) {
+        super(message);
+    }
+
+    public UploadSessionException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,11 @@
+package com.victor.filestorageapi.exception;
+
+public class UserFileUploadException extends RuntimeException {
+    public UserFileUploadException(String message) {
+        super(message);
+    }
+
+    public UserFileUploadException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
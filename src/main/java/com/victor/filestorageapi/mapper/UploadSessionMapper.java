@@ -0,0 +1,34 @@
+package com.victor.filestorageapi.mapper;
+
+import com.victor.filestorageapi.models.dtos.upload.UploadSessionResponseDto;
+import com.victor.filestorageapi.models.entities.UploadSession;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+@Service
+public class UploadSessionMapper {
+    public UploadSessionResponseDto mapUploadSessionToResponse(UploadSession uploadSession, Set<Integer> uploadedParts){
+        List<Integer> uploaded = uploadedParts.stream().sorted().toList();
+        List<Integer> missing = IntStream
+                .rangeClosed(1, uploadSession.getTotalParts())
+                .filter(partNumber -> !uploadedParts.contains(partNumber))
+                .boxed()
+                .toList();
+
+        return new UploadSessionResponseDto(
+                uploadSession.getId(),
+                uploadSession.getFileName(),
+                uploadSession.getS3Key(),
+                uploadSession.getTotalSize(),
+                uploadSession.getPartSize(),
+                uploadSession.getTotalParts(),
+                uploadSession.getStatus(),
+                uploaded,
+                missing,
+                uploadSession.getExpiresAt()
+        );
+    }
+}
@@ -0,0 +1,48 @@
+package com.victor.filestorageapi.mapper;
+
+import com.victor.filestorageapi.models.BulkUploadResult;
+import com.victor.filestorageapi.models.PresignedTransfer;
+import com.victor.filestorageapi.models.dtos.userfile.BulkUploadResponseDto;
+import com.victor.filestorageapi.models.dtos.userfile.PresignedUrlResponseDto;
+import com.victor.filestorageapi.models.dtos.userfile.UserFileResponseDto;
+import com.victor.filestorageapi.models.entities.UserFile;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+@Service
+public class UserFileMapper {
+    public UserFileResponseDto mapUserFileToResponse(UserFile userFile){
+        return new UserFileResponseDto(
+                userFile.getId(),
+                userFile.getFileName(),
+                userFile.getFilePath(),
+                userFile.getFileSize(),
+                userFile.getFileType(),
+                userFile.getCurrentVersion()
+        );
+    }
+
+    public PresignedUrlResponseDto mapPresignedTransferToResponse(PresignedTransfer presignedTransfer){
+        return new PresignedUrlResponseDto(
+                presignedTransfer.url(),
+                presignedTransfer.method(),
+                presignedTransfer.signedHeaders(),
+                presignedTransfer.s3Key(),
+                LocalDateTime.ofInstant(presignedTransfer.expiresAt(), ZoneId.systemDefault())
+        );
+    }
+
+    public BulkUploadResponseDto mapBulkUploadResultToResponse(BulkUploadResult bulkUploadResult){
+        return new BulkUploadResponseDto(
+                bulkUploadResult.files().size(),
+                bulkUploadResult.createdFolders(),
+                bulkUploadResult.skippedEntries(),
+                bulkUploadResult.files()
+                        .stream()
+                        .map(this::mapUserFileToResponse)
+                        .toList()
+        );
+    }
+}
@@ -0,0 +1,10 @@
+package com.victor.filestorageapi.models;
+
+import java.io.InputStream;
+
+/**
+ * An entry read from an uploaded archive. The content stream is only valid until the next entry is read.
+ * The size is -1 when the archive doesn't record it up front.
+ * */
+public record ArchiveEntry(String path, boolean directory, long size, InputStream content) {
+}
@@ -0,0 +1,12 @@
+package com.victor.filestorageapi.models;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of copying a batch of objects. A failed copy fails only itself, so both lists can hold entries.
+ *
+ * @param failed What each failed copy failed with, by source key.
+ * */
+public record BatchCopyResult(List<CopiedObject> copied, Map<String, Throwable> failed) {
+}
@@ -0,0 +1,8 @@
+package com.victor.filestorageapi.models;
+
+import com.victor.filestorageapi.models.entities.UserFile;
+
+import java.util.List;
+
+public record BulkUploadResult(List<UserFile> files, int createdFolders, List<String> skippedEntries) {
+}
@@ -0,0 +1,17 @@
+package com.victor.filestorageapi.models;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+
+/**
+ * An object version read from the local disk cache. The channel is already open, so the object stays readable
+ * even if it is evicted while it is being sent. The caller must close it.
+ * */
+public record CachedObject(FileChannel channel, long size, String eTag, String contentType, Map<String, String> metadata) implements Closeable {
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,7 @@
+package com.victor.filestorageapi.models;
+
+/**
+ * An object version that has been copied, with the version the copy was written as.
+ * */
+public record CopiedObject(String sourceKey, String sourceVersionId, String targetKey, String targetVersionId) {
+}
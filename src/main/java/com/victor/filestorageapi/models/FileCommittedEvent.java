@@ -0,0 +1,11 @@
+package com.victor.filestorageapi.models;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Published when the content of one or more user files has been recorded, so it can be processed once the
+ * transaction that recorded it commits.
+ * */
+public record FileCommittedEvent(List<UUID> fileIds) {
+}
@@ -0,0 +1,23 @@
+package com.victor.filestorageapi.models;
+
+import com.victor.filestorageapi.models.enums.FileProcessingStatus;
+
+import java.util.UUID;
+
+/**
+ * What processing found out about a file's content. The blob ID and version identify the content that was read,
+ * so results for content that has since been overwritten can be told apart and dropped.
+ * */
+public record FileProcessingResult(UUID fileId,
+                                   UUID blobId,
+                                   String currentVersion,
+                                   FileProcessingStatus status,
+                                   String sha256,
+                                   String detectedContentType,
+                                   Integer imageWidth,
+                                   Integer imageHeight) {
+
+    public static FileProcessingResult failed(UUID fileId, UUID blobId, String currentVersion) {
+        return new FileProcessingResult(fileId, blobId, currentVersion, FileProcessingStatus.FAILED, null, null, null, null);
+    }
+}
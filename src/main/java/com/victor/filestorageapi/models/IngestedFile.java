@@ -0,0 +1,9 @@
+package com.victor.filestorageapi.models;
+
+import com.victor.filestorageapi.models.entities.FileBlob;
+
+/**
+ * A file from a bulk upload whose content has been stored as a blob but which is not recorded in the DB yet.
+ * */
+public record IngestedFile(String folderPath, String filePath, String fileName, String contentType, FileBlob blob) {
+}
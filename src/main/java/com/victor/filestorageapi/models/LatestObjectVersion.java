@@ -0,0 +1,9 @@
+package com.victor.filestorageapi.models;
+
+import java.time.Instant;
+
+/**
+ * The latest version of a key as a version listing describes it, so no request per key is needed.
+ * */
+public record LatestObjectVersion(String s3Key, String versionId, long size, String eTag, Instant lastModified) {
+}
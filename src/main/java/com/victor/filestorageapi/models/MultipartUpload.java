@@ -0,0 +1,8 @@
+package com.victor.filestorageapi.models;
+
+/**
+ * A multipart upload in progress. The bucket is resolved once when the upload is created, every later call goes to
+ * that bucket, so a shard moving while the upload runs can't split its parts across buckets.
+ * */
+public record MultipartUpload(String bucketName, String s3Key, String uploadId) {
+}
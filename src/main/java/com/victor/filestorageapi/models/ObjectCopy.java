@@ -0,0 +1,11 @@
+package com.victor.filestorageapi.models;
+
+/**
+ * A copy of one object version to another key.
+ *
+ * @param sourceVersionId The version to copy, the latest version is copied when null.
+ * @param sourceSizeHint The size the caller already knows the source to have, or null if it doesn't. Sources known
+ *                       to be small are copied without asking S3 for their size first.
+ * */
+public record ObjectCopy(String sourceKey, String sourceVersionId, String targetKey, Long sourceSizeHint) {
+}
@@ -0,0 +1,7 @@
+package com.victor.filestorageapi.models;
+
+/**
+ * The metadata of an object version that callers need without reading its bytes.
+ * */
+public record ObjectMetadata(String s3Key, String versionId, String contentType, long size, String eTag) {
+}
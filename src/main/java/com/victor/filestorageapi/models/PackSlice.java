@@ -0,0 +1,9 @@
+package com.victor.filestorageapi.models;
+
+import com.victor.filestorageapi.models.entities.PackObject;
+
+/**
+ * Where a piece of content was written inside a pack object.
+ * */
+public record PackSlice(PackObject pack, long offset, long length) {
+}
@@ -0,0 +1,11 @@
+package com.victor.filestorageapi.models;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A presigned request a client can send straight to the object store, along with the headers it must send with it.
+ * */
+public record PresignedTransfer(String s3Key, String url, String method, Map<String, List<String>> signedHeaders, Instant expiresAt) {
+}
@@ -0,0 +1,7 @@
+package com.victor.filestorageapi.models;
+
+/**
+ * Describes an object version that has been durably written to the object store.
+ * */
+public record StoredObject(String s3Key, String versionId, long size, String eTag) {
+}
@@ -1,6 +1,5 @@
 package com.victor.filestorageapi.models.constants;
 
 public class S3Constant {
-    public final static String bucket_name = "my-local-bucket";
     public final static Long batch_size = 1000L;
 }
@@ -0,0 +1,4 @@
+package com.victor.filestorageapi.models.dtos.upload;
+
+public record UploadPartResponseDto(Integer partNumber, String eTag) {
+}
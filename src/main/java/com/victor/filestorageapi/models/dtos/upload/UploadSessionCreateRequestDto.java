@@ -0,0 +1,18 @@
+package com.victor.filestorageapi.models.dtos.upload;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+
+import java.util.UUID;
+
+public record UploadSessionCreateRequestDto(
+        @NotEmpty(message = "File name must not be empty")
+        String fileName,
+        UUID folderId,
+        String contentType,
+        @NotNull(message = "Total size must not be null")
+        @Positive(message = "Total size must be greater than zero")
+        Long totalSize,
+        Long partSize) {
+}
@@ -0,0 +1,21 @@
+package com.victor.filestorageapi.models.dtos.upload;
+
+import com.victor.filestorageapi.models.enums.UploadSessionStatus;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+public record UploadSessionResponseDto(
+        UUID sessionId,
+        String fileName,
+        String filePath,
+        Long totalSize,
+        Long partSize,
+        Integer totalParts,
+        UploadSessionStatus status,
+        List<Integer> uploadedParts,
+        List<Integer> missingParts,
+        LocalDateTime expiresAt
+) {
+}
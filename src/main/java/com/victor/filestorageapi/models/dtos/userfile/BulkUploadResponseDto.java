@@ -0,0 +1,8 @@
+package com.victor.filestorageapi.models.dtos.userfile;
+
+import java.util.List;
+
+public record BulkUploadResponseDto(
+        Integer uploadedFiles, Integer createdFolders, List<String> skippedEntries, List<UserFileResponseDto> files
+) {
+}
@@ -0,0 +1,12 @@
+package com.victor.filestorageapi.models.dtos.userfile;
+
+import jakarta.validation.constraints.NotEmpty;
+
+import java.util.UUID;
+
+public record PresignedUploadCommitRequestDto(
+        @NotEmpty(message = "File name must not be empty")
+        String fileName,
+        UUID folderId,
+        String versionId) {
+}
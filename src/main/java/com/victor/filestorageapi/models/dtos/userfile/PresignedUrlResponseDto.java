@@ -0,0 +1,10 @@
+package com.victor.filestorageapi.models.dtos.userfile;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+public record PresignedUrlResponseDto(
+        String url, String method, Map<String, List<String>> headers, String filePath, LocalDateTime expiresAt
+) {
+}
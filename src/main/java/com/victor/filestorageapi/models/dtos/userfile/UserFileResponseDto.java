@@ -0,0 +1,8 @@
+package com.victor.filestorageapi.models.dtos.userfile;
+
+import java.util.UUID;
+
+public record UserFileResponseDto(
+        UUID fileId, String fileName, String filePath, Long fileSize, String fileType, String currentVersion
+) {
+}
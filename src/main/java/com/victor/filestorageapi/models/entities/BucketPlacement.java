@@ -0,0 +1,35 @@
+package com.victor.filestorageapi.models.entities;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Records the bucket a shard's objects live in. A shard is a user's root folder, or a slice of an internal store
+ * like the blobs. The placement is recorded the first time the shard is used and only changes when the rebalancer
+ * has moved the shard's objects, so adding a bucket never strands objects written before it.
+ * */
+@Entity
+@Table(name = "bucket_placement")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class BucketPlacement {
+
+    @Id
+    @Column(length = 512)
+    private String shardKey;
+
+    @Column(nullable = false)
+    private String bucketName;
+
+    @Column(updatable = false)
+    private LocalDateTime createdAt;
+
+    private LocalDateTime updatedAt;
+}
@@ -0,0 +1,58 @@
+package com.victor.filestorageapi.models.entities;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * A distinct piece of content stored once under a content addressed key.
+ * User files point at a blob instead of owning an object, the blob is garbage collected once no file references it.
+ * Small blobs live at an offset inside a shared pack object instead of in an object of their own.
+ * */
+@Entity
+@Table(name = "file_blob")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class FileBlob {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private UUID id;
+
+    @Column(nullable = false, unique = true, length = 64)
+    private String sha256;
+
+    @Column(nullable = false, length = 1024)
+    private String s3Key;
+
+    private String versionId;
+
+    @Column(nullable = false)
+    private Long size;
+
+    @Column(nullable = false)
+    private Long refCount;
+
+    //Set for small blobs stored inside a pack, the key and version ID then point at the pack object
+    @ManyToOne
+    @JoinColumn(name = "pack_id")
+    private PackObject pack;
+
+    private Long packOffset;
+
+    @Column(updatable = false)
+    private LocalDateTime createdAt;
+
+    private LocalDateTime updatedAt;
+
+    public boolean isPacked(){
+        return pack != null;
+    }
+}
@@ -0,0 +1,47 @@
+package com.victor.filestorageapi.models.entities;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * An object holding the content of many small blobs back to back. Each packed blob records its offset into the pack
+ * and is read back with a ranged GET. Live bytes track how much of the pack is still referenced, so mostly dead packs
+ * can be compacted.
+ * */
+@Entity
+@Table(name = "pack_object")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class PackObject {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private UUID id;
+
+    @Column(nullable = false, unique = true, length = 1024)
+    private String s3Key;
+
+    private String versionId;
+
+    @Column(nullable = false)
+    private Long size;
+
+    @Column(nullable = false)
+    private Long liveBytes;
+
+    @Column(updatable = false)
+    private LocalDateTime createdAt;
+
+    private LocalDateTime updatedAt;
+
+    //Set once the pack has been compacted, its object is deleted after a grace period
+    private LocalDateTime retiredAt;
+}
@@ -0,0 +1,79 @@
+package com.victor.filestorageapi.models.entities;
+
+import com.victor.filestorageapi.models.MultipartUpload;
+import com.victor.filestorageapi.models.enums.UploadSessionStatus;
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+@Entity
+@Table(name = "upload_session")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class UploadSession {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private UUID id;
+
+    @Column(nullable = false)
+    private String fileName;
+
+    @Column(nullable = false, length = 1024)
+    private String s3Key;
+
+    @Column(nullable = false, length = 1024)
+    private String s3UploadId;
+
+    //The bucket the multipart upload was created in, its parts and completion must go to the same one
+    @Column(nullable = false)
+    private String bucketName;
+
+    private String contentType;
+
+    @Column(nullable = false)
+    private Long totalSize;
+
+    @Column(nullable = false)
+    private Long partSize;
+
+    @Column(nullable = false)
+    private Integer totalParts;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private UploadSessionStatus status;
+
+    @Column(updatable = false)
+    private LocalDateTime createdAt;
+
+    private LocalDateTime expiresAt;
+
+    private LocalDateTime completedAt;
+
+    @ManyToOne
+    @JoinColumn(name = "folder_id")
+    @ToString.Exclude
+    private UserFolder userFolder;
+
+    @ManyToOne(optional = false)
+    @JoinColumn(name = "user_id")
+    @ToString.Exclude
+    private User user;
+
+    public MultipartUpload multipartUpload(){
+        return new MultipartUpload(bucketName, s3Key, s3UploadId);
+    }
+
+    //Every part except the last one has exactly the session's part size
+    public long expectedPartSize(int partNumber){
+        if(partNumber < totalParts){
+            return partSize;
+        }
+        return totalSize - (partSize * (totalParts - 1));
+    }
+}
@@ -1,5 +1,6 @@
 package com.victor.filestorageapi.models.entities;
 
+import com.victor.filestorageapi.models.enums.FileProcessingStatus;
 import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -47,4 +48,40 @@ public class UserFile {
     @JoinColumn(name = "user_id")
     private User user;
 
+    //Set when the file's content is stored as a deduplicated blob instead of an object at the file's path
+    @ManyToOne
+    @JoinColumn(name = "blob_id")
+    private FileBlob blob;
+
+    //Filled in by the post upload processing, which runs after the file has been recorded
+    @Enumerated(EnumType.STRING)
+    private FileProcessingStatus processingStatus;
+
+    @Column(length = 64)
+    private String contentSha256;
+
+    private String detectedContentType;
+
+    private Integer imageWidth;
+
+    private Integer imageHeight;
+
+    private LocalDateTime processedAt;
+
+    public String resolveObjectKey(){
+        return blob != null ? blob.getS3Key() : filePath;
+    }
+
+    public String resolveObjectVersion(){
+        return blob != null ? blob.getVersionId() : currentVersion;
+    }
+
+    //Packed content is a byte range of its pack object, anything else is the whole object
+    public String resolveObjectRange(){
+        if (blob == null || !blob.isPacked()) {
+            return null;
+        }
+        return "bytes=" + blob.getPackOffset() + "-" + (blob.getPackOffset() + blob.getSize() - 1);
+    }
+
 }
@@ -18,7 +18,7 @@ public class UserFolderSnapshotFileEntry {
     @GeneratedValue(strategy = GenerationType.UUID)
     private UUID id;
 
-    @Column(nullable = false)
+    //Null for blob backed files, which have no object of their own
     private String s3VersionId;
 
     @Column(nullable = false)
@@ -40,6 +40,18 @@ public class UserFolderSnapshotFileEntry {
     @JoinColumn(name = "folder_snapshot", nullable = false)
     private UserFolderSnapshot userFolderSnapshot;
 
+    //Set for blob backed files, the snapshot holds a reference on the blob so its content outlives the file
+    @ManyToOne
+    @JoinColumn(name = "blob_id")
+    private FileBlob blob;
+
+    @Column(name = "blob_sha256", length = 64)
+    private String blobSha256;
+
+    public boolean isBlobBacked(){
+        return blob != null;
+    }
+
 
 
 }
@@ -0,0 +1,10 @@
+package com.victor.filestorageapi.models.enums;
+
+public enum ConsistencyMode {
+    //Trust the write response, S3 reads are consistent with every write that has returned
+    STRONG,
+    //Read every write back before returning
+    VERIFY,
+    //Read a sample of the writes back and count the ones that weren't visible yet
+    SAMPLED_VERIFY
+}
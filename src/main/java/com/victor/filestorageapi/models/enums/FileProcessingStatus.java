@@ -0,0 +1,8 @@
+package com.victor.filestorageapi.models.enums;
+
+public enum FileProcessingStatus {
+    PENDING,
+    PROCESSED,
+    CORRUPT,
+    FAILED
+}
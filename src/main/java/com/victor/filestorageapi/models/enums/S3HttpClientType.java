@@ -0,0 +1,10 @@
+package com.victor.filestorageapi.models.enums;
+
+public enum S3HttpClientType {
+    //Pooled blocking client, the SDK default
+    APACHE,
+    //JDK HttpURLConnection, starts fastest but relies on the JDK keep-alive cache instead of a managed pool
+    URL_CONNECTION,
+    //Native AWS Common Runtime client
+    CRT
+}
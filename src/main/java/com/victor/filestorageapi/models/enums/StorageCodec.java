@@ -0,0 +1,58 @@
+package com.victor.filestorageapi.models.enums;
+
+import lombok.Getter;
+
+import java.io.InputStream;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * How an object's bytes are encoded at rest. The name matches the HTTP content coding, so encoded bytes
+ * can be sent to clients that accept that coding as they are.
+ * */
+@Getter
+public enum StorageCodec {
+    IDENTITY("identity") {
+        @Override
+        public InputStream encode(InputStream inputStream) {
+            return inputStream;
+        }
+
+        @Override
+        public InputStream decode(InputStream inputStream) {
+            return inputStream;
+        }
+    },
+
+    //zlib wrapped deflate, which is what the HTTP "deflate" coding specifies
+    DEFLATE("deflate") {
+        @Override
+        public InputStream encode(InputStream inputStream) {
+            return new DeflaterInputStream(inputStream);
+        }
+
+        @Override
+        public InputStream decode(InputStream inputStream) {
+            return new InflaterInputStream(inputStream);
+        }
+    };
+
+    private final String name;
+
+    StorageCodec(String name){
+        this.name = name;
+    }
+
+    public abstract InputStream encode(InputStream inputStream);
+
+    public abstract InputStream decode(InputStream inputStream);
+
+    public static StorageCodec fromName(String name){
+        for (StorageCodec codec : values()) {
+            if (codec.name.equalsIgnoreCase(name)) {
+                return codec;
+            }
+        }
+        return IDENTITY;
+    }
+}
@@ -0,0 +1,7 @@
+package com.victor.filestorageapi.models.enums;
+
+public enum UploadSessionStatus {
+    ACTIVE,
+    COMPLETED,
+    ABORTED
+}
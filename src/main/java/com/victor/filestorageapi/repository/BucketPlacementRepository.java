@@ -0,0 +1,7 @@
+package com.victor.filestorageapi.repository;
+
+import com.victor.filestorageapi.models.entities.BucketPlacement;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface BucketPlacementRepository extends JpaRepository<BucketPlacement, String> {
+}
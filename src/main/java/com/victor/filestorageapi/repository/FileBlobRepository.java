@@ -0,0 +1,52 @@
+package com.victor.filestorageapi.repository;
+
+import com.victor.filestorageapi.models.entities.FileBlob;
+import com.victor.filestorageapi.models.entities.PackObject;
+import jakarta.transaction.Transactional;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+public interface FileBlobRepository extends JpaRepository<FileBlob, UUID> {
+
+    Optional<FileBlob> findBySha256(String sha256);
+
+    List<FileBlob> findByRefCountAndUpdatedAtBefore(Long refCount, LocalDateTime updatedAt);
+
+    List<FileBlob> findByPack(PackObject pack);
+
+    //Reference counts are only ever changed with single statement updates so concurrent uploads can't lose an update
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE FileBlob b SET b.refCount = b.refCount + 1, b.updatedAt = :now WHERE b.sha256 = :sha256")
+    int incrementRefCount(@Param("sha256") String sha256, @Param("now") LocalDateTime now);
+
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE FileBlob b SET b.refCount = b.refCount - 1, b.updatedAt = :now WHERE b.id = :blobId AND b.refCount > 0")
+    int decrementRefCount(@Param("blobId") UUID blobId, @Param("now") LocalDateTime now);
+
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("DELETE FROM FileBlob b WHERE b.id = :blobId AND b.refCount = 0")
+    int deleteIfUnreferenced(@Param("blobId") UUID blobId);
+
+    //Moves a packed blob without loading it, so a blob collected concurrently is not written back
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE FileBlob b SET b.pack = :pack, b.packOffset = :packOffset, b.s3Key = :s3Key, b.versionId = :versionId WHERE b.id = :blobId")
+    int relocatePackedBlob(@Param("blobId") UUID blobId, @Param("pack") PackObject pack, @Param("packOffset") long packOffset,
+                           @Param("s3Key") String s3Key, @Param("versionId") String versionId);
+
+    //Version IDs change when a shard is moved to another bucket
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE FileBlob b SET b.versionId = :newVersionId WHERE b.s3Key = :s3Key AND b.versionId = :oldVersionId")
+    int remapVersionId(@Param("s3Key") String s3Key, @Param("oldVersionId") String oldVersionId, @Param("newVersionId") String newVersionId);
+}
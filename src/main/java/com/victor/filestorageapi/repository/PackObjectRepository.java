@@ -0,0 +1,30 @@
+package com.victor.filestorageapi.repository;
+
+import com.victor.filestorageapi.models.entities.PackObject;
+import jakarta.transaction.Transactional;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+public interface PackObjectRepository extends JpaRepository<PackObject, UUID> {
+
+    List<PackObject> findByRetiredAtBefore(LocalDateTime retiredAt);
+
+    @Query("SELECT p FROM PackObject p WHERE p.retiredAt IS NULL AND p.createdAt < :createdBefore AND p.liveBytes < p.size * :minLiveRatio")
+    List<PackObject> findCompactionCandidates(@Param("createdBefore") LocalDateTime createdBefore, @Param("minLiveRatio") double minLiveRatio);
+
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE PackObject p SET p.liveBytes = p.liveBytes - :bytes, p.updatedAt = :now WHERE p.id = :packId")
+    int decrementLiveBytes(@Param("packId") UUID packId, @Param("bytes") long bytes, @Param("now") LocalDateTime now);
+
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE PackObject p SET p.versionId = :newVersionId WHERE p.s3Key = :s3Key AND p.versionId = :oldVersionId")
+    int remapVersionId(@Param("s3Key") String s3Key, @Param("oldVersionId") String oldVersionId, @Param("newVersionId") String newVersionId);
+}
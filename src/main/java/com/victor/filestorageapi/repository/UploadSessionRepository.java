@@ -0,0 +1,19 @@
+package com.victor.filestorageapi.repository;
+
+import com.victor.filestorageapi.models.entities.UploadSession;
+import com.victor.filestorageapi.models.entities.User;
+import com.victor.filestorageapi.models.enums.UploadSessionStatus;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+public interface UploadSessionRepository extends JpaRepository<UploadSession, UUID> {
+    Optional<UploadSession> findByUserAndId(User user, UUID sessionId);
+
+    List<UploadSession> findByStatusAndExpiresAtBefore(UploadSessionStatus status, LocalDateTime expiresAt);
+
+    boolean existsByStatusAndS3KeyStartingWith(UploadSessionStatus status, String s3KeyPrefix);
+}
@@ -3,8 +3,16 @@ package com.victor.filestorageapi.repository;
 import com.victor.filestorageapi.models.entities.User;
 import com.victor.filestorageapi.models.entities.UserFile;
 import com.victor.filestorageapi.models.entities.UserFolder;
+import com.victor.filestorageapi.models.enums.FileProcessingStatus;
+import org.springframework.data.domain.Pageable;
+import jakarta.transaction.Transactional;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -13,6 +21,12 @@ public interface UserFileRepository extends JpaRepository<UserFile, UUID> {
 
     Optional<UserFile> findByUserAndFilePathAndIsDeletedFalse(User user, String filePath);
 
+    Optional<UserFile> findByUserAndIdAndIsDeletedFalse(User user, UUID fileId);
+
+    List<UserFile> findByUserAndFilePathInAndIsDeletedFalse(User user, Collection<String> filePaths);
+
+    boolean existsByUserAndBlobSha256(User user, String sha256);
+
 
 
     boolean existsByUserFolderAndFilePathAndIsDeletedFalse(UserFolder userFolder, String filePath);
@@ -23,4 +37,15 @@ public interface UserFileRepository extends JpaRepository<UserFile, UUID> {
     UserFile findByUserAndFilePathAndIsDeletedTrue(User user, String path);
 
     List<UserFile> findByUserAndFilePathStartingWithAndAndIsDeletedFalse(User user, String targetFolderPath);
+
+    //Files recorded before processing existed have no status yet and are processed like pending ones
+    @Query("SELECT f.id FROM UserFile f WHERE f.isDeleted = false AND (f.processingStatus IS NULL OR f.processingStatus = :status) " +
+            "AND (f.updatedAt IS NULL OR f.updatedAt < :updatedBefore) ORDER BY f.updatedAt")
+    List<UUID> findUnprocessedFileIds(@Param("status") FileProcessingStatus status, @Param("updatedBefore") LocalDateTime updatedBefore, Pageable pageable);
+
+    //Version IDs change when a shard is moved to another bucket
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE UserFile f SET f.currentVersion = :newVersionId WHERE f.filePath = :path AND f.currentVersion = :oldVersionId")
+    int remapVersionId(@Param("path") String path, @Param("oldVersionId") String oldVersionId, @Param("newVersionId") String newVersionId);
 }
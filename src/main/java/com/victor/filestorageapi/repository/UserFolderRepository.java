@@ -2,7 +2,9 @@ package com.victor.filestorageapi.repository;
 
 import com.victor.filestorageapi.models.entities.User;
 import com.victor.filestorageapi.models.entities.UserFolder;
+import jakarta.transaction.Transactional;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
@@ -26,4 +28,10 @@ public interface UserFolderRepository extends JpaRepository<UserFolder, UUID> {
 //    List<UserFolder> findAllActiveDescendantsAndSelf(@Param("user")User user, @Param("path") String folderPath);
 
     List<UserFolder> findByUserAndFolderPathStartingWithAndIsDeletedFalse(User user, String targetFolderPath);
+
+    //Version IDs change when a shard is moved to another bucket
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE UserFolder f SET f.currentVersion = :newVersionId WHERE f.folderPath = :path AND f.currentVersion = :oldVersionId")
+    int remapVersionId(@Param("path") String path, @Param("oldVersionId") String oldVersionId, @Param("newVersionId") String newVersionId);
 }
@@ -1,9 +1,18 @@
 package com.victor.filestorageapi.repository;
 
 import com.victor.filestorageapi.models.entities.UserFolderSnapshotFileEntry;
+import jakarta.transaction.Transactional;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import java.util.UUID;
 
 public interface UserFolderSnapshotFileEntryRepository extends JpaRepository<UserFolderSnapshotFileEntry, UUID> {
+
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE UserFolderSnapshotFileEntry e SET e.s3VersionId = :newVersionId WHERE e.s3Key = :s3Key AND e.s3VersionId = :oldVersionId")
+    int remapVersionId(@Param("s3Key") String s3Key, @Param("oldVersionId") String oldVersionId, @Param("newVersionId") String newVersionId);
 }
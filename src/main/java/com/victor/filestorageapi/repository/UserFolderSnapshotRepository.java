@@ -1,9 +1,18 @@
 package com.victor.filestorageapi.repository;
 
 import com.victor.filestorageapi.models.entities.UserFolderSnapshot;
+import jakarta.transaction.Transactional;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import java.util.UUID;
 
 public interface UserFolderSnapshotRepository extends JpaRepository<UserFolderSnapshot, UUID> {
+
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE UserFolderSnapshot s SET s.folderSnapShotVersionId = :newVersionId WHERE s.folderPath = :s3Key AND s.folderSnapShotVersionId = :oldVersionId")
+    int remapVersionId(@Param("s3Key") String s3Key, @Param("oldVersionId") String oldVersionId, @Param("newVersionId") String newVersionId);
 }
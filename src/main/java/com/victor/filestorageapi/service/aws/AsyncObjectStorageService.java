@@ -0,0 +1,14 @@
+package com.victor.filestorageapi.service.aws;
+
+import com.victor.filestorageapi.models.entities.User;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+
+import java.util.concurrent.CompletableFuture;
+
+public interface AsyncObjectStorageService {
+    CompletableFuture<String> createObject(User user, String newS3Key);
+    CompletableFuture<String> copyS3ObjectVersion(String newKey, String oldKey, String versionId, String contentType);
+    CompletableFuture<String> softDeleteObject(String s3Key);
+    CompletableFuture<Void> permanentDeleteObjectVersion(String s3Key, String s3VersionId);
+    CompletableFuture<HeadObjectResponse> headObjectVersion(String s3Key, String s3VersionId);
+}
@@ -0,0 +1,5 @@
+package com.victor.filestorageapi.service.aws;
+
+public interface BucketRebalanceService {
+    void rebalance();
+}
@@ -0,0 +1,11 @@
+package com.victor.filestorageapi.service.aws;
+
+import java.util.List;
+
+public interface BucketResolver {
+    String resolve(String s3Key);
+    String shardKeyOf(String s3Key);
+    String ringBucketFor(String shardKey);
+    List<String> getBuckets();
+    void updatePlacement(String shardKey, String bucketName);
+}
@@ -0,0 +1,13 @@
+package com.victor.filestorageapi.service.aws;
+
+import com.victor.filestorageapi.models.BulkUploadResult;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.UUID;
+
+public interface BulkUploadService {
+    BulkUploadResult uploadArchive(UUID userId, UUID folderId, String contentType, InputStream inputStream);
+    BulkUploadResult uploadFiles(UUID userId, UUID folderId, List<MultipartFile> files);
+}
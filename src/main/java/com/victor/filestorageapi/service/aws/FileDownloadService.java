@@ -0,0 +1,13 @@
+package com.victor.filestorageapi.service.aws;
+
+import com.victor.filestorageapi.models.PresignedTransfer;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+
+import java.util.UUID;
+
+public interface FileDownloadService {
+    PresignedTransfer presignDownload(UUID userId, UUID fileId);
+    void streamFile(UUID userId, UUID fileId, String rangeHeader, String acceptEncoding, HttpServletResponse response) throws IOException;
+}
@@ -1,9 +1,15 @@
 package com.victor.filestorageapi.service.aws;
 
-import org.springframework.security.core.userdetails.User;
+import com.victor.filestorageapi.models.PresignedTransfer;
+import com.victor.filestorageapi.models.entities.UserFile;
 import org.springframework.stereotype.Service;
 
+import java.io.InputStream;
+import java.util.UUID;
+
 @Service
 public interface FileUploadService {
-    String uploadFile(User user, String s3Key);
+    UserFile uploadFile(UUID userId, UUID folderId, String fileName, String contentType, String contentSha256, InputStream inputStream);
+    PresignedTransfer presignUpload(UUID userId, UUID folderId, String fileName, String contentType);
+    UserFile commitPresignedUpload(UUID userId, UUID folderId, String fileName, String versionId);
 }
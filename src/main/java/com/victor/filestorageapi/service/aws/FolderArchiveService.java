@@ -0,0 +1,10 @@
+package com.victor.filestorageapi.service.aws;
+
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.util.UUID;
+
+public interface FolderArchiveService {
+    void streamFolderArchive(UUID userId, UUID folderId, HttpServletResponse response) throws IOException;
+}
@@ -0,0 +1,18 @@
+package com.victor.filestorageapi.service.aws;
+
+import com.victor.filestorageapi.models.MultipartUpload;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.Part;
+
+import java.util.List;
+import java.util.Map;
+
+public interface MultipartUploadService {
+    MultipartUpload createMultipartUpload(String s3Key, String contentType, Map<String, String> metadata);
+    CompletedPart uploadPart(MultipartUpload multipartUpload, int partNumber, RequestBody requestBody);
+    List<Part> listParts(MultipartUpload multipartUpload);
+    CompleteMultipartUploadResponse completeMultipartUpload(MultipartUpload multipartUpload, List<CompletedPart> parts);
+    void abortMultipartUpload(MultipartUpload multipartUpload);
+}
@@ -0,0 +1,13 @@
+package com.victor.filestorageapi.service.aws;
+
+import com.victor.filestorageapi.models.CachedObject;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.util.Optional;
+
+public interface ObjectCacheService {
+    Optional<CachedObject> findCachedObject(String s3Key, String versionId);
+    Optional<CachedObject> readThrough(String s3Key, String versionId, long expectedSize);
+    ResponseInputStream<GetObjectResponse> openFillingStream(String s3Key, String versionId, long expectedSize);
+}
@@ -0,0 +1,13 @@
+package com.victor.filestorageapi.service.aws;
+
+import com.victor.filestorageapi.models.BatchCopyResult;
+import com.victor.filestorageapi.models.CopiedObject;
+import com.victor.filestorageapi.models.ObjectCopy;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public interface ObjectCopyService {
+    CompletableFuture<CopiedObject> copy(ObjectCopy objectCopy);
+    BatchCopyResult copyAll(List<ObjectCopy> objectCopies);
+}
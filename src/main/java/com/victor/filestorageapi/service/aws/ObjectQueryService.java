@@ -1,8 +1,20 @@
 package com.victor.filestorageapi.service.aws;
 
+import com.victor.filestorageapi.models.LatestObjectVersion;
+import com.victor.filestorageapi.models.ObjectMetadata;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+
+import java.util.List;
+
 public interface ObjectQueryService {
     public String getObjectVersionId(String key);
 
     String getObjectContentType(String key);
 
+    ObjectMetadata getObjectMetadata(String key);
+
+    HeadObjectResponse headObjectVersion(String key, String versionId);
+
+    List<LatestObjectVersion> listLatestVersions(String prefix);
+
 }
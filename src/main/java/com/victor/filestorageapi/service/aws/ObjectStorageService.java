@@ -1,12 +1,16 @@
 package com.victor.filestorageapi.service.aws;
 
+import com.victor.filestorageapi.models.StoredObject;
 import com.victor.filestorageapi.models.entities.User;
 import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
 import software.amazon.awssdk.services.s3.model.S3Object;
 
+import java.io.InputStream;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Service
 public interface ObjectStorageService {
@@ -14,9 +18,12 @@ public interface ObjectStorageService {
     String copyS3ObjectVersion(String newKey, String oldKey, String versionId, String contentType);
     String retrieveVersionedObject(String prefix, String versionForRetrieval);
     List<S3Object> listS3ObjectsByPrefix(String prefix);
+    Stream<S3Object> streamS3ObjectsByPrefix(String prefix);
 
-    void uploadFile(String prefix, MultipartFile file);
+    StoredObject uploadFile(User user, String s3Key, String contentType, InputStream inputStream);
+    StoredObject uploadInternalObject(String s3Key, String contentType, InputStream inputStream);
     void deleteFile(String path);
     Resource loadFile(String prefix);
+    ResponseInputStream<GetObjectResponse> openObjectStream(String s3Key, String versionId, String range);
 }
 
@@ -0,0 +1,11 @@
+package com.victor.filestorageapi.service.aws;
+
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+public interface PrefixListingService {
+    List<S3Object> listObjectsUnderPrefix(String prefix);
+    void forEachListedPart(String prefix, Consumer<List<S3Object>> partConsumer);
+}
@@ -0,0 +1,12 @@
+package com.victor.filestorageapi.service.aws;
+
+import com.victor.filestorageapi.models.enums.StorageCodec;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedPutObjectRequest;
+
+import java.util.Map;
+
+public interface PresignedUrlService {
+    PresignedPutObjectRequest presignPutObject(String s3Key, String contentType, Map<String, String> metadata);
+    PresignedGetObjectRequest presignGetObjectVersion(String s3Key, String versionId, String fileName, StorageCodec codec, String range);
+}
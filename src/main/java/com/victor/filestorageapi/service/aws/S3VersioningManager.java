@@ -4,8 +4,8 @@ import org.springframework.stereotype.Service;
 
 @Service
 public interface S3VersioningManager {
-    void enableVersioning();
-    void disableVersioning();
-    void configureVersioningLifeCycleRules();
+    void enableVersioning(String bucketName);
+    void disableVersioning(String bucketName);
+    void configureVersioningLifeCycleRules(String bucketName);
 
 }
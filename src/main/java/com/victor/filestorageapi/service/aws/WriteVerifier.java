@@ -0,0 +1,10 @@
+package com.victor.filestorageapi.service.aws;
+
+import java.util.concurrent.CompletableFuture;
+
+public interface WriteVerifier {
+    void verifyWritten(String operation, String s3Key, String versionId);
+    void verifyDeleted(String operation, String s3Key, String versionId);
+    CompletableFuture<Void> verifyWrittenAsync(String operation, String s3Key, String versionId);
+    CompletableFuture<Void> verifyDeletedAsync(String operation, String s3Key, String versionId);
+}
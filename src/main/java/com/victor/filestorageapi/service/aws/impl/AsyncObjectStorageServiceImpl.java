@@ -0,0 +1,174 @@
+package com.victor.filestorageapi.service.aws.impl;
+
+import com.victor.filestorageapi.exception.MyCustomS3Exception;
+import com.victor.filestorageapi.models.entities.User;
+import com.victor.filestorageapi.service.aws.AsyncObjectStorageService;
+import com.victor.filestorageapi.service.aws.BucketResolver;
+import com.victor.filestorageapi.service.aws.WriteVerifier;
+import com.victor.filestorageapi.service.utils.BoundedAsyncRunner;
+import com.victor.filestorageapi.service.utils.S3Utils;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non blocking variants of the object writes bulk operations issue by the hundred. Every call returns as soon as the
+ * request is sent, the response and any read back that follows it run on the async client's threads, so a
+ * caller can keep many requests in flight without holding a thread per request.
+ * Failures complete the returned future with a {@link MyCustomS3Exception}, like the blocking services throw.
+ * */
+@Service
+@Profile("!filesystem & !memory")
+@RequiredArgsConstructor
+@Slf4j
+public class AsyncObjectStorageServiceImpl implements AsyncObjectStorageService {
+
+    private final S3AsyncClient s3AsyncClient;
+    private final S3Utils s3Utils;
+    private final WriteVerifier writeVerifier;
+    private final BucketResolver bucketResolver;
+
+    /**
+     * Creates an empty folder-like object owned by the user.
+     *
+     * @return A future holding the version ID of the created object, once it has been verified as configured.
+     */
+    @Override
+    public CompletableFuture<String> createObject(User user, String newS3Key) {
+        log.debug("Attempting to create object '{}' for user '{}'.", newS3Key, user.getUsername());
+        PutObjectRequest putObjectRequest = PutObjectRequest
+                .builder()
+                .metadata(s3Utils.buildOwnerMetadata(user))
+                .bucket(bucketResolver.resolve(newS3Key))
+                .key(newS3Key)
+                .contentType("application/x-directory")
+                .contentLength(0L)
+                .build();
+
+        CompletableFuture<String> future = s3AsyncClient.putObject(putObjectRequest, AsyncRequestBody.empty())
+                .thenCompose(putResponse -> writeVerifier.verifyWrittenAsync("create", newS3Key, putResponse.versionId())
+                        .thenApply(verified -> putResponse.versionId()))
+                .thenApply(versionId -> {
+                    log.info("Successfully created object '{}' (Version ID: {}) for user '{}'.", newS3Key, versionId, user.getUsername());
+                    return versionId;
+                });
+        return translateFailure(future, "create", newS3Key, null);
+    }
+
+    /**
+     * Copies a version of an object to a new key.
+     *
+     * @param contentType The content type of the copy, folders are assumed when empty.
+     * @return A future holding the version ID of the copy, once it has been verified as configured.
+     */
+    @Override
+    public CompletableFuture<String> copyS3ObjectVersion(String newKey, String oldKey, String versionId, String contentType) {
+        log.debug("Attempting to copy object from '{}' (Version ID: '{}') to '{}'.", oldKey, versionId, newKey);
+        CopyObjectRequest copyObjectRequest = CopyObjectRequest
+                .builder()
+                .sourceBucket(bucketResolver.resolve(oldKey))
+                .destinationBucket(bucketResolver.resolve(newKey))
+                .sourceKey(oldKey)
+                .sourceVersionId(versionId)
+                .destinationKey(newKey)
+                .contentType(contentType == null || contentType.isEmpty() ? "application/x-directory" : contentType)
+                .build();
+
+        CompletableFuture<String> future = s3AsyncClient.copyObject(copyObjectRequest)
+                .thenCompose(copyResponse -> writeVerifier.verifyWrittenAsync("copy", newKey, copyResponse.versionId())
+                        .thenApply(verified -> copyResponse.versionId()))
+                .thenApply(newVersionId -> {
+                    log.info("Successfully copied object from '{}' to '{}' (New Object Version ID: '{}').", oldKey, newKey, newVersionId);
+                    return newVersionId;
+                });
+        return translateFailure(future, "copy", oldKey, versionId);
+    }
+
+    /**
+     * Puts a delete marker on an object, keeping its previous versions.
+     *
+     * @return A future holding the version ID of the delete marker, once the delete has been verified as configured.
+     */
+    @Override
+    public CompletableFuture<String> softDeleteObject(String s3Key) {
+        log.debug("Attempting to soft-delete object with key: '{}'.", s3Key);
+        DeleteObjectRequest deleteObjectRequest = DeleteObjectRequest
+                .builder()
+                .bucket(bucketResolver.resolve(s3Key))
+                .key(s3Key)
+                .build();
+
+        CompletableFuture<String> future = s3AsyncClient.deleteObject(deleteObjectRequest)
+                .thenCompose(deleteResponse -> writeVerifier.verifyDeletedAsync("soft-delete", s3Key, null)
+                        .thenApply(verified -> deleteResponse.versionId()))
+                .thenApply(deleteMarkerVersionId -> {
+                    log.info("Successfully soft-deleted object '{}' (Delete Marker Version ID: '{}').", s3Key, deleteMarkerVersionId);
+                    return deleteMarkerVersionId;
+                });
+        return translateFailure(future, "soft-delete", s3Key, null);
+    }
+
+    /**
+     * Permanently deletes a version of an object or a delete marker. Unlike the blocking variant it doesn't wait for
+     * the key to disappear, deleting one version leaves the key in place whenever other versions remain.
+     *
+     * @return A future that completes once S3 has deleted the version.
+     */
+    @Override
+    public CompletableFuture<Void> permanentDeleteObjectVersion(String s3Key, String s3VersionId) {
+        log.debug("Attempting to permanently delete object key: '{}' with Version ID: '{}'.", s3Key, s3VersionId);
+        DeleteObjectRequest deleteObjectRequest = DeleteObjectRequest
+                .builder()
+                .bucket(bucketResolver.resolve(s3Key))
+                .key(s3Key)
+                .versionId(s3VersionId)
+                .build();
+
+        CompletableFuture<Void> future = s3AsyncClient.deleteObject(deleteObjectRequest)
+                .thenAccept(deleteResponse -> log.info("Permanently deleted object '{}' (Version ID: '{}').", s3Key, s3VersionId));
+        return translateFailure(future, "permanently delete", s3Key, s3VersionId);
+    }
+
+    /**
+     * Fetches the metadata of an object version with a HEAD request, so none of the object's bytes are transferred.
+     *
+     * @return A future holding the version's metadata.
+     */
+    @Override
+    public CompletableFuture<HeadObjectResponse> headObjectVersion(String s3Key, String s3VersionId) {
+        HeadObjectRequest headObjectRequest = HeadObjectRequest
+                .builder()
+                .bucket(bucketResolver.resolve(s3Key))
+                .key(s3Key)
+                .versionId(s3VersionId)
+                .build();
+        return translateFailure(s3AsyncClient.headObject(headObjectRequest), "describe", s3Key, s3VersionId);
+    }
+
+    //Turns whatever a call failed with into the exception the blocking services throw for the same failure
+    private <T> CompletableFuture<T> translateFailure(CompletableFuture<T> future, String action, String s3Key, String versionId) {
+        return future.handle((result, throwable) -> {
+            if (throwable == null) {
+                return result;
+            }
+
+            Throwable cause = BoundedAsyncRunner.unwrap(throwable);
+            if (cause instanceof NoSuchKeyException) {
+                log.warn("Failed to {} object '{}' (Version ID: '{}') because it was not found in bucket '{}'.", action, s3Key, versionId, bucketResolver.resolve(s3Key));
+                throw new MyCustomS3Exception(String.format("The object '%s' was not found in bucket '%s'.", s3Key, bucketResolver.resolve(s3Key)), cause);
+            }
+            if (cause instanceof S3Exception) {
+                log.error("An S3 error occurred while trying to {} object '{}' (Version ID: '{}'). Error: {}", action, s3Key, versionId, cause.getMessage(), cause);
+                throw new MyCustomS3Exception(String.format("An S3 error occurred while trying to %s object '%s'.", action, s3Key), cause);
+            }
+            log.error("An unexpected error occurred while trying to {} object '{}' (Version ID: '{}'). Error: {}", action, s3Key, versionId, cause.getMessage(), cause);
+            throw new MyCustomS3Exception(String.format("An unexpected error occurred while trying to %s object '%s'.", action, s3Key), cause);
+        });
+    }
+}
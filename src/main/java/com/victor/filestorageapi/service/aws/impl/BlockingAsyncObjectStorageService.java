@@ -0,0 +1,78 @@
+package com.victor.filestorageapi.service.aws.impl;
+
+import com.victor.filestorageapi.exception.MyCustomS3Exception;
+import com.victor.filestorageapi.models.entities.User;
+import com.victor.filestorageapi.service.aws.AsyncObjectStorageService;
+import com.victor.filestorageapi.service.aws.ObjectDeleteService;
+import com.victor.filestorageapi.service.aws.ObjectQueryService;
+import com.victor.filestorageapi.service.aws.ObjectStorageService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Answers the async object calls with the blocking services of a store that isn't S3. Local stores answer without a
+ * network round trip, so every call runs on the calling thread and returns a future that is already complete. The
+ * bounded async runner handles such futures in a loop, so bulk operations behave the same as against S3.
+ * Failures complete the returned future with a {@link MyCustomS3Exception}, like the S3 implementation's.
+ * */
+@Service
+@Profile({"filesystem", "memory"})
+@RequiredArgsConstructor
+@Slf4j
+public class BlockingAsyncObjectStorageService implements AsyncObjectStorageService {
+
+    private final ObjectStorageService objectStorageService;
+    private final ObjectDeleteService objectDeleteService;
+    private final ObjectQueryService objectQueryService;
+
+    @Override
+    public CompletableFuture<String> createObject(User user, String newS3Key) {
+        return complete(() -> objectStorageService.createObject(user, newS3Key));
+    }
+
+    @Override
+    public CompletableFuture<String> copyS3ObjectVersion(String newKey, String oldKey, String versionId, String contentType) {
+        return complete(() -> objectStorageService.copyS3ObjectVersion(newKey, oldKey, versionId, contentType));
+    }
+
+    @Override
+    public CompletableFuture<String> softDeleteObject(String s3Key) {
+        return complete(() -> objectDeleteService.softDeleteObject(s3Key));
+    }
+
+    @Override
+    public CompletableFuture<Void> permanentDeleteObjectVersion(String s3Key, String s3VersionId) {
+        return complete(() -> {
+            objectDeleteService.permanentDeleteObjectVersion(s3Key, s3VersionId);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<HeadObjectResponse> headObjectVersion(String s3Key, String s3VersionId) {
+        return complete(() -> {
+            HeadObjectResponse headObjectResponse = objectQueryService.headObjectVersion(s3Key, s3VersionId);
+            if (headObjectResponse == null) {
+                throw new MyCustomS3Exception(String.format("The object '%s' (Version ID: '%s') was not found.", s3Key, s3VersionId));
+            }
+            return headObjectResponse;
+        });
+    }
+
+    private <T> CompletableFuture<T> complete(Supplier<T> call) {
+        try {
+            return CompletableFuture.completedFuture(call.get());
+        } catch (MyCustomS3Exception e) {
+            return CompletableFuture.failedFuture(e);
+        } catch (Exception e) {
+            log.error("An unexpected error occurred while running an object call. Error: {}", e.getMessage(), e);
+            return CompletableFuture.failedFuture(new MyCustomS3Exception("An unexpected error occurred while running an object call.", e));
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.victor.filestorageapi.service.aws.impl;
+
+import com.victor.filestorageapi.exception.MyCustomS3Exception;
+import com.victor.filestorageapi.models.BatchCopyResult;
+import com.victor.filestorageapi.models.CopiedObject;
+import com.victor.filestorageapi.models.ObjectCopy;
+import com.victor.filestorageapi.service.aws.ObjectCopyService;
+import com.victor.filestorageapi.service.aws.ObjectStorageService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Copies objects with the blocking copy of a store that isn't S3. The store copies a version without moving its
+ * bytes (the filesystem store hard links it, the in-memory store shares its content), so copies run one after the other on the calling thread and there is
+ * no multipart path.
+ * */
+@Service
+@Profile({"filesystem", "memory"})
+@RequiredArgsConstructor
+@Slf4j
+public class BlockingObjectCopyService implements ObjectCopyService {
+
+    private final ObjectStorageService objectStorageService;
+
+    /**
+     * Copies an object version to another key, keeping the source's content type and metadata.
+     *
+     * @return A future that is already complete with the copied version, or with the {@link MyCustomS3Exception} the
+     * copy failed with.
+     */
+    @Override
+    public CompletableFuture<CopiedObject> copy(ObjectCopy objectCopy) {
+        try {
+            String versionId = objectStorageService.copyS3ObjectVersion(objectCopy.targetKey(), objectCopy.sourceKey(), objectCopy.sourceVersionId(), null);
+            return CompletableFuture.completedFuture(new CopiedObject(objectCopy.sourceKey(), objectCopy.sourceVersionId(), objectCopy.targetKey(), versionId));
+        } catch (MyCustomS3Exception e) {
+            return CompletableFuture.failedFuture(e);
+        } catch (Exception e) {
+            log.error("An unexpected error occurred while trying to copy object '{}' to '{}'. Error: {}", objectCopy.sourceKey(), objectCopy.targetKey(), e.getMessage(), e);
+            return CompletableFuture.failedFuture(new MyCustomS3Exception(
+                    String.format("An unexpected error occurred while trying to copy object '%s'.", objectCopy.sourceKey()), e));
+        }
+    }
+
+    /**
+     * Copies every object of a batch.
+     *
+     * @return The copies that succeeded, in the order of the batch, and what the others failed with.
+     */
+    @Override
+    public BatchCopyResult copyAll(List<ObjectCopy> objectCopies) {
+        log.info("Attempting to copy {} objects.", objectCopies.size());
+        List<CopiedObject> copied = new ArrayList<>(objectCopies.size());
+        Map<String, Throwable> failed = new LinkedHashMap<>();
+        for (ObjectCopy objectCopy : objectCopies) {
+            CompletableFuture<CopiedObject> copyFuture = copy(objectCopy);
+            if (copyFuture.isCompletedExceptionally()) {
+                failed.put(objectCopy.sourceKey(), copyFuture.exceptionNow());
+            } else {
+                copied.add(copyFuture.join());
+            }
+        }
+
+        log.info("Copied {} of {} objects, {} failed.", copied.size(), objectCopies.size(), failed.size());
+        return new BatchCopyResult(copied, failed);
+    }
+}
@@ -0,0 +1,381 @@
+package com.victor.filestorageapi.service.aws.impl;
+
+import com.victor.filestorageapi.config.BucketProperties;
+import com.victor.filestorageapi.exception.MyCustomS3Exception;
+import com.victor.filestorageapi.models.constants.S3Constant;
+import com.victor.filestorageapi.models.entities.BucketPlacement;
+import com.victor.filestorageapi.models.enums.UploadSessionStatus;
+import com.victor.filestorageapi.repository.BucketPlacementRepository;
+import com.victor.filestorageapi.repository.FileBlobRepository;
+import com.victor.filestorageapi.repository.PackObjectRepository;
+import com.victor.filestorageapi.repository.UploadSessionRepository;
+import com.victor.filestorageapi.repository.UserFileRepository;
+import com.victor.filestorageapi.repository.UserFolderRepository;
+import com.victor.filestorageapi.repository.UserFolderSnapshotFileEntryRepository;
+import com.victor.filestorageapi.repository.UserFolderSnapshotRepository;
+import com.victor.filestorageapi.service.aws.BucketRebalanceService;
+import com.victor.filestorageapi.service.aws.BucketResolver;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Moves shards whose placement no longer matches the hash ring, which happens when buckets are added or removed.
+ * A shard is moved by replaying every version and delete marker of its keys, oldest first, into the new bucket.
+ * Copies get new version IDs, so the version IDs the database holds are remapped in the same transaction that flips
+ * the placement. Writes that still went to the old bucket while the shard was copied, or while other instances still
+ * held the old placement, are caught up after a delay, and only then are the old versions deleted.
+ * Shards with a multipart upload in flight are skipped until the upload is over, parts can't be moved between buckets.
+ * Uploads are found both through upload sessions and by listing the multipart uploads in the shard's bucket, which
+ * also covers the streaming uploads that never get a session.
+ * */
+@Service
+@Profile("!filesystem & !memory")
+@Slf4j
+public class BucketRebalanceServiceImpl implements BucketRebalanceService {
+
+    private static final int PLACEMENT_PAGE_SIZE = 500;
+
+    private final S3Client s3Client;
+    private final BucketResolver bucketResolver;
+    private final BucketProperties bucketProperties;
+    private final BucketPlacementRepository bucketPlacementRepository;
+    private final UploadSessionRepository uploadSessionRepository;
+    private final FileBlobRepository fileBlobRepository;
+    private final PackObjectRepository packObjectRepository;
+    private final UserFolderSnapshotRepository userFolderSnapshotRepository;
+    private final UserFolderSnapshotFileEntryRepository userFolderSnapshotFileEntryRepository;
+    private final UserFileRepository userFileRepository;
+    private final UserFolderRepository userFolderRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    public BucketRebalanceServiceImpl(S3Client s3Client, BucketResolver bucketResolver, BucketProperties bucketProperties,
+                                      BucketPlacementRepository bucketPlacementRepository,
+                                      UploadSessionRepository uploadSessionRepository,
+                                      FileBlobRepository fileBlobRepository,
+                                      PackObjectRepository packObjectRepository,
+                                      UserFolderSnapshotRepository userFolderSnapshotRepository,
+                                      UserFolderSnapshotFileEntryRepository userFolderSnapshotFileEntryRepository,
+                                      UserFileRepository userFileRepository,
+                                      UserFolderRepository userFolderRepository,
+                                      PlatformTransactionManager transactionManager) {
+        this.s3Client = s3Client;
+        this.bucketResolver = bucketResolver;
+        this.bucketProperties = bucketProperties;
+        this.bucketPlacementRepository = bucketPlacementRepository;
+        this.uploadSessionRepository = uploadSessionRepository;
+        this.fileBlobRepository = fileBlobRepository;
+        this.packObjectRepository = packObjectRepository;
+        this.userFolderSnapshotRepository = userFolderSnapshotRepository;
+        this.userFolderSnapshotFileEntryRepository = userFolderSnapshotFileEntryRepository;
+        this.userFileRepository = userFileRepository;
+        this.userFolderRepository = userFolderRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Moves up to the configured number of misplaced shards. A shard that fails to move keeps its placement and is
+     * retried on the next run.
+     */
+    @Override
+    @Scheduled(cron = "${cloud.storage.buckets.rebalance-cron:0 30 3 * * *}")
+    public void rebalance() {
+        if (!bucketProperties.isRebalanceEnabled()) {
+            return;
+        }
+
+        List<BucketPlacement> misplaced = findMisplacedShards();
+        if (misplaced.isEmpty()) {
+            log.debug("Every shard is placed in the bucket the ring maps it to.");
+            return;
+        }
+
+        log.info("Rebalancing {} shards.", misplaced.size());
+        int moved = 0;
+        for (BucketPlacement placement : misplaced) {
+            String shardKey = placement.getShardKey();
+            try {
+                if (uploadSessionRepository.existsByStatusAndS3KeyStartingWith(UploadSessionStatus.ACTIVE, shardKey)
+                        || hasMultipartUploads(shardKey, placement.getBucketName())) {
+                    log.info("Skipping shard '{}' since it has an active multipart upload.", shardKey);
+                    continue;
+                }
+
+                moveShard(shardKey, placement.getBucketName(), bucketResolver.ringBucketFor(shardKey));
+                moved++;
+            } catch (Exception e) {
+                log.error("Failed to move shard '{}' out of bucket '{}'. It stays in place until the next run. Error: {}",
+                        shardKey, placement.getBucketName(), e.getMessage(), e);
+            }
+        }
+        log.info("Moved {} of {} misplaced shards.", moved, misplaced.size());
+    }
+
+    private List<BucketPlacement> findMisplacedShards() {
+        List<BucketPlacement> misplaced = new ArrayList<>();
+        Pageable pageable = PageRequest.of(0, PLACEMENT_PAGE_SIZE);
+        Page<BucketPlacement> page;
+        do {
+            page = bucketPlacementRepository.findAll(pageable);
+            for (BucketPlacement placement : page.getContent()) {
+                if (!placement.getBucketName().equals(bucketResolver.ringBucketFor(placement.getShardKey()))) {
+                    misplaced.add(placement);
+                    if (misplaced.size() == bucketProperties.getMaxShardsPerRebalance()) {
+                        return misplaced;
+                    }
+                }
+            }
+            pageable = page.nextPageable();
+        } while (page.hasNext());
+        return misplaced;
+    }
+
+    private void moveShard(String shardKey, String sourceBucket, String targetBucket) throws InterruptedException {
+        log.info("Moving shard '{}' from bucket '{}' to bucket '{}'.", shardKey, sourceBucket, targetBucket);
+        Set<String> copiedVersionIds = new HashSet<>();
+        Map<VersionRef, String> remappedVersions = new HashMap<>();
+
+        try {
+            replayVersions(shardKey, sourceBucket, targetBucket, copiedVersionIds, remappedVersions);
+            //An upload created while the shard was copied would complete in the old bucket after the flip
+            if (hasMultipartUploads(shardKey, sourceBucket)) {
+                throw new MyCustomS3Exception(String.format("A multipart upload to shard '%s' started while it was copied.", shardKey));
+            }
+            flipPlacement(shardKey, targetBucket, remappedVersions);
+        } catch (RuntimeException e) {
+            //The source still holds every version, so the partial copy is dropped and the move is retried from scratch
+            deleteCopiedVersions(targetBucket, remappedVersions);
+            throw e;
+        }
+        log.info("Shard '{}' now resolves to bucket '{}' ({} versions copied).", shardKey, targetBucket, remappedVersions.size());
+
+        //Other instances keep resolving the old bucket until their cached placement expires, so the old versions are only
+        //caught up and deleted once every instance has switched and its last writes to the old bucket have landed
+        Duration placementSwitchDelay = bucketProperties.getPlacementCacheTtl().multipliedBy(2);
+        Thread.sleep(Collections.max(List.of(bucketProperties.getCatchUpDelay(), placementSwitchDelay)).toMillis());
+        catchUp(shardKey, sourceBucket, targetBucket, copiedVersionIds);
+
+        //Instances that still held the old placement may have started uploads there, their objects land once they complete
+        int drainRounds = 0;
+        while (hasMultipartUploads(shardKey, sourceBucket)) {
+            if (++drainRounds > bucketProperties.getUploadDrainRounds()) {
+                log.error("Multipart uploads to shard '{}' are still running in bucket '{}'. Its old versions are kept, objects those uploads complete must be copied over by hand.",
+                        shardKey, sourceBucket);
+                return;
+            }
+            Thread.sleep(bucketProperties.getCatchUpDelay().toMillis());
+            catchUp(shardKey, sourceBucket, targetBucket, copiedVersionIds);
+        }
+
+        deleteAllVersions(shardKey, sourceBucket);
+        log.info("Moved shard '{}' from bucket '{}' to bucket '{}'.", shardKey, sourceBucket, targetBucket);
+    }
+
+    private void catchUp(String shardKey, String sourceBucket, String targetBucket, Set<String> copiedVersionIds) {
+        Map<VersionRef, String> caughtUpVersions = new HashMap<>();
+        replayVersions(shardKey, sourceBucket, targetBucket, copiedVersionIds, caughtUpVersions);
+        if (!caughtUpVersions.isEmpty()) {
+            transactionTemplate.executeWithoutResult(status -> remapVersionIds(caughtUpVersions));
+            log.info("Caught up {} versions written to shard '{}' while it was moved.", caughtUpVersions.size(), shardKey);
+        }
+    }
+
+    private boolean hasMultipartUploads(String shardKey, String bucketName) {
+        try {
+            ListMultipartUploadsRequest listRequest = ListMultipartUploadsRequest
+                    .builder()
+                    .bucket(bucketName)
+                    .prefix(shardKey)
+                    .maxUploads(1)
+                    .build();
+            return !s3Client.listMultipartUploads(listRequest).uploads().isEmpty();
+        } catch (S3Exception e) {
+            log.error("An S3 error occurred while trying to list the multipart uploads of shard '{}' in bucket '{}'. Error: {}", shardKey, bucketName, e.getMessage(), e);
+            throw new MyCustomS3Exception(String.format("An S3 error occurred while trying to list the multipart uploads of shard '%s'.", shardKey), e);
+        }
+    }
+
+    private void flipPlacement(String shardKey, String targetBucket, Map<VersionRef, String> remappedVersions) {
+        transactionTemplate.executeWithoutResult(status -> {
+            remapVersionIds(remappedVersions);
+            BucketPlacement placement = bucketPlacementRepository.findById(shardKey).orElseThrow();
+            placement.setBucketName(targetBucket);
+            placement.setUpdatedAt(LocalDateTime.now());
+            bucketPlacementRepository.save(placement);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    bucketResolver.updatePlacement(shardKey, targetBucket);
+                }
+            });
+        });
+    }
+
+    private void deleteCopiedVersions(String targetBucket, Map<VersionRef, String> remappedVersions) {
+        try {
+            List<ObjectIdentifier> copied = remappedVersions.entrySet()
+                    .stream()
+                    .map(entry -> ObjectIdentifier.builder().key(entry.getKey().key()).versionId(entry.getValue()).build())
+                    .toList();
+            for (int i = 0; i < copied.size(); i += S3Constant.batch_size.intValue()) {
+                deleteBatch(targetBucket, copied.subList(i, Math.min(i + S3Constant.batch_size.intValue(), copied.size())));
+            }
+        } catch (Exception e) {
+            log.error("Failed to clean up {} versions copied to bucket '{}'. They are orphaned until the shard is moved again.", remappedVersions.size(), targetBucket, e);
+        }
+    }
+
+    /**
+     * Replays the versions and delete markers of every key in the shard that haven't been copied yet, oldest first,
+     * so the latest version in the source is also the latest one in the target.
+     *
+     * @param copiedVersionIds The source version IDs replayed so far, updated with the ones replayed now.
+     * @param remappedVersions Receives the new version ID of every replayed version, by its key and source version ID.
+     */
+    private void replayVersions(String shardKey, String sourceBucket, String targetBucket,
+                                Set<String> copiedVersionIds, Map<VersionRef, String> remappedVersions) {
+        Map<String, List<VersionEntry>> entriesByKey = new HashMap<>();
+        ListObjectVersionsRequest listRequest = ListObjectVersionsRequest
+                .builder()
+                .bucket(sourceBucket)
+                .prefix(shardKey)
+                .build();
+
+        for (ListObjectVersionsResponse page : s3Client.listObjectVersionsPaginator(listRequest)) {
+            page.versions().forEach(version -> entriesByKey
+                    .computeIfAbsent(version.key(), key -> new ArrayList<>())
+                    .add(new VersionEntry(version.versionId(), version.lastModified(), version.isLatest(), false)));
+            page.deleteMarkers().forEach(marker -> entriesByKey
+                    .computeIfAbsent(marker.key(), key -> new ArrayList<>())
+                    .add(new VersionEntry(marker.versionId(), marker.lastModified(), marker.isLatest(), true)));
+        }
+
+        for (Map.Entry<String, List<VersionEntry>> keyEntries : entriesByKey.entrySet()) {
+            String key = keyEntries.getKey();
+            List<VersionEntry> entries = keyEntries.getValue()
+                    .stream()
+                    .filter(entry -> !copiedVersionIds.contains(entry.versionId()))
+                    .sorted(Comparator.comparing(VersionEntry::lastModified).thenComparing(VersionEntry::latest))
+                    .toList();
+
+            for (VersionEntry entry : entries) {
+                String newVersionId = entry.deleteMarker()
+                        ? replayDeleteMarker(targetBucket, key)
+                        : copyVersion(sourceBucket, targetBucket, key, entry.versionId());
+                remappedVersions.put(new VersionRef(key, entry.versionId()), newVersionId);
+                copiedVersionIds.add(entry.versionId());
+            }
+        }
+    }
+
+    private String copyVersion(String sourceBucket, String targetBucket, String key, String versionId) {
+        try {
+            CopyObjectRequest copyObjectRequest = CopyObjectRequest
+                    .builder()
+                    .sourceBucket(sourceBucket)
+                    .sourceKey(key)
+                    .sourceVersionId(versionId)
+                    .destinationBucket(targetBucket)
+                    .destinationKey(key)
+                    .build();
+            return s3Client.copyObject(copyObjectRequest).versionId();
+        } catch (S3Exception e) {
+            log.error("An S3 error occurred while trying to copy object '{}' (Version ID: '{}') from bucket '{}' to bucket '{}'. Error: {}",
+                    key, versionId, sourceBucket, targetBucket, e.getMessage(), e);
+            throw new MyCustomS3Exception(String.format("An S3 error occurred while trying to copy object '%s' to bucket '%s'.", key, targetBucket), e);
+        }
+    }
+
+    private String replayDeleteMarker(String targetBucket, String key) {
+        try {
+            DeleteObjectRequest deleteObjectRequest = DeleteObjectRequest
+                    .builder()
+                    .bucket(targetBucket)
+                    .key(key)
+                    .build();
+            return s3Client.deleteObject(deleteObjectRequest).versionId();
+        } catch (S3Exception e) {
+            log.error("An S3 error occurred while trying to put a delete marker on object '{}' in bucket '{}'. Error: {}", key, targetBucket, e.getMessage(), e);
+            throw new MyCustomS3Exception(String.format("An S3 error occurred while trying to put a delete marker on object '%s' in bucket '%s'.", key, targetBucket), e);
+        }
+    }
+
+    private void remapVersionIds(Map<VersionRef, String> remappedVersions) {
+        remappedVersions.forEach((ref, newVersionId) -> {
+            fileBlobRepository.remapVersionId(ref.key(), ref.versionId(), newVersionId);
+            packObjectRepository.remapVersionId(ref.key(), ref.versionId(), newVersionId);
+            userFolderSnapshotRepository.remapVersionId(ref.key(), ref.versionId(), newVersionId);
+            userFolderSnapshotFileEntryRepository.remapVersionId(ref.key(), ref.versionId(), newVersionId);
+            //Files and folders stored under their own path point at the object version by its ID too
+            userFileRepository.remapVersionId(ref.key(), ref.versionId(), newVersionId);
+            userFolderRepository.remapVersionId(ref.key(), ref.versionId(), newVersionId);
+        });
+    }
+
+    private void deleteAllVersions(String shardKey, String bucketName) {
+        ListObjectVersionsRequest listRequest = ListObjectVersionsRequest
+                .builder()
+                .bucket(bucketName)
+                .prefix(shardKey)
+                .build();
+
+        List<ObjectIdentifier> batch = new ArrayList<>();
+        for (ListObjectVersionsResponse page : s3Client.listObjectVersionsPaginator(listRequest)) {
+            page.versions().forEach(version -> batch.add(ObjectIdentifier.builder().key(version.key()).versionId(version.versionId()).build()));
+            page.deleteMarkers().forEach(marker -> batch.add(ObjectIdentifier.builder().key(marker.key()).versionId(marker.versionId()).build()));
+
+            while (batch.size() >= S3Constant.batch_size) {
+                List<ObjectIdentifier> chunk = batch.subList(0, S3Constant.batch_size.intValue());
+                deleteBatch(bucketName, new ArrayList<>(chunk));
+                chunk.clear();
+            }
+        }
+        deleteBatch(bucketName, batch);
+    }
+
+    private void deleteBatch(String bucketName, List<ObjectIdentifier> objectIdentifiers) {
+        if (objectIdentifiers.isEmpty()) {
+            return;
+        }
+
+        DeleteObjectsRequest deleteObjectsRequest = DeleteObjectsRequest
+                .builder()
+                .bucket(bucketName)
+                .delete(Delete.builder().objects(objectIdentifiers).quiet(true).build())
+                .build();
+
+        DeleteObjectsResponse deleteObjectsResponse = s3Client.deleteObjects(deleteObjectsRequest);
+        if (deleteObjectsResponse.hasErrors() && !deleteObjectsResponse.errors().isEmpty()) {
+            deleteObjectsResponse.errors().forEach(error ->
+                    log.warn("Failed to delete moved object '{}' (Version ID: '{}') from bucket '{}'. Code: {}", error.key(), error.versionId(), bucketName, error.code()));
+        }
+    }
+
+    private record VersionRef(String key, String versionId) {
+    }
+
+    private record VersionEntry(String versionId, Instant lastModified, Boolean latest, boolean deleteMarker) {
+    }
+}
@@ -0,0 +1,166 @@
+package com.victor.filestorageapi.service.aws.impl;
+
+import com.victor.filestorageapi.config.BucketProperties;
+import com.victor.filestorageapi.models.entities.BucketPlacement;
+import com.victor.filestorageapi.repository.BucketPlacementRepository;
+import com.victor.filestorageapi.service.aws.BucketResolver;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps every key to the bucket of its shard. A user's objects all share the shard of their root folder, so listings,
+ * moves and snapshots never span buckets. The internal stores (blobs, packs, staging) aren't owned by anyone, so they
+ * are split by the first two characters of the object name instead, which are hex for all of them.
+ * New shards are placed by consistent hashing over the configured buckets, and the placement is recorded so it stays
+ * put until the rebalancer moves the shard. Placements are cached for a short time, so a key only costs a database
+ * lookup when its shard's entry has expired. The expiry is what makes every instance follow a shard the rebalancer
+ * moved from another instance.
+ * */
+@Service
+@Slf4j
+public class BucketResolverImpl implements BucketResolver {
+
+    private static final int INTERNAL_SHARD_CHARS = 2;
+
+    private final BucketPlacementRepository bucketPlacementRepository;
+    private final TransactionTemplate requiresNewTransaction;
+    private final List<String> buckets;
+    private final NavigableMap<Long, String> ring = new TreeMap<>();
+    private final Map<String, CachedPlacement> placements = new ConcurrentHashMap<>();
+    private final long placementCacheTtlNanos;
+
+    public BucketResolverImpl(BucketProperties bucketProperties, BucketPlacementRepository bucketPlacementRepository,
+                              PlatformTransactionManager transactionManager) {
+        if (bucketProperties.getNames().isEmpty()) {
+            throw new IllegalStateException("At least one bucket must be configured under cloud.storage.buckets.names");
+        }
+
+        this.bucketPlacementRepository = bucketPlacementRepository;
+        this.buckets = List.copyOf(bucketProperties.getNames());
+        this.placementCacheTtlNanos = bucketProperties.getPlacementCacheTtl().toNanos();
+        //Placements must survive a rollback of whatever transaction first touched the shard, its objects are already written
+        this.requiresNewTransaction = new TransactionTemplate(transactionManager);
+        this.requiresNewTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+        for (String bucket : buckets) {
+            for (int i = 0; i < bucketProperties.getVirtualNodes(); i++) {
+                ring.put(hash(bucket + "#" + i), bucket);
+            }
+        }
+        log.info("Spreading objects over {} buckets: {}", buckets.size(), buckets);
+    }
+
+    /**
+     * Resolves the bucket a key lives in, placing its shard if it has never been used.
+     *
+     * @param s3Key The key of the object, or a prefix within a single shard.
+     * @return The name of the bucket holding the key.
+     */
+    @Override
+    public String resolve(String s3Key) {
+        String shardKey = shardKeyOf(s3Key);
+        CachedPlacement cached = placements.get(shardKey);
+        if (cached != null && !cached.isExpired(System.nanoTime())) {
+            return cached.bucketName();
+        }
+
+        //Only one caller reloads an expired entry, the others wait for it instead of all querying the database
+        return placements.compute(shardKey, (key, current) -> current != null && !current.isExpired(System.nanoTime())
+                ? current
+                : new CachedPlacement(loadOrPlace(key), System.nanoTime() + placementCacheTtlNanos)).bucketName();
+    }
+
+    @Override
+    public String shardKeyOf(String s3Key) {
+        String trimmed = s3Key.startsWith("/") ? s3Key.substring(1) : s3Key;
+        int slashIndex = trimmed.indexOf('/');
+        if (slashIndex == -1) {
+            return "/" + trimmed + "/";
+        }
+
+        String topLevel = trimmed.substring(0, slashIndex);
+        if (!topLevel.startsWith(".")) {
+            return "/" + topLevel + "/";
+        }
+
+        String name = trimmed.substring(slashIndex + 1);
+        return "/" + topLevel + "/" + name.substring(0, Math.min(INTERNAL_SHARD_CHARS, name.length()));
+    }
+
+    /**
+     * @return The bucket the hash ring maps a shard to, which differs from its placement once buckets were added.
+     */
+    @Override
+    public String ringBucketFor(String shardKey) {
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash(shardKey));
+        return entry == null ? ring.firstEntry().getValue() : entry.getValue();
+    }
+
+    @Override
+    public List<String> getBuckets() {
+        return buckets;
+    }
+
+    //Called by the rebalancer once a moved shard's placement is committed
+    @Override
+    public void updatePlacement(String shardKey, String bucketName) {
+        placements.put(shardKey, new CachedPlacement(bucketName, System.nanoTime() + placementCacheTtlNanos));
+    }
+
+    private String loadOrPlace(String shardKey) {
+        return bucketPlacementRepository.findById(shardKey)
+                .map(BucketPlacement::getBucketName)
+                .orElseGet(() -> place(shardKey));
+    }
+
+    private String place(String shardKey) {
+        String bucketName = ringBucketFor(shardKey);
+        try {
+            requiresNewTransaction.executeWithoutResult(status -> bucketPlacementRepository.saveAndFlush(BucketPlacement
+                    .builder()
+                    .shardKey(shardKey)
+                    .bucketName(bucketName)
+                    .createdAt(LocalDateTime.now())
+                    .updatedAt(LocalDateTime.now())
+                    .build()));
+            log.info("Placed shard '{}' in bucket '{}'.", shardKey, bucketName);
+            return bucketName;
+        } catch (DataIntegrityViolationException e) {
+            //Another instance placed the shard first
+            return bucketPlacementRepository.findById(shardKey)
+                    .map(BucketPlacement::getBucketName)
+                    .orElseThrow(() -> e);
+        }
+    }
+
+    private record CachedPlacement(String bucketName, long expiresAtNanos) {
+        boolean isExpired(long nowNanos) {
+            return nowNanos - expiresAtNanos >= 0;
+        }
+    }
+
+    //First 8 bytes of the MD5 digest, spread evenly enough for a ring and stable across restarts unlike hashCode
+    private static long hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package com.victor.filestorageapi.service.aws.impl;
+
+import com.victor.filestorageapi.config.UploadProperties;
+import com.victor.filestorageapi.exception.InvalidArchiveException;
+import com.victor.filestorageapi.exception.UserFileUploadException;
+import com.victor.filestorageapi.models.ArchiveEntry;
+import com.victor.filestorageapi.models.BulkUploadResult;
+import com.victor.filestorageapi.models.IngestedFile;
+import com.victor.filestorageapi.models.entities.FileBlob;
+import com.victor.filestorageapi.models.entities.User;
+import com.victor.filestorageapi.models.entities.UserFile;
+import com.victor.filestorageapi.models.entities.UserFolder;
+import com.victor.filestorageapi.service.aws.BulkUploadService;
+import com.victor.filestorageapi.service.file.FileBlobService;
+import com.victor.filestorageapi.service.file.UserFileCommandService;
+import com.victor.filestorageapi.service.folder.UserFolderCreationService;
+import com.victor.filestorageapi.service.folder.UserFolderQueryService;
+import com.victor.filestorageapi.service.resilience.BulkOperation;
+import com.victor.filestorageapi.service.user.UserQueryService;
+import com.victor.filestorageapi.service.utils.ArchiveReader;
+import com.victor.filestorageapi.service.utils.MultipartArchiveReader;
+import com.victor.filestorageapi.service.utils.PathValidator;
+import com.victor.filestorageapi.service.utils.TarArchiveReader;
+import com.victor.filestorageapi.service.utils.ZipArchiveReader;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class BulkUploadServiceImpl implements BulkUploadService {
+
+    private final UserQueryService userQueryService;
+    private final UserFolderQueryService userFolderQueryService;
+    private final UserFolderCreationService userFolderCreationService;
+    private final UserFileCommandService userFileCommandService;
+    private final FileBlobService fileBlobService;
+    private final PathValidator pathValidator;
+    private final UploadProperties uploadProperties;
+    private final ExecutorService bulkUploadExecutor;
+    private final PlatformTransactionManager transactionManager;
+
+    private static final Set<String> ZIP_TYPES = Set.of("application/zip", "application/x-zip-compressed");
+    private static final Set<String> TAR_TYPES = Set.of("application/x-tar", "application/tar");
+    private static final Set<String> GZIP_TAR_TYPES = Set.of("application/gzip", "application/x-gzip", "application/x-gtar", "application/x-compressed-tar");
+
+    /**
+     * Unpacks a zip, tar or gzipped tar request body into a folder while it streams in.
+     * See {@link #ingest} for how the entries are stored.
+     *
+     * @param userId The id of the user uploading the archive.
+     * @param folderId The id of the folder to unpack into, defaults to the user's root folder when null.
+     * @param contentType The content type of the request body, which selects the archive format.
+     * @param inputStream The request body. It is closed once the archive has been read.
+     * @return The recorded files, the number of folders created and the entries that were skipped.
+     * @throws InvalidArchiveException If the format is unsupported, the archive is corrupt or has too many entries.
+     * @throws UserFileUploadException If storing the entries fails. Nothing is recorded in that case.
+     */
+    @Override
+    @BulkOperation
+    public BulkUploadResult uploadArchive(UUID userId, UUID folderId, String contentType, InputStream inputStream) {
+        User user = userQueryService.findUserById(userId);
+        UserFolder baseFolder = userFolderQueryService.findActiveFolderOrRoot(user, folderId);
+
+        try (ArchiveReader archiveReader = openArchive(contentType, inputStream)) {
+            return ingest(user, baseFolder, archiveReader);
+        } catch (IOException e) {
+            log.error("Failed to read archive for user: {}. Error: {}", user.getUsername(), e.getMessage(), e);
+            throw new InvalidArchiveException("Failed to read the archive. It may be truncated or corrupt.", e);
+        }
+    }
+
+    /**
+     * Stores the files of a multipart request into a folder. File names may be relative paths, e.g. from a directory
+     * upload, in which case the folders along the path are created as well.
+     *
+     * @param userId The id of the user uploading the files.
+     * @param folderId The id of the folder to upload into, defaults to the user's root folder when null.
+     * @param files The uploaded files.
+     * @return The recorded files, the number of folders created and the files that were skipped.
+     * @throws UserFileUploadException If storing the files fails. Nothing is recorded in that case.
+     */
+    @Override
+    @BulkOperation
+    public BulkUploadResult uploadFiles(UUID userId, UUID folderId, List<MultipartFile> files) {
+        User user = userQueryService.findUserById(userId);
+        UserFolder baseFolder = userFolderQueryService.findActiveFolderOrRoot(user, folderId);
+
+        try (ArchiveReader archiveReader = new MultipartArchiveReader(files)) {
+            return ingest(user, baseFolder, archiveReader);
+        } catch (IOException e) {
+            log.error("Failed to read uploaded files for user: {}. Error: {}", user.getUsername(), e.getMessage(), e);
+            throw new UserFileUploadException("Failed to read the uploaded files.", e);
+        }
+    }
+
+    /**
+     * Stores every entry of an archive as a deduplicated blob, then creates the missing folders and records the files
+     * in batches. The archive is read sequentially, small entries are buffered and uploaded concurrently with at most
+     * {@code bulkMaxInFlightEntries} in flight, larger entries are streamed on the reading thread. Heap use is therefore
+     * bounded by {@code bulkMaxInFlightEntries * bulkBufferedEntrySize} plus one multipart upload.
+     * */
+    private BulkUploadResult ingest(User user, UserFolder baseFolder, ArchiveReader archiveReader) throws IOException {
+        int bufferedEntrySize = (int) uploadProperties.getBulkBufferedEntrySize().toBytes();
+        int maxEntries = uploadProperties.getBulkMaxEntries();
+        Semaphore inFlightEntries = new Semaphore(Math.max(1, uploadProperties.getBulkMaxInFlightEntries()));
+        //Set by the first upload that fails, so the reader can stop without going over every upload for each entry
+        AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+
+        //Keyed by file path, so an archive holding the same path twice keeps the last entry like an overwrite would
+        Map<String, CompletableFuture<IngestedFile>> uploads = new LinkedHashMap<>();
+        List<CompletableFuture<IngestedFile>> supersededUploads = new ArrayList<>();
+        Set<String> relativeFolderPaths = new LinkedHashSet<>();
+        List<String> skippedEntries = new ArrayList<>();
+        int entryCount = 0;
+
+        log.info("Attempting bulk upload into folder: {} for user: {}", baseFolder.getFolderPath(), user.getUsername());
+        try {
+            ArchiveEntry entry;
+            while ((entry = archiveReader.nextEntry()) != null) {
+                if (++entryCount > maxEntries) {
+                    throw new InvalidArchiveException(String.format("The upload has more than %s entries.", maxEntries));
+                }
+
+                String relativePath = normalizeEntryPath(entry.path());
+                if (relativePath == null) {
+                    log.warn("Skipping entry with invalid path: {} for user: {}", entry.path(), user.getUsername());
+                    skippedEntries.add(entry.path());
+                    continue;
+                }
+
+                if (entry.directory()) {
+                    relativeFolderPaths.add(relativePath);
+                    continue;
+                }
+
+                int lastSlashIndex = relativePath.lastIndexOf('/');
+                String fileName = relativePath.substring(lastSlashIndex + 1);
+                String folderPath = baseFolder.getFolderPath();
+                if (lastSlashIndex > 0) {
+                    String relativeFolderPath = relativePath.substring(0, lastSlashIndex);
+                    relativeFolderPaths.add(relativeFolderPath);
+                    folderPath = pathValidator.buildS3Key(folderPath, relativeFolderPath);
+                }
+
+                String filePath = pathValidator.buildFileS3Key(folderPath, fileName);
+                String contentType = MediaTypeFactory.getMediaType(fileName)
+                        .orElse(MediaType.APPLICATION_OCTET_STREAM)
+                        .toString();
+                IngestedFile pendingFile = new IngestedFile(folderPath, filePath, fileName, contentType, null);
+
+                failFastOnUploads(firstFailure);
+                CompletableFuture<IngestedFile> upload = storeEntry(user, pendingFile, entry.content(), bufferedEntrySize, inFlightEntries, firstFailure);
+                CompletableFuture<IngestedFile> supersededUpload = uploads.put(filePath, upload);
+                if (supersededUpload != null) {
+                    supersededUploads.add(supersededUpload);
+                }
+            }
+
+            List<IngestedFile> ingestedFiles = new ArrayList<>();
+            for (CompletableFuture<IngestedFile> upload : uploads.values()) {
+                ingestedFiles.add(upload.join());
+            }
+            supersededUploads.forEach(upload -> fileBlobService.releaseBlob(upload.join().blob()));
+
+            return record(user, baseFolder, relativeFolderPaths, ingestedFiles, skippedEntries);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            releaseUploads(uploads.values(), supersededUploads);
+            throw new UserFileUploadException("The bulk upload was interrupted.", e);
+        } catch (Exception e) {
+            log.error("Bulk upload into folder: {} for user: {} failed after {} entries. Error: {}", baseFolder.getFolderPath(), user.getUsername(), entryCount, e.getMessage(), e);
+            releaseUploads(uploads.values(), supersededUploads);
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof InvalidArchiveException invalidArchiveException) {
+                throw invalidArchiveException;
+            }
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new UserFileUploadException(String.format("Failed to store the entries uploaded into folder: %s", baseFolder.getFolderPath()), cause);
+        }
+    }
+
+    private CompletableFuture<IngestedFile> storeEntry(User user, IngestedFile pendingFile, InputStream content, int bufferedEntrySize,
+                                                       Semaphore inFlightEntries, AtomicReference<Throwable> firstFailure) throws IOException, InterruptedException {
+        byte[] head = content.readNBytes(bufferedEntrySize + 1);
+        if (head.length > bufferedEntrySize) {
+            //Too large to buffer, stream it on this thread starting with the bytes already read
+            FileBlob fileBlob = fileBlobService.storeContent(user, pendingFile.contentType(), null,
+                    new SequenceInputStream(new ByteArrayInputStream(head), content));
+            return CompletableFuture.completedFuture(withBlob(pendingFile, fileBlob));
+        }
+
+        //Blocks the reader once the in-flight limit is reached, which bounds the buffered bytes
+        inFlightEntries.acquire();
+        try {
+            return CompletableFuture
+                    .supplyAsync(() -> withBlob(pendingFile, fileBlobService.storeContent(user, pendingFile.contentType(), null, new ByteArrayInputStream(head))), bulkUploadExecutor)
+                    .whenComplete((ingestedFile, ex) -> {
+                        if (ex != null) {
+                            firstFailure.compareAndSet(null, ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+                        }
+                        inFlightEntries.release();
+                    });
+        } catch (RuntimeException e) {
+            inFlightEntries.release();
+            throw e;
+        }
+    }
+
+    //Folders and files are recorded in one transaction, so a failure while recording the files leaves no folders behind
+    private BulkUploadResult record(User user, UserFolder baseFolder, Set<String> relativeFolderPaths, List<IngestedFile> ingestedFiles, List<String> skippedEntries) {
+        LocalDateTime startedAt = LocalDateTime.now();
+        Map<String, UserFolder> foldersByPath = new HashMap<>();
+        List<UserFile> userFiles = new TransactionTemplate(transactionManager).execute(status -> {
+            foldersByPath.putAll(userFolderCreationService.createFolderTree(user, baseFolder, relativeFolderPaths));
+            return userFileCommandService.recordBlobFiles(user, foldersByPath, ingestedFiles);
+        });
+
+        int createdFolders = (int) foldersByPath.values()
+                .stream()
+                .filter(folder -> folder.getCreatedAt() != null && !folder.getCreatedAt().isBefore(startedAt))
+                .count();
+        log.info("Bulk upload into folder: {} for user: {} stored {} files, created {} folders and skipped {} entries",
+                baseFolder.getFolderPath(), user.getUsername(), userFiles.size(), createdFolders, skippedEntries.size());
+        return new BulkUploadResult(userFiles, createdFolders, skippedEntries);
+    }
+
+    private IngestedFile withBlob(IngestedFile pendingFile, FileBlob fileBlob) {
+        return new IngestedFile(pendingFile.folderPath(), pendingFile.filePath(), pendingFile.fileName(), pendingFile.contentType(), fileBlob);
+    }
+
+    //Stops reading the archive as soon as one entry has failed instead of streaming the rest for nothing
+    private void failFastOnUploads(AtomicReference<Throwable> firstFailure) {
+        Throwable failure = firstFailure.get();
+        if (failure != null) {
+            throw new CompletionException(failure);
+        }
+    }
+
+    //Drops the blob references taken so far, nothing has been recorded against them yet
+    private void releaseUploads(Collection<CompletableFuture<IngestedFile>> uploads, List<CompletableFuture<IngestedFile>> supersededUploads) {
+        List<CompletableFuture<IngestedFile>> allUploads = new ArrayList<>(uploads);
+        allUploads.addAll(supersededUploads);
+        for (CompletableFuture<IngestedFile> upload : allUploads) {
+            try {
+                fileBlobService.releaseBlob(upload.join().blob());
+            } catch (Exception e) {
+                log.debug("Upload failed before it took a blob reference: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Turns an entry's path into a path relative to the target folder. Absolute paths, "." segments and Windows
+     * separators are normalized, paths escaping the target folder with ".." are rejected.
+     *
+     * @return The normalized path, or null if the entry must be skipped.
+     */
+    private String normalizeEntryPath(String entryPath) {
+        if (entryPath == null) {
+            return null;
+        }
+
+        List<String> segments = new ArrayList<>();
+        for (String segment : entryPath.replace('\\', '/').split("/")) {
+            if (segment.isEmpty() || segment.equals(".")) {
+                continue;
+            }
+            if (!pathValidator.isValidFileName(segment)) {
+                return null;
+            }
+            segments.add(segment.trim());
+        }
+        return segments.isEmpty() ? null : String.join("/", segments);
+    }
+
+    private ArchiveReader openArchive(String contentType, InputStream inputStream) throws IOException {
+        String mediaType;
+        try {
+            MediaType parsedType = MediaType.parseMediaType(contentType == null ? "" : contentType);
+            mediaType = parsedType.getType() + "/" + parsedType.getSubtype();
+        } catch (InvalidMediaTypeException e) {
+            throw new InvalidArchiveException(String.format("Unsupported archive type: %s. Send a zip, tar or gzipped tar archive.", contentType), e);
+        }
+
+        if (ZIP_TYPES.contains(mediaType)) {
+            return new ZipArchiveReader(inputStream);
+        }
+        if (TAR_TYPES.contains(mediaType)) {
+            return new TarArchiveReader(inputStream);
+        }
+        if (GZIP_TAR_TYPES.contains(mediaType)) {
+            return new TarArchiveReader(new GZIPInputStream(inputStream));
+        }
+        throw new InvalidArchiveException(String.format("Unsupported archive type: %s. Send a zip, tar or gzipped tar archive.", contentType));
+    }
+}
@@ -0,0 +1,425 @@
+package com.victor.filestorageapi.service.aws.impl;
+
+import com.victor.filestorageapi.exception.InvalidRangeException;
+import com.victor.filestorageapi.exception.NoSuchUserFileException;
+import com.victor.filestorageapi.exception.UnsupportedStorageOperationException;
+import com.victor.filestorageapi.models.CachedObject;
+import com.victor.filestorageapi.models.PresignedTransfer;
+import com.victor.filestorageapi.models.entities.FileBlob;
+import com.victor.filestorageapi.models.entities.PackObject;
+import com.victor.filestorageapi.models.entities.User;
+import com.victor.filestorageapi.models.entities.UserFile;
+import com.victor.filestorageapi.models.enums.StorageCodec;
+import com.victor.filestorageapi.service.aws.FileDownloadService;
+import com.victor.filestorageapi.service.aws.ObjectCacheService;
+import com.victor.filestorageapi.service.aws.ObjectQueryService;
+import com.victor.filestorageapi.service.aws.ObjectStorageService;
+import com.victor.filestorageapi.service.aws.PresignedUrlService;
+import com.victor.filestorageapi.service.file.UserFileQueryService;
+import com.victor.filestorageapi.service.user.UserQueryService;
+import com.victor.filestorageapi.service.utils.S3Utils;
+import com.victor.filestorageapi.service.utils.StorageCodecResolver;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class FileDownloadServiceImpl implements FileDownloadService {
+
+    private final UserQueryService userQueryService;
+    private final UserFileQueryService userFileQueryService;
+    //Presigned URLs are only issued when objects are stored in S3
+    private final ObjectProvider<PresignedUrlService> presignedUrlService;
+    private final ObjectStorageService objectStorageService;
+    private final ObjectQueryService objectQueryService;
+    private final S3Utils s3Utils;
+    private final StorageCodecResolver storageCodecResolver;
+    private final ObjectCacheService objectCacheService;
+
+    //Every download is copied through a buffer of this size, so heap use per download is constant
+    private static final int COPY_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Presigns a GET of a file's current version so the client can download it straight from S3.
+     * The URL is pinned to the version ID, so it keeps returning the same bytes even if the file is overwritten.
+     * Compressed files are served with their Content-Encoding, so clients decode them transparently.
+     * Packed files are presigned with a Range header the client must send along with the signed headers.
+     *
+     * @param userId The id of the user downloading the file.
+     * @param fileId The id of the file.
+     * @return The presigned URL.
+     * @throws NoSuchUserFileException If the user has no active file with the given id.
+     */
+    @Override
+    public PresignedTransfer presignDownload(UUID userId, UUID fileId) {
+        User user = userQueryService.findUserById(userId);
+        UserFile userFile = userFileQueryService.findActiveFile(user, fileId);
+
+        //Packs are never compressed, a packed file is presigned as a ranged GET of its slice of the pack
+        String range = userFile.resolveObjectRange();
+        StorageCodec codec = StorageCodec.IDENTITY;
+        if (range == null) {
+            HeadObjectResponse headObjectResponse = objectQueryService.headObjectVersion(userFile.resolveObjectKey(), userFile.resolveObjectVersion());
+            if (headObjectResponse == null) {
+                throw new NoSuchUserFileException(String.format("File: %s not found", fileId));
+            }
+            codec = s3Utils.readCodec(headObjectResponse.metadata());
+        }
+
+        PresignedGetObjectRequest presignedRequest = presignedUrlService().presignGetObjectVersion(userFile.resolveObjectKey(),
+                userFile.resolveObjectVersion(),
+                userFile.getFileName(),
+                codec,
+                range);
+        log.info("Issued download URL for file: {} (VERSION: {}) for user: {}", userFile.getFilePath(), userFile.resolveObjectVersion(), user.getUsername());
+        return new PresignedTransfer(userFile.getFilePath(),
+                presignedRequest.url().toString(),
+                presignedRequest.httpRequest().method().name(),
+                presignedRequest.signedHeaders(),
+                presignedRequest.expiration());
+    }
+
+    /**
+     * Streams a file's current version to the response, honouring an HTTP Range header.
+     * No range sends the whole file with 200, one range sends 206 with a Content-Range and several ranges send 206 as
+     * {@code multipart/byteranges}. Every range is read from S3 with a ranged GET of the same version ID and piped to
+     * the response through a fixed size buffer, so the object is never materialized.
+     * Files stored compressed can't be read by byte range, so they are always sent whole: as they are stored with a
+     * Content-Encoding if the client accepts the codec, otherwise decompressed while they are piped.
+     * Full downloads read through the local disk cache and single ranges are served from it when the version is
+     * already cached, so popular files don't cost an S3 GET per download.
+     *
+     * @param userId The id of the user downloading the file.
+     * @param fileId The id of the file.
+     * @param rangeHeader The request's Range header, may be null.
+     * @param acceptEncoding The request's Accept-Encoding header, may be null.
+     * @param response The response to write the file to.
+     * @throws NoSuchUserFileException If the user has no active file with the given id.
+     * @throws InvalidRangeException If the Range header is malformed or none of its ranges can be satisfied.
+     * @throws IOException If writing to the client fails.
+     */
+    @Override
+    public void streamFile(UUID userId, UUID fileId, String rangeHeader, String acceptEncoding, HttpServletResponse response) throws IOException {
+        User user = userQueryService.findUserById(userId);
+        UserFile userFile = userFileQueryService.findActiveFile(user, fileId);
+        String s3Key = userFile.resolveObjectKey();
+        String versionId = userFile.resolveObjectVersion();
+        long fileSize = resolveFileSize(userFile);
+        List<HttpRange> ranges = parseRanges(rangeHeader, fileSize);
+        boolean packed = userFile.getBlob() != null && userFile.getBlob().isPacked();
+        if (!ranges.isEmpty() && !packed && isStoredCompressed(userFile)) {
+            log.debug("Ignoring Range header for compressed file: {}", s3Key);
+            ranges = List.of();
+        }
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition
+                .inline()
+                .filename(userFile.getFileName(), StandardCharsets.UTF_8)
+                .build()
+                .toString());
+
+        log.info("Streaming file: {} (VERSION: {}, RANGES: {}) for user: {}", s3Key, versionId, ranges.size(), user.getUsername());
+        if (packed) {
+            streamPackedFile(userFile, ranges, response);
+            return;
+        }
+
+        if (ranges.isEmpty()) {
+            Optional<CachedObject> cachedObject = objectCacheService.findCachedObject(s3Key, versionId);
+            if (cachedObject.isPresent()) {
+                try (CachedObject cached = cachedObject.get()) {
+                    StorageCodec codec = s3Utils.readCodec(cached.metadata());
+                    if (prepareFullResponse(userFile, codec, cached.size(), cached.eTag(), cached.contentType(), fileSize, acceptEncoding, response)) {
+                        transfer(cached.channel(), 0, cached.size(), response.getOutputStream());
+                    } else {
+                        try (InputStream decodedStream = codec.decode(Channels.newInputStream(cached.channel()))) {
+                            copy(decodedStream, response.getOutputStream());
+                        }
+                    }
+                }
+                return;
+            }
+
+            //A miss is streamed from S3 straight away and cached on the way through
+            try (ResponseInputStream<GetObjectResponse> objectStream = objectCacheService.openFillingStream(s3Key, versionId, fileSize)) {
+                GetObjectResponse objectResponse = objectStream.response();
+                StorageCodec codec = s3Utils.readCodec(objectResponse.metadata());
+                if (prepareFullResponse(userFile, codec, objectResponse.contentLength(), objectResponse.eTag(), objectResponse.contentType(), fileSize, acceptEncoding, response)) {
+                    pipe(objectStream, response.getOutputStream());
+                } else {
+                    try (InputStream decodedStream = codec.decode(objectStream)) {
+                        pipe(decodedStream, objectStream, response.getOutputStream());
+                    }
+                }
+            }
+            return;
+        }
+
+        if (ranges.size() == 1) {
+            Optional<CachedObject> cachedObject = objectCacheService.findCachedObject(s3Key, versionId);
+            if (cachedObject.isPresent()) {
+                try (CachedObject cached = cachedObject.get()) {
+                    long start = ranges.getFirst().getRangeStart(cached.size());
+                    long end = ranges.getFirst().getRangeEnd(cached.size());
+                    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                    response.setContentType(resolveContentType(userFile, cached.contentType()));
+                    response.setContentLengthLong(end - start + 1);
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + cached.size());
+                    response.setHeader(HttpHeaders.ETAG, cached.eTag());
+                    transfer(cached.channel(), start, end - start + 1, response.getOutputStream());
+                }
+                return;
+            }
+
+            try (ResponseInputStream<GetObjectResponse> objectStream = openRange(s3Key, versionId, ranges.getFirst(), fileSize)) {
+                GetObjectResponse objectResponse = objectStream.response();
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setContentType(resolveContentType(userFile, objectResponse.contentType()));
+                response.setContentLengthLong(objectResponse.contentLength());
+                response.setHeader(HttpHeaders.CONTENT_RANGE, objectResponse.contentRange());
+                response.setHeader(HttpHeaders.ETAG, objectResponse.eTag());
+                pipe(objectStream, response.getOutputStream());
+            }
+            return;
+        }
+
+        String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+        String contentType = userFile.getFileType();
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        ServletOutputStream outputStream = response.getOutputStream();
+
+        for (HttpRange range : ranges) {
+            try (ResponseInputStream<GetObjectResponse> objectStream = openRange(s3Key, versionId, range, fileSize)) {
+                GetObjectResponse objectResponse = objectStream.response();
+                if (response.getHeader(HttpHeaders.ETAG) == null) {
+                    response.setHeader(HttpHeaders.ETAG, objectResponse.eTag());
+                }
+
+                StringBuilder partHeaders = new StringBuilder()
+                        .append("\r\n--").append(boundary).append("\r\n");
+                if (contentType != null) {
+                    partHeaders.append(HttpHeaders.CONTENT_TYPE).append(": ").append(contentType).append("\r\n");
+                }
+                partHeaders.append(HttpHeaders.CONTENT_RANGE).append(": ").append(objectResponse.contentRange()).append("\r\n\r\n");
+                outputStream.write(partHeaders.toString().getBytes(StandardCharsets.US_ASCII));
+                pipe(objectStream, outputStream);
+            }
+        }
+        outputStream.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        outputStream.flush();
+    }
+
+    /**
+     * Streams a file whose content is a slice of a pack object. Packs are never compressed, so any single range is
+     * served with 206 by offsetting it into the pack. Several ranges of a file this small aren't worth a multipart
+     * response, the whole file is sent with 200 instead. The ETag is the content's hash since the pack's ETag covers
+     * every blob in it.
+     */
+    private void streamPackedFile(UserFile userFile, List<HttpRange> ranges, HttpServletResponse response) throws IOException {
+        FileBlob fileBlob = userFile.getBlob();
+        long size = fileBlob.getSize();
+        long start = 0;
+        long end = size - 1;
+        if (ranges.size() == 1) {
+            start = ranges.getFirst().getRangeStart(size);
+            end = ranges.getFirst().getRangeEnd(size);
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+        } else {
+            response.setStatus(HttpServletResponse.SC_OK);
+        }
+
+        String contentType = resolveContentType(userFile, null);
+        response.setContentType(contentType != null ? contentType : MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        response.setContentLengthLong(end - start + 1);
+        response.setHeader(HttpHeaders.ETAG, "\"" + fileBlob.getSha256() + "\"");
+
+        //Packs are read through the cache whole, one cached pack serves every small file in it
+        long packStart = fileBlob.getPackOffset() + start;
+        PackObject pack = fileBlob.getPack();
+        Optional<CachedObject> cachedPack = objectCacheService.readThrough(pack.getS3Key(), pack.getVersionId(), pack.getSize());
+        if (cachedPack.isPresent()) {
+            try (CachedObject cached = cachedPack.get()) {
+                transfer(cached.channel(), packStart, end - start + 1, response.getOutputStream());
+            }
+            return;
+        }
+
+        try (ResponseInputStream<GetObjectResponse> objectStream = objectStorageService.openObjectStream(pack.getS3Key(), pack.getVersionId(),
+                "bytes=" + packStart + "-" + (packStart + end - start))) {
+            pipe(objectStream, response.getOutputStream());
+        }
+    }
+
+    private ResponseInputStream<GetObjectResponse> openRange(String s3Key, String versionId, HttpRange range, long fileSize) {
+        long start = range.getRangeStart(fileSize);
+        long end = range.getRangeEnd(fileSize);
+        return objectStorageService.openObjectStream(s3Key, versionId, "bytes=" + start + "-" + end);
+    }
+
+    /**
+     * Sets the status and headers of a full download of an object, stored with the given codec.
+     * Compressed objects are sent as they are stored when the client accepts the codec, otherwise they are decoded.
+     *
+     * @return True if the stored bytes are sent as they are, false if they must be decoded first.
+     */
+    private boolean prepareFullResponse(UserFile userFile, StorageCodec codec, long storedLength, String eTag, String storedContentType,
+                                        long fileSize, String acceptEncoding, HttpServletResponse response) {
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(resolveContentType(userFile, storedContentType));
+        if (codec == StorageCodec.IDENTITY) {
+            response.setContentLengthLong(storedLength);
+            response.setHeader(HttpHeaders.ETAG, eTag);
+            return true;
+        }
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "none");
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (storageCodecResolver.isAcceptedEncoding(acceptEncoding, codec)) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, codec.getName());
+            response.setContentLengthLong(storedLength);
+            response.setHeader(HttpHeaders.ETAG, eTag);
+            return true;
+        }
+
+        //The ETag belongs to the stored bytes, the decoded representation only gets a weak one
+        response.setContentLengthLong(fileSize);
+        response.setHeader(HttpHeaders.ETAG, "W/" + eTag);
+        return false;
+    }
+
+    /**
+     * Copies an S3 stream to the client. If the client goes away the S3 stream is aborted
+     * instead of closed, so the rest of the object isn't drained from the connection.
+     */
+    private void pipe(ResponseInputStream<GetObjectResponse> objectStream, OutputStream outputStream) throws IOException {
+        pipe(objectStream, objectStream, outputStream);
+    }
+
+    //Copies a stream read on top of an S3 stream, e.g. a decoder, aborting the S3 stream if the copy fails
+    private void pipe(InputStream source, ResponseInputStream<GetObjectResponse> objectStream, OutputStream outputStream) throws IOException {
+        try {
+            copy(source, outputStream);
+        } catch (IOException e) {
+            objectStream.abort();
+            throw e;
+        }
+    }
+
+    private void copy(InputStream source, OutputStream outputStream) throws IOException {
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        int bytesRead;
+        while ((bytesRead = source.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, bytesRead);
+        }
+        outputStream.flush();
+    }
+
+    //Sends a region of a cached file with transferTo. The servlet stream is no channel, so the bytes still go through
+    //the wrapping channel's buffer, this only saves the read loop, it is not a zero-copy send
+    private void transfer(FileChannel channel, long position, long length, OutputStream outputStream) throws IOException {
+        WritableByteChannel target = Channels.newChannel(outputStream);
+        long end = position + length;
+        while (position < end) {
+            long transferred = channel.transferTo(position, end - position, target);
+            if (transferred <= 0) {
+                throw new EOFException(String.format("Cached object ended %s bytes early", end - position));
+            }
+            position += transferred;
+        }
+        outputStream.flush();
+    }
+
+    private List<HttpRange> parseRanges(String rangeHeader, long fileSize) {
+        if (rangeHeader == null || rangeHeader.isBlank()) {
+            return List.of();
+        }
+
+        List<HttpRange> ranges;
+        try {
+            ranges = HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidRangeException(String.format("Invalid Range header: %s", rangeHeader), fileSize, e);
+        }
+
+        //A range starting past the end of the file can't be satisfied, an empty file has no satisfiable ranges
+        List<HttpRange> satisfiableRanges = ranges
+                .stream()
+                .filter(range -> fileSize > 0 && isSatisfiable(range, fileSize))
+                .toList();
+        if (satisfiableRanges.isEmpty()) {
+            throw new InvalidRangeException(String.format("None of the requested ranges can be satisfied for a file of %s bytes", fileSize), fileSize);
+        }
+        return satisfiableRanges;
+    }
+
+    private boolean isSatisfiable(HttpRange range, long fileSize) {
+        try {
+            return range.getRangeStart(fileSize) < fileSize;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    //Deduplicated blobs carry the content type of whoever uploaded the content first, the file's own type wins
+    private String resolveContentType(UserFile userFile, String storedContentType) {
+        return userFile.getFileType() != null ? userFile.getFileType() : storedContentType;
+    }
+
+    //Only called when a range is requested, plain downloads read the codec from the GET response instead
+    private boolean isStoredCompressed(UserFile userFile) {
+        HeadObjectResponse headObjectResponse = objectQueryService.headObjectVersion(userFile.resolveObjectKey(), userFile.resolveObjectVersion());
+        if (headObjectResponse == null) {
+            throw new NoSuchUserFileException(String.format("File: %s not found", userFile.getId()));
+        }
+        return s3Utils.readCodec(headObjectResponse.metadata()) != StorageCodec.IDENTITY;
+    }
+
+    private long resolveFileSize(UserFile userFile) {
+        if (userFile.getFileSize() != null) {
+            return userFile.getFileSize();
+        }
+
+        HeadObjectResponse headObjectResponse = objectQueryService.headObjectVersion(userFile.resolveObjectKey(), userFile.resolveObjectVersion());
+        if (headObjectResponse == null) {
+            throw new NoSuchUserFileException(String.format("File: %s not found", userFile.getId()));
+        }
+        return headObjectResponse.contentLength();
+    }
+
+    private PresignedUrlService presignedUrlService() {
+        PresignedUrlService service = presignedUrlService.getIfAvailable();
+        if (service == null) {
+            throw new UnsupportedStorageOperationException("Presigned URLs are only available when files are stored in S3.");
+        }
+        return service;
+    }
+}
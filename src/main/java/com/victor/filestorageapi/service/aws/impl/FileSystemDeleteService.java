@@ -0,0 +1,86 @@
+package com.victor.filestorageapi.service.aws.impl;
+
+import com.victor.filestorageapi.exception.MyCustomS3Exception;
+import com.victor.filestorageapi.service.aws.ObjectDeleteService;
+import com.victor.filestorageapi.service.utils.FileSystemObjectStore;
+import com.victor.filestorageapi.service.utils.FileSystemObjectStore.ObjectVersion;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@Service
+@Profile("filesystem")
+@RequiredArgsConstructor
+@Slf4j
+public class FileSystemDeleteService implements ObjectDeleteService {
+
+    private final FileSystemObjectStore fileSystemObjectStore;
+
+    /**
+     * "Soft deletes" an object by writing a delete marker over its latest version. Previous versions are retained.
+     *
+     * @param objectKey The full key (path) of the object to be soft-deleted.
+     * @return The version ID of the delete marker that was created.
+     * @throws MyCustomS3Exception If the delete marker could not be written.
+     */
+    @Override
+    public String softDeleteObject(String objectKey) {
+        log.info("Attempting to soft-delete object with key: '{}'.", objectKey);
+        try {
+            String deleteMarkerVersionId = fileSystemObjectStore.putDeleteMarker(objectKey);
+            log.info("Successfully created delete marker for object '{}' (Delete Marker Version ID: '{}').", objectKey, deleteMarkerVersionId);
+            return deleteMarkerVersionId;
+        } catch (Exception e) {
+            log.error("An unexpected error occurred while trying to soft-delete object '{}'. Error: {}", objectKey, e.getMessage(), e);
+            throw new MyCustomS3Exception(String.format("An unexpected error occurred while trying to soft-delete object '%s'.", objectKey), e);
+        }
+    }
+
+    /**
+     * Permanently deletes a specific version of an object (or a delete marker). This action is irreversible.
+     *
+     * @param objectKey The full key (path) of the object.
+     * @param versionId The specific version ID to delete.
+     * @throws MyCustomS3Exception If the version could not be deleted.
+     */
+    @Override
+    public void permanentDeleteObjectVersion(String objectKey, String versionId) {
+        log.info("Attempting to permanently delete object key: '{}' with Version ID: '{}'.", objectKey, versionId);
+        try {
+            if (fileSystemObjectStore.deleteVersion(objectKey, versionId)) {
+                log.info("Permanently deleted object '{}' (Version ID: '{}').", objectKey, versionId);
+            } else {
+                log.warn("Object '{}' (Version ID: '{}') was already gone.", objectKey, versionId);
+            }
+        } catch (Exception e) {
+            log.error("An unexpected error occurred while trying to permanently delete object '{}' (Version ID: '{}'). Error: {}", objectKey, versionId, e.getMessage(), e);
+            throw new MyCustomS3Exception(
+                    String.format("An unexpected error occurred while trying to permanently delete object '%s' (Version ID: '%s').", objectKey, versionId), e
+            );
+        }
+    }
+
+    /**
+     * Writes a delete marker over every live object under the prefix.
+     *
+     * @return The version ID of the delete marker written for each key.
+     * @throws MyCustomS3Exception If the objects could not be listed or a delete marker could not be written.
+     */
+    @Override
+    public Map<String, String> putDeleteMarkersOnAllObjectsUnderPrefix(String s3ObjectKey) {
+        Map<String, String> mapS3KeyToDeleteMarkerId = new HashMap<>();
+        try {
+            for (ObjectVersion version : fileSystemObjectStore.listLatestVersions(s3ObjectKey)) {
+                mapS3KeyToDeleteMarkerId.put(version.key(), fileSystemObjectStore.putDeleteMarker(version.key()));
+            }
+            return mapS3KeyToDeleteMarkerId;
+        } catch (Exception e) {
+            log.error("An unexpected error occurred while trying to soft delete objects under prefix: {}", s3ObjectKey, e);
+            throw new MyCustomS3Exception(String.format("An unexpected error occurred while trying to soft delete objects under prefix: %s", s3ObjectKey), e);
+        }
+    }
+}
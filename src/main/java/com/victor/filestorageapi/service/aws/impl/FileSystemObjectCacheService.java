@@ -0,0 +1,66 @@
+package com.victor.filestorageapi.service.aws.impl;
+
+import com.victor.filestorageapi.exception.MyCustomS3Exception;
+import com.victor.filestorageapi.models.CachedObject;
+import com.victor.filestorageapi.service.aws.ObjectCacheService;
+import com.victor.filestorageapi.service.aws.ObjectStorageService;
+import com.victor.filestorageapi.service.utils.FileSystemObjectStore;
+import com.victor.filestorageapi.service.utils.FileSystemObjectStore.ObjectVersion;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+/**
+ * Serves object versions straight from the filesystem store's files. A second copy in the object cache would only
+ * duplicate them on the same disk, while handing out the store's own channels lets downloads go through
+ * {@link FileChannel#transferTo}.
+ * */
+@Service
+@Profile("filesystem")
+@RequiredArgsConstructor
+@Slf4j
+public class FileSystemObjectCacheService implements ObjectCacheService {
+
+    private final FileSystemObjectStore fileSystemObjectStore;
+    private final ObjectStorageService objectStorageService;
+
+    @Override
+    public Optional<CachedObject> findCachedObject(String s3Key, String versionId) {
+        return open(s3Key, versionId);
+    }
+
+    @Override
+    public Optional<CachedObject> readThrough(String s3Key, String versionId, long expectedSize) {
+        return open(s3Key, versionId);
+    }
+
+    //Found versions are always served from findCachedObject, so this is only reached for versions that don't exist
+    @Override
+    public ResponseInputStream<GetObjectResponse> openFillingStream(String s3Key, String versionId, long expectedSize) {
+        return objectStorageService.openObjectStream(s3Key, versionId, null);
+    }
+
+    private Optional<CachedObject> open(String s3Key, String versionId) {
+        try {
+            Optional<ObjectVersion> version = fileSystemObjectStore.findVersion(s3Key, versionId)
+                    .filter(found -> !found.deleteMarker());
+            if (version.isEmpty()) {
+                return Optional.empty();
+            }
+
+            ObjectVersion found = version.get();
+            FileChannel channel = FileChannel.open(found.dataFile(), StandardOpenOption.READ);
+            return Optional.of(new CachedObject(channel, found.size(), found.eTag(), found.contentType(), found.metadata()));
+        } catch (Exception e) {
+            log.error("An unexpected error occurred while trying to open object: {} (VERSION: {}). Error: {}", s3Key, versionId, e.getMessage(), e);
+            throw new MyCustomS3Exception(String.format("An unexpected error occurred while trying to open object: %s (VERSION: %s)", s3Key, versionId), e);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.victor.filestorageapi.service.aws.impl;
+
+import com.victor.filestorageapi.exception.MyCustomS3Exception;
+import com.victor.filestorageapi.models.LatestObjectVersion;
+import com.victor.filestorageapi.models.ObjectMetadata;
+import com.victor.filestorageapi.service.aws.ObjectQueryService;
+import com.victor.filestorageapi.service.utils.FileSystemObjectStore;
+import com.victor.filestorageapi.service.utils.FileSystemObjectStore.ObjectVersion;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+
+import java.util.List;
+
+@Service
+@Profile("filesystem")
+@RequiredArgsConstructor
+@Slf4j
+public class FileSystemQueryService implements ObjectQueryService {
+
+    private final FileSystemObjectStore fileSystemObjectStore;
+
+    @Override
+    public String getObjectVersionId(String key) {
+        return findLiveVersion(key, null).versionId();
+    }
+
+    @Override
+    public String getObjectContentType(String key) {
+        return findLiveVersion(key, null).contentType();
+    }
+
+    @Override
+    public ObjectMetadata getObjectMetadata(String key) {
+        ObjectVersion version = findLiveVersion(key, null);
+        return new ObjectMetadata(key, version.versionId(), version.contentType(), version.size(), version.eTag());
+    }
+
+    /**
+     * Reads an object version's metadata without opening its data file.
+     *
+     * @param versionId The version to describe, the latest version is described when null.
+     * @return The object's metadata, or null if the object (version) does not exist.
+     * @throws MyCustomS3Exception If the metadata could not be read.
+     */
+    @Override
+    public HeadObjectResponse headObjectVersion(String key, String versionId) {
+        ObjectVersion version;
+        try {
+            version = fileSystemObjectStore.findVersion(key, versionId).orElse(null);
+        } catch (Exception e) {
+            log.error("An unexpected exception occurred while trying to get metadata for: {} (VERSION: {})", key, versionId, e);
+            throw new MyCustomS3Exception(String.format("An unexpected exception occurred while trying to get metadata for: %s", key), e);
+        }
+
+        if (version == null || version.deleteMarker()) {
+            log.warn("Object: {} (VERSION: {}) does not exist", key, versionId);
+            return null;
+        }
+        return HeadObjectResponse
+                .builder()
+                .versionId(version.versionId())
+                .eTag(version.eTag())
+                .contentType(version.contentType())
+                .contentLength(version.size())
+                .metadata(version.metadata())
+                .lastModified(version.lastModified())
+                .build();
+    }
+
+    private ObjectVersion findLiveVersion(String key, String versionId) {
+        try {
+            return fileSystemObjectStore.findVersion(key, versionId)
+                    .filter(version -> !version.deleteMarker())
+                    .orElseThrow(() -> new MyCustomS3Exception(String.format("Object: %s does not exist", key)));
+        } catch (MyCustomS3Exception e) {
+            log.error("Object: {} (VERSION: {}) does not exist", key, versionId);
+            throw e;
+        } catch (Exception e) {
+            log.error("An unexpected exception occurred while trying to read object: {} (VERSION: {})", key, versionId, e);
+            throw new MyCustomS3Exception(String.format("An unexpected exception occurred while trying to read object: %s", key), e);
+        }
+    }
+
+    @Override
+    public List<LatestObjectVersion> listLatestVersions(String prefix) {
+        try {
+            return fileSystemObjectStore.listLatestVersions(prefix)
+                    .stream()
+                    .map(version -> new LatestObjectVersion(version.key(), version.versionId(), version.size(), version.eTag(), version.lastModified()))
+                    .toList();
+        } catch (Exception e) {
+            log.error("An unexpected exception occurred while trying to list the versions under prefix: {}", prefix, e);
+            throw new MyCustomS3Exception(String.format("An unexpected exception occurred while trying to list the versions under prefix: %s", prefix), e);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.victor.filestorageapi.service.aws.impl;
+
+import com.victor.filestorageapi.exception.MyCustomS3Exception;
+import com.victor.filestorageapi.models.StoredObject;
+import com.victor.filestorageapi.models.entities.User;
+import com.victor.filestorageapi.models.enums.StorageCodec;
+import com.victor.filestorageapi.service.aws.ObjectStorageService;
+import com.victor.filestorageapi.service.utils.CountingInputStream;
+import com.victor.filestorageapi.service.utils.FileRangeInputStream;
+import com.victor.filestorageapi.service.utils.FileSystemObjectStore;
+import com.victor.filestorageapi.service.utils.FileSystemObjectStore.ObjectVersion;
+import com.victor.filestorageapi.service.utils.S3Utils;
+import com.victor.filestorageapi.service.utils.StorageCodecResolver;
+import jakarta.annotation.Nullable;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StreamUtils;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Stores objects on a local or mounted filesystem instead of S3, for sites where the extra network hop to an S3
+ * endpoint costs more than it is worth. Versions, delete markers and version IDs behave like a versioned bucket's,
+ * so the folder, move and snapshot services work unchanged, with their async and copy calls answered by
+ * {@link BlockingAsyncObjectStorageService} and {@link BlockingObjectCopyService}. Presigned URLs and upload sessions
+ * need S3 itself and are rejected under this profile.
+ * */
+@Service
+@Profile("filesystem")
+@RequiredArgsConstructor
+@Slf4j
+public class FileSystemStorageService implements ObjectStorageService {
+
+    private final FileSystemObjectStore fileSystemObjectStore;
+    private final S3Utils s3Utils;
+    private final StorageCodecResolver storageCodecResolver;
+
+    //Logged as the owner of objects the service writes for itself
+    private static final String INTERNAL_OWNER = "system";
+
+    /**
+     * Streams an input stream into a new version of the key. Compressible content types are compressed on the way in
+     * and the codec and original size are recorded in the version's metadata.
+     *
+     * @param user The user that owns the object.
+     * @param s3Key The key the object will be stored under.
+     * @param contentType The content type of the object.
+     * @param inputStream The stream holding the object's bytes. It is read until EOF but not closed.
+     * @return The stored object's version ID, original (uncompressed) size and ETag.
+     * @throws MyCustomS3Exception If the object could not be written.
+     */
+    @Override
+    public StoredObject uploadFile(User user, String s3Key, String contentType, InputStream inputStream) {
+        log.info("Attempting to write object '{}' for user '{}'.", s3Key, user.getUsername());
+        StorageCodec codec = storageCodecResolver.resolveCodec(contentType);
+        CountingInputStream countingStream = new CountingInputStream(inputStream);
+
+        //The caller owns the request stream, closing the encoder must only release the codec's native resources
+        try (InputStream encodedStream = codec.encode(StreamUtils.nonClosing(countingStream))) {
+            //The metadata is resolved after the content is written, so the original size is final by then
+            StoredObject storedObject = writeObject(user.getUsername(), s3Key, contentType,
+                    () -> s3Utils.buildOwnerMetadata(user, codec, countingStream.getCount()), encodedStream);
+            return new StoredObject(s3Key, storedObject.versionId(), countingStream.getCount(), storedObject.eTag());
+        } catch (IOException e) {
+            log.error("Failed to release the upload stream for object '{}'. Error: {}", s3Key, e.getMessage(), e);
+            throw new MyCustomS3Exception(String.format("Failed to release the upload stream for object '%s'.", s3Key), e);
+        }
+    }
+
+    @Override
+    public StoredObject uploadInternalObject(String s3Key, String contentType, InputStream inputStream) {
+        log.info("Attempting to write internal object '{}'.", s3Key);
+        return writeObject(INTERNAL_OWNER, s3Key, contentType, HashMap::new, inputStream);
+    }
+
+    private StoredObject writeObject(String owner, String s3Key, String contentType, Supplier<Map<String, String>> metadata, InputStream inputStream) {
+        try {
+            ObjectVersion version = fileSystemObjectStore.write(s3Key, contentType, metadata, inputStream);
+            log.info("Successfully wrote object '{}' ({} bytes, Version ID: {}) for user '{}'.", s3Key, version.size(), version.versionId(), owner);
+            return new StoredObject(s3Key, version.versionId(), version.size(), version.eTag());
+        } catch (Exception e) {
+            log.error("An unexpected error occurred while trying to write object '{}' for user '{}'. Error: {}", s3Key, owner, e.getMessage(), e);
+            throw new MyCustomS3Exception(String.format("An unexpected error occurred while trying to write object '%s'.", s3Key), e);
+        }
+    }
+
+    /**
+     * Creates an empty folder-like object with contentType "application/x-directory" for a user.
+     *
+     * @return The version ID of the newly created object.
+     * @throws MyCustomS3Exception If the object could not be written.
+     */
+    @Override
+    public String createObject(User user, String newS3Key) {
+        log.info("Attempting to create object '{}' for user '{}'.", newS3Key, user.getUsername());
+        try {
+            ObjectVersion version = fileSystemObjectStore.write(newS3Key, "application/x-directory",
+                    s3Utils.buildOwnerMetadata(user), new ByteArrayInputStream(new byte[0]));
+            log.info("Successfully created object '{}' (Version ID: {}) for user '{}'.", newS3Key, version.versionId(), user.getUsername());
+            return version.versionId();
+        } catch (Exception e) {
+            log.error("An unexpected error occurred while trying to create object '{}' for user '{}'. Error: {}",
+                    newS3Key, user.getUsername(), e.getMessage(), e);
+            throw new MyCustomS3Exception(
+                    String.format("An unexpected error occurred while trying to create object '%s' for user '%s'.", newS3Key, user.getUsername()), e
+            );
+        }
+    }
+
+    /**
+     * Copies an object version to a new version of another key. The content type is kept from the source, the same
+     * way a CopyObject without a metadata directive keeps it.
+     *
+     * @param versionId The version to copy, the latest version is copied when null.
+     * @return The version ID of the copy.
+     * @throws MyCustomS3Exception If the source version does not exist or could not be copied.
+     */
+    @Override
+    public String copyS3ObjectVersion(String newKey, String oldKey, String versionId, String contentType) {
+        log.info("Attempting to copy object from '{}' to '{}'.", oldKey, newKey);
+        ObjectVersion copy;
+        try {
+            copy = fileSystemObjectStore.copy(oldKey, versionId, newKey).orElse(null);
+        } catch (Exception e) {
+            log.error("An unexpected error occurred while trying to copy object from '{}' to '{}'. Error: {}", oldKey, newKey, e.getMessage(), e);
+            throw new MyCustomS3Exception(
+                    String.format("An unexpected error occurred while trying to copy object from '%s' to '%s'.", oldKey, newKey), e
+            );
+        }
+
+        if (copy == null) {
+            log.warn("Failed to copy object: Source object '{}' (VERSION: {}) was not found.", oldKey, versionId);
+            throw new MyCustomS3Exception(String.format("The source object '%s' was not found.", oldKey));
+        }
+        log.info("Successfully copied object from '{}' to '{}' (New Object Version ID: '{}').", oldKey, newKey, copy.versionId());
+        return copy.versionId();
+    }
+
+    /**
+     * Restores a version of an object by copying it over the latest version.
+     *
+     * @return The version ID of the restored copy.
+     * @throws MyCustomS3Exception If the version does not exist or could not be copied.
+     */
+    @Override
+    public String retrieveVersionedObject(String s3ObjectKey, String versionForRetrieval) {
+        log.info("Attempting to retrieve object: {} (VERSION: {})", s3ObjectKey, versionForRetrieval);
+        return copyS3ObjectVersion(s3ObjectKey, s3ObjectKey, versionForRetrieval, null);
+    }
+
+    @Override
+    public List<S3Object> listS3ObjectsByPrefix(String prefix) {
+        log.info("Attempting to list objects for prefix: {}", prefix);
+        try {
+            List<S3Object> objects = fileSystemObjectStore.listLatestVersions(prefix)
+                    .stream()
+                    .map(version -> S3Object
+                            .builder()
+                            .key(version.key())
+                            .size(version.size())
+                            .eTag(version.eTag())
+                            .lastModified(version.lastModified())
+                            .build())
+                    .toList();
+            log.info("Finished listing {} objects for prefix: {}.", objects.size(), prefix);
+            return objects;
+        } catch (Exception e) {
+            log.error("An unexpected error occurred while trying to list objects from '{}'. Error: {}", prefix, e.getMessage(), e);
+            throw new MyCustomS3Exception(
+                    String.format("An unexpected error occurred while trying to list objects from '%s'.", prefix), e
+            );
+        }
+    }
+
+    //The store walks the key's directories in one go, so the stream is over the finished listing
+    @Override
+    public Stream<S3Object> streamS3ObjectsByPrefix(String prefix) {
+        return listS3ObjectsByPrefix(prefix).stream();
+    }
+
+    /**
+     * Hides the latest version of an object behind a delete marker, keeping its previous versions like a delete on a
+     * versioned bucket.
+     *
+     * @param path The key of the object.
+     * @throws MyCustomS3Exception If the delete marker could not be written.
+     */
+    @Override
+    public void deleteFile(String path) {
+        try {
+            String deleteMarkerVersionId = fileSystemObjectStore.putDeleteMarker(path);
+            log.info("Successfully deleted object '{}' (Delete Marker Version ID: '{}').", path, deleteMarkerVersionId);
+        } catch (Exception e) {
+            log.error("An unexpected error occurred while trying to delete object '{}'. Error: {}", path, e.getMessage(), e);
+            throw new MyCustomS3Exception(String.format("An unexpected error occurred while trying to delete object '%s'.", path), e);
+        }
+    }
+
+    @Override
+    public Resource loadFile(String path) {
+        return new InputStreamResource(openObjectStream(path, null, null), path);
+    }
+
+    /**
+     * Opens a stream over an object version, or a byte range of it. The stream reads the version's file with
+     * positional reads and copies it with {@link FileChannel#transferTo} when asked to transfer itself.
+     *
+     * @param s3Key The key of the object.
+     * @param versionId The version to read, the latest version is read when null.
+     * @param range An HTTP range such as {@code bytes=0-1023}, the whole object is read when null.
+     * @return The stream, whose {@code response()} holds the object's length, content range and ETag.
+     * @throws MyCustomS3Exception If the object does not exist or could not be opened.
+     */
+    @Override
+    public ResponseInputStream<GetObjectResponse> openObjectStream(String s3Key, @Nullable String versionId, @Nullable String range) {
+        ObjectVersion version;
+        try {
+            version = fileSystemObjectStore.findVersion(s3Key, versionId).orElse(null);
+        } catch (Exception e) {
+            log.error("An unexpected error occurred while trying to open object: {} (VERSION: {}, RANGE: {}). Error: {}", s3Key, versionId, range, e.getMessage(), e);
+            throw new MyCustomS3Exception(String.format("An unexpected error occurred while trying to open object: %s (VERSION: %s)", s3Key, versionId), e);
+        }
+
+        if (version == null || version.deleteMarker()) {
+            log.error("Failed to open object: {} (VERSION: {}) because it does not exist", s3Key, versionId);
+            throw new MyCustomS3Exception(String.format("Failed to open object: %s (VERSION: %s) because it does not exist", s3Key, versionId));
+        }
+
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(version.dataFile(), StandardOpenOption.READ);
+            long size = channel.size();
+            long[] bounds = s3Utils.resolveRange(range, size);
+            long length = bounds[1] - bounds[0] + 1;
+
+            GetObjectResponse.Builder response = GetObjectResponse
+                    .builder()
+                    .versionId(version.versionId())
+                    .eTag(version.eTag())
+                    .contentType(version.contentType())
+                    .metadata(version.metadata())
+                    .lastModified(version.lastModified())
+                    .acceptRanges("bytes")
+                    .contentLength(length);
+            if (range != null) {
+                response.contentRange("bytes " + bounds[0] + "-" + bounds[1] + "/" + size);
+            }
+
+            return new ResponseInputStream<>(response.build(), AbortableInputStream.create(new FileRangeInputStream(channel, bounds[0], length)));
+        } catch (Exception e) {
+            closeQuietly(channel);
+            log.error("An unexpected error occurred while trying to open object: {} (VERSION: {}, RANGE: {}). Error: {}", s3Key, versionId, range, e.getMessage(), e);
+            throw new MyCustomS3Exception(String.format("An unexpected error occurred while trying to open object: %s (VERSION: %s)", s3Key, versionId), e);
+        }
+    }
+
+    private void closeQuietly(@Nullable FileChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Failed to close an object file. Error: {}", e.getMessage());
+        }
+    }
+}
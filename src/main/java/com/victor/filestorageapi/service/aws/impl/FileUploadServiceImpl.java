@@ -1,19 +1,211 @@
 package com.victor.filestorageapi.service.aws.impl;
 
+import com.victor.filestorageapi.exception.NoSuchUserFileException;
+import com.victor.filestorageapi.exception.UnsupportedStorageOperationException;
+import com.victor.filestorageapi.exception.UserFileUploadException;
+import com.victor.filestorageapi.models.PresignedTransfer;
+import com.victor.filestorageapi.models.StoredObject;
+import com.victor.filestorageapi.models.entities.FileBlob;
+import com.victor.filestorageapi.models.entities.User;
+import com.victor.filestorageapi.models.entities.UserFile;
+import com.victor.filestorageapi.models.entities.UserFolder;
 import com.victor.filestorageapi.service.aws.FileUploadService;
+import com.victor.filestorageapi.service.aws.ObjectDeleteService;
+import com.victor.filestorageapi.service.aws.ObjectQueryService;
+import com.victor.filestorageapi.service.aws.PresignedUrlService;
+import com.victor.filestorageapi.service.file.FileBlobService;
+import com.victor.filestorageapi.service.file.UserFileCommandService;
+import com.victor.filestorageapi.service.folder.UserFolderQueryService;
+import com.victor.filestorageapi.service.user.UserQueryService;
+import com.victor.filestorageapi.service.utils.PathValidator;
+import com.victor.filestorageapi.service.utils.S3Utils;
 import lombok.RequiredArgsConstructor;
-import org.springframework.security.core.userdetails.User;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
-import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedPutObjectRequest;
+
+import java.io.InputStream;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.regex.Pattern;
 
 @Service
 @RequiredArgsConstructor
+@Slf4j
 public class FileUploadServiceImpl implements FileUploadService {
 
-    private final S3Client s3Client;
+    private final UserQueryService userQueryService;
+    private final UserFolderQueryService userFolderQueryService;
+    private final UserFileCommandService userFileCommandService;
+    private final ObjectDeleteService objectDeleteService;
+    private final ObjectQueryService objectQueryService;
+    //Presigned URLs are only issued when objects are stored in S3
+    private final ObjectProvider<PresignedUrlService> presignedUrlService;
+    private final PathValidator pathValidator;
+    private final S3Utils s3Utils;
+    private final FileBlobService fileBlobService;
+
+    private static final Pattern SHA256_HEX_PATTERN = Pattern.compile("^[0-9a-f]{64}$");
+
+    /**
+     * Streams a file into S3 and records it as a user file once the upload has completed.
+     * The file is hashed with SHA-256 as it streams in and stored once per distinct content as a blob, so repeated
+     * uploads of the same content share one object. When the client sends the content's hash up front and the user
+     * already has a file with that content, the file is recorded without reading the body at all.
+     *
+     * @param userId The id of the user uploading the file.
+     * @param folderId The id of the folder to upload into, defaults to the user's root folder when null.
+     * @param fileName The name of the file.
+     * @param contentType The content type sent by the client, may be null.
+     * @param contentSha256 The hex encoded SHA-256 of the file sent by the client, may be null.
+     * @param inputStream The request body holding the file's bytes.
+     * @return The saved user file.
+     * @throws UserFileUploadException If the file name or hash is invalid, the content doesn't match the hash,
+     * or the file could not be recorded in the DB.
+     */
+    @Override
+    public UserFile uploadFile(UUID userId, UUID folderId, String fileName, String contentType, String contentSha256, InputStream inputStream) {
+        fileName = validateFileName(userId, fileName);
+        String expectedSha256 = validateSha256(contentSha256);
+        User user = userQueryService.findUserById(userId);
+        UserFolder userFolder = userFolderQueryService.findActiveFolderOrRoot(user, folderId);
+        String s3Key = pathValidator.buildFileS3Key(userFolder.getFolderPath(), fileName);
+        String resolvedContentType = resolveContentType(contentType);
+
+        if (expectedSha256 != null) {
+            Optional<FileBlob> knownBlob = fileBlobService.referenceBlobOwnedByUser(user, expectedSha256);
+            if (knownBlob.isPresent()) {
+                log.info("Content of file: {} is already stored for user: {}. Recording it without an upload.", s3Key, user.getUsername());
+                return recordBlobOrRelease(user, userFolder, s3Key, fileName, resolvedContentType, knownBlob.get());
+            }
+        }
+
+        log.info("Attempting to upload file: {} for user: {}", s3Key, user.getUsername());
+        FileBlob fileBlob = fileBlobService.storeContent(user, resolvedContentType, expectedSha256, inputStream);
+        return recordBlobOrRelease(user, userFolder, s3Key, fileName, resolvedContentType, fileBlob);
+    }
 
+    /**
+     * Presigns a PUT so the client can upload the file's bytes straight to S3 instead of through this API.
+     * The user's id is signed into the object's metadata, which {@link #commitPresignedUpload} checks before recording the file.
+     *
+     * @param userId The id of the user uploading the file.
+     * @param folderId The id of the folder to upload into, defaults to the user's root folder when null.
+     * @param fileName The name of the file.
+     * @param contentType The content type the client will upload with, may be null.
+     * @return The presigned URL and the headers the client has to send with it.
+     * @throws UserFileUploadException If the file name is invalid.
+     */
     @Override
-    public String uploadFile(User user, String s3Key) {
-        return "";
+    public PresignedTransfer presignUpload(UUID userId, UUID folderId, String fileName, String contentType) {
+        fileName = validateFileName(userId, fileName);
+        User user = userQueryService.findUserById(userId);
+        UserFolder userFolder = userFolderQueryService.findActiveFolderOrRoot(user, folderId);
+        String s3Key = pathValidator.buildFileS3Key(userFolder.getFolderPath(), fileName);
+
+        PresignedPutObjectRequest presignedRequest = presignedUrlService().presignPutObject(s3Key,
+                resolveContentType(contentType),
+                s3Utils.buildOwnerMetadata(user));
+        return new PresignedTransfer(s3Key,
+                presignedRequest.url().toString(),
+                presignedRequest.httpRequest().method().name(),
+                presignedRequest.signedHeaders(),
+                presignedRequest.expiration());
+    }
+
+    /**
+     * Records a file the client uploaded with a presigned URL. The object's version, size and content type are read
+     * from S3 with a HEAD request rather than trusted from the client.
+     *
+     * @param userId The id of the user that uploaded the file.
+     * @param folderId The id of the folder the file was uploaded into, defaults to the user's root folder when null.
+     * @param fileName The name of the file.
+     * @param versionId The version ID S3 returned for the upload. The latest version is recorded when null.
+     * @return The saved user file.
+     * @throws NoSuchUserFileException If no object uploaded by the user exists at the file's path.
+     * @throws UserFileUploadException If the file name is invalid or the file could not be recorded in the DB.
+     */
+    @Override
+    public UserFile commitPresignedUpload(UUID userId, UUID folderId, String fileName, String versionId) {
+        fileName = validateFileName(userId, fileName);
+        User user = userQueryService.findUserById(userId);
+        UserFolder userFolder = userFolderQueryService.findActiveFolderOrRoot(user, folderId);
+        String s3Key = pathValidator.buildFileS3Key(userFolder.getFolderPath(), fileName);
+
+        HeadObjectResponse headObjectResponse = objectQueryService.headObjectVersion(s3Key, versionId);
+        //The metadata is signed into the presigned URL, so only objects uploaded with this user's URL can be claimed
+        if (headObjectResponse == null || !s3Utils.isOwnedBy(headObjectResponse.metadata(), user)) {
+            log.warn("No uploaded object found at: {} (VERSION: {}) for user: {}", s3Key, versionId, user.getUsername());
+            throw new NoSuchUserFileException(String.format("No uploaded object found for file: %s", fileName));
+        }
+
+        StoredObject storedObject = new StoredObject(s3Key,
+                headObjectResponse.versionId(),
+                headObjectResponse.contentLength(),
+                headObjectResponse.eTag());
+        log.info("Committing presigned upload of file: {} (VERSION: {}) for user: {}", s3Key, storedObject.versionId(), user.getUsername());
+        return recordOrCleanUp(user, userFolder, fileName, resolveContentType(headObjectResponse.contentType()), storedObject);
+    }
+
+    private UserFile recordBlobOrRelease(User user, UserFolder userFolder, String s3Key, String fileName, String contentType, FileBlob fileBlob) {
+        try {
+            return userFileCommandService.recordBlobFile(user, userFolder, s3Key, fileName, contentType, fileBlob);
+        } catch (Exception e) {
+            log.error("Failed to save uploaded file: {} (BLOB: {}) to DB for user: {}. Error: {}", s3Key, fileBlob.getS3Key(), user.getUsername(), e.getMessage(), e);
+            fileBlobService.releaseBlob(fileBlob);
+            throw new UserFileUploadException(String.format("Failed to save uploaded file: %s", s3Key), e);
+        }
+    }
+
+    private UserFile recordOrCleanUp(User user, UserFolder userFolder, String fileName, String contentType, StoredObject storedObject) {
+        String s3Key = storedObject.s3Key();
+        try {
+            return userFileCommandService.recordUploadedFile(user, userFolder, fileName, contentType, storedObject);
+        } catch (Exception e) {
+            log.error("Failed to save uploaded file: {} (VERSION: {}) to DB for user: {}. Error: {}", s3Key, storedObject.versionId(), user.getUsername(), e.getMessage(), e);
+            //The object has been written to S3 but the DB save failed, remove the orphaned version
+            try {
+                objectDeleteService.permanentDeleteObjectVersion(s3Key, storedObject.versionId());
+            } catch (Exception cleanupEx) {
+                log.error("CRITICAL: Failed to clean up S3 object {} (Version: {}) for user {} after DB save failure. Manual intervention may be required.", s3Key, storedObject.versionId(), user.getUsername(), cleanupEx);
+            }
+            throw new UserFileUploadException(String.format("Failed to save uploaded file: %s", s3Key), e);
+        }
+    }
+
+    private String validateFileName(UUID userId, String fileName) {
+        if (!pathValidator.isValidFileName(fileName)) {
+            log.warn("Invalid file name: {} for user: {}", fileName, userId);
+            throw new UserFileUploadException(String.format("Invalid file name: '%s'. File names must not be empty or contain '/'.", fileName));
+        }
+        return fileName.trim();
+    }
+
+    private String resolveContentType(String contentType) {
+        return contentType == null || contentType.isBlank()
+                ? MediaType.APPLICATION_OCTET_STREAM_VALUE : contentType;
+    }
+
+    private String validateSha256(String contentSha256) {
+        if (contentSha256 == null || contentSha256.isBlank()) {
+            return null;
+        }
+
+        String normalized = contentSha256.trim().toLowerCase();
+        if (!SHA256_HEX_PATTERN.matcher(normalized).matches()) {
+            throw new UserFileUploadException(String.format("Invalid SHA-256: '%s'. It must be 64 hex characters.", contentSha256));
+        }
+        return normalized;
+    }
+
+    private PresignedUrlService presignedUrlService() {
+        PresignedUrlService service = presignedUrlService.getIfAvailable();
+        if (service == null) {
+            throw new UnsupportedStorageOperationException("Presigned URLs are only available when files are stored in S3.");
+        }
+        return service;
     }
 }
@@ -0,0 +1,208 @@
+package com.victor.filestorageapi.service.aws.impl;
+
+import com.victor.filestorageapi.config.ArchiveProperties;
+import com.victor.filestorageapi.exception.MyCustomS3Exception;
+import com.victor.filestorageapi.exception.NoSuchUserFolderException;
+import com.victor.filestorageapi.models.entities.User;
+import com.victor.filestorageapi.models.entities.UserFile;
+import com.victor.filestorageapi.models.entities.UserFolder;
+import com.victor.filestorageapi.repository.UserFileRepository;
+import com.victor.filestorageapi.repository.UserFolderRepository;
+import com.victor.filestorageapi.service.aws.FolderArchiveService;
+import com.victor.filestorageapi.service.aws.ObjectStorageService;
+import com.victor.filestorageapi.service.folder.UserFolderQueryService;
+import com.victor.filestorageapi.service.user.UserQueryService;
+import com.victor.filestorageapi.service.utils.S3Utils;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.attribute.FileTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class FolderArchiveServiceImpl implements FolderArchiveService {
+
+    private final UserQueryService userQueryService;
+    private final UserFolderQueryService userFolderQueryService;
+    private final UserFolderRepository userFolderRepository;
+    private final UserFileRepository userFileRepository;
+    private final ObjectStorageService objectStorageService;
+    private final S3Utils s3Utils;
+    private final ArchiveProperties archiveProperties;
+    private final ExecutorService archivePrefetchExecutor;
+
+    private static final int COPY_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Streams a ZIP of every active file under a folder, built while it is being sent.
+     * The objects are fetched {@code prefetchDepth} entries ahead of the one being written, so the next object is
+     * usually ready by the time the current one has been sent. Small objects are read into a buffer while prefetching,
+     * larger ones are held as an open stream, so memory use is bounded by {@code prefetchDepth * prefetchBufferSize}.
+     * Files whose object can't be read are left out rather than breaking an archive that is already being sent.
+     *
+     * @param userId The id of the user downloading the folder.
+     * @param folderId The id of the folder.
+     * @param response The response to write the archive to.
+     * @throws NoSuchUserFolderException If the user has no active folder with the given id.
+     * @throws IOException If writing to the client fails.
+     */
+    @Override
+    public void streamFolderArchive(UUID userId, UUID folderId, HttpServletResponse response) throws IOException {
+        User user = userQueryService.findUserById(userId);
+        UserFolder userFolder = userFolderQueryService.findActiveFolderOrRoot(user, folderId);
+        String folderPath = userFolder.getFolderPath();
+        String rootEntryName = userFolder.getName() + "/";
+
+        List<UserFile> userFiles = userFileRepository.findByUserAndFilePathStartingWithAndAndIsDeletedFalse(user, folderPath)
+                .stream()
+                .sorted(Comparator.comparing(UserFile::getFilePath))
+                .toList();
+        List<String> subFolderPaths = userFolderRepository.findByUserAndFolderPathStartingWithAndIsDeletedFalse(user, folderPath)
+                .stream()
+                .map(UserFolder::getFolderPath)
+                .filter(path -> !path.equals(folderPath))
+                .sorted()
+                .toList();
+
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType("application/zip");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition
+                .attachment()
+                .filename(userFolder.getName() + ".zip", StandardCharsets.UTF_8)
+                .build()
+                .toString());
+
+        log.info("Streaming archive of folder: {} ({} files, {} folders) for user: {}", folderPath, userFiles.size(), subFolderPaths.size(), user.getUsername());
+        Deque<CompletableFuture<PrefetchedObject>> prefetchWindow = new ArrayDeque<>();
+        Iterator<UserFile> filesToPrefetch = userFiles.iterator();
+        int prefetchDepth = Math.max(1, archiveProperties.getPrefetchDepth());
+        int skippedFiles = 0;
+
+        ZipOutputStream zipOutputStream = new ZipOutputStream(response.getOutputStream(), StandardCharsets.UTF_8);
+        zipOutputStream.setLevel(archiveProperties.getCompressionLevel());
+        try {
+            zipOutputStream.putNextEntry(new ZipEntry(rootEntryName));
+            zipOutputStream.closeEntry();
+            //Folders are written up front, so empty folders survive the round trip too
+            for (String subFolderPath : subFolderPaths) {
+                zipOutputStream.putNextEntry(new ZipEntry(rootEntryName + subFolderPath.substring(folderPath.length())));
+                zipOutputStream.closeEntry();
+            }
+
+            while (prefetchWindow.size() < prefetchDepth && filesToPrefetch.hasNext()) {
+                prefetchWindow.add(prefetch(filesToPrefetch.next()));
+            }
+
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            while (!prefetchWindow.isEmpty()) {
+                CompletableFuture<PrefetchedObject> nextObject = prefetchWindow.poll();
+                if (filesToPrefetch.hasNext()) {
+                    prefetchWindow.add(prefetch(filesToPrefetch.next()));
+                }
+
+                PrefetchedObject prefetchedObject;
+                try {
+                    prefetchedObject = nextObject.join();
+                } catch (CompletionException e) {
+                    log.warn("Leaving a file out of the archive of folder: {} for user: {}. Error: {}", folderPath, user.getUsername(), e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+                    skippedFiles++;
+                    continue;
+                }
+
+                UserFile userFile = prefetchedObject.userFile();
+                ZipEntry zipEntry = new ZipEntry(rootEntryName + userFile.getFilePath().substring(folderPath.length()));
+                if (userFile.getUpdatedAt() != null) {
+                    zipEntry.setLastModifiedTime(FileTime.from(userFile.getUpdatedAt().atZone(ZoneId.systemDefault()).toInstant()));
+                }
+
+                try (InputStream content = prefetchedObject.content()) {
+                    zipOutputStream.putNextEntry(zipEntry);
+                    int bytesRead;
+                    while ((bytesRead = content.read(buffer)) != -1) {
+                        zipOutputStream.write(buffer, 0, bytesRead);
+                    }
+                    zipOutputStream.closeEntry();
+                } catch (IOException e) {
+                    prefetchedObject.abort();
+                    throw e;
+                }
+            }
+            zipOutputStream.finish();
+            zipOutputStream.flush();
+        } catch (IOException e) {
+            log.warn("Client stopped reading the archive of folder: {} for user: {}. Error: {}", folderPath, user.getUsername(), e.getMessage());
+            prefetchWindow.forEach(this::discard);
+            throw e;
+        } catch (RuntimeException e) {
+            prefetchWindow.forEach(this::discard);
+            throw e;
+        }
+
+        if (skippedFiles > 0) {
+            log.warn("Archive of folder: {} for user: {} is missing {} files", folderPath, user.getUsername(), skippedFiles);
+        }
+        log.info("Streamed archive of folder: {} for user: {}", folderPath, user.getUsername());
+    }
+
+    private CompletableFuture<PrefetchedObject> prefetch(UserFile userFile) {
+        return CompletableFuture.supplyAsync(() -> openObject(userFile), archivePrefetchExecutor);
+    }
+
+    private PrefetchedObject openObject(UserFile userFile) {
+        String s3Key = userFile.resolveObjectKey();
+        String versionId = userFile.resolveObjectVersion();
+        ResponseInputStream<GetObjectResponse> objectStream = objectStorageService.openObjectStream(s3Key, versionId, userFile.resolveObjectRange());
+        long bufferSize = archiveProperties.getPrefetchBufferSize().toBytes();
+
+        try {
+            InputStream content = s3Utils.readCodec(objectStream.response().metadata()).decode(objectStream);
+            //The stored length of a compressed object says nothing about its decoded size, the file's size does
+            long decodedSize = userFile.getFileSize() != null ? userFile.getFileSize() : Long.MAX_VALUE;
+            if (objectStream.response().contentLength() <= bufferSize && decodedSize <= bufferSize) {
+                try (content) {
+                    return new PrefetchedObject(userFile, new ByteArrayInputStream(content.readAllBytes()), null);
+                }
+            }
+            return new PrefetchedObject(userFile, content, objectStream);
+        } catch (IOException e) {
+            objectStream.abort();
+            log.error("Failed to prefetch object: {} (VERSION: {}). Error: {}", s3Key, versionId, e.getMessage(), e);
+            throw new MyCustomS3Exception(String.format("Failed to prefetch object: %s (VERSION: %s)", s3Key, versionId), e);
+        }
+    }
+
+    //Releases whatever a prefetch holds once it completes, without waiting for it
+    private void discard(CompletableFuture<PrefetchedObject> prefetch) {
+        prefetch.thenAccept(PrefetchedObject::abort);
+    }
+
+    /**
+     * An object read ahead of the entry being written. The object stream is only set when the content is still being
+     * read from the connection, so it can be aborted instead of drained.
+     * */
+    private record PrefetchedObject(UserFile userFile, InputStream content, ResponseInputStream<GetObjectResponse> objectStream) {
+        void abort() {
+            if (objectStream != null) {
+                objectStream.abort();
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.victor.filestorageapi.service.aws.impl;
+
+import com.victor.filestorageapi.models.constants.S3Constant;
+import com.victor.filestorageapi.service.aws.ObjectDeleteService;
+import com.victor.filestorageapi.service.utils.InMemoryObjectStore;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@Service
+@Profile("memory")
+@RequiredArgsConstructor
+@Slf4j
+public class InMemoryDeleteService implements ObjectDeleteService {
+
+    private final InMemoryObjectStore inMemoryObjectStore;
+
+    @Override
+    public String softDeleteObject(String objectKey) {
+        return inMemoryObjectStore.putDeleteMarker(objectKey);
+    }
+
+    @Override
+    public void permanentDeleteObjectVersion(String objectKey, String versionId) {
+        if (!inMemoryObjectStore.deleteVersion(objectKey, versionId)) {
+            log.warn("Object '{}' (Version ID: '{}') was already gone.", objectKey, versionId);
+        }
+    }
+
+    /**
+     * Puts delete markers on every live object under the prefix, listing the keys page by page and deleting them in
+     * DeleteObjects sized batches like the S3 implementation does.
+     *
+     * @return The version ID of the delete marker written for each key.
+     */
+    @Override
+    public Map<String, String> putDeleteMarkersOnAllObjectsUnderPrefix(String s3ObjectKey) {
+        Map<String, String> mapS3KeyToDeleteMarkerId = new HashMap<>();
+        List<ObjectIdentifier> objectsToBatchDelete = new ArrayList<>();
+        String continuationToken = null;
+        do {
+            ListObjectsV2Response listObjectsV2Response = inMemoryObjectStore.listObjectsV2(ListObjectsV2Request
+                    .builder()
+                    .prefix(s3ObjectKey)
+                    .continuationToken(continuationToken)
+                    .build());
+
+            for (S3Object s3Object : listObjectsV2Response.contents()) {
+                objectsToBatchDelete.add(ObjectIdentifier.builder().key(s3Object.key()).build());
+                if (objectsToBatchDelete.size() == S3Constant.batch_size) {
+                    processBatchSoftDelete(objectsToBatchDelete, mapS3KeyToDeleteMarkerId);
+                    objectsToBatchDelete.clear();
+                }
+            }
+            continuationToken = listObjectsV2Response.isTruncated() ? listObjectsV2Response.nextContinuationToken() : null;
+        } while (continuationToken != null);
+
+        processBatchSoftDelete(objectsToBatchDelete, mapS3KeyToDeleteMarkerId);
+        return mapS3KeyToDeleteMarkerId;
+    }
+
+    private void processBatchSoftDelete(List<ObjectIdentifier> objectsToBatchDelete, Map<String, String> mapS3ObjectsToDeleteMarkerId) {
+        if (objectsToBatchDelete.isEmpty()) {
+            return;
+        }
+
+        DeleteObjectsResponse deleteObjectsResponse = inMemoryObjectStore.deleteObjects(DeleteObjectsRequest
+                .builder()
+                .delete(Delete.builder().objects(objectsToBatchDelete).build())
+                .build());
+        deleteObjectsResponse.deleted().forEach(deletedObject ->
+                mapS3ObjectsToDeleteMarkerId.put(deletedObject.key(), deletedObject.deleteMarkerVersionId()));
+    }
+}
@@ -0,0 +1,68 @@
+package com.victor.filestorageapi.service.aws.impl;
+
+import com.victor.filestorageapi.exception.MyCustomS3Exception;
+import com.victor.filestorageapi.models.LatestObjectVersion;
+import com.victor.filestorageapi.models.ObjectMetadata;
+import com.victor.filestorageapi.service.aws.ObjectQueryService;
+import com.victor.filestorageapi.service.utils.InMemoryObjectStore;
+import com.victor.filestorageapi.service.utils.InMemoryObjectStore.ObjectVersion;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+
+import java.util.List;
+
+@Service
+@Profile("memory")
+@RequiredArgsConstructor
+public class InMemoryQueryService implements ObjectQueryService {
+
+    private final InMemoryObjectStore inMemoryObjectStore;
+
+    @Override
+    public String getObjectVersionId(String key) {
+        return findLiveVersion(key).versionId();
+    }
+
+    @Override
+    public String getObjectContentType(String key) {
+        return findLiveVersion(key).contentType();
+    }
+
+    @Override
+    public ObjectMetadata getObjectMetadata(String key) {
+        ObjectVersion version = findLiveVersion(key);
+        return new ObjectMetadata(key, version.versionId(), version.contentType(), version.size(), version.eTag());
+    }
+
+    @Override
+    public HeadObjectResponse headObjectVersion(String key, String versionId) {
+        return inMemoryObjectStore.findVersion(key, versionId)
+                .filter(version -> !version.deleteMarker())
+                .map(version -> HeadObjectResponse
+                        .builder()
+                        .versionId(version.versionId())
+                        .eTag(version.eTag())
+                        .contentType(version.contentType())
+                        .contentLength(version.size())
+                        .metadata(version.metadata())
+                        .lastModified(version.lastModified())
+                        .build())
+                .orElse(null);
+    }
+
+    private ObjectVersion findLiveVersion(String key) {
+        return inMemoryObjectStore.findVersion(key, null)
+                .filter(version -> !version.deleteMarker())
+                .orElseThrow(() -> new MyCustomS3Exception(String.format("Object: %s does not exist", key)));
+    }
+
+    @Override
+    public List<LatestObjectVersion> listLatestVersions(String prefix) {
+        return inMemoryObjectStore.listLatestVersions(prefix)
+                .stream()
+                .map(version -> new LatestObjectVersion(version.key(), version.versionId(), version.size(), version.eTag(), version.lastModified()))
+                .toList();
+    }
+}
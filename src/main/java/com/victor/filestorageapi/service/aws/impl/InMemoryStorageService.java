@@ -0,0 +1,186 @@
+package com.victor.filestorageapi.service.aws.impl;
+
+import com.victor.filestorageapi.exception.MyCustomS3Exception;
+import com.victor.filestorageapi.models.StoredObject;
+import com.victor.filestorageapi.models.entities.User;
+import com.victor.filestorageapi.models.enums.StorageCodec;
+import com.victor.filestorageapi.service.aws.ObjectStorageService;
+import com.victor.filestorageapi.service.utils.CountingInputStream;
+import com.victor.filestorageapi.service.utils.InMemoryObjectStore;
+import com.victor.filestorageapi.service.utils.InMemoryObjectStore.ObjectVersion;
+import com.victor.filestorageapi.service.utils.S3Utils;
+import com.victor.filestorageapi.service.utils.StorageCodecResolver;
+import jakarta.annotation.Nullable;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StreamUtils;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * Keeps objects in memory instead of S3, so move, delete and restore can be run and measured at scale without
+ * LocalStack. Versions, delete markers and listing pages behave like a versioned bucket's. The async and copy calls
+ * of those services are answered by {@link BlockingAsyncObjectStorageService} and {@link BlockingObjectCopyService},
+ * so no request reaches S3 under this profile. Presigned URLs and upload sessions need S3 itself and are rejected.
+ * */
+@Service
+@Profile("memory")
+@RequiredArgsConstructor
+@Slf4j
+public class InMemoryStorageService implements ObjectStorageService {
+
+    private final InMemoryObjectStore inMemoryObjectStore;
+    private final S3Utils s3Utils;
+    private final StorageCodecResolver storageCodecResolver;
+
+    /**
+     * Stores an input stream as a new version of the key. Compressible content types are compressed on the way in
+     * and the codec and original size are recorded in the version's metadata.
+     *
+     * @return The stored object's version ID, original (uncompressed) size and ETag.
+     * @throws MyCustomS3Exception If the stream could not be read.
+     */
+    @Override
+    public StoredObject uploadFile(User user, String s3Key, String contentType, InputStream inputStream) {
+        StorageCodec codec = storageCodecResolver.resolveCodec(contentType);
+        CountingInputStream countingStream = new CountingInputStream(inputStream);
+
+        //The caller owns the request stream, closing the encoder must only release the codec's native resources
+        try (InputStream encodedStream = codec.encode(StreamUtils.nonClosing(countingStream))) {
+            byte[] encodedContent = encodedStream.readAllBytes();
+            ObjectVersion version = inMemoryObjectStore.put(s3Key, contentType,
+                    s3Utils.buildOwnerMetadata(user, codec, countingStream.getCount()), encodedContent);
+            log.debug("Stored object '{}' (Version ID: {}) for user '{}'.", s3Key, version.versionId(), user.getUsername());
+            return new StoredObject(s3Key, version.versionId(), countingStream.getCount(), version.eTag());
+        } catch (IOException e) {
+            log.error("Failed to read the upload stream for object '{}'. Error: {}", s3Key, e.getMessage(), e);
+            throw new MyCustomS3Exception(String.format("Failed to read the upload stream for object '%s'.", s3Key), e);
+        }
+    }
+
+    @Override
+    public StoredObject uploadInternalObject(String s3Key, String contentType, InputStream inputStream) {
+        try {
+            ObjectVersion version = inMemoryObjectStore.put(s3Key, contentType, new HashMap<>(), inputStream.readAllBytes());
+            return new StoredObject(s3Key, version.versionId(), version.size(), version.eTag());
+        } catch (IOException e) {
+            log.error("Failed to read the upload stream for object '{}'. Error: {}", s3Key, e.getMessage(), e);
+            throw new MyCustomS3Exception(String.format("Failed to read the upload stream for object '%s'.", s3Key), e);
+        }
+    }
+
+    @Override
+    public String createObject(User user, String newS3Key) {
+        return inMemoryObjectStore.put(newS3Key, "application/x-directory", s3Utils.buildOwnerMetadata(user), new byte[0]).versionId();
+    }
+
+    /**
+     * Copies an object version to a new version of another key, keeping the source's content type.
+     *
+     * @param versionId The version to copy, the latest version is copied when null.
+     * @return The version ID of the copy.
+     * @throws MyCustomS3Exception If the source version does not exist.
+     */
+    @Override
+    public String copyS3ObjectVersion(String newKey, String oldKey, String versionId, String contentType) {
+        return inMemoryObjectStore.copy(oldKey, versionId, newKey)
+                .map(ObjectVersion::versionId)
+                .orElseThrow(() -> {
+                    log.warn("Failed to copy object: Source object '{}' (VERSION: {}) was not found.", oldKey, versionId);
+                    return new MyCustomS3Exception(String.format("The source object '%s' was not found.", oldKey));
+                });
+    }
+
+    @Override
+    public String retrieveVersionedObject(String s3ObjectKey, String versionForRetrieval) {
+        return copyS3ObjectVersion(s3ObjectKey, s3ObjectKey, versionForRetrieval, null);
+    }
+
+    //Pages through the keys the same way the S3 implementation pages through ListObjectsV2
+    @Override
+    public List<S3Object> listS3ObjectsByPrefix(String prefix) {
+        List<S3Object> allObjects = new ArrayList<>();
+        String continuationToken = null;
+        do {
+            ListObjectsV2Response listObjectsV2Response = inMemoryObjectStore.listObjectsV2(ListObjectsV2Request
+                    .builder()
+                    .prefix(prefix)
+                    .continuationToken(continuationToken)
+                    .build());
+            allObjects.addAll(listObjectsV2Response.contents());
+            continuationToken = listObjectsV2Response.isTruncated() ? listObjectsV2Response.nextContinuationToken() : null;
+        } while (continuationToken != null);
+        return allObjects;
+    }
+
+    //Pages are read from memory as the stream reaches them, so there is nothing to gain from fetching ahead
+    @Override
+    public Stream<S3Object> streamS3ObjectsByPrefix(String prefix) {
+        return Stream.iterate(listPage(prefix, null),
+                        Objects::nonNull,
+                        page -> page.isTruncated() ? listPage(prefix, page.nextContinuationToken()) : null)
+                .flatMap(page -> page.contents().stream());
+    }
+
+    private ListObjectsV2Response listPage(String prefix, @Nullable String continuationToken) {
+        return inMemoryObjectStore.listObjectsV2(ListObjectsV2Request
+                .builder()
+                .prefix(prefix)
+                .continuationToken(continuationToken)
+                .build());
+    }
+
+    @Override
+    public void deleteFile(String path) {
+        String deleteMarkerVersionId = inMemoryObjectStore.putDeleteMarker(path);
+        log.info("Successfully deleted object '{}' (Delete Marker Version ID: '{}').", path, deleteMarkerVersionId);
+    }
+
+    @Override
+    public Resource loadFile(String path) {
+        return new InputStreamResource(openObjectStream(path, null, null), path);
+    }
+
+    @Override
+    public ResponseInputStream<GetObjectResponse> openObjectStream(String s3Key, @Nullable String versionId, @Nullable String range) {
+        ObjectVersion version = inMemoryObjectStore.findVersion(s3Key, versionId)
+                .filter(found -> !found.deleteMarker())
+                .orElseThrow(() -> new MyCustomS3Exception(String.format("Failed to open object: %s (VERSION: %s) because it does not exist", s3Key, versionId)));
+
+        long[] bounds = s3Utils.resolveRange(range, version.size());
+        int length = (int) (bounds[1] - bounds[0] + 1);
+        GetObjectResponse.Builder response = GetObjectResponse
+                .builder()
+                .versionId(version.versionId())
+                .eTag(version.eTag())
+                .contentType(version.contentType())
+                .metadata(version.metadata())
+                .lastModified(version.lastModified())
+                .acceptRanges("bytes")
+                .contentLength((long) length);
+        if (range != null) {
+            response.contentRange("bytes " + bounds[0] + "-" + bounds[1] + "/" + version.size());
+        }
+
+        return new ResponseInputStream<>(response.build(),
+                AbortableInputStream.create(new ByteArrayInputStream(version.content(), (int) bounds[0], length)));
+    }
+}
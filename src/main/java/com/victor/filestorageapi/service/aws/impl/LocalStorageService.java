@@ -1,31 +1,45 @@
 package com.victor.filestorageapi.service.aws.impl;
 
+import com.victor.filestorageapi.config.ListingProperties;
+import com.victor.filestorageapi.config.UploadProperties;
 import com.victor.filestorageapi.exception.MyCustomS3Exception;
-import com.victor.filestorageapi.models.constants.S3Constant;
+import com.victor.filestorageapi.models.MultipartUpload;
+import com.victor.filestorageapi.models.StoredObject;
 import com.victor.filestorageapi.models.entities.User;
+import com.victor.filestorageapi.models.enums.StorageCodec;
+import com.victor.filestorageapi.service.aws.BucketResolver;
+import com.victor.filestorageapi.service.aws.MultipartUploadService;
 import com.victor.filestorageapi.service.aws.ObjectStorageService;
+import com.victor.filestorageapi.service.aws.PrefixListingService;
 import com.victor.filestorageapi.service.aws.S3VersioningManager;
+import com.victor.filestorageapi.service.aws.WriteVerifier;
+import com.victor.filestorageapi.service.utils.CountingInputStream;
+import com.victor.filestorageapi.service.utils.PrefetchingPageIterator;
 import com.victor.filestorageapi.service.utils.S3Utils;
+import com.victor.filestorageapi.service.utils.StorageCodecResolver;
 import jakarta.annotation.Nullable;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.InputStreamResource;
 import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
+import org.springframework.util.StreamUtils;
+import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.core.sync.RequestBody;
-import software.amazon.awssdk.core.waiters.WaiterResponse;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
-import software.amazon.awssdk.services.s3.waiters.S3Waiter;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 @Service
-@Profile("local")
+@Profile("local & !filesystem & !memory")
 @Slf4j
 @RequiredArgsConstructor
 public class LocalStorageService implements ObjectStorageService {
@@ -33,11 +47,210 @@ public class LocalStorageService implements ObjectStorageService {
     private final S3Client s3Client;
     private final S3Utils s3Utils;
     private final S3VersioningManager s3VersioningManager;
+    private final MultipartUploadService multipartUploadService;
+    private final UploadProperties uploadProperties;
+    private final ExecutorService uploadPartExecutor;
+    private final StorageCodecResolver storageCodecResolver;
+    private final WriteVerifier writeVerifier;
+    private final BucketResolver bucketResolver;
+    private final PrefixListingService prefixListingService;
+    private final ListingProperties listingProperties;
+    private final ExecutorService listingPrefetchExecutor;
 
+    //Logged as the owner of objects the service writes for itself
+    private static final String INTERNAL_OWNER = "system";
 
+
+    /**
+     * Streams an input stream into S3 without holding the whole object in memory.
+     * Streams smaller than one part are sent with a single PUT, anything larger is sent as a multipart upload
+     * with at most {@code maxInFlightParts} parts being uploaded at once. Heap use per upload is therefore bounded by
+     * {@code (maxInFlightParts + 1) * partSize} regardless of the object size.
+     * Compressible content types are compressed on the way up and the codec is recorded in the object's metadata. The
+     * original size is only recorded there for objects sent with a single PUT, the returned one is what callers keep.
+     *
+     * @param user The user that owns the object.
+     * @param s3Key The key the object will be stored under.
+     * @param contentType The content type of the object.
+     * @param inputStream The stream holding the object's bytes. It is read until EOF but not closed.
+     * @return The stored object's version ID, original (uncompressed) size and ETag.
+     * @throws MyCustomS3Exception If the upload fails. Any started multipart upload is aborted.
+     */
     @Override
-    public void uploadFile(String prefix, MultipartFile file) {
-        // Implementation for file upload will go here
+    public StoredObject uploadFile(User user, String s3Key, String contentType, InputStream inputStream) {
+        log.info("Attempting to upload object '{}' for user '{}'.", s3Key, user.getUsername());
+        StorageCodec codec = storageCodecResolver.resolveCodec(contentType);
+        Map<String, String> metadata = s3Utils.buildOwnerMetadata(user, codec);
+        CountingInputStream countingStream = new CountingInputStream(inputStream);
+
+        //The caller owns the request stream, closing the encoder must only release the codec's native resources
+        try (InputStream encodedStream = codec.encode(StreamUtils.nonClosing(countingStream))) {
+            StoredObject storedObject = putObject(user.getUsername(), s3Key, contentType, metadata,
+                    () -> s3Utils.buildOwnerMetadata(user, codec, countingStream.getCount()), encodedStream);
+            if (codec != StorageCodec.IDENTITY) {
+                log.info("Stored object '{}' with codec '{}' ({} bytes compressed to {} bytes).",
+                        s3Key, codec.getName(), countingStream.getCount(), storedObject.size());
+            }
+            return new StoredObject(s3Key, storedObject.versionId(), countingStream.getCount(), storedObject.eTag());
+        } catch (IOException e) {
+            log.error("Failed to release the upload stream for object '{}'. Error: {}", s3Key, e.getMessage(), e);
+            throw new MyCustomS3Exception(String.format("Failed to release the upload stream for object '%s'.", s3Key), e);
+        }
+    }
+
+    /**
+     * Streams an object the service owns itself, e.g. a pack of small blobs, into S3. It carries no owner metadata and
+     * is never compressed, since its bytes are read back by offset.
+     *
+     * @param s3Key The key the object will be stored under.
+     * @param contentType The content type of the object.
+     * @param inputStream The stream holding the object's bytes. It is read until EOF but not closed.
+     * @return The stored object's version ID, size and ETag.
+     * @throws MyCustomS3Exception If the upload fails. Any started multipart upload is aborted.
+     */
+    @Override
+    public StoredObject uploadInternalObject(String s3Key, String contentType, InputStream inputStream) {
+        log.info("Attempting to upload internal object '{}'.", s3Key);
+        Map<String, String> metadata = new HashMap<>();
+        return putObject(INTERNAL_OWNER, s3Key, contentType, metadata, () -> metadata, inputStream);
+    }
+
+    /**
+     * @param metadata The metadata known before the stream is read.
+     * @param completedMetadata The metadata once the stream has been read, which may describe the content. Only
+     *                          objects sent with a single PUT carry it.
+     * */
+    private StoredObject putObject(String owner, String s3Key, String contentType, Map<String, String> metadata,
+                                   Supplier<Map<String, String>> completedMetadata, InputStream inputStream) {
+        int partSize = (int) uploadProperties.getPartSizeInBytes();
+        byte[] firstPart = new byte[partSize];
+
+        int bytesRead;
+        try {
+            bytesRead = readFully(inputStream, firstPart);
+        } catch (IOException e) {
+            log.error("Failed to read the upload stream for object '{}'. Error: {}", s3Key, e.getMessage(), e);
+            throw new MyCustomS3Exception(String.format("Failed to read the upload stream for object '%s'.", s3Key), e);
+        }
+
+        //The whole object fit in a single part so there is no need for a multipart upload
+        if (bytesRead < partSize) {
+            return putSmallObject(owner, s3Key, contentType, completedMetadata.get(), firstPart, bytesRead);
+        }
+
+        //S3 fixes a multipart upload's metadata when the upload is created, before the content is read, so metadata
+        //that describes the content is only recorded for single PUTs. Callers keep what they need of it in the DB
+        return putMultipartObject(owner, s3Key, contentType, metadata, inputStream, firstPart);
+    }
+
+    private StoredObject putSmallObject(String owner, String s3Key, String contentType, Map<String, String> metadata, byte[] content, int length) {
+        String bucketName = bucketResolver.resolve(s3Key);
+        try {
+            PutObjectRequest putObjectRequest = PutObjectRequest
+                    .builder()
+                    .metadata(metadata)
+                    .bucket(bucketName)
+                    .key(s3Key)
+                    .contentType(contentType)
+                    .contentLength((long) length)
+                    .build();
+
+            PutObjectResponse putResponse = s3Client.putObject(putObjectRequest,
+                    RequestBody.fromByteBuffer(ByteBuffer.wrap(content, 0, length)));
+            log.info("Successfully uploaded object '{}' ({} bytes, Version ID: {}) for user '{}'.", s3Key, length, putResponse.versionId(), owner);
+            return new StoredObject(s3Key, putResponse.versionId(), length, putResponse.eTag());
+        } catch (S3Exception e) {
+            log.error("An S3 error occurred while trying to upload object '{}' for user '{}'. Error: {}", s3Key, owner, e.getMessage(), e);
+            throw new MyCustomS3Exception(String.format("An S3 error occurred while trying to upload object '%s'.", s3Key), e);
+        } catch (Exception e) {
+            log.error("An unexpected error occurred while trying to upload object '{}' for user '{}'. Error: {}", s3Key, owner, e.getMessage(), e);
+            throw new MyCustomS3Exception(String.format("An unexpected error occurred while trying to upload object '%s'.", s3Key), e);
+        }
+    }
+
+    private StoredObject putMultipartObject(String owner, String s3Key, String contentType, Map<String, String> metadata, InputStream inputStream, byte[] firstPart) {
+        int partSize = firstPart.length;
+        int maxInFlightParts = Math.max(1, uploadProperties.getMaxInFlightParts());
+
+        //Buffers are recycled through this queue, so taking one blocks the reader until an in-flight part finishes
+        BlockingQueue<byte[]> freeBuffers = new ArrayBlockingQueue<>(maxInFlightParts + 1);
+        int allocatedBuffers = 1;
+
+        MultipartUpload multipartUpload = multipartUploadService.createMultipartUpload(s3Key, contentType, metadata);
+        List<CompletableFuture<CompletedPart>> uploadedParts = new ArrayList<>();
+        long totalBytes = 0;
+
+        try {
+            byte[] buffer = firstPart;
+            int bytesRead = partSize;
+            int partNumber = 1;
+
+            while (bytesRead > 0) {
+                totalBytes += bytesRead;
+                uploadedParts.add(submitPart(multipartUpload, partNumber++, buffer, bytesRead, freeBuffers));
+                failFastOnUploadedParts(uploadedParts);
+
+                buffer = freeBuffers.poll();
+                if (buffer == null && allocatedBuffers <= maxInFlightParts) {
+                    buffer = new byte[partSize];
+                    allocatedBuffers++;
+                } else if (buffer == null) {
+                    buffer = freeBuffers.take();
+                }
+
+                bytesRead = readFully(inputStream, buffer);
+            }
+
+            List<CompletedPart> completedParts = new ArrayList<>();
+            for (CompletableFuture<CompletedPart> uploadedPart : uploadedParts) {
+                completedParts.add(uploadedPart.join());
+            }
+
+            CompleteMultipartUploadResponse completeResponse =
+                    multipartUploadService.completeMultipartUpload(multipartUpload, completedParts);
+            log.info("Successfully uploaded object '{}' ({} bytes in {} parts, Version ID: {}) for user '{}'.",
+                    s3Key, totalBytes, completedParts.size(), completeResponse.versionId(), owner);
+            return new StoredObject(s3Key, completeResponse.versionId(), totalBytes, completeResponse.eTag());
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            multipartUploadService.abortMultipartUpload(multipartUpload);
+            throw new MyCustomS3Exception(String.format("The upload of object '%s' was interrupted.", s3Key), e);
+        } catch (Exception e) {
+            log.error("Failed to upload object '{}' for user '{}' after reading {} bytes. Aborting multipart upload. Error: {}", s3Key, owner, totalBytes, e.getMessage(), e);
+            uploadedParts.forEach(part -> part.cancel(true));
+            multipartUploadService.abortMultipartUpload(multipartUpload);
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof MyCustomS3Exception s3Exception) {
+                throw s3Exception;
+            }
+            throw new MyCustomS3Exception(String.format("An unexpected error occurred while trying to upload object '%s'.", s3Key), e);
+        }
+    }
+
+    private CompletableFuture<CompletedPart> submitPart(MultipartUpload multipartUpload, int partNumber, byte[] buffer, int length, BlockingQueue<byte[]> freeBuffers) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return multipartUploadService.uploadPart(multipartUpload, partNumber,
+                        RequestBody.fromByteBuffer(ByteBuffer.wrap(buffer, 0, length)));
+            } finally {
+                freeBuffers.offer(buffer);
+            }
+        }, uploadPartExecutor);
+    }
+
+    //Stops reading the request body as soon as one part has failed instead of streaming the rest for nothing
+    private void failFastOnUploadedParts(List<CompletableFuture<CompletedPart>> uploadedParts) {
+        for (CompletableFuture<CompletedPart> uploadedPart : uploadedParts) {
+            if (uploadedPart.isCompletedExceptionally()) {
+                uploadedPart.join();
+            }
+        }
+    }
+
+    //Fills the buffer unless the stream ends first, returns the number of bytes read
+    private int readFully(InputStream inputStream, byte[] buffer) throws IOException {
+        return inputStream.readNBytes(buffer, 0, buffer.length);
     }
 
     /**
@@ -50,15 +263,15 @@ public class LocalStorageService implements ObjectStorageService {
      */
     @Override
     public String createObject(User user, String newS3Key) {
+        String bucketName = bucketResolver.resolve(newS3Key);
         try {
             log.info("Attempting to create object '{}' for user '{}'.",
                      newS3Key, user.getUsername());
-            S3Waiter s3Waiter = s3Client.waiter();
 
             PutObjectRequest putNewObjectRequest = PutObjectRequest
                     .builder()
-                    .metadata(addCredentials(user))
-                    .bucket(S3Constant.bucket_name)
+                    .metadata(s3Utils.buildOwnerMetadata(user))
+                    .bucket(bucketName)
                     .key(newS3Key)
                     .contentType("application/x-directory") // Assuming it's a folder-like object
                     .contentLength(0L)
@@ -68,29 +281,16 @@ public class LocalStorageService implements ObjectStorageService {
             String versionId = putResponse.versionId(); // Capture the version ID
 
             log.info("Successfully initiated put for object '{}' (Version ID: {}) for user '{}'.", newS3Key, versionId, user.getUsername());
-
-            HeadObjectRequest headObjectRequest = HeadObjectRequest
-                    .builder()
-                    .bucket(S3Constant.bucket_name) // Specify bucket for head request
-                    .key(newS3Key)
-                    .versionId(versionId) // Wait for the specific version to exist
-                    .build();
-
-            log.debug("Waiting for object '{}' (Version ID: {}) to be created.", newS3Key, versionId);
-            WaiterResponse<HeadObjectResponse> waiterResponse = s3Waiter.waitUntilObjectExists(headObjectRequest);
-
-            waiterResponse.matched().response().ifPresent(headObjectResponse -> {
-                log.debug("Waiter confirmed the existence of object: '{}' (Version ID: {}).", newS3Key, versionId);
-            });
+            writeVerifier.verifyWritten("create", newS3Key, versionId);
 
             log.info("Successfully created object '{}' (Version ID: {}) for user '{}'.", newS3Key, versionId, user.getUsername());
             return versionId;
 
         } catch (S3Exception e) {
             log.error("An S3 error occurred while trying to create object '{}' for user '{}' in bucket '{}'. Error: {}",
-                    newS3Key, user.getUsername(), S3Constant.bucket_name, e.getMessage(), e);
+                    newS3Key, user.getUsername(), bucketName, e.getMessage(), e);
             throw new MyCustomS3Exception(
-                    String.format("An S3 error occurred while trying to create object '%s' for user '%s' in bucket '%s'.", newS3Key, user.getUsername(), S3Constant.bucket_name), e
+                    String.format("An S3 error occurred while trying to create object '%s' for user '%s' in bucket '%s'.", newS3Key, user.getUsername(), bucketName), e
             );
         } catch (Exception e) {
             log.error("An unexpected error occurred while trying to create object '{}' for user '{}'. Error: {}",
@@ -109,10 +309,52 @@ public class LocalStorageService implements ObjectStorageService {
         // Implementation for file deletion will go here
     }
 
+    /**
+     * Loads the latest version of an object as a streaming resource. The object is not read into memory,
+     * the caller must consume and close the resource's input stream.
+     *
+     * @param path The key of the object.
+     * @return A resource backed by the S3 response stream.
+     * @throws MyCustomS3Exception If the object could not be opened.
+     */
     @Override
     public Resource loadFile(String path) {
-        // Implementation for loading files will go here
-        return null;
+        return new InputStreamResource(openObjectStream(path, null, null), path);
+    }
+
+    /**
+     * Opens a stream over an object version, or a byte range of it. Only the HTTP response headers have been read
+     * when this returns, the body is read from the connection as the caller consumes the stream.
+     *
+     * @param s3Key The key of the object.
+     * @param versionId The version to read, the latest version is read when null.
+     * @param range An HTTP range such as {@code bytes=0-1023}, the whole object is read when null.
+     * @return The response stream, whose {@code response()} holds the object's length, content range and ETag.
+     * @throws MyCustomS3Exception If the object could not be opened.
+     */
+    @Override
+    public ResponseInputStream<GetObjectResponse> openObjectStream(String s3Key, @Nullable String versionId, @Nullable String range) {
+        String bucketName = bucketResolver.resolve(s3Key);
+        try {
+            GetObjectRequest getObjectRequest = GetObjectRequest
+                    .builder()
+                    .bucket(bucketName)
+                    .key(s3Key)
+                    .versionId(versionId)
+                    .range(range)
+                    .build();
+
+            return s3Client.getObject(getObjectRequest);
+        } catch (NoSuchKeyException e) {
+            log.error("Failed to open object: {} (VERSION: {}) because it does not exist", s3Key, versionId);
+            throw new MyCustomS3Exception(String.format("Failed to open object: %s (VERSION: %s) because it does not exist", s3Key, versionId), e);
+        } catch (S3Exception e) {
+            log.error("An S3 error occurred while trying to open object: {} (VERSION: {}, RANGE: {}). Error: {}", s3Key, versionId, range, e.getMessage(), e);
+            throw new MyCustomS3Exception(String.format("An S3 error occurred while trying to open object: %s (VERSION: %s)", s3Key, versionId), e);
+        } catch (Exception e) {
+            log.error("An unexpected error occurred while trying to open object: {} (VERSION: {}, RANGE: {}). Error: {}", s3Key, versionId, range, e.getMessage(), e);
+            throw new MyCustomS3Exception(String.format("An unexpected error occurred while trying to open object: %s (VERSION: %s)", s3Key, versionId), e);
+        }
     }
 
 
@@ -122,14 +364,14 @@ public class LocalStorageService implements ObjectStorageService {
         if (contentType == null || contentType.isEmpty()) {
             contentType = "application/x-directory";
         }
-        S3Waiter s3Waiter = s3Client.waiter();
         String newObjectVersionId = null;
+        String sourceBucketName = bucketResolver.resolve(oldKey);
 
         try {
             CopyObjectRequest copyObjectRequest = CopyObjectRequest
                     .builder()
-                    .sourceBucket(S3Constant.bucket_name)
-                    .destinationBucket(S3Constant.bucket_name)
+                    .sourceBucket(sourceBucketName)
+                    .destinationBucket(bucketResolver.resolve(newKey))
                     .sourceKey(oldKey)
                     .sourceVersionId(versionId)
                     .destinationKey(newKey)
@@ -138,34 +380,17 @@ public class LocalStorageService implements ObjectStorageService {
 
             CopyObjectResponse copyResponse = s3Client.copyObject(copyObjectRequest);
             newObjectVersionId = copyResponse.versionId();
-
-            HeadObjectRequest headNewObjectRequest = HeadObjectRequest
-                    .builder()
-                    .bucket(S3Constant.bucket_name)
-                    .key(newKey)
-                    .versionId(newObjectVersionId)
-                    .build();
-
-
-            log.debug("Waiting for new object '{}' (Version ID: '{}') to exist after copy.", newKey, newObjectVersionId);
-            WaiterResponse<HeadObjectResponse> waiterResponse =
-                    s3Waiter.waitUntilObjectExists(headNewObjectRequest);
-
-
-            String finalNewObjectVersionId = newObjectVersionId;
-            waiterResponse.matched().response().ifPresent(headObjectResponse -> {
-                log.debug("Waiter confirmed the existence of moved object: '{}' (Version ID: '{}').", newKey, finalNewObjectVersionId);
-            });
+            writeVerifier.verifyWritten("copy", newKey, newObjectVersionId);
 
             log.info("Successfully copied object from '{}' to '{}' (New Object Version ID: '{}').", oldKey, newKey, newObjectVersionId);
             return newObjectVersionId;
         } catch (NoSuchKeyException e) {
-            log.warn("Failed to move object: Source object '{}' was not found in bucket '{}'. Error: {}", oldKey, S3Constant.bucket_name, e.getMessage(), e);
+            log.warn("Failed to move object: Source object '{}' was not found in bucket '{}'. Error: {}", oldKey, sourceBucketName, e.getMessage(), e);
             throw new MyCustomS3Exception(
-                    String.format("The source object '%s' was not found in bucket '%s'.", oldKey, S3Constant.bucket_name), e
+                    String.format("The source object '%s' was not found in bucket '%s'.", oldKey, sourceBucketName), e
             );
         } catch (S3Exception e) {
-            log.error("An S3 error occurred while trying to move object from '{}' to '{}' in bucket '{}'. Error: {}", oldKey, newKey, S3Constant.bucket_name, e.getMessage(), e);
+            log.error("An S3 error occurred while trying to move object from '{}' to '{}' in bucket '{}'. Error: {}", oldKey, newKey, sourceBucketName, e.getMessage(), e);
             throw new MyCustomS3Exception(
                     String.format("An S3 error occurred while trying to move object from '%s' to '%s'.", oldKey, newKey), e
             );
@@ -186,11 +411,12 @@ public class LocalStorageService implements ObjectStorageService {
 
     @Override
     public String retrieveVersionedObject(String s3ObjectKey, String versionForRetrieval){
+        String bucketName = bucketResolver.resolve(s3ObjectKey);
         log.info("Attempting to retrieve object: {} (VERSION: {})", s3ObjectKey, versionForRetrieval);
         try {
             GetObjectRequest getObjectRequest = GetObjectRequest
                     .builder()
-                    .bucket(S3Constant.bucket_name)
+                    .bucket(bucketName)
                     .key(s3ObjectKey)
                     .versionId(versionForRetrieval)
                     .build();
@@ -217,68 +443,36 @@ public class LocalStorageService implements ObjectStorageService {
         }
     }
 
+    //Large prefixes are split into their sub-prefixes, which are listed concurrently
     @Override
     public List<S3Object> listS3ObjectsByPrefix(String prefix){
-        log.info("Attempting to list S3 objects for prefix: {}", prefix);
-        List<S3Object> allObjects = new ArrayList<>();
-        String continuationToken = null;
-        short pageCount = 0;
-
-        try{
-            do{
-                pageCount++;
-                ListObjectsV2Request.Builder requestBuilder = ListObjectsV2Request
-                        .builder()
-                        .bucket(S3Constant.bucket_name)
-                        .prefix(prefix);
-
-                //Get the continuation token to get the next page of objects
-                if(continuationToken != null){
-                    requestBuilder.continuationToken(continuationToken);
-                }
-
-                ListObjectsV2Request listObjectsV2Request = requestBuilder.build();
-                log.info("(Page: {}) Fetching S3 objects for prefix: {}. Continuation token: {}", pageCount, prefix, continuationToken);
-
-                ListObjectsV2Response listObjectsV2Response = s3Client.listObjectsV2(listObjectsV2Request);
-
-                allObjects.addAll(listObjectsV2Response.contents());
-
-                if(listObjectsV2Response.isTruncated()){
-                    continuationToken = listObjectsV2Response.nextContinuationToken();
-                    log.info("More S3 objects found for prefix: {}. Continuation token: {}", prefix, continuationToken);
-                }else{
-                    continuationToken = null;
-                    log.info("Finished listing all S3 objects for prefix: {}.", prefix);
-                }
-
-            }while (continuationToken != null);
-
-            return allObjects;
-
-        }catch (NoSuchKeyException e) {
-            log.warn("Failed to list object: Source object '{}' was not found in bucket '{}'. Error: {}", prefix, S3Constant.bucket_name, e.getMessage(), e);
-            throw new MyCustomS3Exception(
-                    String.format("The source object '%s' was not found in bucket '%s'.", prefix , S3Constant.bucket_name), e
-            );
-        } catch (S3Exception e) {
-            log.error("An S3 error occurred while trying to list an object from '{}' in bucket '{}'. Error: {}", prefix , S3Constant.bucket_name, e.getMessage(), e);
-            throw new MyCustomS3Exception(
-                    String.format("An S3 error occurred while trying to list objects from '%s'", prefix), e
-            );
-        } catch (Exception e) {
-            log.error("An unexpected error occurred while trying to list objects from '{}'. Error: {}", prefix, e.getMessage(), e);
-            throw new MyCustomS3Exception(
-                    String.format("An unexpected error occurred while trying to list objects from '%s'.", prefix), e
-            );
-        }
+        return prefixListingService.listObjectsUnderPrefix(prefix);
     }
 
-
-    private Map<String, String> addCredentials(User user) {
-        Map<String, String> credentials = new HashMap<>();
-        credentials.put("userId", user.getId().toString());
-        credentials.put("owner", user.getUsername());
-        return credentials;
+    /**
+     * Streams the objects under a prefix one ListObjectsV2 page at a time. The first page is requested straight away
+     * and each following page is fetched while the caller works through the one before it, so at most two pages are
+     * held no matter how many objects the prefix has.
+     *
+     * @param prefix The prefix to list.
+     * @return A lazy stream over the objects in key order. It should be closed, closing it early cancels the fetch in flight.
+     * @throws MyCustomS3Exception While the stream is consumed, if a page could not be listed.
+     */
+    @Override
+    public Stream<S3Object> streamS3ObjectsByPrefix(String prefix){
+        String bucketName = bucketResolver.resolve(prefix);
+        log.info("Attempting to stream S3 objects for prefix: {}", prefix);
+
+        ListObjectsV2Request listObjectsV2Request = ListObjectsV2Request
+                .builder()
+                .bucket(bucketName)
+                .prefix(prefix)
+                .maxKeys(listingProperties.getPageSize())
+                .build();
+
+        //The paginator only sends a request when the iterator asks for the next page
+        Iterator<ListObjectsV2Response> pages = s3Client.listObjectsV2Paginator(listObjectsV2Request).iterator();
+        return PrefetchingPageIterator.stream(String.format("objects under '%s' in bucket '%s'", prefix, bucketName),
+                pages, ListObjectsV2Response::contents, listingPrefetchExecutor);
     }
-}
\ No newline at end of file
+}
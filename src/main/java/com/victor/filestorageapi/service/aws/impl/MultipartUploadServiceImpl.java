@@ -0,0 +1,185 @@
+package com.victor.filestorageapi.service.aws.impl;
+
+import com.victor.filestorageapi.exception.MyCustomS3Exception;
+import com.victor.filestorageapi.models.MultipartUpload;
+import com.victor.filestorageapi.service.aws.BucketResolver;
+import com.victor.filestorageapi.service.aws.MultipartUploadService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+@Service
+@Profile("!filesystem & !memory")
+@RequiredArgsConstructor
+@Slf4j
+public class MultipartUploadServiceImpl implements MultipartUploadService {
+
+    private final S3Client s3Client;
+    private final BucketResolver bucketResolver;
+
+    /**
+     * Starts a multipart upload for the given key, in the bucket the key resolves to now.
+     *
+     * @param s3Key The key the object will be stored under once the upload completes.
+     * @param contentType The content type of the object.
+     * @param metadata User defined metadata to attach to the object.
+     * @return The upload, which every later call for it must be given.
+     * @throws MyCustomS3Exception If the multipart upload could not be created.
+     */
+    @Override
+    public MultipartUpload createMultipartUpload(String s3Key, String contentType, Map<String, String> metadata) {
+        String bucketName = bucketResolver.resolve(s3Key);
+        try {
+            CreateMultipartUploadRequest createRequest = CreateMultipartUploadRequest
+                    .builder()
+                    .bucket(bucketName)
+                    .key(s3Key)
+                    .contentType(contentType)
+                    .metadata(metadata)
+                    .build();
+
+            String uploadId = s3Client.createMultipartUpload(createRequest).uploadId();
+            log.info("Created multipart upload for object '{}' in bucket '{}' (Upload ID: '{}').", s3Key, bucketName, uploadId);
+            return new MultipartUpload(bucketName, s3Key, uploadId);
+        } catch (S3Exception e) {
+            log.error("An S3 error occurred while trying to create a multipart upload for object '{}'. Error: {}", s3Key, e.getMessage(), e);
+            throw new MyCustomS3Exception(String.format("An S3 error occurred while trying to create a multipart upload for object '%s'.", s3Key), e);
+        } catch (Exception e) {
+            log.error("An unexpected error occurred while trying to create a multipart upload for object '{}'. Error: {}", s3Key, e.getMessage(), e);
+            throw new MyCustomS3Exception(String.format("An unexpected error occurred while trying to create a multipart upload for object '%s'.", s3Key), e);
+        }
+    }
+
+    @Override
+    public CompletedPart uploadPart(MultipartUpload multipartUpload, int partNumber, RequestBody requestBody) {
+        String bucketName = multipartUpload.bucketName();
+        String s3Key = multipartUpload.s3Key();
+        String uploadId = multipartUpload.uploadId();
+        try {
+            UploadPartRequest uploadPartRequest = UploadPartRequest
+                    .builder()
+                    .bucket(bucketName)
+                    .key(s3Key)
+                    .uploadId(uploadId)
+                    .partNumber(partNumber)
+                    .build();
+
+            UploadPartResponse uploadPartResponse = s3Client.uploadPart(uploadPartRequest, requestBody);
+            log.debug("Uploaded part {} of object '{}' (Upload ID: '{}').", partNumber, s3Key, uploadId);
+
+            return CompletedPart
+                    .builder()
+                    .partNumber(partNumber)
+                    .eTag(uploadPartResponse.eTag())
+                    .build();
+        } catch (S3Exception e) {
+            log.error("An S3 error occurred while trying to upload part {} of object '{}'. Error: {}", partNumber, s3Key, e.getMessage(), e);
+            throw new MyCustomS3Exception(String.format("An S3 error occurred while trying to upload part %s of object '%s'.", partNumber, s3Key), e);
+        } catch (Exception e) {
+            log.error("An unexpected error occurred while trying to upload part {} of object '{}'. Error: {}", partNumber, s3Key, e.getMessage(), e);
+            throw new MyCustomS3Exception(String.format("An unexpected error occurred while trying to upload part %s of object '%s'.", partNumber, s3Key), e);
+        }
+    }
+
+    /**
+     * Lists every part uploaded so far for a multipart upload, following the pagination of ListParts.
+     *
+     * @return The uploaded parts in ascending part number order.
+     * @throws MyCustomS3Exception If the parts could not be listed, e.g. because the upload no longer exists.
+     */
+    @Override
+    public List<Part> listParts(MultipartUpload multipartUpload) {
+        String bucketName = multipartUpload.bucketName();
+        String s3Key = multipartUpload.s3Key();
+        String uploadId = multipartUpload.uploadId();
+        try {
+            ListPartsRequest listPartsRequest = ListPartsRequest
+                    .builder()
+                    .bucket(bucketName)
+                    .key(s3Key)
+                    .uploadId(uploadId)
+                    .build();
+
+            List<Part> parts = new ArrayList<>();
+            s3Client.listPartsPaginator(listPartsRequest).parts().forEach(parts::add);
+            log.debug("Found {} uploaded parts for object '{}' (Upload ID: '{}').", parts.size(), s3Key, uploadId);
+            return parts;
+        } catch (S3Exception e) {
+            log.error("An S3 error occurred while trying to list the parts of object '{}' (Upload ID: '{}'). Error: {}", s3Key, uploadId, e.getMessage(), e);
+            throw new MyCustomS3Exception(String.format("An S3 error occurred while trying to list the parts of object '%s'.", s3Key), e);
+        } catch (Exception e) {
+            log.error("An unexpected error occurred while trying to list the parts of object '{}' (Upload ID: '{}'). Error: {}", s3Key, uploadId, e.getMessage(), e);
+            throw new MyCustomS3Exception(String.format("An unexpected error occurred while trying to list the parts of object '%s'.", s3Key), e);
+        }
+    }
+
+    /**
+     * Completes a multipart upload. The parts are sorted by part number since S3 requires them in ascending order.
+     *
+     * @return The response holding the version ID and ETag of the assembled object.
+     * @throws MyCustomS3Exception If the upload could not be completed.
+     */
+    @Override
+    public CompleteMultipartUploadResponse completeMultipartUpload(MultipartUpload multipartUpload, List<CompletedPart> parts) {
+        String bucketName = multipartUpload.bucketName();
+        String s3Key = multipartUpload.s3Key();
+        String uploadId = multipartUpload.uploadId();
+        try {
+            List<CompletedPart> sortedParts = parts
+                    .stream()
+                    .sorted(Comparator.comparing(CompletedPart::partNumber))
+                    .toList();
+
+            CompleteMultipartUploadRequest completeRequest = CompleteMultipartUploadRequest
+                    .builder()
+                    .bucket(bucketName)
+                    .key(s3Key)
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(sortedParts).build())
+                    .build();
+
+            CompleteMultipartUploadResponse completeResponse = s3Client.completeMultipartUpload(completeRequest);
+            log.info("Completed multipart upload for object '{}' with {} parts (Version ID: '{}').", s3Key, sortedParts.size(), completeResponse.versionId());
+            return completeResponse;
+        } catch (S3Exception e) {
+            log.error("An S3 error occurred while trying to complete the multipart upload for object '{}'. Error: {}", s3Key, e.getMessage(), e);
+            throw new MyCustomS3Exception(String.format("An S3 error occurred while trying to complete the multipart upload for object '%s'.", s3Key), e);
+        } catch (Exception e) {
+            log.error("An unexpected error occurred while trying to complete the multipart upload for object '{}'. Error: {}", s3Key, e.getMessage(), e);
+            throw new MyCustomS3Exception(String.format("An unexpected error occurred while trying to complete the multipart upload for object '%s'.", s3Key), e);
+        }
+    }
+
+    /**
+     * Aborts a multipart upload so S3 discards the parts uploaded so far.
+     * Failures are only logged since this is called while handling another failure.
+     */
+    @Override
+    public void abortMultipartUpload(MultipartUpload multipartUpload) {
+        String bucketName = multipartUpload.bucketName();
+        String s3Key = multipartUpload.s3Key();
+        String uploadId = multipartUpload.uploadId();
+        try {
+            AbortMultipartUploadRequest abortRequest = AbortMultipartUploadRequest
+                    .builder()
+                    .bucket(bucketName)
+                    .key(s3Key)
+                    .uploadId(uploadId)
+                    .build();
+
+            s3Client.abortMultipartUpload(abortRequest);
+            log.info("Aborted multipart upload for object '{}' (Upload ID: '{}').", s3Key, uploadId);
+        } catch (Exception e) {
+            log.error("CRITICAL: Failed to abort multipart upload for object '{}' (Upload ID: '{}'). Orphaned parts may remain until the bucket lifecycle cleans them up.", s3Key, uploadId, e);
+        }
+    }
+}
@@ -0,0 +1,518 @@
+package com.victor.filestorageapi.service.aws.impl;
+
+import com.victor.filestorageapi.config.CacheProperties;
+import com.victor.filestorageapi.exception.MyCustomS3Exception;
+import com.victor.filestorageapi.models.CachedObject;
+import com.victor.filestorageapi.service.aws.ObjectCacheService;
+import com.victor.filestorageapi.service.aws.ObjectStorageService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+@Service
+@Profile("!filesystem")
+@RequiredArgsConstructor
+@Slf4j
+public class ObjectCacheServiceImpl implements ObjectCacheService {
+
+    private final ObjectStorageService objectStorageService;
+    private final CacheProperties cacheProperties;
+    private final ExecutorService cacheFillExecutor;
+
+    private static final int FILL_BUFFER_SIZE = 64 * 1024;
+
+    //Access ordered, so iteration starts at the least recently read entry
+    private final LinkedHashMap<CacheKey, CacheEntry> cacheIndex = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReentrantLock indexLock = new ReentrantLock();
+    private final ConcurrentMap<CacheKey, Fill> inFlightFills = new ConcurrentHashMap<>();
+    private long cachedBytes;
+    //This instance's own subdirectory of the configured directory, which other instances may share
+    private Path cacheDirectory;
+
+    /**
+     * The index only lives in memory, so every instance caches into a subdirectory of its own. Files other instances,
+     * or other programs, keep in the configured directory are never touched.
+     * */
+    @PostConstruct
+    public void initializeCacheDirectory() {
+        if (!cacheProperties.isEnabled()) {
+            return;
+        }
+
+        Path directory = cacheProperties.getDirectory();
+        try {
+            Files.createDirectories(directory);
+            cacheDirectory = Files.createTempDirectory(directory, "instance-");
+            log.info("Object cache at: {} (MAX SIZE: {})", cacheDirectory, cacheProperties.getMaxSize());
+        } catch (IOException e) {
+            log.error("Failed to prepare the object cache directory: {}. Caching is disabled. Error: {}", directory, e.getMessage(), e);
+            cacheProperties.setEnabled(false);
+        }
+    }
+
+    /**
+     * Deletes the files this instance cached, along with its subdirectory.
+     * */
+    @PreDestroy
+    public void deleteCacheDirectory() {
+        if (cacheDirectory == null) {
+            return;
+        }
+
+        try (Stream<Path> cachedFiles = Files.list(cacheDirectory)) {
+            cachedFiles.forEach(this::deleteQuietly);
+        } catch (IOException e) {
+            log.warn("Failed to list the object cache directory: {}. Error: {}", cacheDirectory, e.getMessage());
+        }
+        deleteQuietly(cacheDirectory);
+    }
+
+    /**
+     * Opens an object version if it is cached, without fetching it otherwise.
+     *
+     * @return The open cached object, or empty on a miss.
+     */
+    @Override
+    public Optional<CachedObject> findCachedObject(String s3Key, String versionId) {
+        if (!cacheProperties.isEnabled() || versionId == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(openIfCached(new CacheKey(s3Key, versionId)));
+    }
+
+    /**
+     * Opens an object version from the cache, fetching it from S3 into the cache on a miss. The whole object is fetched
+     * before this returns, so it suits small objects read by offset, like packs. Downloads of whole objects use
+     * {@link #openFillingStream} instead, so the client doesn't wait for the fill before its first byte.
+     * Entries are keyed by key and version ID, which is safe because a version's bytes never change. Concurrent misses
+     * for the same version share one fill, so they cause a single GET. Only versioned objects no larger than
+     * {@code maxObjectSize} are cached.
+     *
+     * @param s3Key The key of the object.
+     * @param versionId The version of the object. Nothing is cached without one, since the latest version can change.
+     * @param expectedSize The size the object is expected to have, used to skip objects too large to cache.
+     * @return The open cached object, or empty if the object isn't cacheable or the fill failed, in which case the
+     * caller reads from S3 instead.
+     */
+    @Override
+    public Optional<CachedObject> readThrough(String s3Key, String versionId, long expectedSize) {
+        if (!isCacheable(versionId, expectedSize)) {
+            return Optional.empty();
+        }
+
+        CacheKey cacheKey = new CacheKey(s3Key, versionId);
+        CachedObject cachedObject = openIfCached(cacheKey);
+        if (cachedObject != null) {
+            log.debug("Cache hit for object: {} (VERSION: {})", s3Key, versionId);
+            return Optional.of(cachedObject);
+        }
+
+        Fill fill = joinOrStartFill(cacheKey);
+        try {
+            fill.completion.join();
+        } catch (CompletionException | CancellationException e) {
+            log.warn("Failed to cache object: {} (VERSION: {}). Reading it from S3. Error: {}", s3Key, versionId, e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+            return Optional.empty();
+        }
+        //The entry may already have been evicted by a burst of fills, then the caller simply reads from S3
+        return Optional.ofNullable(openIfCached(cacheKey));
+    }
+
+    /**
+     * Opens an object version for a whole download, serving it from the cache on a hit. On a miss the version is
+     * fetched into the cache by a single fill, and the returned stream reads the fill file as the fill writes it, so
+     * the caller gets its first byte as soon as S3 sends it. Concurrent misses for the same version read the same fill,
+     * so they cause a single GET. The fill runs on its own thread and completes even if every reader stops early,
+     * which is bounded by {@code maxObjectSize}.
+     *
+     * @param s3Key The key of the object.
+     * @param versionId The version of the object. Nothing is cached without one, since the latest version can change.
+     * @param expectedSize The size the object is expected to have, used to skip objects too large to cache.
+     * @return The object's stream with the S3 response it was read with. The caller must close it.
+     * @throws MyCustomS3Exception If the object could not be opened.
+     */
+    @Override
+    public ResponseInputStream<GetObjectResponse> openFillingStream(String s3Key, String versionId, long expectedSize) {
+        if (!isCacheable(versionId, expectedSize)) {
+            return objectStorageService.openObjectStream(s3Key, versionId, null);
+        }
+
+        CacheKey cacheKey = new CacheKey(s3Key, versionId);
+        CachedObject cachedObject = openIfCached(cacheKey);
+        if (cachedObject != null) {
+            log.debug("Cache hit for object: {} (VERSION: {})", s3Key, versionId);
+            return toResponseStream(cachedObject);
+        }
+
+        Fill fill = joinOrStartFill(cacheKey);
+        try {
+            GetObjectResponse objectResponse = fill.response.join();
+            FillReadingInputStream fillStream = new FillReadingInputStream(fill, fill.openChannel());
+            return new ResponseInputStream<>(objectResponse, AbortableInputStream.create(fillStream, fillStream::closeQuietly));
+        } catch (CompletionException | CancellationException | IOException e) {
+            //The fill failed, or finished before this caller could read it, the object is still in the cache or in S3
+            cachedObject = openIfCached(cacheKey);
+            if (cachedObject != null) {
+                return toResponseStream(cachedObject);
+            }
+            log.debug("Could not read the fill of object: {} (VERSION: {}). Reading it from S3. Error: {}", s3Key, versionId, e.getMessage());
+            return objectStorageService.openObjectStream(s3Key, versionId, null);
+        }
+    }
+
+    private boolean isCacheable(String versionId, long expectedSize) {
+        return cacheProperties.isEnabled() && versionId != null && expectedSize <= cacheProperties.getMaxObjectSize().toBytes();
+    }
+
+    private CachedObject openIfCached(CacheKey cacheKey) {
+        indexLock.lock();
+        try {
+            CacheEntry cacheEntry = cacheIndex.get(cacheKey);
+            if (cacheEntry == null) {
+                return null;
+            }
+
+            //Opened under the lock, so eviction can't delete the file between the lookup and the open
+            FileChannel channel = FileChannel.open(cacheEntry.path(), StandardOpenOption.READ);
+            return new CachedObject(channel, cacheEntry.size(), cacheEntry.eTag(), cacheEntry.contentType(), cacheEntry.metadata());
+        } catch (IOException e) {
+            log.warn("Cached object: {} (VERSION: {}) could not be opened. Dropping it from the cache. Error: {}", cacheKey.s3Key(), cacheKey.versionId(), e.getMessage());
+            removeEntry(cacheKey);
+            return null;
+        } finally {
+            indexLock.unlock();
+        }
+    }
+
+    private boolean isCached(CacheKey cacheKey) {
+        indexLock.lock();
+        try {
+            return cacheIndex.containsKey(cacheKey);
+        } finally {
+            indexLock.unlock();
+        }
+    }
+
+    private ResponseInputStream<GetObjectResponse> toResponseStream(CachedObject cachedObject) {
+        GetObjectResponse objectResponse = GetObjectResponse.builder()
+                .contentLength(cachedObject.size())
+                .eTag(cachedObject.eTag())
+                .contentType(cachedObject.contentType())
+                .metadata(cachedObject.metadata())
+                .build();
+        InputStream cachedStream = Channels.newInputStream(cachedObject.channel());
+        return new ResponseInputStream<>(objectResponse, AbortableInputStream.create(cachedStream, () -> closeQuietly(cachedObject)));
+    }
+
+    /**
+     * Registers a fill of the version and starts it, or returns the fill already in flight, so every concurrent miss
+     * shares one GET.
+     * */
+    private Fill joinOrStartFill(CacheKey cacheKey) {
+        Fill ourFill = new Fill(cacheKey, cacheDirectory.resolve(UUID.randomUUID() + ".fill"));
+        Fill fill = inFlightFills.putIfAbsent(cacheKey, ourFill);
+        if (fill != null) {
+            log.debug("Joining the in-flight fill of object: {} (VERSION: {})", cacheKey.s3Key(), cacheKey.versionId());
+            return fill;
+        }
+
+        //Another fill may have finished between the caller's lookup and registering ours
+        if (isCached(cacheKey)) {
+            inFlightFills.remove(cacheKey, ourFill);
+            ourFill.skip();
+            return ourFill;
+        }
+
+        try {
+            cacheFillExecutor.execute(() -> runFill(ourFill));
+        } catch (RejectedExecutionException e) {
+            inFlightFills.remove(cacheKey, ourFill);
+            ourFill.fail(e);
+        }
+        return ourFill;
+    }
+
+    private void runFill(Fill fill) {
+        CacheKey cacheKey = fill.cacheKey;
+        Path fillFile = fill.path;
+        Path cachedFile = cacheDirectory.resolve(UUID.randomUUID() + ".object");
+
+        try {
+            GetObjectResponse objectResponse;
+            long size = 0;
+            try (ResponseInputStream<GetObjectResponse> objectStream = objectStorageService.openObjectStream(cacheKey.s3Key(), cacheKey.versionId(), null);
+                 FileChannel fillChannel = FileChannel.open(fillFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                objectResponse = objectStream.response();
+                //Readers may open the fill file from here on
+                fill.response.complete(objectResponse);
+
+                byte[] buffer = new byte[FILL_BUFFER_SIZE];
+                int bytesRead;
+                while ((bytesRead = objectStream.read(buffer)) != -1) {
+                    ByteBuffer filled = ByteBuffer.wrap(buffer, 0, bytesRead);
+                    while (filled.hasRemaining()) {
+                        fillChannel.write(filled);
+                    }
+                    size += bytesRead;
+                    fill.filled(bytesRead);
+                }
+            }
+            if (objectResponse.contentLength() != null && size != objectResponse.contentLength()) {
+                throw new IOException(String.format("The object ended after %s of %s bytes", size, objectResponse.contentLength()));
+            }
+
+            //Lookups only ever see complete files, readers of the fill already hold it open
+            Files.move(fillFile, cachedFile, StandardCopyOption.ATOMIC_MOVE);
+            fill.moved(cachedFile);
+            CacheEntry cacheEntry = new CacheEntry(cachedFile, size, objectResponse.eTag(), objectResponse.contentType(), objectResponse.metadata());
+            addEntry(cacheKey, cacheEntry);
+            log.info("Cached object: {} (VERSION: {}, SIZE: {})", cacheKey.s3Key(), cacheKey.versionId(), size);
+            fill.succeed(cacheEntry);
+        } catch (Exception e) {
+            deleteQuietly(fillFile);
+            deleteQuietly(cachedFile);
+            log.warn("Failed to cache object: {} (VERSION: {}). Error: {}", cacheKey.s3Key(), cacheKey.versionId(), e.getMessage());
+            fill.fail(e);
+        } finally {
+            inFlightFills.remove(cacheKey, fill);
+        }
+    }
+
+    private void addEntry(CacheKey cacheKey, CacheEntry cacheEntry) {
+        List<Path> evictedFiles = new ArrayList<>();
+        indexLock.lock();
+        try {
+            CacheEntry replacedEntry = cacheIndex.put(cacheKey, cacheEntry);
+            if (replacedEntry != null) {
+                cachedBytes -= replacedEntry.size();
+                evictedFiles.add(replacedEntry.path());
+            }
+            cachedBytes += cacheEntry.size();
+
+            long maxSize = cacheProperties.getMaxSize().toBytes();
+            Iterator<Map.Entry<CacheKey, CacheEntry>> leastRecentlyRead = cacheIndex.entrySet().iterator();
+            while (cachedBytes > maxSize && leastRecentlyRead.hasNext()) {
+                Map.Entry<CacheKey, CacheEntry> evicted = leastRecentlyRead.next();
+                if (evicted.getKey().equals(cacheKey)) {
+                    continue;
+                }
+                leastRecentlyRead.remove();
+                cachedBytes -= evicted.getValue().size();
+                evictedFiles.add(evicted.getValue().path());
+                log.debug("Evicted object: {} (VERSION: {}) from the cache", evicted.getKey().s3Key(), evicted.getKey().versionId());
+            }
+        } finally {
+            indexLock.unlock();
+        }
+
+        //Downloads still reading an evicted file keep their open channel, the space is freed once they close it
+        evictedFiles.forEach(this::deleteQuietly);
+    }
+
+    private void removeEntry(CacheKey cacheKey) {
+        CacheEntry removedEntry;
+        indexLock.lock();
+        try {
+            removedEntry = cacheIndex.remove(cacheKey);
+            if (removedEntry != null) {
+                cachedBytes -= removedEntry.size();
+            }
+        } finally {
+            indexLock.unlock();
+        }
+
+        if (removedEntry != null) {
+            deleteQuietly(removedEntry.path());
+        }
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Failed to delete cache file: {}. Error: {}", path, e.getMessage());
+        }
+    }
+
+    private void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            log.warn("Failed to close a cached object. Error: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * A fill of one object version. Readers follow the fill file up to the bytes written so far and wait on the fill
+     * for more. The file keeps its open channels when it is moved into the cache, so late readers open it by its
+     * current path.
+     * */
+    private static final class Fill {
+
+        private final CacheKey cacheKey;
+        private final CompletableFuture<GetObjectResponse> response = new CompletableFuture<>();
+        private final CompletableFuture<CacheEntry> completion = new CompletableFuture<>();
+        //Guarded by this fill
+        private Path path;
+        private long filledBytes;
+        private boolean finished;
+        private IOException failure;
+
+        private Fill(CacheKey cacheKey, Path fillFile) {
+            this.cacheKey = cacheKey;
+            this.path = fillFile;
+        }
+
+        private synchronized void filled(int bytes) {
+            filledBytes += bytes;
+            notifyAll();
+        }
+
+        private synchronized void moved(Path cachedFile) {
+            path = cachedFile;
+        }
+
+        private synchronized FileChannel openChannel() throws IOException {
+            return FileChannel.open(path, StandardOpenOption.READ);
+        }
+
+        private void succeed(CacheEntry cacheEntry) {
+            synchronized (this) {
+                finished = true;
+                notifyAll();
+            }
+            completion.complete(cacheEntry);
+        }
+
+        private void fail(Exception e) {
+            synchronized (this) {
+                finished = true;
+                failure = e instanceof IOException ioException ? ioException : new IOException(e.getMessage(), e);
+                notifyAll();
+            }
+            response.completeExceptionally(e);
+            completion.completeExceptionally(e);
+        }
+
+        //The version was cached by another fill, readers look it up again
+        private void skip() {
+            synchronized (this) {
+                finished = true;
+                notifyAll();
+            }
+            response.cancel(false);
+            completion.complete(null);
+        }
+
+        /**
+         * Waits until the fill has bytes past the position.
+         *
+         * @return How many bytes past the position can be read, or -1 once the whole object was read.
+         * @throws IOException If the fill failed before reaching the position.
+         */
+        private synchronized long awaitBytes(long position) throws IOException {
+            while (filledBytes <= position) {
+                if (failure != null) {
+                    throw new IOException(String.format("The fill of object: %s (VERSION: %s) failed", cacheKey.s3Key(), cacheKey.versionId()), failure);
+                }
+                if (finished) {
+                    return -1;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the fill of object: " + cacheKey.s3Key());
+                }
+            }
+            return filledBytes - position;
+        }
+    }
+
+    /**
+     * Reads a fill file from the start, never past the bytes the fill has written. Closing it only closes the channel,
+     * the fill carries on for the other readers and the cache.
+     * */
+    private static final class FillReadingInputStream extends InputStream {
+
+        private final Fill fill;
+        private final FileChannel channel;
+        private long position;
+
+        private FillReadingInputStream(Fill fill, FileChannel channel) {
+            this.fill = fill;
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int bytesRead = read(single, 0, 1);
+            return bytesRead == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            Objects.checkFromIndexSize(offset, length, buffer.length);
+            if (length == 0) {
+                return 0;
+            }
+
+            long available = fill.awaitBytes(position);
+            if (available < 0) {
+                return -1;
+            }
+            int bytesRead = channel.read(ByteBuffer.wrap(buffer, offset, (int) Math.min(length, available)), position);
+            if (bytesRead < 0) {
+                throw new EOFException("The fill file of object: " + fill.cacheKey.s3Key() + " is shorter than what was written to it");
+            }
+            position += bytesRead;
+            return bytesRead;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private void closeQuietly() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Failed to close the fill of object: {}. Error: {}", fill.cacheKey.s3Key(), e.getMessage());
+            }
+        }
+    }
+
+    private record CacheKey(String s3Key, String versionId) {
+    }
+
+    private record CacheEntry(Path path, long size, String eTag, String contentType, Map<String, String> metadata) {
+    }
+}
@@ -0,0 +1,258 @@
+package com.victor.filestorageapi.service.aws.impl;
+
+import com.victor.filestorageapi.config.CopyProperties;
+import com.victor.filestorageapi.config.UploadProperties;
+import com.victor.filestorageapi.exception.MyCustomS3Exception;
+import com.victor.filestorageapi.models.BatchCopyResult;
+import com.victor.filestorageapi.models.CopiedObject;
+import com.victor.filestorageapi.models.ObjectCopy;
+import com.victor.filestorageapi.service.aws.BucketResolver;
+import com.victor.filestorageapi.service.aws.ObjectCopyService;
+import com.victor.filestorageapi.service.aws.WriteVerifier;
+import com.victor.filestorageapi.service.utils.BoundedAsyncRunner;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+/**
+ * Copies objects inside S3 without moving their bytes through the service. Batches are copied with a bounded number
+ * of copies in flight on the async client.
+ * <p>
+ * Sources below the multipart threshold are copied with a single CopyObject. Larger ones, which CopyObject can't copy
+ * past 5GB, are copied with UploadPartCopy into a multipart upload whose parts are copied concurrently. A multipart
+ * upload doesn't carry the source's metadata over, so it is read from the source first and set on the upload.
+ * */
+@Service
+@Profile("!filesystem & !memory")
+@RequiredArgsConstructor
+@Slf4j
+public class ObjectCopyServiceImpl implements ObjectCopyService {
+
+    private final S3AsyncClient s3AsyncClient;
+    private final BucketResolver bucketResolver;
+    private final WriteVerifier writeVerifier;
+    private final BoundedAsyncRunner asyncRunner;
+    private final CopyProperties copyProperties;
+
+    /**
+     * Copies an object version to another key. The source's size is read from S3 unless its size hint puts it below
+     * the multipart threshold.
+     *
+     * @return A future holding the copied version, once the copy has been verified as configured.
+     */
+    @Override
+    public CompletableFuture<CopiedObject> copy(ObjectCopy objectCopy) {
+        log.debug("Attempting to copy object from '{}' (Version ID: '{}') to '{}'.", objectCopy.sourceKey(), objectCopy.sourceVersionId(), objectCopy.targetKey());
+        long multipartThreshold = copyProperties.getMultipartThresholdInBytes();
+
+        CompletableFuture<String> copiedVersionId;
+        if (objectCopy.sourceSizeHint() != null && objectCopy.sourceSizeHint() < multipartThreshold) {
+            copiedVersionId = copyObject(objectCopy);
+        } else {
+            copiedVersionId = headSource(objectCopy).thenCompose(source -> source.contentLength() < multipartThreshold
+                    ? copyObject(objectCopy)
+                    : multipartCopy(objectCopy, source));
+        }
+
+        CompletableFuture<CopiedObject> future = copiedVersionId
+                .thenCompose(versionId -> writeVerifier.verifyWrittenAsync("copy", objectCopy.targetKey(), versionId)
+                        .thenApply(verified -> new CopiedObject(objectCopy.sourceKey(), objectCopy.sourceVersionId(), objectCopy.targetKey(), versionId)))
+                .thenApply(copied -> {
+                    log.info("Successfully copied object from '{}' to '{}' (New Object Version ID: '{}').", copied.sourceKey(), copied.targetKey(), copied.targetVersionId());
+                    return copied;
+                });
+        return translateFailure(future, objectCopy);
+    }
+
+    /**
+     * Copies every object of a batch, with as many copies in flight as the async runner allows, and waits for all of
+     * them to finish.
+     *
+     * @return The copies that succeeded, in the order of the batch, and what the others failed with.
+     */
+    @Override
+    public BatchCopyResult copyAll(List<ObjectCopy> objectCopies) {
+        log.info("Attempting to copy {} objects.", objectCopies.size());
+        List<CompletableFuture<CopiedObject>> copyFutures = asyncRunner.runAll(objectCopies, this::copy);
+        asyncRunner.awaitAll(copyFutures);
+
+        List<CopiedObject> copied = new ArrayList<>(objectCopies.size());
+        Map<String, Throwable> failed = new LinkedHashMap<>();
+        for (int i = 0; i < objectCopies.size(); i++) {
+            CompletableFuture<CopiedObject> copyFuture = copyFutures.get(i);
+            if (copyFuture.isCompletedExceptionally()) {
+                failed.put(objectCopies.get(i).sourceKey(), BoundedAsyncRunner.unwrap(copyFuture.exceptionNow()));
+            } else {
+                copied.add(copyFuture.join());
+            }
+        }
+
+        log.info("Copied {} of {} objects, {} failed.", copied.size(), objectCopies.size(), failed.size());
+        return new BatchCopyResult(copied, failed);
+    }
+
+    private CompletableFuture<HeadObjectResponse> headSource(ObjectCopy objectCopy) {
+        HeadObjectRequest headObjectRequest = HeadObjectRequest
+                .builder()
+                .bucket(bucketResolver.resolve(objectCopy.sourceKey()))
+                .key(objectCopy.sourceKey())
+                .versionId(objectCopy.sourceVersionId())
+                .build();
+        return s3AsyncClient.headObject(headObjectRequest);
+    }
+
+    private CompletableFuture<String> copyObject(ObjectCopy objectCopy) {
+        CopyObjectRequest copyObjectRequest = CopyObjectRequest
+                .builder()
+                .sourceBucket(bucketResolver.resolve(objectCopy.sourceKey()))
+                .sourceKey(objectCopy.sourceKey())
+                .sourceVersionId(objectCopy.sourceVersionId())
+                .destinationBucket(bucketResolver.resolve(objectCopy.targetKey()))
+                .destinationKey(objectCopy.targetKey())
+                .build();
+        return s3AsyncClient.copyObject(copyObjectRequest).thenApply(CopyObjectResponse::versionId);
+    }
+
+    private CompletableFuture<String> multipartCopy(ObjectCopy objectCopy, HeadObjectResponse source) {
+        long size = source.contentLength();
+        //Very large sources would need more than the 10,000 parts S3 allows at the configured part size
+        long partSize = Math.max(copyProperties.getPartSize().toBytes(), Math.ceilDiv(size, UploadProperties.MAX_PARTS));
+        int partCount = (int) Math.ceilDiv(size, partSize);
+        String targetBucket = bucketResolver.resolve(objectCopy.targetKey());
+
+        CreateMultipartUploadRequest createRequest = CreateMultipartUploadRequest
+                .builder()
+                .bucket(targetBucket)
+                .key(objectCopy.targetKey())
+                .contentType(source.contentType())
+                .contentEncoding(source.contentEncoding())
+                .metadata(source.metadata())
+                .build();
+
+        return s3AsyncClient.createMultipartUpload(createRequest).thenCompose(created -> {
+            String uploadId = created.uploadId();
+            log.info("Copying object '{}' ({} bytes) to '{}' in {} parts (Upload ID: '{}').", objectCopy.sourceKey(), size, objectCopy.targetKey(), partCount, uploadId);
+
+            //Once a part fails the upload is aborted, so the parts not started yet are skipped
+            AtomicBoolean failed = new AtomicBoolean();
+            List<Integer> partNumbers = IntStream.rangeClosed(1, partCount).boxed().toList();
+            List<CompletableFuture<CompletedPart>> parts = asyncRunner.runAll(partNumbers, copyProperties.getMaxInFlightParts(), partNumber -> failed.get()
+                    ? CompletableFuture.failedFuture(new MyCustomS3Exception(String.format("Skipped part %s of the copy of object '%s' after another part failed.", partNumber, objectCopy.sourceKey())))
+                    : copyPart(objectCopy, targetBucket, uploadId, partNumber, partSize, size)
+                            .whenComplete((part, throwable) -> {
+                                if (throwable != null) {
+                                    failed.set(true);
+                                }
+                            }));
+
+            return CompletableFuture.allOf(parts.toArray(CompletableFuture[]::new))
+                    .handle((settled, throwable) -> parts)
+                    .thenCompose(settledParts -> completeMultipartCopy(objectCopy, targetBucket, uploadId, settledParts))
+                    .whenComplete((versionId, throwable) -> {
+                        if (throwable != null) {
+                            abortMultipartCopy(objectCopy, targetBucket, uploadId);
+                        }
+                    });
+        });
+    }
+
+    private CompletableFuture<CompletedPart> copyPart(ObjectCopy objectCopy, String targetBucket, String uploadId, int partNumber, long partSize, long size) {
+        long first = (partNumber - 1) * partSize;
+        long last = Math.min(first + partSize, size) - 1;
+
+        UploadPartCopyRequest uploadPartCopyRequest = UploadPartCopyRequest
+                .builder()
+                .sourceBucket(bucketResolver.resolve(objectCopy.sourceKey()))
+                .sourceKey(objectCopy.sourceKey())
+                .sourceVersionId(objectCopy.sourceVersionId())
+                .destinationBucket(targetBucket)
+                .destinationKey(objectCopy.targetKey())
+                .uploadId(uploadId)
+                .partNumber(partNumber)
+                .copySourceRange("bytes=" + first + "-" + last)
+                .build();
+
+        return s3AsyncClient.uploadPartCopy(uploadPartCopyRequest).thenApply(response -> {
+            log.debug("Copied part {} of object '{}' (Upload ID: '{}').", partNumber, objectCopy.sourceKey(), uploadId);
+            return CompletedPart
+                    .builder()
+                    .partNumber(partNumber)
+                    .eTag(response.copyPartResult().eTag())
+                    .build();
+        });
+    }
+
+    //The parts come in part number order, which is the order S3 requires them in
+    private CompletableFuture<String> completeMultipartCopy(ObjectCopy objectCopy, String targetBucket, String uploadId, List<CompletableFuture<CompletedPart>> parts) {
+        List<CompletedPart> completedParts = new ArrayList<>(parts.size());
+        for (CompletableFuture<CompletedPart> part : parts) {
+            if (part.isCompletedExceptionally()) {
+                return CompletableFuture.failedFuture(BoundedAsyncRunner.unwrap(part.exceptionNow()));
+            }
+            completedParts.add(part.join());
+        }
+
+        CompleteMultipartUploadRequest completeRequest = CompleteMultipartUploadRequest
+                .builder()
+                .bucket(targetBucket)
+                .key(objectCopy.targetKey())
+                .uploadId(uploadId)
+                .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build())
+                .build();
+        return s3AsyncClient.completeMultipartUpload(completeRequest).thenApply(CompleteMultipartUploadResponse::versionId);
+    }
+
+    //Failures are only logged since this is called while handling another failure
+    private void abortMultipartCopy(ObjectCopy objectCopy, String targetBucket, String uploadId) {
+        AbortMultipartUploadRequest abortRequest = AbortMultipartUploadRequest
+                .builder()
+                .bucket(targetBucket)
+                .key(objectCopy.targetKey())
+                .uploadId(uploadId)
+                .build();
+
+        s3AsyncClient.abortMultipartUpload(abortRequest).whenComplete((response, throwable) -> {
+            if (throwable != null) {
+                log.error("CRITICAL: Failed to abort the multipart copy to object '{}' (Upload ID: '{}'). Orphaned parts may remain until the bucket lifecycle cleans them up.", objectCopy.targetKey(), uploadId, throwable);
+            } else {
+                log.info("Aborted the multipart copy to object '{}' (Upload ID: '{}').", objectCopy.targetKey(), uploadId);
+            }
+        });
+    }
+
+    //Turns whatever a copy failed with into the exception the blocking services throw for the same failure
+    private <T> CompletableFuture<T> translateFailure(CompletableFuture<T> future, ObjectCopy objectCopy) {
+        return future.handle((result, throwable) -> {
+            if (throwable == null) {
+                return result;
+            }
+
+            Throwable cause = BoundedAsyncRunner.unwrap(throwable);
+            String sourceKey = objectCopy.sourceKey();
+            if (cause instanceof MyCustomS3Exception s3Exception) {
+                throw s3Exception;
+            }
+            if (cause instanceof NoSuchKeyException) {
+                log.warn("Failed to copy object '{}' (Version ID: '{}') because it was not found in bucket '{}'.", sourceKey, objectCopy.sourceVersionId(), bucketResolver.resolve(sourceKey));
+                throw new MyCustomS3Exception(String.format("The object '%s' was not found in bucket '%s'.", sourceKey, bucketResolver.resolve(sourceKey)), cause);
+            }
+            if (cause instanceof S3Exception) {
+                log.error("An S3 error occurred while trying to copy object '{}' (Version ID: '{}') to '{}'. Error: {}", sourceKey, objectCopy.sourceVersionId(), objectCopy.targetKey(), cause.getMessage(), cause);
+                throw new MyCustomS3Exception(String.format("An S3 error occurred while trying to copy object '%s' to '%s'.", sourceKey, objectCopy.targetKey()), cause);
+            }
+            log.error("An unexpected error occurred while trying to copy object '{}' (Version ID: '{}') to '{}'. Error: {}", sourceKey, objectCopy.sourceVersionId(), objectCopy.targetKey(), cause.getMessage(), cause);
+            throw new MyCustomS3Exception(String.format("An unexpected error occurred while trying to copy object '%s' to '%s'.", sourceKey, objectCopy.targetKey()), cause);
+        });
+    }
+}
@@ -2,16 +2,19 @@ package com.victor.filestorageapi.service.aws.impl;
 
 import com.victor.filestorageapi.exception.MyCustomS3Exception;
 import com.victor.filestorageapi.models.constants.S3Constant;
+import com.victor.filestorageapi.service.aws.BucketResolver;
 import com.victor.filestorageapi.service.aws.ObjectDeleteService;
+import com.victor.filestorageapi.service.aws.PrefixListingService;
 import com.victor.filestorageapi.service.aws.S3VersioningManager;
+import com.victor.filestorageapi.service.aws.WriteVerifier;
+import com.victor.filestorageapi.service.utils.HeadObjectCache;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
-import software.amazon.awssdk.core.waiters.WaiterResponse;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.endpoints.internal.Value;
 import software.amazon.awssdk.services.s3.model.*;
-import software.amazon.awssdk.services.s3.waiters.S3Waiter;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -19,12 +22,17 @@ import java.util.List;
 import java.util.Map;
 
 @Service
+@Profile("!filesystem & !memory")
 @RequiredArgsConstructor
 @Slf4j
 public class ObjectDeleteServiceImpl implements ObjectDeleteService {
 
 
     private final S3Client s3Client;
+    private final WriteVerifier writeVerifier;
+    private final BucketResolver bucketResolver;
+    private final HeadObjectCache headObjectCache;
+    private final PrefixListingService prefixListingService;
 
     /**
      * "Soft deletes" an object by creating a delete marker for its latest version.
@@ -36,52 +44,38 @@ public class ObjectDeleteServiceImpl implements ObjectDeleteService {
      */
     @Override
     public String softDeleteObject(String objectKey) {
+        String bucketName = bucketResolver.resolve(objectKey);
         log.info("Attempting to soft-delete object with key: '{}'.", objectKey);
-        S3Waiter s3Waiter = s3Client.waiter();
-
         try {
             DeleteObjectRequest deleteObjectRequest = DeleteObjectRequest
                     .builder()
-                    .bucket(S3Constant.bucket_name)
+                    .bucket(bucketName)
                     .key(objectKey)
                     .build();
 
             DeleteObjectResponse deleteResponse = s3Client.deleteObject(deleteObjectRequest);
             String deleteMarkerVersionId = deleteResponse.versionId(); // This is the version ID of the delete marker
 
-            log.info("Successfully created delete marker for object '{}' (Delete Marker Version ID: '{}') in bucket '{}'.", objectKey, deleteMarkerVersionId, S3Constant.bucket_name);
-
-            // It's good practice to wait for the object to "disappear" (i.e., the delete marker to be current)
-            HeadObjectRequest headObjectRequest = HeadObjectRequest
-                    .builder()
-                    .bucket(S3Constant.bucket_name)
-                    .key(objectKey)
-                    .build();
-
-            log.debug("Waiting for object '{}' to reflect soft-deletion (Delete Marker ID: '{}').", objectKey, deleteMarkerVersionId);
-            // waitUntilObjectNotExists will confirm the current view of the object is 'not found', due to the delete marker
-            WaiterResponse<HeadObjectResponse> waiterResponse = s3Waiter.waitUntilObjectNotExists(headObjectRequest);
-            waiterResponse.matched().response().ifPresent(headObjectResponse -> {
-                log.debug("Waiter confirmed the object '{}' is now soft-deleted (not found by default GET).", objectKey);
-            });
+            log.info("Successfully created delete marker for object '{}' (Delete Marker Version ID: '{}') in bucket '{}'.", objectKey, deleteMarkerVersionId, bucketName);
+            writeVerifier.verifyDeleted("soft-delete", objectKey, null);
 
-            log.info("Object '{}' (soft-deleted with Delete Marker ID: '{}') confirmed as no longer accessible by default GET.", objectKey, deleteMarkerVersionId);
+            log.info("Object '{}' (soft-deleted with Delete Marker ID: '{}') is no longer accessible by default GET.", objectKey, deleteMarkerVersionId);
             return deleteMarkerVersionId;
 
         } catch (NoSuchKeyException e) {
-            log.warn("Attempted to soft-delete object '{}', but it was not found in bucket '{}'. No delete marker created.", objectKey, S3Constant.bucket_name, e);
+            log.warn("Attempted to soft-delete object '{}', but it was not found in bucket '{}'. No delete marker created.", objectKey, bucketName, e);
             throw new MyCustomS3Exception(
-                    String.format("The object '%s' was not found in bucket '%s'.", objectKey, S3Constant.bucket_name), e
+                    String.format("The object '%s' was not found in bucket '%s'.", objectKey, bucketName), e
             );
         } catch (S3Exception e) {
-            log.error("An S3 error occurred while trying to soft-delete object '{}' in bucket '{}'. Error: {}", objectKey, S3Constant.bucket_name, e.getMessage(), e);
+            log.error("An S3 error occurred while trying to soft-delete object '{}' in bucket '{}'. Error: {}", objectKey, bucketName, e.getMessage(), e);
             throw new MyCustomS3Exception(
-                    String.format("An S3 error occurred while trying to soft-delete object '%s' from bucket '%s'.", objectKey, S3Constant.bucket_name), e
+                    String.format("An S3 error occurred while trying to soft-delete object '%s' from bucket '%s'.", objectKey, bucketName), e
             );
         } catch (Exception e) {
-            log.error("An unexpected error occurred while trying to soft-delete object '{}' in bucket '{}'. Error: {}", objectKey, S3Constant.bucket_name, e.getMessage(), e);
+            log.error("An unexpected error occurred while trying to soft-delete object '{}' in bucket '{}'. Error: {}", objectKey, bucketName, e.getMessage(), e);
             throw new MyCustomS3Exception(
-                    String.format("An unexpected error occurred while trying to soft-delete object '%s' from bucket '%s'.", objectKey, S3Constant.bucket_name), e
+                    String.format("An unexpected error occurred while trying to soft-delete object '%s' from bucket '%s'.", objectKey, bucketName), e
             );
         }
     }
@@ -95,91 +89,75 @@ public class ObjectDeleteServiceImpl implements ObjectDeleteService {
      */
     @Override
     public void permanentDeleteObjectVersion(String objectKey, String versionId) {
+        String bucketName = bucketResolver.resolve(objectKey);
         log.info("Attempting to permanently delete object key: '{}' with Version ID: '{}'.", objectKey, versionId);
-        S3Waiter s3Waiter = s3Client.waiter();
-
         try {
             DeleteObjectRequest objectRequest = DeleteObjectRequest
                     .builder()
-                    .bucket(S3Constant.bucket_name)
+                    .bucket(bucketName)
                     .key(objectKey)
                     .versionId(versionId) // Specify the exact version to delete
                     .build();
 
             s3Client.deleteObject(objectRequest);
+            headObjectCache.evict(objectKey, versionId);
 
             log.info("Successfully initiated permanent delete for object '{}' (Version ID: '{}').", objectKey, versionId);
 
-            HeadObjectRequest headObjectRequest = HeadObjectRequest
-                    .builder()
-                    .bucket(S3Constant.bucket_name)
-                    .key(objectKey)
-                    .build();
-
+            //The version is gone once S3 acknowledges the delete, a failed read back is only logged
             try {
-                s3Waiter.waitUntilObjectNotExists(headObjectRequest);
-                log.info("Waiter confirmed object '{}' is no longer present as the current version.", objectKey);
-            } catch (Exception waiterEx) {
-                log.debug("Object '{}' still exists as a current version after deleting version '{}'.", objectKey, versionId);
+                writeVerifier.verifyDeleted("permanent-delete", objectKey, versionId);
+            } catch (Exception verifyEx) {
+                log.warn("Object '{}' (Version ID: '{}') could not be verified as deleted.", objectKey, versionId);
             }
 
-            log.info("Permanently deleted object '{}' (Version ID: '{}') from bucket '{}'.", objectKey, versionId, S3Constant.bucket_name);
+            log.info("Permanently deleted object '{}' (Version ID: '{}') from bucket '{}'.", objectKey, versionId, bucketName);
 
         } catch (NoSuchKeyException e) {
-            log.warn("Attempted to permanently delete object '{}' with Version ID: '{}', but this version was not found in bucket '{}'.", objectKey, versionId, S3Constant.bucket_name, e);
+            log.warn("Attempted to permanently delete object '{}' with Version ID: '{}', but this version was not found in bucket '{}'.", objectKey, versionId, bucketName, e);
             throw new MyCustomS3Exception(
-                    String.format("The object '%s' with Version ID '%s' was not found in bucket '%s'.", objectKey, versionId, S3Constant.bucket_name), e
+                    String.format("The object '%s' with Version ID '%s' was not found in bucket '%s'.", objectKey, versionId, bucketName), e
             );
         } catch (S3Exception e) {
-            log.error("An S3 error occurred while trying to permanently delete object '{}' (Version ID: '{}') from bucket '{}'. Error: {}", objectKey, versionId, S3Constant.bucket_name, e.getMessage(), e);
+            log.error("An S3 error occurred while trying to permanently delete object '{}' (Version ID: '{}') from bucket '{}'. Error: {}", objectKey, versionId, bucketName, e.getMessage(), e);
             throw new MyCustomS3Exception(
-                    String.format("An S3 error occurred while trying to permanently delete object '%s' (Version ID: '%s') from bucket '%s'.", objectKey, versionId, S3Constant.bucket_name), e
+                    String.format("An S3 error occurred while trying to permanently delete object '%s' (Version ID: '%s') from bucket '%s'.", objectKey, versionId, bucketName), e
             );
         } catch (Exception e) {
-            log.error("An unexpected error occurred while trying to permanently delete object '{}' (Version ID: '{}') from bucket '{}'. Error: {}", objectKey, versionId, S3Constant.bucket_name, e.getMessage(), e);
+            log.error("An unexpected error occurred while trying to permanently delete object '{}' (Version ID: '{}') from bucket '{}'. Error: {}", objectKey, versionId, bucketName, e.getMessage(), e);
             throw new MyCustomS3Exception(
-                    String.format("An unexpected error occurred while trying to permanently delete object '%s' (Version ID: '%s') from bucket '%s'.", objectKey, versionId, S3Constant.bucket_name), e
+                    String.format("An unexpected error occurred while trying to permanently delete object '%s' (Version ID: '%s') from bucket '%s'.", objectKey, versionId, bucketName), e
             );
         }
     }
 
+    /**
+     * Puts a delete marker on every object under a prefix, in DeleteObjects batches of up to 1000 keys. Each part of
+     * the listing is deleted as soon as it has been listed, while the rest of the prefix is still being listed, so only
+     * a batch's keys are held at a time.
+     *
+     * @param s3ObjectKey The prefix whose objects are soft deleted.
+     * @return The delete marker version ID of each soft deleted key.
+     * @throws MyCustomS3Exception If the prefix could not be listed or a batch could not be deleted.
+     */
+    @Override
     public Map<String, String> putDeleteMarkersOnAllObjectsUnderPrefix(String s3ObjectKey){
-        int pageCount = 0;
-        String continuationToken = null;
+        String bucketName = bucketResolver.resolve(s3ObjectKey);
         Map<String, String> mapS3KeyToDeleteMarkerId = new HashMap<>();
         List<ObjectIdentifier> objectsToBatchDelete = new ArrayList<>();
+        int batchSize = S3Constant.batch_size.intValue();
 
         try{
-            do {
-                ListObjectsV2Request.Builder requestBuilder =
-                        ListObjectsV2Request.builder()
-                                .bucket(S3Constant.bucket_name)
-                                .prefix(s3ObjectKey);
-
-                if(continuationToken != null){
-                    requestBuilder.continuationToken(continuationToken);
-                }
-
-                ListObjectsV2Response listObjectsV2Response =
-                        s3Client.listObjectsV2(requestBuilder.build());
-
-                for (S3Object s3Object: listObjectsV2Response.contents()){
-                    String key = s3Object.key();
-                    ObjectIdentifier objectIdentifier = ObjectIdentifier.builder().key(key).build();
-                    objectsToBatchDelete.add(objectIdentifier);
-
-                    if(objectsToBatchDelete.size() == S3Constant.batch_size){
-                        processBatchSoftDelete(objectsToBatchDelete, mapS3KeyToDeleteMarkerId);
+            prefixListingService.forEachListedPart(s3ObjectKey, listedObjects -> {
+                for(S3Object s3Object: listedObjects){
+                    objectsToBatchDelete.add(ObjectIdentifier.builder().key(s3Object.key()).build());
+                    if(objectsToBatchDelete.size() == batchSize){
+                        processBatchSoftDelete(bucketName, objectsToBatchDelete, mapS3KeyToDeleteMarkerId);
                         objectsToBatchDelete.clear();
                     }
                 }
-
-                continuationToken = listObjectsV2Response.nextContinuationToken();
-            }while (continuationToken != null);
-
-            if(objectsToBatchDelete.isEmpty()){
-                processBatchSoftDelete(objectsToBatchDelete, mapS3KeyToDeleteMarkerId);
-            }
+            });
+            processBatchSoftDelete(bucketName, objectsToBatchDelete, mapS3KeyToDeleteMarkerId);
 
             return mapS3KeyToDeleteMarkerId;
         }catch (S3Exception e){
@@ -192,7 +170,7 @@ public class ObjectDeleteServiceImpl implements ObjectDeleteService {
 
     }
 
-    private void processBatchSoftDelete(List<ObjectIdentifier> objectsToBatchDelete, Map<String, String> mapS3ObjectsToDeleteMarkerId) {
+    private void processBatchSoftDelete(String bucketName, List<ObjectIdentifier> objectsToBatchDelete, Map<String, String> mapS3ObjectsToDeleteMarkerId) {
         if(objectsToBatchDelete.isEmpty())return;
 
         Delete delete = Delete
@@ -202,7 +180,7 @@ public class ObjectDeleteServiceImpl implements ObjectDeleteService {
 
         DeleteObjectsRequest deleteObjectsRequest = DeleteObjectsRequest
                 .builder()
-                .bucket(S3Constant.bucket_name)
+                .bucket(bucketName)
                 .delete(delete)
                 .build();
 
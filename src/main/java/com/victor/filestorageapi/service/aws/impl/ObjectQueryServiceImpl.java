@@ -1,60 +1,144 @@
 package com.victor.filestorageapi.service.aws.impl;
 
 import com.victor.filestorageapi.exception.MyCustomS3Exception;
+import com.victor.filestorageapi.models.LatestObjectVersion;
+import com.victor.filestorageapi.models.ObjectMetadata;
+import com.victor.filestorageapi.service.aws.BucketResolver;
 import com.victor.filestorageapi.service.aws.ObjectQueryService;
+import com.victor.filestorageapi.service.utils.HeadObjectCache;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
 import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.GetObjectRequest;
-import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectVersionsRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectVersionsResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.ObjectVersion;
 import software.amazon.awssdk.services.s3.model.S3Exception;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
 @Service
+@Profile("!filesystem & !memory")
 @RequiredArgsConstructor
 @Slf4j
 public class ObjectQueryServiceImpl implements ObjectQueryService {
 
     private final S3Client s3Client;
-    private final String bucketName = "my-local-bucket";
+    private final BucketResolver bucketResolver;
+    private final HeadObjectCache headObjectCache;
 
     public String getObjectVersionId(String key){
+        return getObjectMetadata(key).versionId();
+    }
+
+    @Override
+    public String getObjectContentType(String key){
+        return getObjectMetadata(key).contentType();
+    }
+
+    /**
+     * Fetches the version ID, content type, size and ETag of an object's latest version with a single HEAD request.
+     *
+     * @param key The key of the object.
+     * @return The latest version's metadata.
+     * @throws MyCustomS3Exception If the object does not exist or its metadata could not be fetched.
+     */
+    @Override
+    public ObjectMetadata getObjectMetadata(String key){
+        HeadObjectResponse headObjectResponse = headObjectVersion(key, null);
+        if(headObjectResponse == null){
+            throw new MyCustomS3Exception(String.format("Object: %s does not exist", key));
+        }
+        return new ObjectMetadata(key, headObjectResponse.versionId(), headObjectResponse.contentType(),
+                headObjectResponse.contentLength() == null ? 0 : headObjectResponse.contentLength(), headObjectResponse.eTag());
+    }
+
+    /**
+     * Fetches an object's metadata with a HEAD request, so none of the object's bytes are transferred.
+     * Metadata of a specific version never changes, so repeat lookups of one are answered from a bounded cache.
+     *
+     * @param key The key of the object.
+     * @param versionId The version to describe, the latest version is described when null.
+     * @return The object's metadata, or null if the object (version) does not exist.
+     * @throws MyCustomS3Exception If the metadata could not be fetched.
+     */
+    @Override
+    public HeadObjectResponse headObjectVersion(String key, String versionId){
+        Optional<HeadObjectResponse> cachedResponse = headObjectCache.get(key, versionId);
+        if(cachedResponse.isPresent()){
+            return cachedResponse.get();
+        }
+
         try{
-            GetObjectRequest getObjectRequest = GetObjectRequest
+            HeadObjectRequest headObjectRequest = HeadObjectRequest
                     .builder()
                     .key(key)
-                    .bucket(bucketName)
+                    .versionId(versionId)
+                    .bucket(bucketResolver.resolve(key))
                     .build();
 
-            GetObjectResponse getObjectResponse = s3Client.getObject(getObjectRequest).response();
-            return getObjectResponse.versionId();
+            HeadObjectResponse headObjectResponse = s3Client.headObject(headObjectRequest);
+            headObjectCache.put(key, headObjectResponse);
+            return headObjectResponse;
+        }catch (NoSuchKeyException e){
+            log.warn("Object: {} (VERSION: {}) does not exist", key, versionId);
+            return null;
         }catch (S3Exception e){
-            log.error("An S3 exception occurred while trying to get version id for: {}", key);
-            throw new MyCustomS3Exception(String.format("An S3 exception occurred while trying to get version id for: %s", key));
+            if(e.statusCode() == 404){
+                log.warn("Object: {} (VERSION: {}) does not exist", key, versionId);
+                return null;
+            }
+            log.error("An S3 exception occurred while trying to get metadata for: {} (VERSION: {})", key, versionId, e);
+            throw new MyCustomS3Exception(String.format("An S3 exception occurred while trying to get metadata for: %s", key), e);
         }catch (Exception e){
-            log.error("An unexpected exception occurred while trying to get version id for: {}", key);
-            throw new MyCustomS3Exception(String.format("An unexpected exception occurred while trying to get version id for: %s", key));
+            log.error("An unexpected exception occurred while trying to get metadata for: {} (VERSION: {})", key, versionId, e);
+            throw new MyCustomS3Exception(String.format("An unexpected exception occurred while trying to get metadata for: %s", key), e);
         }
     }
 
+    /**
+     * Lists the latest version of every key under the prefix in a single pass over ListObjectVersions, so describing
+     * a folder costs one request per 1000 versions instead of one per key. Keys whose latest version is a delete
+     * marker have no latest object version in the listing and are left out, the same as ListObjectsV2 leaves them out.
+     *
+     * @param prefix The prefix to list.
+     * @return The version ID, size and ETag of each live key, in key order.
+     * @throws MyCustomS3Exception If the versions could not be listed.
+     */
     @Override
-    public String getObjectContentType(String key){
+    public List<LatestObjectVersion> listLatestVersions(String prefix){
         try{
-            GetObjectRequest getObjectRequest = GetObjectRequest
+            ListObjectVersionsRequest listObjectVersionsRequest = ListObjectVersionsRequest
                     .builder()
-                    .key(key)
-                    .bucket(bucketName)
+                    .bucket(bucketResolver.resolve(prefix))
+                    .prefix(prefix)
                     .build();
 
-            GetObjectResponse getObjectResponse = s3Client.getObject(getObjectRequest).response();
-            return getObjectResponse.contentType();
+            List<LatestObjectVersion> latestVersions = new ArrayList<>();
+            int pageCount = 0;
+            for(ListObjectVersionsResponse page : s3Client.listObjectVersionsPaginator(listObjectVersionsRequest)){
+                pageCount++;
+                for(ObjectVersion version : page.versions()){
+                    if(Boolean.TRUE.equals(version.isLatest())){
+                        latestVersions.add(new LatestObjectVersion(version.key(), version.versionId(), version.size(), version.eTag(), version.lastModified()));
+                    }
+                }
+            }
+
+            log.info("Found {} live objects under prefix: {} in {} pages", latestVersions.size(), prefix, pageCount);
+            return latestVersions;
         }catch (S3Exception e){
-            log.error("An S3 exception occurred while trying to get content type for: {}", key);
-            throw new MyCustomS3Exception(String.format("An S3 exception occurred while trying to get version id for: %s", key));
+            log.error("An S3 exception occurred while trying to list the versions under prefix: {}", prefix, e);
+            throw new MyCustomS3Exception(String.format("An S3 exception occurred while trying to list the versions under prefix: %s", prefix), e);
         }catch (Exception e){
-            log.error("An unexpected exception occurred while trying to get content type for: {}", key);
-            throw new MyCustomS3Exception(String.format("An unexpected exception occurred while trying to get version id for: %s", key));
+            log.error("An unexpected exception occurred while trying to list the versions under prefix: {}", prefix, e);
+            throw new MyCustomS3Exception(String.format("An unexpected exception occurred while trying to list the versions under prefix: %s", prefix), e);
         }
     }
-
 }
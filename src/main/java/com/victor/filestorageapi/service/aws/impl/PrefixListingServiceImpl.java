@@ -0,0 +1,254 @@
+package com.victor.filestorageapi.service.aws.impl;
+
+import com.victor.filestorageapi.config.ListingProperties;
+import com.victor.filestorageapi.exception.MyCustomS3Exception;
+import com.victor.filestorageapi.service.aws.BucketResolver;
+import com.victor.filestorageapi.service.aws.PrefixListingService;
+import com.victor.filestorageapi.service.utils.BoundedAsyncRunner;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CommonPrefix;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Lists large prefixes by splitting them into their child sub-prefixes and listing those concurrently.
+ * <p>
+ * The first page is listed the plain way, so a prefix that fits in one page costs one request as before. When it
+ * doesn't, the rest of the prefix is listed once with a {@code /} delimiter to find the objects directly under it and
+ * its child sub-prefixes, and every sub-prefix is then paged through on its own, a bounded number at a time. The keys of
+ * a sub-prefix sort together, so the results are merged back into key order without sorting.
+ * */
+@Service
+@Profile("!filesystem & !memory")
+@RequiredArgsConstructor
+@Slf4j
+public class PrefixListingServiceImpl implements PrefixListingService {
+
+    private static final String DELIMITER = "/";
+
+    private final S3Client s3Client;
+    private final BucketResolver bucketResolver;
+    private final BoundedAsyncRunner asyncRunner;
+    private final ListingProperties listingProperties;
+    private final ExecutorService prefixListingExecutor;
+
+    /**
+     * Lists every object under a prefix, listing its child sub-prefixes concurrently once it spans more than one page.
+     *
+     * @param prefix The prefix to list.
+     * @return Every object under the prefix, in key order.
+     * @throws MyCustomS3Exception If any part of the prefix could not be listed.
+     */
+    @Override
+    public List<S3Object> listObjectsUnderPrefix(String prefix) {
+        String bucketName = bucketResolver.resolve(prefix);
+        log.info("Attempting to list S3 objects for prefix: {}", prefix);
+        try {
+            ListObjectsV2Response firstPage = listFirstPage(bucketName, prefix);
+            List<S3Object> objects = new ArrayList<>(firstPage.contents());
+            if (isOnlyPage(firstPage)) {
+                log.info("Finished listing {} S3 objects for prefix: {} in one page.", objects.size(), prefix);
+                return objects;
+            }
+
+            //Everything up to the last key of the first page is listed, the rest of the prefix is split from there on
+            String lastListedKey = objects.getLast().key();
+            PrefixSplit prefixSplit = splitPrefix(bucketName, prefix, lastListedKey);
+            List<CompletableFuture<List<S3Object>>> listings = listSubPrefixes(bucketName, prefixSplit.subPrefixes(), lastListedKey, new AtomicBoolean());
+            asyncRunner.awaitAll(listings);
+
+            List<List<S3Object>> subPrefixObjects = new ArrayList<>(listings.size());
+            for (int i = 0; i < listings.size(); i++) {
+                subPrefixObjects.add(joinListing(prefix, prefixSplit.subPrefixes().get(i), listings.get(i)));
+            }
+            mergeInKeyOrder(prefixSplit.directObjects(), prefixSplit.subPrefixes(), subPrefixObjects, objects);
+
+            log.info("Finished listing {} S3 objects for prefix: {}.", objects.size(), prefix);
+            return objects;
+
+        } catch (MyCustomS3Exception e) {
+            throw e;
+        } catch (S3Exception e) {
+            log.error("An S3 error occurred while trying to list objects from '{}' in bucket '{}'. Error: {}", prefix, bucketName, e.getMessage(), e);
+            throw new MyCustomS3Exception(String.format("An S3 error occurred while trying to list objects from '%s'", prefix), e);
+        } catch (Exception e) {
+            log.error("An unexpected error occurred while trying to list objects from '{}'. Error: {}", prefix, e.getMessage(), e);
+            throw new MyCustomS3Exception(String.format("An unexpected error occurred while trying to list objects from '%s'.", prefix), e);
+        }
+    }
+
+    /**
+     * Lists every object under a prefix the same way as {@link #listObjectsUnderPrefix}, but hands each part of the
+     * listing over as soon as it has been listed instead of holding the whole prefix. The parts are the first page, the
+     * objects directly under the prefix and each sub-prefix's objects, in the order they finish listing rather than in
+     * key order. The consumer runs on the calling thread while the remaining sub-prefixes are still being listed.
+     *
+     * @param prefix The prefix to list.
+     * @param partConsumer Called with every part that holds any objects.
+     * @throws MyCustomS3Exception If any part of the prefix could not be listed. Parts listed before it have been
+     * handed over already.
+     */
+    @Override
+    public void forEachListedPart(String prefix, Consumer<List<S3Object>> partConsumer) {
+        String bucketName = bucketResolver.resolve(prefix);
+        log.info("Attempting to list S3 objects for prefix: {} part by part", prefix);
+        //Once a part fails or can't be handed over, the sub-prefixes not started yet are skipped
+        AtomicBoolean failed = new AtomicBoolean();
+        try {
+            ListObjectsV2Response firstPage = listFirstPage(bucketName, prefix);
+            acceptPart(firstPage.contents(), partConsumer);
+            if (isOnlyPage(firstPage)) {
+                log.info("Finished listing {} S3 objects for prefix: {} in one page.", firstPage.contents().size(), prefix);
+                return;
+            }
+
+            String lastListedKey = firstPage.contents().getLast().key();
+            PrefixSplit prefixSplit = splitPrefix(bucketName, prefix, lastListedKey);
+            acceptPart(prefixSplit.directObjects(), partConsumer);
+
+            List<String> subPrefixes = prefixSplit.subPrefixes();
+            List<CompletableFuture<List<S3Object>>> listings = listSubPrefixes(bucketName, subPrefixes, lastListedKey, failed);
+            BlockingQueue<Integer> completedListings = new LinkedBlockingQueue<>();
+            for (int i = 0; i < listings.size(); i++) {
+                int index = i;
+                listings.get(i).whenComplete((objects, throwable) -> completedListings.add(index));
+            }
+            for (int remaining = listings.size(); remaining > 0; remaining--) {
+                int index = completedListings.take();
+                acceptPart(joinListing(prefix, subPrefixes.get(index), listings.get(index)), partConsumer);
+            }
+            log.info("Finished listing the {} sub-prefixes of prefix: {}.", subPrefixes.size(), prefix);
+
+        } catch (InterruptedException e) {
+            failed.set(true);
+            Thread.currentThread().interrupt();
+            throw new MyCustomS3Exception(String.format("Interrupted while listing objects from '%s'.", prefix), e);
+        } catch (MyCustomS3Exception e) {
+            failed.set(true);
+            throw e;
+        } catch (S3Exception e) {
+            failed.set(true);
+            log.error("An S3 error occurred while trying to list objects from '{}' in bucket '{}'. Error: {}", prefix, bucketName, e.getMessage(), e);
+            throw new MyCustomS3Exception(String.format("An S3 error occurred while trying to list objects from '%s'", prefix), e);
+        } catch (Exception e) {
+            failed.set(true);
+            log.error("An unexpected error occurred while trying to list objects from '{}'. Error: {}", prefix, e.getMessage(), e);
+            throw new MyCustomS3Exception(String.format("An unexpected error occurred while trying to list objects from '%s'.", prefix), e);
+        }
+    }
+
+    private ListObjectsV2Response listFirstPage(String bucketName, String prefix) {
+        return s3Client.listObjectsV2(ListObjectsV2Request
+                .builder()
+                .bucket(bucketName)
+                .prefix(prefix)
+                .maxKeys(listingProperties.getPageSize())
+                .build());
+    }
+
+    private boolean isOnlyPage(ListObjectsV2Response firstPage) {
+        return !Boolean.TRUE.equals(firstPage.isTruncated()) || firstPage.contents().isEmpty();
+    }
+
+    private void acceptPart(List<S3Object> objects, Consumer<List<S3Object>> partConsumer) {
+        if (!objects.isEmpty()) {
+            partConsumer.accept(objects);
+        }
+    }
+
+    //Lists the rest of the prefix once with a delimiter, for the objects directly under it and its child sub-prefixes
+    private PrefixSplit splitPrefix(String bucketName, String prefix, String lastListedKey) {
+        List<S3Object> directObjects = new ArrayList<>();
+        List<String> subPrefixes = new ArrayList<>();
+        ListObjectsV2Request discoveryRequest = ListObjectsV2Request
+                .builder()
+                .bucket(bucketName)
+                .prefix(prefix)
+                .delimiter(DELIMITER)
+                .startAfter(lastListedKey)
+                .maxKeys(listingProperties.getPageSize())
+                .build();
+        for (ListObjectsV2Response page : s3Client.listObjectsV2Paginator(discoveryRequest)) {
+            directObjects.addAll(page.contents());
+            page.commonPrefixes().stream().map(CommonPrefix::prefix).forEach(subPrefixes::add);
+        }
+        log.info("Found {} objects and {} sub-prefixes directly under prefix: {}. Listing the sub-prefixes {} at a time.",
+                directObjects.size(), subPrefixes.size(), prefix, listingProperties.getMaxParallelPrefixes());
+        return new PrefixSplit(directObjects, subPrefixes);
+    }
+
+    //Once one sub-prefix fails the listing is lost, so the ones not started yet are skipped
+    private List<CompletableFuture<List<S3Object>>> listSubPrefixes(String bucketName, List<String> subPrefixes, String lastListedKey, AtomicBoolean failed) {
+        return asyncRunner.runAll(subPrefixes, listingProperties.getMaxParallelPrefixes(),
+                subPrefix -> failed.get()
+                        ? CompletableFuture.failedFuture(new MyCustomS3Exception(String.format("Skipped listing sub-prefix '%s' after another sub-prefix failed.", subPrefix)))
+                        : CompletableFuture.supplyAsync(() -> listSubPrefix(bucketName, subPrefix, lastListedKey), prefixListingExecutor)
+                                .whenComplete((objects, throwable) -> {
+                                    if (throwable != null) {
+                                        failed.set(true);
+                                    }
+                                }));
+    }
+
+    private List<S3Object> joinListing(String prefix, String subPrefix, CompletableFuture<List<S3Object>> listing) {
+        if (listing.isCompletedExceptionally()) {
+            Throwable cause = BoundedAsyncRunner.unwrap(listing.exceptionNow());
+            log.error("Failed to list sub-prefix '{}' of prefix '{}'. Error: {}", subPrefix, prefix, cause.getMessage(), cause);
+            throw new MyCustomS3Exception(String.format("Failed to list sub-prefix '%s' of prefix '%s'.", subPrefix, prefix), cause);
+        }
+        return listing.join();
+    }
+
+    //The sub-prefix holding the last key of the first page was partly listed already, so every listing starts after it
+    private List<S3Object> listSubPrefix(String bucketName, String subPrefix, String lastListedKey) {
+        ListObjectsV2Request listObjectsV2Request = ListObjectsV2Request
+                .builder()
+                .bucket(bucketName)
+                .prefix(subPrefix)
+                .startAfter(lastListedKey)
+                .maxKeys(listingProperties.getPageSize())
+                .build();
+
+        List<S3Object> objects = new ArrayList<>();
+        int pageCount = 0;
+        for (ListObjectsV2Response page : s3Client.listObjectsV2Paginator(listObjectsV2Request)) {
+            pageCount++;
+            objects.addAll(page.contents());
+        }
+        log.debug("Listed {} S3 objects for sub-prefix: {} in {} pages.", objects.size(), subPrefix, pageCount);
+        return objects;
+    }
+
+    /**
+     * Merges the objects directly under the prefix with the listings of its sub-prefixes. Both come in key order and
+     * every key under a sub-prefix sorts after the sub-prefix itself and before the next key that doesn't share it.
+     * */
+    private void mergeInKeyOrder(List<S3Object> directObjects, List<String> subPrefixes, List<List<S3Object>> subPrefixObjects, List<S3Object> merged) {
+        int nextDirectObject = 0;
+        for (int i = 0; i < subPrefixes.size(); i++) {
+            while (nextDirectObject < directObjects.size() && directObjects.get(nextDirectObject).key().compareTo(subPrefixes.get(i)) < 0) {
+                merged.add(directObjects.get(nextDirectObject++));
+            }
+            merged.addAll(subPrefixObjects.get(i));
+        }
+        merged.addAll(directObjects.subList(nextDirectObject, directObjects.size()));
+    }
+
+    private record PrefixSplit(List<S3Object> directObjects, List<String> subPrefixes) {
+    }
+}
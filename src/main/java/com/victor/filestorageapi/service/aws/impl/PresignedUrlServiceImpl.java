@@ -0,0 +1,113 @@
+package com.victor.filestorageapi.service.aws.impl;
+
+import com.victor.filestorageapi.config.PresignProperties;
+import com.victor.filestorageapi.exception.MyCustomS3Exception;
+import com.victor.filestorageapi.models.enums.StorageCodec;
+import com.victor.filestorageapi.service.aws.BucketResolver;
+import com.victor.filestorageapi.service.aws.PresignedUrlService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ContentDisposition;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedPutObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PutObjectPresignRequest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+@Service
+@Profile("!filesystem & !memory")
+@RequiredArgsConstructor
+@Slf4j
+public class PresignedUrlServiceImpl implements PresignedUrlService {
+
+    private final S3Presigner s3Presigner;
+    private final PresignProperties presignProperties;
+    private final BucketResolver bucketResolver;
+
+    /**
+     * Presigns a PUT so a client can upload an object straight to S3.
+     * The content type and metadata are part of the signature, so the client must send them as the returned signed headers.
+     *
+     * @param s3Key The key the object will be stored under.
+     * @param contentType The content type the client must upload with.
+     * @param metadata User defined metadata the client must upload with.
+     * @return The presigned request holding the URL and the headers the client has to send.
+     * @throws MyCustomS3Exception If the request could not be presigned.
+     */
+    @Override
+    public PresignedPutObjectRequest presignPutObject(String s3Key, String contentType, Map<String, String> metadata) {
+        try {
+            PutObjectRequest putObjectRequest = PutObjectRequest
+                    .builder()
+                    .bucket(bucketResolver.resolve(s3Key))
+                    .key(s3Key)
+                    .contentType(contentType)
+                    .metadata(metadata)
+                    .build();
+
+            PutObjectPresignRequest presignRequest = PutObjectPresignRequest
+                    .builder()
+                    .signatureDuration(presignProperties.getUploadExpiry())
+                    .putObjectRequest(putObjectRequest)
+                    .build();
+
+            PresignedPutObjectRequest presignedRequest = s3Presigner.presignPutObject(presignRequest);
+            log.info("Presigned upload of object '{}' (Expires: {}).", s3Key, presignedRequest.expiration());
+            return presignedRequest;
+        } catch (Exception e) {
+            log.error("An unexpected error occurred while trying to presign an upload of object '{}'. Error: {}", s3Key, e.getMessage(), e);
+            throw new MyCustomS3Exception(String.format("An unexpected error occurred while trying to presign an upload of object '%s'.", s3Key), e);
+        }
+    }
+
+    /**
+     * Presigns a GET of a specific object version so a client can download it straight from S3.
+     *
+     * @param s3Key The key of the object.
+     * @param versionId The version to download.
+     * @param fileName The file name S3 should send in the Content-Disposition header.
+     * @param codec The codec the object is stored with, sent back as the Content-Encoding unless it is identity.
+     * @param range The byte range to download, may be null to download the whole object.
+     * @return The presigned request holding the URL.
+     * @throws MyCustomS3Exception If the request could not be presigned.
+     */
+    @Override
+    public PresignedGetObjectRequest presignGetObjectVersion(String s3Key, String versionId, String fileName, StorageCodec codec, String range) {
+        try {
+            GetObjectRequest getObjectRequest = GetObjectRequest
+                    .builder()
+                    .bucket(bucketResolver.resolve(s3Key))
+                    .key(s3Key)
+                    .versionId(versionId)
+                    .responseContentDisposition(ContentDisposition
+                            .attachment()
+                            .filename(fileName, StandardCharsets.UTF_8)
+                            .build()
+                            .toString())
+                    //Compressed objects are served as they are stored, the client decodes them like any encoded response
+                    .responseContentEncoding(codec == StorageCodec.IDENTITY ? null : codec.getName())
+                    .range(range)
+                    .build();
+
+            GetObjectPresignRequest presignRequest = GetObjectPresignRequest
+                    .builder()
+                    .signatureDuration(presignProperties.getDownloadExpiry())
+                    .getObjectRequest(getObjectRequest)
+                    .build();
+
+            PresignedGetObjectRequest presignedRequest = s3Presigner.presignGetObject(presignRequest);
+            log.info("Presigned download of object '{}' (Version ID: '{}', Expires: {}).", s3Key, versionId, presignedRequest.expiration());
+            return presignedRequest;
+        } catch (Exception e) {
+            log.error("An unexpected error occurred while trying to presign a download of object '{}' (Version ID: '{}'). Error: {}", s3Key, versionId, e.getMessage(), e);
+            throw new MyCustomS3Exception(String.format("An unexpected error occurred while trying to presign a download of object '%s'.", s3Key), e);
+        }
+    }
+}
@@ -1,9 +1,12 @@
 package com.victor.filestorageapi.service.aws.impl;
 
+import com.victor.filestorageapi.config.BucketProperties;
 import com.victor.filestorageapi.exception.MyCustomS3Exception;
-import com.victor.filestorageapi.models.constants.S3Constant;
 import com.victor.filestorageapi.service.aws.S3VersioningManager;
+import com.victor.filestorageapi.service.utils.S3Utils;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
 import software.amazon.awssdk.awscore.exception.AwsServiceException;
 import software.amazon.awssdk.core.exception.SdkClientException;
@@ -12,23 +15,29 @@ import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
 
 @Service
+@Profile("!filesystem & !memory")
 @Slf4j
 public class S3VersioningManagerImpl implements S3VersioningManager {
 
     private final S3Client s3Client;
     private static final int numberOfDays = 2;
 
-    public S3VersioningManagerImpl(S3Client s3Client) {
+    //Every bucket objects are spread over is prepared the same way, including buckets added to the ring since the last start
+    public S3VersioningManagerImpl(S3Client s3Client, S3Utils s3Utils, BucketProperties bucketProperties,
+                                   @Value("${cloud.aws.region.static}") String region) {
         this.s3Client = s3Client;
-        enableVersioning();
-        configureVersioningLifeCycleRules();
+        for (String bucketName : bucketProperties.getNames()) {
+            s3Utils.initializeBucket(bucketName, region, s3Client);
+            enableVersioning(bucketName);
+            configureVersioningLifeCycleRules(bucketName);
+        }
     }
 
     /**
      * Configures the need life cycle rules for bucket versioning
      * */
     @Override
-    public void configureVersioningLifeCycleRules() {
+    public void configureVersioningLifeCycleRules(String bucketName) {
         try{
             //Expires non-concurrent version after a specified amount of days
             LifecycleRule expirationRule = LifecycleRule
@@ -77,11 +86,11 @@ public class S3VersioningManagerImpl implements S3VersioningManager {
 
             PutBucketLifecycleConfigurationRequest putBucketLifecycleConfigurationRequest = PutBucketLifecycleConfigurationRequest
                     .builder()
-                    .bucket(S3Constant.bucket_name)
+                    .bucket(bucketName)
                     .lifecycleConfiguration(lifecycleConfiguration)
                     .build();
             s3Client.putBucketLifecycleConfiguration(putBucketLifecycleConfigurationRequest);
-            log.info("Successfully added {} lifecycle rules to bucket {}", lifecycleConfiguration.rules().size(), S3Constant.bucket_name);
+            log.info("Successfully added {} lifecycle rules to bucket {}", lifecycleConfiguration.rules().size(), bucketName);
         }catch (S3Exception e){
             log.info("An S3 error occurred while configuring lifecycle rules.", e);
             throw new MyCustomS3Exception("An S3 error occurred while configuring lifecycle rules.", e);
@@ -98,9 +107,9 @@ public class S3VersioningManagerImpl implements S3VersioningManager {
      * Enables versioning on the specified S3 bucket
      * */
     @Override
-    public void enableVersioning() {
+    public void enableVersioning(String bucketName) {
         try{
-            log.info("Enabling bucket versioning for bucket: {}", S3Constant.bucket_name);
+            log.info("Enabling bucket versioning for bucket: {}", bucketName);
             VersioningConfiguration versioningConfiguration = VersioningConfiguration
                     .builder()
                     .status(BucketVersioningStatus.ENABLED)
@@ -108,25 +117,25 @@ public class S3VersioningManagerImpl implements S3VersioningManager {
 
             PutBucketVersioningRequest versioningRequest = PutBucketVersioningRequest
                     .builder()
-                    .bucket(S3Constant.bucket_name)
+                    .bucket(bucketName)
                     .versioningConfiguration(versioningConfiguration)
                     .build();
             s3Client.putBucketVersioning(versioningRequest);
-            log.info("Bucket versioning for bucket: {} was successfully enabled.", S3Constant.bucket_name);
+            log.info("Bucket versioning for bucket: {} was successfully enabled.", bucketName);
 
         }catch (S3Exception e){
-            log.error("An S3 error occurred while trying to enable versioning for bucket: {}", S3Constant.bucket_name);
-            throw new MyCustomS3Exception(String.format("An S3 error occurred while trying to enable versioning for  bucket: (%s)", S3Constant.bucket_name));
+            log.error("An S3 error occurred while trying to enable versioning for bucket: {}", bucketName);
+            throw new MyCustomS3Exception(String.format("An S3 error occurred while trying to enable versioning for  bucket: (%s)", bucketName));
         }catch (SdkClientException | AwsServiceException e){
             log.error("An error occurred while trying to contact AWS services.");
-            throw new MyCustomS3Exception(String.format("An error occurred while trying to contact AWS services while trying to enable versioning for bucket: %s", S3Constant.bucket_name), e);
+            throw new MyCustomS3Exception(String.format("An error occurred while trying to contact AWS services while trying to enable versioning for bucket: %s", bucketName), e);
         }
     }
 
     @Override
-    public void disableVersioning() {
+    public void disableVersioning(String bucketName) {
         try{
-            log.info("Disabling bucket versioning for bucket: {}", S3Constant.bucket_name);
+            log.info("Disabling bucket versioning for bucket: {}", bucketName);
             VersioningConfiguration versioningConfiguration = VersioningConfiguration
                     .builder()
                     .status(BucketVersioningStatus.SUSPENDED)
@@ -134,18 +143,18 @@ public class S3VersioningManagerImpl implements S3VersioningManager {
 
             PutBucketVersioningRequest versioningRequest = PutBucketVersioningRequest
                     .builder()
-                    .bucket(S3Constant.bucket_name)
+                    .bucket(bucketName)
                     .versioningConfiguration(versioningConfiguration)
                     .build();
             s3Client.putBucketVersioning(versioningRequest);
-            log.info("Successfully disabled bucket versioning for bucket: {}", S3Constant.bucket_name);
+            log.info("Successfully disabled bucket versioning for bucket: {}", bucketName);
         }catch (S3Exception e){
-            log.error("An S3 error occurred while trying to disable versioning for bucket: {}", S3Constant.bucket_name);
-            throw new MyCustomS3Exception(String.format("An S3 error occurred while trying to disable versioning for bucket: (%s)", S3Constant.bucket_name));
+            log.error("An S3 error occurred while trying to disable versioning for bucket: {}", bucketName);
+            throw new MyCustomS3Exception(String.format("An S3 error occurred while trying to disable versioning for bucket: (%s)", bucketName));
         }catch (SdkClientException | AwsServiceException e){
             log.error("An error occurred while trying to contact AWS services.");
         } catch (Exception e){
-            log.error("An unexpected error occurred while trying to disable versioning for bucket: {}", S3Constant.bucket_name);
+            log.error("An unexpected error occurred while trying to disable versioning for bucket: {}", bucketName);
         }
     }
 }
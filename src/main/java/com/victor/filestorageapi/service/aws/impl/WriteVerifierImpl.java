@@ -0,0 +1,224 @@
+package com.victor.filestorageapi.service.aws.impl;
+
+import com.victor.filestorageapi.config.ConsistencyProperties;
+import com.victor.filestorageapi.exception.MyCustomS3Exception;
+import com.victor.filestorageapi.service.aws.BucketResolver;
+import com.victor.filestorageapi.service.aws.WriteVerifier;
+import com.victor.filestorageapi.service.utils.BoundedAsyncRunner;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.waiters.S3AsyncWaiter;
+import software.amazon.awssdk.services.s3.waiters.S3Waiter;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Reads writes back according to the configured consistency mode. In strong mode nothing is read back. Otherwise a
+ * write that is read back is checked with a single HEAD, and only a write that isn't visible yet falls back to the
+ * polling waiter, so a verified write costs one extra request instead of a waiter loop.
+ * Every read back is counted in {@code storage.write.verifications}, tagged with the operation and whether the write
+ * was visible.
+ * */
+@Service
+@Profile("!filesystem & !memory")
+@RequiredArgsConstructor
+@Slf4j
+public class WriteVerifierImpl implements WriteVerifier {
+
+    private static final String VERIFICATIONS_METRIC = "storage.write.verifications";
+
+    private final S3Client s3Client;
+    private final S3AsyncClient s3AsyncClient;
+    private final ConsistencyProperties consistencyProperties;
+    private final MeterRegistry meterRegistry;
+    private final BucketResolver bucketResolver;
+
+    private S3Waiter s3Waiter;
+    //Async waiters own a scheduler to poll with, so one is shared instead of building one per call
+    private S3AsyncWaiter s3AsyncWaiter;
+
+    @PostConstruct
+    void createWaiters() {
+        s3Waiter = S3Waiter.builder().client(s3Client).build();
+        s3AsyncWaiter = S3AsyncWaiter.builder().client(s3AsyncClient).build();
+        log.info("Writes are verified in {} mode", consistencyProperties.getMode());
+    }
+
+    @PreDestroy
+    void closeWaiters() {
+        s3Waiter.close();
+        s3AsyncWaiter.close();
+    }
+
+    /**
+     * Checks that a written object version can be read back, waiting for it if it can't be yet.
+     *
+     * @param operation The write that created the version, used to tag the metrics.
+     * @throws MyCustomS3Exception If the version never became visible.
+     */
+    @Override
+    public void verifyWritten(String operation, String s3Key, String versionId) {
+        if (!shouldVerify()) {
+            return;
+        }
+
+        HeadObjectRequest headObjectRequest = buildHeadRequest(s3Key, versionId);
+        Visibility visibility = head(headObjectRequest);
+        record(operation, visibility, Visibility.PRESENT);
+        if (visibility == Visibility.PRESENT) {
+            return;
+        }
+
+        log.warn("Object '{}' (Version ID: '{}') written by {} was not visible on read back. Waiting for it.", s3Key, versionId, operation);
+        try {
+            s3Waiter.waitUntilObjectExists(headObjectRequest);
+        } catch (Exception e) {
+            throw notConsistent("written", operation, s3Key, versionId, e);
+        }
+    }
+
+    /**
+     * Checks that a deleted object, or one version of it, no longer reads back, waiting for it if it still does.
+     *
+     * @param versionId The deleted version, or null if a delete marker hid the whole object.
+     * @throws MyCustomS3Exception If the object kept reading back.
+     */
+    @Override
+    public void verifyDeleted(String operation, String s3Key, String versionId) {
+        if (!shouldVerify()) {
+            return;
+        }
+
+        HeadObjectRequest headObjectRequest = buildHeadRequest(s3Key, versionId);
+        Visibility visibility = head(headObjectRequest);
+        record(operation, visibility, Visibility.ABSENT);
+        if (visibility == Visibility.ABSENT) {
+            return;
+        }
+
+        log.warn("Object '{}' (Version ID: '{}') deleted by {} still read back. Waiting for it to disappear.", s3Key, versionId, operation);
+        try {
+            s3Waiter.waitUntilObjectNotExists(headObjectRequest);
+        } catch (Exception e) {
+            throw notConsistent("deleted", operation, s3Key, versionId, e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> verifyWrittenAsync(String operation, String s3Key, String versionId) {
+        if (!shouldVerify()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        HeadObjectRequest headObjectRequest = buildHeadRequest(s3Key, versionId);
+        return headAsync(headObjectRequest).thenCompose(visibility -> {
+            record(operation, visibility, Visibility.PRESENT);
+            if (visibility == Visibility.PRESENT) {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            log.warn("Object '{}' (Version ID: '{}') written by {} was not visible on read back. Waiting for it.", s3Key, versionId, operation);
+            return s3AsyncWaiter.waitUntilObjectExists(headObjectRequest).handle((waiterResponse, throwable) -> {
+                if (throwable != null) {
+                    throw notConsistent("written", operation, s3Key, versionId, BoundedAsyncRunner.unwrap(throwable));
+                }
+                return null;
+            });
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> verifyDeletedAsync(String operation, String s3Key, String versionId) {
+        if (!shouldVerify()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        HeadObjectRequest headObjectRequest = buildHeadRequest(s3Key, versionId);
+        return headAsync(headObjectRequest).thenCompose(visibility -> {
+            record(operation, visibility, Visibility.ABSENT);
+            if (visibility == Visibility.ABSENT) {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            log.warn("Object '{}' (Version ID: '{}') deleted by {} still read back. Waiting for it to disappear.", s3Key, versionId, operation);
+            return s3AsyncWaiter.waitUntilObjectNotExists(headObjectRequest).handle((waiterResponse, throwable) -> {
+                if (throwable != null) {
+                    throw notConsistent("deleted", operation, s3Key, versionId, BoundedAsyncRunner.unwrap(throwable));
+                }
+                return null;
+            });
+        });
+    }
+
+    private boolean shouldVerify() {
+        return switch (consistencyProperties.getMode()) {
+            case STRONG -> false;
+            case VERIFY -> true;
+            case SAMPLED_VERIFY -> ThreadLocalRandom.current().nextDouble() < consistencyProperties.getSampleRate();
+        };
+    }
+
+    private HeadObjectRequest buildHeadRequest(String s3Key, String versionId) {
+        return HeadObjectRequest
+                .builder()
+                .bucket(bucketResolver.resolve(s3Key))
+                .key(s3Key)
+                .versionId(versionId)
+                .build();
+    }
+
+    private Visibility head(HeadObjectRequest headObjectRequest) {
+        try {
+            s3Client.headObject(headObjectRequest);
+            return Visibility.PRESENT;
+        } catch (Exception e) {
+            return classify(e);
+        }
+    }
+
+    private CompletableFuture<Visibility> headAsync(HeadObjectRequest headObjectRequest) {
+        return s3AsyncClient.headObject(headObjectRequest)
+                .handle((headObjectResponse, throwable) -> throwable == null ? Visibility.PRESENT : classify(BoundedAsyncRunner.unwrap(throwable)));
+    }
+
+    //Anything but a 404 says nothing about whether the write is visible, e.g. a HEAD of a delete marker gets a 405
+    private Visibility classify(Throwable throwable) {
+        if (throwable instanceof S3Exception s3Exception && s3Exception.statusCode() == 404) {
+            return Visibility.ABSENT;
+        }
+        log.debug("Read back failed. Error: {}", throwable.getMessage());
+        return Visibility.UNKNOWN;
+    }
+
+    private void record(String operation, Visibility visibility, Visibility expected) {
+        String outcome = visibility == Visibility.UNKNOWN ? "error" : visibility == expected ? "consistent" : "inconsistent";
+        Counter.builder(VERIFICATIONS_METRIC)
+                .description("Writes read back to check they are visible, by operation and outcome")
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private MyCustomS3Exception notConsistent(String state, String operation, String s3Key, String versionId, Throwable cause) {
+        log.error("Object '{}' (Version ID: '{}') {} by {} never read back as {}. Error: {}", s3Key, versionId, state, operation, state, cause.getMessage(), cause);
+        return new MyCustomS3Exception(String.format("Object '%s' (Version ID: '%s') %s by %s never read back as %s.", s3Key, versionId, state, operation, state), cause);
+    }
+
+    private enum Visibility {
+        PRESENT,
+        ABSENT,
+        UNKNOWN
+    }
+}
@@ -0,0 +1,17 @@
+package com.victor.filestorageapi.service.file;
+
+import com.victor.filestorageapi.models.StoredObject;
+import com.victor.filestorageapi.models.entities.FileBlob;
+import com.victor.filestorageapi.models.entities.User;
+
+import java.io.InputStream;
+import java.util.Optional;
+
+public interface FileBlobService {
+    FileBlob storeContent(User user, String contentType, String expectedSha256, InputStream inputStream);
+    Optional<FileBlob> referenceBlobOwnedByUser(User user, String sha256);
+    FileBlob acquireBlob(String sha256, StoredObject stagedObject);
+    FileBlob retainBlob(FileBlob fileBlob);
+    void releaseBlob(FileBlob fileBlob);
+    void collectUnreferencedBlobs();
+}
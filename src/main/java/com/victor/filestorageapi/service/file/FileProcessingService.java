@@ -0,0 +1,12 @@
+package com.victor.filestorageapi.service.file;
+
+import com.victor.filestorageapi.models.FileCommittedEvent;
+
+import java.util.Collection;
+import java.util.UUID;
+
+public interface FileProcessingService {
+    void onFileCommitted(FileCommittedEvent event);
+    int enqueue(Collection<UUID> fileIds);
+    void requeueUnprocessedFiles();
+}
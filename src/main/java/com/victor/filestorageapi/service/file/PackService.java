@@ -0,0 +1,10 @@
+package com.victor.filestorageapi.service.file;
+
+import com.victor.filestorageapi.models.PackSlice;
+import com.victor.filestorageapi.models.entities.PackObject;
+
+public interface PackService {
+    PackSlice appendToPack(byte[] content);
+    void releaseSlice(PackObject pack, long length);
+    void compactPacks();
+}
@@ -0,0 +1,27 @@
+package com.victor.filestorageapi.service.file;
+
+import com.victor.filestorageapi.models.FileProcessingResult;
+import com.victor.filestorageapi.models.IngestedFile;
+import com.victor.filestorageapi.models.StoredObject;
+import com.victor.filestorageapi.models.entities.FileBlob;
+import com.victor.filestorageapi.models.entities.User;
+import com.victor.filestorageapi.models.entities.UserFile;
+import com.victor.filestorageapi.models.entities.UserFolder;
+import jakarta.transaction.Transactional;
+
+import java.util.List;
+import java.util.Map;
+
+public interface UserFileCommandService {
+    @Transactional
+    UserFile recordUploadedFile(User user, UserFolder userFolder, String fileName, String contentType, StoredObject storedObject);
+
+    @Transactional
+    UserFile recordBlobFile(User user, UserFolder userFolder, String filePath, String fileName, String contentType, FileBlob fileBlob);
+
+    @Transactional
+    List<UserFile> recordBlobFiles(User user, Map<String, UserFolder> foldersByPath, List<IngestedFile> ingestedFiles);
+
+    @Transactional
+    void recordProcessingResults(List<FileProcessingResult> results);
+}
@@ -0,0 +1,10 @@
+package com.victor.filestorageapi.service.file;
+
+import com.victor.filestorageapi.models.entities.User;
+import com.victor.filestorageapi.models.entities.UserFile;
+
+import java.util.UUID;
+
+public interface UserFileQueryService {
+    UserFile findActiveFile(User user, UUID fileId);
+}
@@ -0,0 +1,370 @@
+package com.victor.filestorageapi.service.file.impl;
+
+import com.victor.filestorageapi.config.DedupProperties;
+import com.victor.filestorageapi.config.PackProperties;
+import com.victor.filestorageapi.exception.MyCustomS3Exception;
+import com.victor.filestorageapi.exception.UserFileUploadException;
+import com.victor.filestorageapi.models.ObjectCopy;
+import com.victor.filestorageapi.models.PackSlice;
+import com.victor.filestorageapi.models.StoredObject;
+import com.victor.filestorageapi.models.entities.FileBlob;
+import com.victor.filestorageapi.models.entities.User;
+import com.victor.filestorageapi.repository.FileBlobRepository;
+import com.victor.filestorageapi.repository.UserFileRepository;
+import com.victor.filestorageapi.service.aws.ObjectCopyService;
+import com.victor.filestorageapi.service.aws.ObjectDeleteService;
+import com.victor.filestorageapi.service.aws.ObjectStorageService;
+import com.victor.filestorageapi.service.file.FileBlobService;
+import com.victor.filestorageapi.service.file.PackService;
+import com.victor.filestorageapi.service.utils.BoundedAsyncRunner;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class FileBlobServiceImpl implements FileBlobService {
+
+    //Both prefixes sit outside every user's root folder, so they never show up when listing a user's objects
+    private static final String BLOB_PREFIX = "/.blobs/";
+    private static final String STAGING_PREFIX = "/.staging/";
+
+    private final FileBlobRepository fileBlobRepository;
+    private final UserFileRepository userFileRepository;
+    private final ObjectStorageService objectStorageService;
+    private final ObjectDeleteService objectDeleteService;
+    private final ObjectCopyService objectCopyService;
+    private final DedupProperties dedupProperties;
+    private final PackProperties packProperties;
+    private final PackService packService;
+
+    /**
+     * Streams content to storage while hashing it with SHA-256, then takes a reference on the blob holding it. Content
+     * sent with its hash is streamed straight to its content addressed key and checked once it is stored, other content
+     * is staged first since its key is only known once it has been read.
+     *
+     * @param user The user uploading the content.
+     * @param contentType The content type to store the content with.
+     * @param expectedSha256 The hex encoded SHA-256 sent by the client, may be null.
+     * @param inputStream The content's bytes. It is read until EOF but not closed.
+     * @return The blob holding the content, with the new reference counted.
+     * @throws UserFileUploadException If the content doesn't match the expected hash or the blob could not be referenced.
+     */
+    @Override
+    public FileBlob storeContent(User user, String contentType, String expectedSha256, InputStream inputStream) {
+        if (packProperties.isEnabled()) {
+            int threshold = Math.toIntExact(packProperties.getThreshold().toBytes());
+            byte[] head = readHead(inputStream, threshold + 1);
+            if (head.length > 0 && head.length <= threshold) {
+                return storePackedContent(user, expectedSha256, head);
+            }
+            //Too big for a pack, stream what was read and the rest as usual
+            inputStream = new SequenceInputStream(new ByteArrayInputStream(head), inputStream);
+        }
+
+        if (expectedSha256 != null) {
+            return storeContentAtBlobKey(user, contentType, expectedSha256, inputStream);
+        }
+
+        MessageDigest digest = newSha256Digest();
+        String stagingKey = newStagingKey();
+        log.debug("Staging content at: {} for user: {}", stagingKey, user.getUsername());
+        StoredObject stagedObject = objectStorageService.uploadFile(user, stagingKey, contentType, new DigestInputStream(inputStream, digest));
+        String sha256 = HexFormat.of().formatHex(digest.digest());
+        return acquireBlob(sha256, stagedObject);
+    }
+
+    /**
+     * Streams content whose hash the client sent to the blob key of that hash, so it needs neither a staging object
+     * nor a copy. The uploaded version is only referenced once the content is found to match the hash.
+     *
+     * @return The blob holding the content, with the new reference counted.
+     * @throws UserFileUploadException If the content doesn't match the expected hash or the blob could not be referenced.
+     */
+    private FileBlob storeContentAtBlobKey(User user, String contentType, String expectedSha256, InputStream inputStream) {
+        MessageDigest digest = newSha256Digest();
+        String blobKey = BLOB_PREFIX + expectedSha256;
+        log.debug("Uploading content straight to blob: {} for user: {}", blobKey, user.getUsername());
+        StoredObject uploadedObject = objectStorageService.uploadFile(user, blobKey, contentType, new DigestInputStream(inputStream, digest));
+        String sha256 = HexFormat.of().formatHex(digest.digest());
+
+        if (!expectedSha256.equals(sha256)) {
+            log.warn("Content uploaded to: {} has SHA-256: {} but the client sent: {}", blobKey, sha256, expectedSha256);
+            deleteUnusedVersion(uploadedObject);
+            throw new UserFileUploadException("The uploaded content does not match the SHA-256 sent with it.");
+        }
+
+        FileBlob existingBlob = referenceExistingBlob(sha256);
+        if (existingBlob != null) {
+            log.info("Content {} is already stored as blob: {}. Dropping uploaded version: {}", sha256, existingBlob.getS3Key(), uploadedObject.versionId());
+            deleteUnusedVersion(uploadedObject);
+            return existingBlob;
+        }
+        return createBlob(sha256, blobKey, uploadedObject.versionId(), uploadedObject.size());
+    }
+
+    /**
+     * Stores content small enough to be packed. Content that is already stored is referenced without writing anything,
+     * otherwise it is appended to the next pack object.
+     *
+     * @param content The complete content, at most the pack threshold in size.
+     * @return The blob holding the content, with the new reference counted.
+     * @throws UserFileUploadException If the content doesn't match the expected hash or the blob could not be referenced.
+     */
+    private FileBlob storePackedContent(User user, String expectedSha256, byte[] content) {
+        String sha256 = HexFormat.of().formatHex(newSha256Digest().digest(content));
+        if (expectedSha256 != null && !expectedSha256.equals(sha256)) {
+            log.warn("Content from user: {} has SHA-256: {} but the client sent: {}", user.getUsername(), sha256, expectedSha256);
+            throw new UserFileUploadException("The uploaded content does not match the SHA-256 sent with it.");
+        }
+
+        FileBlob existingBlob = referenceExistingBlob(sha256);
+        if (existingBlob != null) {
+            log.info("Content {} is already stored as blob: {}", sha256, existingBlob.getS3Key());
+            return existingBlob;
+        }
+
+        PackSlice slice = packService.appendToPack(content);
+        LocalDateTime now = LocalDateTime.now();
+        FileBlob fileBlob = FileBlob
+                .builder()
+                .sha256(sha256)
+                .s3Key(slice.pack().getS3Key())
+                .versionId(slice.pack().getVersionId())
+                .pack(slice.pack())
+                .packOffset(slice.offset())
+                .size(slice.length())
+                .refCount(1L)
+                .createdAt(now)
+                .updatedAt(now)
+                .build();
+
+        try {
+            fileBlob = fileBlobRepository.saveAndFlush(fileBlob);
+            log.info("Stored new blob: {} in pack: {} (OFFSET: {}, SIZE: {})", sha256, slice.pack().getS3Key(), slice.offset(), slice.length());
+            return fileBlob;
+        } catch (DataIntegrityViolationException e) {
+            //A concurrent upload of the same content created the blob first, use theirs and leave our bytes to the compaction
+            log.info("Blob for content {} was created concurrently. Releasing duplicate bytes in pack: {}", sha256, slice.pack().getS3Key());
+            packService.releaseSlice(slice.pack(), slice.length());
+            FileBlob concurrentBlob = referenceExistingBlob(sha256);
+            if (concurrentBlob == null) {
+                throw new UserFileUploadException(String.format("Failed to reference blob for content: %s", sha256), e);
+            }
+            return concurrentBlob;
+        }
+    }
+
+    /**
+     * Takes a new reference on a blob the user already references, so re-uploading known content needs no bytes at all.
+     * Only the user's own blobs can be referenced by hash, otherwise anyone knowing a hash could read the content behind it.
+     *
+     * @param user The user uploading the file.
+     * @param sha256 The hex encoded SHA-256 of the content, as sent by the client.
+     * @return The referenced blob, or empty if the user has no file with this content.
+     */
+    @Override
+    public Optional<FileBlob> referenceBlobOwnedByUser(User user, String sha256) {
+        if (!userFileRepository.existsByUserAndBlobSha256(user, sha256)) {
+            return Optional.empty();
+        }
+
+        return Optional.ofNullable(referenceExistingBlob(sha256));
+    }
+
+    /**
+     * Takes a reference on the blob holding a staged upload's content. If the content is already stored the staged
+     * object is simply discarded, otherwise it is copied to its content addressed key and becomes a new blob. The copy
+     * goes through the copy service, so staged objects past the single copy limit are copied part by part.
+     * The staged object is deleted either way.
+     *
+     * @param sha256 The hex encoded SHA-256 of the staged object, computed while it was uploaded.
+     * @param stagedObject The object the upload was streamed to. Its content type and metadata are copied to the blob.
+     * @return The blob holding the content, with the new reference counted.
+     * @throws UserFileUploadException If the blob could neither be created nor referenced.
+     * @throws MyCustomS3Exception If the staged object could not be copied.
+     */
+    @Override
+    public FileBlob acquireBlob(String sha256, StoredObject stagedObject) {
+        try {
+            FileBlob existingBlob = referenceExistingBlob(sha256);
+            if (existingBlob != null) {
+                log.info("Content {} is already stored as blob: {}. Discarding staged upload: {}", sha256, existingBlob.getS3Key(), stagedObject.s3Key());
+                return existingBlob;
+            }
+
+            String blobKey = BLOB_PREFIX + sha256;
+            String blobVersionId = copyToBlobKey(stagedObject, blobKey);
+            return createBlob(sha256, blobKey, blobVersionId, stagedObject.size());
+        } finally {
+            deleteUnusedVersion(stagedObject);
+        }
+    }
+
+    /**
+     * Takes another reference on a blob that is already referenced, e.g. by a snapshot of a file or a file restored
+     * from one.
+     *
+     * @return The blob, with the new reference counted.
+     * @throws IllegalStateException If the blob no longer exists.
+     */
+    @Override
+    public FileBlob retainBlob(FileBlob fileBlob) {
+        FileBlob retainedBlob = referenceExistingBlob(fileBlob.getSha256());
+        if (retainedBlob == null) {
+            throw new IllegalStateException(String.format("Blob: %s no longer exists", fileBlob.getSha256()));
+        }
+        return retainedBlob;
+    }
+
+    /**
+     * Drops a reference on a blob. The blob itself is removed by {@link #collectUnreferencedBlobs()} once unreferenced.
+     * */
+    @Override
+    public void releaseBlob(FileBlob fileBlob) {
+        if (fileBlob == null) {
+            return;
+        }
+
+        if (fileBlobRepository.decrementRefCount(fileBlob.getId(), LocalDateTime.now()) == 0) {
+            log.warn("Blob: {} was released but has no references left to release", fileBlob.getS3Key());
+        }
+    }
+
+    /**
+     * Deletes blobs that have had no references for longer than the grace period.
+     * The row is deleted first with a refcount check, so a blob that gained a reference in the meantime is left alone.
+     * */
+    @Override
+    @Scheduled(cron = "${cloud.storage.dedup.gc-cron:0 15 * * * *}")
+    public void collectUnreferencedBlobs() {
+        LocalDateTime cutoff = LocalDateTime.now().minus(dedupProperties.getGcGracePeriod());
+        List<FileBlob> unreferencedBlobs = fileBlobRepository.findByRefCountAndUpdatedAtBefore(0L, cutoff);
+        if (unreferencedBlobs.isEmpty()) {
+            return;
+        }
+
+        log.info("Collecting {} unreferenced blobs", unreferencedBlobs.size());
+        for (FileBlob fileBlob : unreferencedBlobs) {
+            if (fileBlobRepository.deleteIfUnreferenced(fileBlob.getId()) == 0) {
+                continue;
+            }
+
+            if (fileBlob.isPacked()) {
+                //The pack is shared with other blobs, its dead bytes are dropped when the pack is compacted
+                packService.releaseSlice(fileBlob.getPack(), fileBlob.getSize());
+                log.info("Released unreferenced blob: {} from pack: {}", fileBlob.getSha256(), fileBlob.getS3Key());
+                continue;
+            }
+
+            try {
+                objectDeleteService.permanentDeleteObjectVersion(fileBlob.getS3Key(), fileBlob.getVersionId());
+                log.info("Deleted unreferenced blob: {} (VERSION: {})", fileBlob.getS3Key(), fileBlob.getVersionId());
+            } catch (Exception e) {
+                log.error("Failed to delete unreferenced blob: {} (VERSION: {}). Its object is orphaned.", fileBlob.getS3Key(), fileBlob.getVersionId(), e);
+            }
+        }
+    }
+
+    /**
+     * Records a new blob for a version stored at its content addressed key. If a concurrent upload of the same content
+     * recorded its blob first, that blob is referenced instead and the version is dropped.
+     * */
+    private FileBlob createBlob(String sha256, String blobKey, String blobVersionId, long size) {
+        LocalDateTime now = LocalDateTime.now();
+        FileBlob fileBlob = FileBlob
+                .builder()
+                .sha256(sha256)
+                .s3Key(blobKey)
+                .versionId(blobVersionId)
+                .size(size)
+                .refCount(1L)
+                .createdAt(now)
+                .updatedAt(now)
+                .build();
+
+        try {
+            fileBlob = fileBlobRepository.saveAndFlush(fileBlob);
+            log.info("Stored new blob: {} (VERSION: {}, SIZE: {})", blobKey, blobVersionId, size);
+            return fileBlob;
+        } catch (DataIntegrityViolationException e) {
+            //A concurrent upload of the same content created the blob first, use theirs and drop our version
+            log.info("Blob for content {} was created concurrently. Dropping duplicate version: {}", sha256, blobVersionId);
+            objectDeleteService.permanentDeleteObjectVersion(blobKey, blobVersionId);
+            FileBlob concurrentBlob = referenceExistingBlob(sha256);
+            if (concurrentBlob == null) {
+                throw new UserFileUploadException(String.format("Failed to reference blob for content: %s", sha256), e);
+            }
+            return concurrentBlob;
+        }
+    }
+
+    private String copyToBlobKey(StoredObject stagedObject, String blobKey) {
+        ObjectCopy objectCopy = new ObjectCopy(stagedObject.s3Key(), stagedObject.versionId(), blobKey, stagedObject.size());
+        try {
+            return objectCopyService.copy(objectCopy).join().targetVersionId();
+        } catch (CompletionException e) {
+            Throwable cause = BoundedAsyncRunner.unwrap(e);
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new MyCustomS3Exception(String.format("Failed to copy staged upload: %s to blob: %s", stagedObject.s3Key(), blobKey), cause);
+        }
+    }
+
+    private FileBlob referenceExistingBlob(String sha256) {
+        if (fileBlobRepository.incrementRefCount(sha256, LocalDateTime.now()) == 0) {
+            return null;
+        }
+        return fileBlobRepository.findBySha256(sha256).orElse(null);
+    }
+
+    //Returns a unique key to stream an upload to while its hash is being computed
+    private String newStagingKey() {
+        return STAGING_PREFIX + UUID.randomUUID();
+    }
+
+    //Deletes a staged upload, or an uploaded blob version that turned out not to be needed
+    private void deleteUnusedVersion(StoredObject storedObject) {
+        try {
+            objectDeleteService.permanentDeleteObjectVersion(storedObject.s3Key(), storedObject.versionId());
+        } catch (Exception e) {
+            log.error("Failed to delete unused upload: {} (VERSION: {}). It will remain until removed manually.", storedObject.s3Key(), storedObject.versionId(), e);
+        }
+    }
+
+    //Reads up to limit bytes, fewer only if the stream ends first
+    private byte[] readHead(InputStream inputStream, int limit) {
+        try {
+            return inputStream.readNBytes(limit);
+        } catch (IOException e) {
+            throw new UserFileUploadException("Failed to read the uploaded content.", e);
+        }
+    }
+
+    private MessageDigest newSha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            //Every JVM is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.victor.filestorageapi.service.file.impl;
+
+import com.victor.filestorageapi.config.ProcessingProperties;
+import com.victor.filestorageapi.models.FileCommittedEvent;
+import com.victor.filestorageapi.models.FileProcessingResult;
+import com.victor.filestorageapi.models.entities.UserFile;
+import com.victor.filestorageapi.models.enums.FileProcessingStatus;
+import com.victor.filestorageapi.repository.UserFileRepository;
+import com.victor.filestorageapi.service.aws.ObjectStorageService;
+import com.victor.filestorageapi.service.file.FileProcessingService;
+import com.victor.filestorageapi.service.file.UserFileCommandService;
+import com.victor.filestorageapi.service.utils.ContentSniffer;
+import com.victor.filestorageapi.service.utils.S3Utils;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class FileProcessingServiceImpl implements FileProcessingService {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final UserFileRepository userFileRepository;
+    private final UserFileCommandService userFileCommandService;
+    private final ObjectStorageService objectStorageService;
+    private final S3Utils s3Utils;
+    private final ContentSniffer contentSniffer;
+    private final ProcessingProperties processingProperties;
+    private final ExecutorService fileProcessingExecutor;
+
+    private BlockingQueue<UUID> processingQueue;
+    //Files waiting in the queue, so the sweep doesn't queue a file the listener already queued
+    private final Set<UUID> queuedFileIds = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    void startWorkers() {
+        processingQueue = new ArrayBlockingQueue<>(processingProperties.getQueueCapacity());
+        if (!processingProperties.isEnabled()) {
+            return;
+        }
+
+        for (int i = 0; i < processingProperties.getWorkerThreads(); i++) {
+            fileProcessingExecutor.execute(this::runWorker);
+        }
+        log.info("Started {} file processing workers", processingProperties.getWorkerThreads());
+    }
+
+    /**
+     * Queues committed files for processing. This only runs once the transaction that recorded the files has
+     * committed and never blocks, so the upload response waits for the file to be durable but not for its processing.
+     * */
+    @Override
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onFileCommitted(FileCommittedEvent event) {
+        if (!processingProperties.isEnabled()) {
+            return;
+        }
+
+        int queued = enqueue(event.fileIds());
+        if (queued < event.fileIds().size()) {
+            log.warn("Processing queue is full. {} committed files are left pending for the sweep", event.fileIds().size() - queued);
+        }
+    }
+
+    /**
+     * Adds files to the processing queue without waiting for room in it.
+     *
+     * @param fileIds The ids of the files to process.
+     * @return How many of the files were queued. Files already waiting in the queue count as queued.
+     */
+    @Override
+    public int enqueue(Collection<UUID> fileIds) {
+        int queued = 0;
+        for (UUID fileId : fileIds) {
+            if (!queuedFileIds.add(fileId)) {
+                queued++;
+                continue;
+            }
+
+            if (!processingQueue.offer(fileId)) {
+                queuedFileIds.remove(fileId);
+                break;
+            }
+            queued++;
+        }
+        return queued;
+    }
+
+    /**
+     * Queues files that are still pending long after they were recorded. These are files that didn't fit in the
+     * queue, were queued when the application stopped, or were recorded before processing existed.
+     * */
+    @Override
+    @Scheduled(cron = "${cloud.storage.processing.sweep-cron:0 */5 * * * *}")
+    public void requeueUnprocessedFiles() {
+        if (!processingProperties.isEnabled()) {
+            return;
+        }
+
+        int room = processingQueue.remainingCapacity();
+        if (room == 0) {
+            return;
+        }
+
+        LocalDateTime updatedBefore = LocalDateTime.now().minus(processingProperties.getSweepAge());
+        List<UUID> fileIds = userFileRepository.findUnprocessedFileIds(FileProcessingStatus.PENDING, updatedBefore, PageRequest.of(0, room));
+        if (!fileIds.isEmpty()) {
+            log.info("Queued {} unprocessed files for processing", enqueue(fileIds));
+        }
+    }
+
+    private void runWorker() {
+        while (!Thread.currentThread().isInterrupted()) {
+            List<UUID> batch = new ArrayList<>();
+            try {
+                takeBatch(batch);
+                processBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                //Files of a failed batch stay pending, the sweep queues them again
+                log.error("Failed to process a batch of {} files. Error: {}", batch.size(), e.getMessage(), e);
+            } finally {
+                batch.forEach(queuedFileIds::remove);
+            }
+        }
+    }
+
+    //Waits for a file, then for more files until the batch is full or the batch delay runs out
+    private void takeBatch(List<UUID> batch) throws InterruptedException {
+        batch.add(processingQueue.take());
+        long deadline = System.nanoTime() + processingProperties.getBatchDelay().toNanos();
+        while (batch.size() < processingProperties.getBatchSize()) {
+            processingQueue.drainTo(batch, processingProperties.getBatchSize() - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= processingProperties.getBatchSize() || remaining <= 0) {
+                return;
+            }
+
+            UUID next = processingQueue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void processBatch(List<UUID> batch) {
+        List<FileProcessingResult> results = new ArrayList<>();
+        for (UserFile userFile : userFileRepository.findAllById(batch)) {
+            if (Boolean.TRUE.equals(userFile.getIsDeleted())) {
+                continue;
+            }
+            results.add(processFile(userFile));
+        }
+
+        if (!results.isEmpty()) {
+            userFileCommandService.recordProcessingResults(results);
+        }
+        log.debug("Processed a batch of {} files", results.size());
+    }
+
+    /**
+     * Reads a file's content once, hashing all of it and keeping its head to sniff the type and read metadata from.
+     * The hash of a blob backed file must match the hash it was stored under, anything else means the stored bytes
+     * are corrupt.
+     */
+    private FileProcessingResult processFile(UserFile userFile) {
+        UUID blobId = userFile.getBlob() != null ? userFile.getBlob().getId() : null;
+        String s3Key = userFile.resolveObjectKey();
+        String versionId = userFile.resolveObjectVersion();
+        if (blobId == null && versionId == null) {
+            log.warn("File: {} has no stored content to process", userFile.getFilePath());
+            return FileProcessingResult.failed(userFile.getId(), null, null);
+        }
+
+        int headSize = Math.toIntExact(processingProperties.getHeadSize().toBytes());
+        byte[] head = new byte[headSize];
+        int headLength = 0;
+        long size = 0;
+        MessageDigest digest = newSha256Digest();
+
+        try (ResponseInputStream<GetObjectResponse> objectStream = objectStorageService.openObjectStream(s3Key, versionId, userFile.resolveObjectRange());
+             InputStream content = s3Utils.readCodec(objectStream.response().metadata()).decode(objectStream)) {
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            int bytesRead;
+            while ((bytesRead = content.read(buffer)) != -1) {
+                digest.update(buffer, 0, bytesRead);
+                int headBytes = Math.min(bytesRead, headSize - headLength);
+                System.arraycopy(buffer, 0, head, headLength, headBytes);
+                headLength += headBytes;
+                size += bytesRead;
+            }
+        } catch (Exception e) {
+            log.error("Failed to read file: {} (VERSION: {}) for processing. Error: {}", s3Key, versionId, e.getMessage(), e);
+            return FileProcessingResult.failed(userFile.getId(), blobId, userFile.getCurrentVersion());
+        }
+
+        String sha256 = HexFormat.of().formatHex(digest.digest());
+        FileProcessingStatus status = FileProcessingStatus.PROCESSED;
+        if ((blobId != null && !sha256.equals(userFile.getBlob().getSha256()))
+                || (userFile.getFileSize() != null && userFile.getFileSize() != size)) {
+            log.error("CRITICAL: Content of file: {} (KEY: {}, VERSION: {}) does not match what was stored. SHA-256: {}, SIZE: {}",
+                    userFile.getFilePath(), s3Key, versionId, sha256, size);
+            status = FileProcessingStatus.CORRUPT;
+        }
+
+        head = Arrays.copyOf(head, headLength);
+        String detectedContentType = contentSniffer.sniff(head, userFile.getFileName());
+        int[] dimensions = detectedContentType.startsWith("image/") ? readImageDimensions(head) : null;
+        return new FileProcessingResult(userFile.getId(),
+                blobId,
+                userFile.getCurrentVersion(),
+                status,
+                sha256,
+                detectedContentType,
+                dimensions != null ? dimensions[0] : null,
+                dimensions != null ? dimensions[1] : null);
+    }
+
+    //Image readers find the dimensions in the header, so the head of the file is enough for the common formats
+    private int[] readImageDimensions(byte[] head) {
+        try (ImageInputStream imageStream = ImageIO.createImageInputStream(new ByteArrayInputStream(head))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(imageStream);
+            if (!readers.hasNext()) {
+                return null;
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(imageStream, true, true);
+                return new int[]{reader.getWidth(0), reader.getHeight(0)};
+            } finally {
+                reader.dispose();
+            }
+        } catch (Exception e) {
+            log.debug("Could not read image dimensions. Error: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private MessageDigest newSha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            //Every JVM is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
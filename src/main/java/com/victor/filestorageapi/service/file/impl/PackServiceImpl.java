@@ -0,0 +1,284 @@
+package com.victor.filestorageapi.service.file.impl;
+
+import com.victor.filestorageapi.config.PackProperties;
+import com.victor.filestorageapi.exception.UserFileUploadException;
+import com.victor.filestorageapi.models.PackSlice;
+import com.victor.filestorageapi.models.StoredObject;
+import com.victor.filestorageapi.models.entities.FileBlob;
+import com.victor.filestorageapi.models.entities.PackObject;
+import com.victor.filestorageapi.repository.FileBlobRepository;
+import com.victor.filestorageapi.repository.PackObjectRepository;
+import com.victor.filestorageapi.service.aws.ObjectDeleteService;
+import com.victor.filestorageapi.service.aws.ObjectStorageService;
+import com.victor.filestorageapi.service.file.PackService;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class PackServiceImpl implements PackService {
+
+    //Sits outside every user's root folder like the blob prefix, so packs never show up when listing a user's objects
+    private static final String PACK_PREFIX = "/.packs/";
+
+    private final PackObjectRepository packObjectRepository;
+    private final FileBlobRepository fileBlobRepository;
+    private final ObjectStorageService objectStorageService;
+    private final ObjectDeleteService objectDeleteService;
+    private final PackProperties packProperties;
+
+    //Kept out of the context on purpose, a ScheduledExecutorService bean would replace the scheduler that runs @Scheduled jobs
+    private final ScheduledExecutorService packFlushScheduler =
+            Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("pack-flush-"));
+
+    private final ReentrantLock pendingLock = new ReentrantLock();
+    private List<PendingSlice> pendingSlices = new ArrayList<>();
+    private long pendingBytes;
+    private ScheduledFuture<?> scheduledFlush;
+
+    /**
+     * Appends content to the next pack object and waits until that pack has been written.
+     * Content from concurrent uploads is group committed: a pack is written once {@code targetPackSize} bytes are
+     * waiting or {@code maxPackDelay} after the first content started waiting, so many small uploads share one PUT.
+     *
+     * @param content The content to store.
+     * @return The pack the content was written to and its offset inside the pack.
+     * @throws UserFileUploadException If the pack could not be written.
+     */
+    @Override
+    public PackSlice appendToPack(byte[] content) {
+        PendingSlice pendingSlice = new PendingSlice(content, new CompletableFuture<>());
+        List<PendingSlice> fullBatch = null;
+
+        pendingLock.lock();
+        try {
+            pendingSlices.add(pendingSlice);
+            pendingBytes += content.length;
+            if (pendingBytes >= packProperties.getTargetPackSize().toBytes()) {
+                fullBatch = takePendingSlices();
+            } else if (scheduledFlush == null) {
+                scheduledFlush = packFlushScheduler.schedule(this::flushPendingSlices,
+                        packProperties.getMaxPackDelay().toMillis(), TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            pendingLock.unlock();
+        }
+
+        //The upload that fills a pack writes it, so a burst of uploads isn't serialized behind the scheduler thread
+        if (fullBatch != null) {
+            writePack(fullBatch);
+        }
+
+        try {
+            return pendingSlice.result().join();
+        } catch (CompletionException e) {
+            throw new UserFileUploadException("Failed to write the pack holding the uploaded content.", e.getCause() != null ? e.getCause() : e);
+        }
+    }
+
+    /**
+     * Drops a packed blob's bytes from its pack's live bytes. The bytes stay in the pack until it is compacted.
+     * */
+    @Override
+    public void releaseSlice(PackObject pack, long length) {
+        if (pack == null) {
+            return;
+        }
+        packObjectRepository.decrementLiveBytes(pack.getId(), length, LocalDateTime.now());
+    }
+
+    /**
+     * Rewrites packs whose live ratio fell below {@code minLiveRatio} into new packs holding only their live blobs,
+     * and deletes the objects of packs that were compacted longer than the grace period ago.
+     * Blobs are moved with single statement updates, so a blob collected during the compaction is simply skipped.
+     * */
+    @Override
+    @Scheduled(cron = "${cloud.storage.pack.compaction-cron:0 45 * * * *}")
+    public void compactPacks() {
+        LocalDateTime now = LocalDateTime.now();
+        deleteRetiredPacks(now.minus(packProperties.getRetiredPackGracePeriod()));
+
+        List<PackObject> candidates = packObjectRepository.findCompactionCandidates(now, packProperties.getMinLiveRatio());
+        if (candidates.isEmpty()) {
+            return;
+        }
+
+        log.info("Compacting {} packs with a live ratio below {}", candidates.size(), packProperties.getMinLiveRatio());
+        for (PackObject pack : candidates) {
+            try {
+                compactPack(pack);
+            } catch (Exception e) {
+                log.error("Failed to compact pack: {} (VERSION: {}). It will be retried on the next run. Error: {}", pack.getS3Key(), pack.getVersionId(), e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Writes whatever is still waiting on shutdown so the uploads blocked on it can finish.
+     * */
+    @PreDestroy
+    void shutdown() {
+        flushPendingSlices();
+        packFlushScheduler.shutdown();
+    }
+
+    private void flushPendingSlices() {
+        List<PendingSlice> batch;
+        pendingLock.lock();
+        try {
+            batch = takePendingSlices();
+        } finally {
+            pendingLock.unlock();
+        }
+
+        if (!batch.isEmpty()) {
+            writePack(batch);
+        }
+    }
+
+    //Must be called while holding the pending lock
+    private List<PendingSlice> takePendingSlices() {
+        List<PendingSlice> batch = pendingSlices;
+        pendingSlices = new ArrayList<>();
+        pendingBytes = 0;
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        return batch;
+    }
+
+    private void writePack(List<PendingSlice> batch) {
+        try {
+            List<byte[]> contents = batch.stream().map(PendingSlice::content).toList();
+            List<PackSlice> slices = storePack(contents, contents.stream().mapToLong(content -> content.length).sum());
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result().complete(slices.get(i));
+            }
+        } catch (Exception e) {
+            log.error("Failed to write a pack of {} blobs. Error: {}", batch.size(), e.getMessage(), e);
+            batch.forEach(pendingSlice -> pendingSlice.result().completeExceptionally(e));
+        }
+    }
+
+    /**
+     * Writes the contents back to back into a new pack object and records it.
+     *
+     * @param liveBytes How much of the pack is referenced once it is written.
+     * @return The slice of the pack holding each content, in the order of the contents.
+     */
+    private List<PackSlice> storePack(List<byte[]> contents, long liveBytes) {
+        int packSize = contents.stream().mapToInt(content -> content.length).sum();
+        byte[] packContent = new byte[packSize];
+        List<Long> offsets = new ArrayList<>();
+        int offset = 0;
+        for (byte[] content : contents) {
+            System.arraycopy(content, 0, packContent, offset, content.length);
+            offsets.add((long) offset);
+            offset += content.length;
+        }
+
+        String packKey = PACK_PREFIX + UUID.randomUUID();
+        StoredObject storedPack = objectStorageService.uploadInternalObject(packKey, MediaType.APPLICATION_OCTET_STREAM_VALUE, new ByteArrayInputStream(packContent));
+
+        PackObject pack;
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            pack = packObjectRepository.save(PackObject
+                    .builder()
+                    .s3Key(packKey)
+                    .versionId(storedPack.versionId())
+                    .size((long) packSize)
+                    .liveBytes(liveBytes)
+                    .createdAt(now)
+                    .updatedAt(now)
+                    .build());
+        } catch (Exception e) {
+            //The pack object has been written to S3 but the DB save failed, remove the orphaned version
+            try {
+                objectDeleteService.permanentDeleteObjectVersion(packKey, storedPack.versionId());
+            } catch (Exception cleanupEx) {
+                log.error("CRITICAL: Failed to clean up pack {} (Version: {}) after DB save failure. Manual intervention may be required.", packKey, storedPack.versionId(), cleanupEx);
+            }
+            throw e;
+        }
+
+        log.info("Wrote pack: {} (VERSION: {}) holding {} blobs in {} bytes", packKey, storedPack.versionId(), contents.size(), packSize);
+        List<PackSlice> slices = new ArrayList<>();
+        for (int i = 0; i < contents.size(); i++) {
+            slices.add(new PackSlice(pack, offsets.get(i), contents.get(i).length));
+        }
+        return slices;
+    }
+
+    private void compactPack(PackObject pack) throws IOException {
+        List<FileBlob> liveBlobs = fileBlobRepository.findByPack(pack);
+        if (!liveBlobs.isEmpty()) {
+            byte[] packContent;
+            try (ResponseInputStream<GetObjectResponse> packStream = objectStorageService.openObjectStream(pack.getS3Key(), pack.getVersionId(), null)) {
+                packContent = packStream.readAllBytes();
+            }
+
+            List<byte[]> contents = new ArrayList<>();
+            for (FileBlob fileBlob : liveBlobs) {
+                int start = Math.toIntExact(fileBlob.getPackOffset());
+                contents.add(Arrays.copyOfRange(packContent, start, start + Math.toIntExact(fileBlob.getSize())));
+            }
+
+            List<PackSlice> slices = storePack(contents, contents.stream().mapToLong(content -> content.length).sum());
+            for (int i = 0; i < liveBlobs.size(); i++) {
+                PackSlice slice = slices.get(i);
+                int relocated = fileBlobRepository.relocatePackedBlob(liveBlobs.get(i).getId(), slice.pack(), slice.offset(), slice.pack().getS3Key(), slice.pack().getVersionId());
+                if (relocated == 0) {
+                    //The blob was collected while its bytes were being copied, they are dead in the new pack too
+                    releaseSlice(slice.pack(), slice.length());
+                }
+            }
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        pack.setLiveBytes(0L);
+        pack.setRetiredAt(now);
+        pack.setUpdatedAt(now);
+        packObjectRepository.save(pack);
+        log.info("Compacted pack: {} (VERSION: {}), moved {} live blobs of {} bytes", pack.getS3Key(), pack.getVersionId(), liveBlobs.size(), pack.getSize());
+    }
+
+    private void deleteRetiredPacks(LocalDateTime retiredBefore) {
+        for (PackObject retiredPack : packObjectRepository.findByRetiredAtBefore(retiredBefore)) {
+            try {
+                objectDeleteService.permanentDeleteObjectVersion(retiredPack.getS3Key(), retiredPack.getVersionId());
+                packObjectRepository.delete(retiredPack);
+                log.info("Deleted retired pack: {} (VERSION: {})", retiredPack.getS3Key(), retiredPack.getVersionId());
+            } catch (Exception e) {
+                log.error("Failed to delete retired pack: {} (VERSION: {}). It will be retried on the next run.", retiredPack.getS3Key(), retiredPack.getVersionId(), e);
+            }
+        }
+    }
+
+    private record PendingSlice(byte[] content, CompletableFuture<PackSlice> result) {
+    }
+}
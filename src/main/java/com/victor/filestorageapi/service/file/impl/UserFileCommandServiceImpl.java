@@ -0,0 +1,260 @@
+package com.victor.filestorageapi.service.file.impl;
+
+import com.victor.filestorageapi.exception.NoSuchUserFolderException;
+import com.victor.filestorageapi.models.FileCommittedEvent;
+import com.victor.filestorageapi.models.FileProcessingResult;
+import com.victor.filestorageapi.models.IngestedFile;
+import com.victor.filestorageapi.models.StoredObject;
+import com.victor.filestorageapi.models.entities.FileBlob;
+import com.victor.filestorageapi.models.entities.User;
+import com.victor.filestorageapi.models.entities.UserFile;
+import com.victor.filestorageapi.models.entities.UserFolder;
+import com.victor.filestorageapi.models.enums.FileProcessingStatus;
+import com.victor.filestorageapi.repository.UserFileRepository;
+import com.victor.filestorageapi.service.file.FileBlobService;
+import com.victor.filestorageapi.service.file.UserFileCommandService;
+import jakarta.transaction.Transactional;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class UserFileCommandServiceImpl implements UserFileCommandService {
+
+    private final UserFileRepository userFileRepository;
+    private final FileBlobService fileBlobService;
+    private final ApplicationEventPublisher eventPublisher;
+
+    //Keeps the IN lists of the existing file lookups to a size every database handles well
+    private static final int LOOKUP_BATCH_SIZE = 1000;
+
+    /**
+     * Records an uploaded object as a user file. Uploading to the path of an existing active file
+     * makes the uploaded object the file's current version instead of creating a duplicate row.
+     *
+     * @param user The user that owns the file.
+     * @param userFolder The folder the file was uploaded into.
+     * @param fileName The name of the file.
+     * @param contentType The content type of the file.
+     * @param storedObject The object that was written to S3.
+     * @return The saved user file.
+     */
+    @Override
+    @Transactional
+    public UserFile recordUploadedFile(User user, UserFolder userFolder, String fileName, String contentType, StoredObject storedObject) {
+        LocalDateTime now = LocalDateTime.now();
+        Optional<UserFile> existingFile = userFileRepository.findByUserAndFilePathAndIsDeletedFalse(user, storedObject.s3Key());
+
+        UserFile userFile;
+        if (existingFile.isPresent()) {
+            log.info("File: {} already exists for user: {}. Recording version: {} as its current version.", storedObject.s3Key(), user.getUsername(), storedObject.versionId());
+            userFile = existingFile.get();
+            userFile.setUpdatedAt(now);
+        } else {
+            userFile = UserFile
+                    .builder()
+                    .fileName(fileName)
+                    .filePath(storedObject.s3Key())
+                    .userFolder(userFolder)
+                    .user(user)
+                    .isDeleted(false)
+                    .createdAt(now)
+                    .updatedAt(now)
+                    .build();
+        }
+
+        FileBlob previousBlob = userFile.getBlob();
+        userFile.setFileType(contentType);
+        userFile.setFileSize(storedObject.size());
+        userFile.setCurrentVersion(storedObject.versionId());
+        userFile.setBlob(null);
+        resetProcessing(userFile);
+
+        UserFile savedFile = userFileRepository.save(userFile);
+        fileBlobService.releaseBlob(previousBlob);
+        eventPublisher.publishEvent(new FileCommittedEvent(List.of(savedFile.getId())));
+        log.info("Successfully saved file: {} (ID: {}) to DB for user: {}", savedFile.getFilePath(), savedFile.getId(), user.getUsername());
+        return savedFile;
+    }
+
+    /**
+     * Records a file whose content is stored as a deduplicated blob. The caller must already hold a reference on the
+     * blob, which the file takes over. Overwriting an existing file releases the reference it held on its previous blob.
+     *
+     * @param user The user that owns the file.
+     * @param userFolder The folder the file belongs to.
+     * @param filePath The path of the file.
+     * @param fileName The name of the file.
+     * @param contentType The content type of the file.
+     * @param fileBlob The blob holding the file's content.
+     * @return The saved user file.
+     */
+    @Override
+    @Transactional
+    public UserFile recordBlobFile(User user, UserFolder userFolder, String filePath, String fileName, String contentType, FileBlob fileBlob) {
+        LocalDateTime now = LocalDateTime.now();
+        UserFile userFile = userFileRepository.findByUserAndFilePathAndIsDeletedFalse(user, filePath)
+                .orElseGet(() -> UserFile
+                        .builder()
+                        .fileName(fileName)
+                        .filePath(filePath)
+                        .userFolder(userFolder)
+                        .user(user)
+                        .isDeleted(false)
+                        .createdAt(now)
+                        .build());
+
+        FileBlob previousBlob = userFile.getBlob();
+        userFile.setFileType(contentType);
+        userFile.setFileSize(fileBlob.getSize());
+        //Blob backed files have no object at their own path, so they have no version of their own
+        userFile.setCurrentVersion(null);
+        userFile.setBlob(fileBlob);
+        userFile.setUpdatedAt(now);
+        resetProcessing(userFile);
+
+        UserFile savedFile = userFileRepository.save(userFile);
+        fileBlobService.releaseBlob(previousBlob);
+        eventPublisher.publishEvent(new FileCommittedEvent(List.of(savedFile.getId())));
+        log.info("Successfully saved file: {} (ID: {}) backed by blob: {} to DB for user: {}", savedFile.getFilePath(), savedFile.getId(), fileBlob.getS3Key(), user.getUsername());
+        return savedFile;
+    }
+
+    /**
+     * Records the files of a bulk upload in one transaction. Existing files are looked up in batches instead of one
+     * query per file, and files at the same path as an existing active file become its new content.
+     *
+     * @param user The user that owns the files.
+     * @param foldersByPath The folders the files belong to, keyed by folder path.
+     * @param ingestedFiles The files to record, each holding a reference on its blob which the file takes over.
+     * @return The saved user files.
+     */
+    @Override
+    @Transactional
+    public List<UserFile> recordBlobFiles(User user, Map<String, UserFolder> foldersByPath, List<IngestedFile> ingestedFiles) {
+        LocalDateTime now = LocalDateTime.now();
+        Map<String, UserFile> existingFiles = new HashMap<>();
+        List<String> filePaths = ingestedFiles.stream().map(IngestedFile::filePath).toList();
+        for (int i = 0; i < filePaths.size(); i += LOOKUP_BATCH_SIZE) {
+            List<String> batch = filePaths.subList(i, Math.min(i + LOOKUP_BATCH_SIZE, filePaths.size()));
+            userFileRepository.findByUserAndFilePathInAndIsDeletedFalse(user, batch)
+                    .forEach(existingFile -> existingFiles.put(existingFile.getFilePath(), existingFile));
+        }
+
+        List<UserFile> userFiles = new ArrayList<>();
+        List<FileBlob> previousBlobs = new ArrayList<>();
+        for (IngestedFile ingestedFile : ingestedFiles) {
+            UserFolder userFolder = foldersByPath.get(ingestedFile.folderPath());
+            if (userFolder == null) {
+                throw new NoSuchUserFolderException(String.format("Folder: %s of file: %s was not created", ingestedFile.folderPath(), ingestedFile.filePath()));
+            }
+
+            UserFile userFile = existingFiles.get(ingestedFile.filePath());
+            if (userFile == null) {
+                userFile = UserFile
+                        .builder()
+                        .fileName(ingestedFile.fileName())
+                        .filePath(ingestedFile.filePath())
+                        .userFolder(userFolder)
+                        .user(user)
+                        .isDeleted(false)
+                        .createdAt(now)
+                        .build();
+            } else if (userFile.getBlob() != null) {
+                previousBlobs.add(userFile.getBlob());
+            }
+
+            userFile.setFileType(ingestedFile.contentType());
+            userFile.setFileSize(ingestedFile.blob().getSize());
+            userFile.setCurrentVersion(null);
+            userFile.setBlob(ingestedFile.blob());
+            userFile.setUpdatedAt(now);
+            resetProcessing(userFile);
+            userFiles.add(userFile);
+        }
+
+        List<UserFile> savedFiles = userFileRepository.saveAll(userFiles);
+        previousBlobs.forEach(fileBlobService::releaseBlob);
+        eventPublisher.publishEvent(new FileCommittedEvent(savedFiles.stream().map(UserFile::getId).toList()));
+        log.info("Successfully saved {} files ({} overwritten) to DB for user: {}", savedFiles.size(), existingFiles.size(), user.getUsername());
+        return savedFiles;
+    }
+
+    /**
+     * Writes a batch of processing results back to their files in one transaction. A result is dropped when its file
+     * has been deleted or its content replaced since it was read, the new content is processed on its own.
+     * The processed content type replaces the file's type only when the client didn't send a usable one.
+     *
+     * @param results The results to record.
+     */
+    @Override
+    @Transactional
+    public void recordProcessingResults(List<FileProcessingResult> results) {
+        Map<UUID, FileProcessingResult> resultsByFileId = new HashMap<>();
+        results.forEach(result -> resultsByFileId.put(result.fileId(), result));
+
+        LocalDateTime now = LocalDateTime.now();
+        List<UserFile> processedFiles = new ArrayList<>();
+        for (UserFile userFile : userFileRepository.findAllById(resultsByFileId.keySet())) {
+            FileProcessingResult result = resultsByFileId.get(userFile.getId());
+            UUID blobId = userFile.getBlob() != null ? userFile.getBlob().getId() : null;
+            if (Boolean.TRUE.equals(userFile.getIsDeleted())
+                    || !Objects.equals(blobId, result.blobId())
+                    || !Objects.equals(userFile.getCurrentVersion(), result.currentVersion())) {
+                continue;
+            }
+
+            userFile.setProcessingStatus(result.status());
+            userFile.setContentSha256(result.sha256());
+            userFile.setDetectedContentType(result.detectedContentType());
+            userFile.setImageWidth(result.imageWidth());
+            userFile.setImageHeight(result.imageHeight());
+            userFile.setProcessedAt(now);
+            if (result.detectedContentType() != null && !isUsableContentType(userFile.getFileType())) {
+                userFile.setFileType(result.detectedContentType());
+            }
+            processedFiles.add(userFile);
+        }
+
+        userFileRepository.saveAll(processedFiles);
+        log.debug("Recorded processing results of {} files, {} were outdated", processedFiles.size(), results.size() - processedFiles.size());
+    }
+
+    //New content has to be processed again, whatever was found out about the previous content no longer applies
+    private void resetProcessing(UserFile userFile) {
+        userFile.setProcessingStatus(FileProcessingStatus.PENDING);
+        userFile.setContentSha256(null);
+        userFile.setDetectedContentType(null);
+        userFile.setImageWidth(null);
+        userFile.setImageHeight(null);
+        userFile.setProcessedAt(null);
+    }
+
+    //Octet stream is the fallback for clients that sent no type, and older rows may hold a bare extension
+    private boolean isUsableContentType(String contentType) {
+        if (contentType == null || contentType.isBlank() || contentType.equals(MediaType.APPLICATION_OCTET_STREAM_VALUE)) {
+            return false;
+        }
+
+        try {
+            MediaType.parseMediaType(contentType);
+            return true;
+        } catch (InvalidMediaTypeException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.victor.filestorageapi.service.file.impl;
+
+import com.victor.filestorageapi.exception.NoSuchUserFileException;
+import com.victor.filestorageapi.models.entities.User;
+import com.victor.filestorageapi.models.entities.UserFile;
+import com.victor.filestorageapi.repository.UserFileRepository;
+import com.victor.filestorageapi.service.file.UserFileQueryService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.UUID;
+
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class UserFileQueryServiceImpl implements UserFileQueryService {
+
+    private final UserFileRepository userFileRepository;
+
+    /**
+     * Finds one of the user's files that hasn't been deleted.
+     *
+     * @throws NoSuchUserFileException If the user has no active file with the given id.
+     */
+    @Override
+    public UserFile findActiveFile(User user, UUID fileId) {
+        return userFileRepository.findByUserAndIdAndIsDeletedFalse(user, fileId)
+                .orElseThrow(() -> {
+                    log.warn("File: {} not found for user: {}", fileId, user.getUsername());
+                    return new NoSuchUserFileException(String.format("File: %s not found", fileId));
+                });
+    }
+}
@@ -1,9 +1,12 @@
 package com.victor.filestorageapi.service.folder;
 
+import com.victor.filestorageapi.models.entities.User;
 import com.victor.filestorageapi.models.entities.UserFolder;
 import jakarta.transaction.Transactional;
 import org.springframework.stereotype.Service;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.UUID;
 
 @Service
@@ -14,4 +17,7 @@ public interface UserFolderCreationService {
 
     @Transactional
     UserFolder createSubFolder(UUID userID, UUID parentFolderId, String folderName);
+
+    @Transactional
+    Map<String, UserFolder> createFolderTree(User user, UserFolder baseFolder, Collection<String> relativeFolderPaths);
 }
@@ -0,0 +1,10 @@
+package com.victor.filestorageapi.service.folder;
+
+import com.victor.filestorageapi.models.entities.User;
+import com.victor.filestorageapi.models.entities.UserFolder;
+
+import java.util.UUID;
+
+public interface UserFolderQueryService {
+    UserFolder findActiveFolderOrRoot(User user, UUID folderId);
+}
@@ -3,15 +3,18 @@ package com.victor.filestorageapi.service.folder.impl;
 import com.victor.filestorageapi.exception.MyCustomS3Exception;
 import com.victor.filestorageapi.exception.NoSuchUserFolderException;
 import com.victor.filestorageapi.exception.UserFolderCreationException;
+import com.victor.filestorageapi.models.FolderNode;
 import com.victor.filestorageapi.models.entities.User;
 import com.victor.filestorageapi.models.entities.UserFolder;
 import com.victor.filestorageapi.repository.UserFolderRepository;
+import com.victor.filestorageapi.service.aws.AsyncObjectStorageService;
 import com.victor.filestorageapi.service.aws.ObjectDeleteService;
 import com.victor.filestorageapi.service.aws.ObjectStorageService;
 import com.victor.filestorageapi.service.folder.UserFolderCreationService;
 import com.victor.filestorageapi.service.snapshots.UserFolderSnapShotService;
 import com.victor.filestorageapi.service.user.UserCommandService;
 import com.victor.filestorageapi.service.user.UserQueryService;
+import com.victor.filestorageapi.service.utils.BoundedAsyncRunner;
 import com.victor.filestorageapi.service.utils.PathValidator;
 import com.victor.filestorageapi.service.utils.UserFolderUtils;
 import jakarta.transaction.Transactional;
@@ -19,11 +22,14 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import software.amazon.awssdk.services.s3.model.S3Exception;
 
 import java.time.LocalDateTime;
-import java.util.Optional;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 @RequiredArgsConstructor
 @Slf4j
@@ -37,6 +43,8 @@ public class UserFolderCreationServiceImpl implements UserFolderCreationService
     private final UserFolderSnapShotService userFolderSnapShotService;
     private final UserFolderUtils folderUtils;
     private final PathValidator pathValidator;
+    private final AsyncObjectStorageService asyncObjectStorageService;
+    private final BoundedAsyncRunner asyncRunner;
 
 
     @Transactional
@@ -201,4 +209,107 @@ public class UserFolderCreationServiceImpl implements UserFolderCreationService
             throw new UserFolderCreationException("An unexpected error arose while trying to create a folder " + folderName + " for user: " + user.getUsername(), e);
         }
     }
+
+    /**
+     * Creates every missing folder under a base folder in one go, for bulk uploads that bring their own folder structure.
+     * The hierarchy is derived with {@link UserFolderUtils#buildFolderTree}, the folder objects are created in S3
+     * concurrently and the new rows are saved as one batch, instead of one S3 round trip and insert per folder.
+     *
+     * @param user The user that owns the folders.
+     * @param baseFolder The folder the paths are relative to.
+     * @param relativeFolderPaths Folder paths relative to the base folder, e.g. "docs/2024". Parents don't have to be listed.
+     * @return Every folder of the tree including the base folder, keyed by folder path.
+     * @throws UserFolderCreationException If the folders could not be created. Folder objects created so far are removed.
+     */
+    @Transactional
+    @Override
+    public Map<String, UserFolder> createFolderTree(User user, UserFolder baseFolder, Collection<String> relativeFolderPaths) {
+        FolderNode rootNode = folderUtils.buildFolderTree(baseFolder.getFolderPath(), new ArrayList<>(relativeFolderPaths));
+        Map<String, UserFolder> existingFolders = userFolderRepository
+                .findByUserAndFolderPathStartingWithAndIsDeletedFalse(user, baseFolder.getFolderPath())
+                .stream()
+                .collect(Collectors.toMap(UserFolder::getFolderPath, folder -> folder, (first, second) -> first));
+
+        Map<String, UserFolder> foldersByPath = new HashMap<>();
+        foldersByPath.put(baseFolder.getFolderPath(), baseFolder);
+        List<UserFolder> newFolders = new ArrayList<>();
+        LocalDateTime now = LocalDateTime.now();
+
+        //BFS, so every parent is in the map before its children are visited
+        Queue<FolderNode> queue = new LinkedList<>();
+        queue.add(rootNode);
+        while (!queue.isEmpty()) {
+            FolderNode currentNode = queue.poll();
+            UserFolder parentFolder = foldersByPath.get(currentNode.getFullPath());
+
+            for (FolderNode childNode : currentNode.getChildren().values()) {
+                String childPath = childNode.getFullPath();
+                UserFolder childFolder = existingFolders.get(childPath);
+                if (childFolder == null) {
+                    childFolder = UserFolder
+                            .builder()
+                            .name(childNode.getName().isEmpty() ? folderUtils.extractFolderName(childPath) : childNode.getName())
+                            .folderPath(childPath)
+                            .isRoot(false)
+                            .parentFolder(parentFolder)
+                            .isDeleted(false)
+                            .user(user)
+                            .createdAt(now)
+                            .build();
+                    newFolders.add(childFolder);
+                }
+                foldersByPath.put(childPath, childFolder);
+                queue.add(childNode);
+            }
+        }
+
+        if (newFolders.isEmpty()) {
+            return foldersByPath;
+        }
+
+        log.info("Attempting to create {} folders under: {} for user: {}", newFolders.size(), baseFolder.getFolderPath(), user.getUsername());
+        List<CompletableFuture<String>> createdObjects = asyncRunner.runAll(newFolders,
+                folder -> asyncObjectStorageService.createObject(user, folder.getFolderPath()));
+
+        try {
+            //Wait for every creation to settle, so a failure can't leave objects being created behind the compensation
+            asyncRunner.awaitAll(createdObjects);
+            for (int i = 0; i < newFolders.size(); i++) {
+                newFolders.get(i).setCurrentVersion(createdObjects.get(i).join());
+            }
+
+            userFolderRepository.saveAll(newFolders);
+            removeObjectsOnRollback(user, newFolders);
+            log.info("Successfully saved {} folders under: {} to DB for user: {}", newFolders.size(), baseFolder.getFolderPath(), user.getUsername());
+            return foldersByPath;
+        } catch (Exception e) {
+            log.error("An unexpected error arose while trying to create {} folders under: {} for user: {}. Error: {}", newFolders.size(), baseFolder.getFolderPath(), user.getUsername(), e.getMessage(), e);
+            for (int i = 0; i < newFolders.size(); i++) {
+                CompletableFuture<String> createdObject = createdObjects.get(i);
+                if (!createdObject.isCompletedExceptionally()) {
+                    folderUtils.handleGeneralException(objectDeleteService, e, newFolders.get(i).getFolderPath(), createdObject.join(), user);
+                }
+            }
+            throw new UserFolderCreationException(String.format("An unexpected error arose while trying to create folders under: %s for user: %s", baseFolder.getFolderPath(), user.getUsername()), e);
+        }
+    }
+
+    //The tree may be created inside a caller's transaction, e.g. with the files of a bulk upload. If that transaction
+    //rolls back, the folder rows are gone and their objects are removed too
+    private void removeObjectsOnRollback(User user, List<UserFolder> newFolders) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_ROLLED_BACK) {
+                    return;
+                }
+                for (UserFolder newFolder : newFolders) {
+                    folderUtils.handleGeneralException(objectDeleteService, null, newFolder.getFolderPath(), newFolder.getCurrentVersion(), user);
+                }
+            }
+        });
+    }
 }
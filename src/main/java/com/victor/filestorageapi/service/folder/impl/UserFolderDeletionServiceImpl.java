@@ -11,6 +11,7 @@ import com.victor.filestorageapi.repository.UserFolderRepository;
 import com.victor.filestorageapi.service.aws.ObjectDeleteService;
 import com.victor.filestorageapi.service.aws.ObjectStorageService;
 import com.victor.filestorageapi.service.folder.UserFolderDeleteService;
+import com.victor.filestorageapi.service.resilience.BulkOperation;
 import com.victor.filestorageapi.service.snapshots.UserFolderSnapShotService;
 import com.victor.filestorageapi.service.user.UserQueryService;
 import com.victor.filestorageapi.service.utils.UserFolderUtils;
@@ -80,6 +81,7 @@ public class UserFolderDeletionServiceImpl implements UserFolderDeleteService {
 
     @Override
     @Transactional
+    @BulkOperation
     public void recursiveSoftDeleteFolder(UUID userId, UUID folderId) {
         User user = userQueryService.findUserById(userId);
 
@@ -149,6 +151,15 @@ public class UserFolderDeletionServiceImpl implements UserFolderDeleteService {
                 }
             }
 
+            //Blob backed files have no object under the prefix to put a delete marker on, they are only deleted in the DB
+            for(UserFile descendantFile: allActiveFileDescendants){
+                if(descendantFile.getBlob() == null) continue;
+
+                descendantFile.setIsDeleted(true);
+                descendantFile.setDeletedAt(deletedAt);
+                filesToBeSaved.add(descendantFile);
+            }
+
             userFolderRepository.saveAll(foldersToBeSaved);
             userFileRepository.saveAll(filesToBeSaved);
         } catch (DataAccessException e) {
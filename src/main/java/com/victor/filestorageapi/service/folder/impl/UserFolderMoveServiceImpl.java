@@ -1,16 +1,22 @@
 package com.victor.filestorageapi.service.folder.impl;
 
 import com.victor.filestorageapi.exception.*;
+import com.victor.filestorageapi.models.BatchCopyResult;
+import com.victor.filestorageapi.models.CopiedObject;
+import com.victor.filestorageapi.models.ObjectCopy;
 import com.victor.filestorageapi.models.entities.User;
 import com.victor.filestorageapi.models.entities.UserFile;
 import com.victor.filestorageapi.models.entities.UserFolder;
 import com.victor.filestorageapi.repository.UserFileRepository;
 import com.victor.filestorageapi.repository.UserFolderRepository;
+import com.victor.filestorageapi.service.aws.AsyncObjectStorageService;
+import com.victor.filestorageapi.service.aws.ObjectCopyService;
 import com.victor.filestorageapi.service.aws.ObjectDeleteService;
-import com.victor.filestorageapi.service.aws.ObjectStorageService;
 import com.victor.filestorageapi.service.folder.UserFolderMoveService;
+import com.victor.filestorageapi.service.resilience.BulkOperation;
 import com.victor.filestorageapi.service.snapshots.UserFolderSnapShotService;
 import com.victor.filestorageapi.service.user.UserQueryService;
+import com.victor.filestorageapi.service.utils.BoundedAsyncRunner;
 import com.victor.filestorageapi.service.utils.PathValidator;
 import com.victor.filestorageapi.service.utils.UserFileUtils;
 import com.victor.filestorageapi.service.utils.UserFolderUtils;
@@ -21,10 +27,11 @@ import org.springframework.dao.DataAccessException;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 import software.amazon.awssdk.services.s3.model.S3Exception;
-import software.amazon.awssdk.services.s3.model.S3Object;
 
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
 
 @Service
@@ -33,8 +40,10 @@ import java.util.stream.Collectors;
 public class UserFolderMoveServiceImpl implements UserFolderMoveService {
 
     private final UserFolderRepository userFolderRepository;
-    private final ObjectStorageService objectStorageService;
     private final ObjectDeleteService objectDeleteService;
+    private final AsyncObjectStorageService asyncObjectStorageService;
+    private final ObjectCopyService objectCopyService;
+    private final BoundedAsyncRunner asyncRunner;
     private final UserFileRepository userFileRepository;
     private final UserFolderUtils folderUtils;
     private final UserFolderSnapShotService userFolderSnapShotService;
@@ -51,6 +60,7 @@ public class UserFolderMoveServiceImpl implements UserFolderMoveService {
      * */
     @Transactional
     @Override
+    @BulkOperation
     public void moveFolder(UUID userId, UUID folderId, UUID newParentFolderId){
         User user = userQueryService.findUserById(userId);
 
@@ -120,7 +130,6 @@ public class UserFolderMoveServiceImpl implements UserFolderMoveService {
         Optional<UserFolder> existingUserFolder = userFolderRepository
                 .findByUserAndFolderPathAndIsDeletedFalse(user, newFolderPath);
 
-        String newObjectVersionId = null;
         if(existingUserFolder.isPresent()) {
             log.info("Found existing folder: {} for user: {} in the DB", newFolderPath, user.getUsername());
             throw new UserFolderAlreadyExistsException(
@@ -134,13 +143,16 @@ public class UserFolderMoveServiceImpl implements UserFolderMoveService {
         List<UserFile> allActiveDescendantFiles = userFileRepository.findByUserAndFilePathStartingWithAndAndIsDeletedFalse(user, targetFolderPath);
 
 
-        Map<String, String> mapNewKeyAndVersionToOldKey = new HashMap<>();
-        Map<String, String> mapNewKeyToS3Version = new HashMap<>();
+        //Every copy that succeeded, old key and version to new key and version, for the DB phase and any compensation
+        List<CopiedObject> copiedObjects = new ArrayList<>();
         Map<String, String> mapOldKeyToVersionId = new HashMap<>();
+        //Sizes the DB already knows, so the copy engine only asks S3 for the size of large or unknown objects
+        Map<String, Long> mapOldKeyToSize = new HashMap<>();
 
         for (UserFile descendantFile: allActiveDescendantFiles){
             if(descendantFile.getCurrentVersion() != null){
                 mapOldKeyToVersionId.put(descendantFile.getFilePath(), descendantFile.getCurrentVersion());
+                mapOldKeyToSize.put(descendantFile.getFilePath(), descendantFile.getFileSize());
             }
         }
 
@@ -148,55 +160,51 @@ public class UserFolderMoveServiceImpl implements UserFolderMoveService {
             //Ensures the current version is not null and skips the addition of the
             if(descendantFolder.getCurrentVersion() != null){
                 mapOldKeyToVersionId.put(descendantFolder.getFolderPath(), descendantFolder.getCurrentVersion());
+                mapOldKeyToSize.put(descendantFolder.getFolderPath(), 0L);
             }
         }
 
         try{
-            //First move operation for the main target object, after then, its children are moved too
-            //NOTE: new folder path and s3 new object key are the same
-            newObjectVersionId = objectStorageService.copyS3ObjectVersion(newFolderPath, targetFolderPath, targetFolder.getCurrentVersion(), "");
-
-            //List to keep track of new S3 keys
             log.info("Starting S3 move operation for {}", targetFolderPath);
-
-            //Concatenate the folderPath and the version id so we can split them later
-            String concatVersion = newFolderPath + "|" + newObjectVersionId;
-            mapNewKeyAndVersionToOldKey.put(concatVersion, targetFolderPath);
-            mapNewKeyToS3Version.put(newFolderPath, newObjectVersionId);
+            //NOTE: new folder path and s3 new object key are the same
             mapOldKeyToVersionId.put(targetFolderPath, targetFolderCurrentVersionId);
-
-            //Old key represents the key/path for the object we want to move
-            for(Map.Entry<String, String> entrySet: mapOldKeyToVersionId.entrySet()){
-                String oldS3Key = entrySet.getKey();
-                String currentKeyVersionId = entrySet.getValue();
-
-                if(oldS3Key.equals(targetFolderPath))continue;
-
-                //Construct the new key(object destination)
-                String newS3Key = oldS3Key.replaceFirst(targetFolderPath, newFolderPath);
-                //TODO content type?
-                String contentType = pathValidator.getContentTypeSafe(newS3Key);
-
-                //Copy the new object and
-                newObjectVersionId = objectStorageService.copyS3ObjectVersion(newS3Key, oldS3Key, currentKeyVersionId, contentType);
-                concatVersion = newS3Key + "|" + newObjectVersionId;
-                mapNewKeyAndVersionToOldKey.put(concatVersion, oldS3Key);
-                mapNewKeyToS3Version.put(newS3Key, newObjectVersionId);
+            mapOldKeyToSize.put(targetFolderPath, 0L);
+
+            //Old key represents the key/path for the object we want to move. The folder and its descendants are copied
+            //together by the copy engine, which bounds the copies in flight and copies objects too large for a single
+            //CopyObject in parts
+            List<ObjectCopy> objectCopies = mapOldKeyToVersionId.entrySet()
+                    .stream()
+                    .map(entry -> new ObjectCopy(entry.getKey(), entry.getValue(),
+                            newFolderPath + entry.getKey().substring(targetFolderPath.length()), mapOldKeyToSize.get(entry.getKey())))
+                    .toList();
+            BatchCopyResult copyResult = objectCopyService.copyAll(objectCopies);
+
+            //Record every copy that succeeded before failing, so the compensation below removes all of them
+            copiedObjects.addAll(copyResult.copied());
+            if (!copyResult.failed().isEmpty()) {
+                Throwable copyFailure = copyResult.failed().values().iterator().next();
+                throw new UserFolderMoveException(String.format("Failed to copy %s objects from %s to %s", copyResult.failed().size(), targetFolderPath, newFolderPath), copyFailure);
             }
-            log.info("Successfully moved {} new keys from {} to {}", mapNewKeyToS3Version.size(), targetFolderPath, newFolderPath);
+            log.info("Successfully moved {} new keys from {} to {}", copiedObjects.size(), targetFolderPath, newFolderPath);
 
             //After successful moves, attempt to delete the original objects
             log.info("Starting S3 delete operation for folder: {} and its children", targetFolderPath);
             List<String> failedDeletions = new ArrayList<>();
 
-            for (Map.Entry<String , String> entrySet: mapOldKeyToVersionId.entrySet()){
-                String oldS3Key = entrySet.getKey();
-                String keyVersionId = entrySet.getValue();
+            List<String> keysToDelete = new ArrayList<>(mapOldKeyToVersionId.keySet());
+            List<CompletableFuture<Void>> deleteFutures = asyncRunner.runAll(keysToDelete,
+                    oldS3Key -> asyncObjectStorageService.permanentDeleteObjectVersion(oldS3Key, mapOldKeyToVersionId.get(oldS3Key)));
+            asyncRunner.awaitAll(deleteFutures);
+
+            for (int i = 0; i < keysToDelete.size(); i++){
+                String oldS3Key = keysToDelete.get(i);
+                String keyVersionId = mapOldKeyToVersionId.get(oldS3Key);
 
                 try{
-                    objectDeleteService.permanentDeleteObjectVersion(oldS3Key, keyVersionId);
+                    deleteFutures.get(i).join();
                     log.info("Successfully deleted S3 key: {} (VERSION: {})", oldS3Key, keyVersionId);
-                }catch (Exception e){
+                }catch (CompletionException e){
                     log.info("Encountered an S3 error while trying to permanently delete: {} (VERSION: {})", oldS3Key, keyVersionId);
                     failedDeletions.add(String.format("Failed to permanently delete original S3 object version '%s' (Version ID: '%s') during move. Data might be duplicated.", oldS3Key, keyVersionId));
 
@@ -215,20 +223,16 @@ public class UserFolderMoveServiceImpl implements UserFolderMoveService {
         }catch (S3Exception e){
             log.error("Encountered an S3 error while trying to move folder: {} to {}", targetFolderPath, newFolderPath);
 
-            for(Map.Entry<String, String> entryMap: mapNewKeyToS3Version.entrySet()){
-                String newKey = entryMap.getKey();
-                String versionId = entryMap.getValue();
-                folderUtils.handleGeneralException(objectDeleteService, e, newKey, versionId, user);
+            for(CopiedObject copiedObject: copiedObjects){
+                folderUtils.handleGeneralException(objectDeleteService, e, copiedObject.targetKey(), copiedObject.targetVersionId(), user);
             }
 
             throw new UserFolderMoveException(String.format("Encountered an S3 error while trying to move folder: %s to %s", targetFolderPath, newFolderPath));
         }catch (Exception e) {
             log.error("Encountered an unexpected error while trying to move folder: {} to {}", targetFolderPath, newFolderPath);
 
-            for(Map.Entry<String, String> entryMap: mapNewKeyToS3Version.entrySet()){
-                String newKey = entryMap.getKey();
-                String versionId = entryMap.getValue();
-                folderUtils.handleGeneralException(objectDeleteService, e, newKey, versionId, user);
+            for(CopiedObject copiedObject: copiedObjects){
+                folderUtils.handleGeneralException(objectDeleteService, e, copiedObject.targetKey(), copiedObject.targetVersionId(), user);
             }
 
             throw new UserFolderMoveException(String.format("Encountered an unexpected error while trying to move folder: %s to %s", targetFolderPath,newFolderPath));
@@ -240,6 +244,16 @@ public class UserFolderMoveServiceImpl implements UserFolderMoveService {
         Map<String, UserFile> mapFilePathToUserFile = allActiveDescendantFiles.stream()
                 .collect(Collectors.toMap(UserFile::getFilePath, file -> file));
 
+        //Every folder an object can be moved into, by its new path. The moved folders are only saved at the end, so
+        //they are found here instead of with a query per object, whatever order their copies completed in
+        Map<String, UserFolder> mapNewFolderPathToUserFolder = new HashMap<>();
+        mapNewFolderPathToUserFolder.put(newParentFolder.getFolderPath(), newParentFolder);
+        for(CopiedObject copiedObject: copiedObjects){
+            if(mapFolderPathToUserFolder.containsKey(copiedObject.sourceKey())){
+                mapNewFolderPathToUserFolder.put(copiedObject.targetKey(), mapFolderPathToUserFolder.get(copiedObject.sourceKey()));
+            }
+        }
+
         //After the S3 operation completes successfully, we deal with the DB
         try{
             log.info("Attempting move operation for folder: {} in the DB", targetFolderPath);
@@ -248,22 +262,19 @@ public class UserFolderMoveServiceImpl implements UserFolderMoveService {
             List<UserFile> finalFilesToBeSaved = new ArrayList<>();
 
 
-            for(Map.Entry<String, String> entryMap: mapNewKeyAndVersionToOldKey.entrySet()){
-                String oldKey = entryMap.getValue();
-                String newKey = separateKeyFromVersion(entryMap.getKey());
-                String newVersionId = separateVersionFromKey(entryMap.getKey());
+            for(CopiedObject copiedObject: copiedObjects){
+                String oldKey = copiedObject.sourceKey();
+                String newKey = copiedObject.targetKey();
+                String newVersionId = copiedObject.targetVersionId();
 
-                //Extract the parent folder path and get the parent folder
-                String immediateNewParentFolderPath = pathValidator.extractParentFolderPathFromKey(newKey);
-
-                //Check if the immediate parent folder is empty, if so default to the new parent folder
-                UserFolder immediateNewParentFolder =
-                            immediateNewParentFolderPath != null && immediateNewParentFolderPath.isEmpty() ?
-                                    newParentFolder : userFolderRepository.findByUserAndFolderPathAndIsDeletedFalse(user, immediateNewParentFolderPath)
-                                    .orElseThrow(() -> new NoSuchUserFolderException(
-                                            String.format("Immediate parent folder '%s' for moved object '%s' not found for user '%s'. This indicates a data inconsistency.",
-                                                    immediateNewParentFolderPath, newKey, user.getUsername())
-                                    ));
+                //Folder paths end with a slash, file paths don't, so the parent's path is the key up to its last segment
+                String immediateNewParentFolderPath = folderUtils.extractParentPath(newKey) + "/";
+                UserFolder immediateNewParentFolder = mapNewFolderPathToUserFolder.get(immediateNewParentFolderPath);
+                if(immediateNewParentFolder == null){
+                    throw new NoSuchUserFolderException(
+                            String.format("Immediate parent folder '%s' for moved object '%s' not found for user '%s'. This indicates a data inconsistency.",
+                                    immediateNewParentFolderPath, newKey, user.getUsername()));
+                }
 
 
                 LocalDateTime updatedAt = LocalDateTime.now();
@@ -290,6 +301,16 @@ public class UserFolderMoveServiceImpl implements UserFolderMoveService {
 
             }
 
+            //Blob backed files have no object at their path, so moving them only changes their path in the DB.
+            //Their folder entity has been moved above, so they keep pointing at it
+            for(UserFile descendantFile: allActiveDescendantFiles){
+                if(descendantFile.getBlob() == null) continue;
+
+                descendantFile.setFilePath(newFolderPath + descendantFile.getFilePath().substring(targetFolderPath.length()));
+                descendantFile.setUpdatedAt(LocalDateTime.now());
+                finalFilesToBeSaved.add(descendantFile);
+            }
+
             //If the save operation is not successful, we'll revert the move operation
             userFolderRepository.saveAll(finalFoldersToBeSaved);
             userFileRepository.saveAll(finalFilesToBeSaved);
@@ -300,7 +321,7 @@ public class UserFolderMoveServiceImpl implements UserFolderMoveService {
             log.error("Failed to save move action for folder: {} (ID: {}) for user: {}. Database error: {}", targetFolder.getFolderPath(), targetFolder.getId(), user.getUsername(), e.getMessage(), e);
             // S3 delete marker has been created, but DB save failed.
             // Attempt to remove the delete marker to "undelete" the S3 object.
-            revertMoveOperation(mapNewKeyAndVersionToOldKey);
+            revertMoveOperation(copiedObjects);
             throw new UserFolderMoveException(
                     String.format("Failed to save soft delete action for folder: %s. Database error occurred.", targetFolder.getFolderPath()), e
             );
@@ -308,14 +329,14 @@ public class UserFolderMoveServiceImpl implements UserFolderMoveService {
             log.error("An unexpected error occurred while trying to perform move on folder: {} (ID: {}) for user: {}. Error: {}", targetFolder.getFolderPath(), targetFolder.getId(), user.getUsername(), e.getMessage(), e);
             //  S3 delete marker might have been created, but DB save failed due to unexpected error.
             // Attempt to remove the delete marker to "undelete" the S3 object.
-            revertMoveOperation(mapNewKeyAndVersionToOldKey);
+            revertMoveOperation(copiedObjects);
             throw new UserFolderMoveException("An unexpected error occurred while trying to soft delete folder: " + targetFolder.getFolderPath(), e);
         }
 
     }
 
     //Reverts a failed move operation
-    private void revertMoveOperation(Map<String, String> mapNewKeyAndVersionToOldKey) {
+    private void revertMoveOperation(List<CopiedObject> copiedObjects) {
         int numberOfRetries = 5;
         int retryDelay = 10000;
 
@@ -323,35 +344,25 @@ public class UserFolderMoveServiceImpl implements UserFolderMoveService {
         // If delete fails, that's a duplication, less critical than not having the original back.
 
         while (numberOfRetries >= 0) {
-            boolean allCopiesBackSuccessful = true;
-            List<String> successfullyCopiedBackOldKeys = new ArrayList<>(); // To track what was restored
-
             try {
-                log.info("Attempting to restore old objects after DB save failure. Size: {}", mapNewKeyAndVersionToOldKey.size());
-                for (Map.Entry<String, String> entrySet : mapNewKeyAndVersionToOldKey.entrySet()) {
-                    String newObjectKey = separateKeyFromVersion(entrySet.getKey()); // Extract new key
-                    String newObjectVersionId = separateVersionFromKey(entrySet.getKey()); // Extract version from new key
-                    String oldObjectKey = entrySet.getValue(); // Get original old key
-
-                    try {
-                        String contentType = pathValidator.getContentTypeSafe(newObjectKey);
-                        objectStorageService.copyS3ObjectVersion(oldObjectKey, newObjectKey, newObjectVersionId, contentType);
-                        successfullyCopiedBackOldKeys.add(oldObjectKey); // Mark as successfully restored
-                        log.debug("Successfully copied back from {} (Version: {}) to {}", newObjectKey, newObjectVersionId, oldObjectKey);
-                    } catch (Exception copyBackEx) {
-                        log.error("Failed to copy object back from {} to {}. This object might remain at the new location.", newObjectKey, oldObjectKey, copyBackEx);
-                        allCopiesBackSuccessful = false;
-                    }
-                }
-
-                if (!allCopiesBackSuccessful) {
+                log.info("Attempting to restore old objects after DB save failure. Size: {}", copiedObjects.size());
+                //The sizes aren't known here, so the engine reads the size of each object before copying it back
+                List<ObjectCopy> copiesBack = copiedObjects
+                        .stream()
+                        .map(copiedObject -> new ObjectCopy(copiedObject.targetKey(), copiedObject.targetVersionId(), copiedObject.sourceKey(), null))
+                        .toList();
+                BatchCopyResult copyBackResult = objectCopyService.copyAll(copiesBack);
+
+                copyBackResult.failed().forEach((newObjectKey, copyBackEx) ->
+                        log.error("Failed to copy object back from {}. This object might remain at the new location.", newObjectKey, copyBackEx));
+                if (!copyBackResult.failed().isEmpty()) {
                     log.error("Not all objects could be copied back to their original locations.");
                 }
 
                 log.info("Successfully copied all objects back. Attempting permanent delete on new objects.");
-                for (Map.Entry<String, String> entrySet : mapNewKeyAndVersionToOldKey.entrySet()) {
-                    String newObjectKey = separateKeyFromVersion(entrySet.getKey());
-                    String newObjectVersionId = separateVersionFromKey(entrySet.getKey());
+                for (CopiedObject copiedObject : copiedObjects) {
+                    String newObjectKey = copiedObject.targetKey();
+                    String newObjectVersionId = copiedObject.targetVersionId();
                     try {
                         objectDeleteService.permanentDeleteObjectVersion(newObjectKey, newObjectVersionId);
                         log.debug("Successfully permanently deleted new object: {} (Version: {})", newObjectKey, newObjectVersionId);
@@ -381,25 +392,4 @@ public class UserFolderMoveServiceImpl implements UserFolderMoveService {
 
     }
 
-
-
-    private String separateKeyFromVersion(String concat){
-        int lastIndex = concat.lastIndexOf("|");
-        if (lastIndex == -1) { // If no separator, or other invalid format
-            log.error("Invalid concatenated key-version string format (missing separator): {}", concat);
-            throw new IllegalArgumentException("Invalid key-version format: " + concat); // Or handle as per your error strategy
-        }
-        return concat.substring(0, lastIndex);
-    }
-
-    private String separateVersionFromKey(String concat){
-        int lastIndex = concat.lastIndexOf("|");
-        if (lastIndex == -1) { // If no separator, or other invalid format
-            log.error("Invalid concatenated key-version string format (missing separator): {}", concat);
-            throw new IllegalArgumentException("Invalid key-version format: " + concat); // Or handle as per your error strategy
-        }
-        return concat.substring(lastIndex + 1);
-    }
-
-
 }
@@ -0,0 +1,45 @@
+package com.victor.filestorageapi.service.folder.impl;
+
+import com.victor.filestorageapi.exception.NoSuchUserFolderException;
+import com.victor.filestorageapi.models.entities.User;
+import com.victor.filestorageapi.models.entities.UserFolder;
+import com.victor.filestorageapi.repository.UserFolderRepository;
+import com.victor.filestorageapi.service.folder.UserFolderQueryService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.UUID;
+
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class UserFolderQueryServiceImpl implements UserFolderQueryService {
+
+    private final UserFolderRepository userFolderRepository;
+
+    /**
+     * Finds an active folder belonging to the user, defaulting to the user's root folder when no folder id is passed.
+     *
+     * @param user The user that owns the folder.
+     * @param folderId The id of the folder, may be null.
+     * @return The active folder.
+     * @throws NoSuchUserFolderException If the folder does not exist, is deleted, or the user has no root folder.
+     */
+    @Override
+    public UserFolder findActiveFolderOrRoot(User user, UUID folderId) {
+        if (folderId == null) {
+            UserFolder rootFolder = user.getRootFolder();
+            if (rootFolder == null) {
+                log.error("User {} (ID: {}) does not have a root folder.", user.getUsername(), user.getId());
+                throw new NoSuchUserFolderException("User does not have a root folder. Please ensure the root folder is created first.");
+            }
+            return rootFolder;
+        }
+
+        return userFolderRepository.findByUserAndIdAndIsDeletedFalse(user, folderId)
+                .orElseThrow(() -> new NoSuchUserFolderException(
+                        String.format("Folder with id: %s for user: %s was not found in the database or is deleted.", folderId, user.getUsername())
+                ));
+    }
+}
@@ -0,0 +1,15 @@
+package com.victor.filestorageapi.service.resilience;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a service method that issues S3 calls in bulk. The S3 calls it makes on its own thread go through the bulk
+ * bulkhead, even when it runs on a request thread, so it can't use up the concurrency interactive requests need.
+ * */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface BulkOperation {
+}
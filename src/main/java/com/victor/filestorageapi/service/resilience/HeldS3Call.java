@@ -0,0 +1,131 @@
+package com.victor.filestorageapi.service.resilience;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.Abortable;
+import software.amazon.awssdk.http.AbortableInputStream;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * The bulkhead permit and breaker outcome of an S3 call that has returned. Most calls release it right away, but an
+ * object stream or a paged listing keeps its connection to S3 after the call returns, so their permit is only
+ * released once the caller closes them. A failure while they are read counts towards the breaker like a failed call.
+ * */
+final class HeldS3Call {
+
+    private final Bulkhead bulkhead;
+    private final CircuitBreaker circuitBreaker;
+    //Time until the call returned, for a stream that is the time to its first byte
+    private final long durationNanos;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    HeldS3Call(Bulkhead bulkhead, CircuitBreaker circuitBreaker, long durationNanos) {
+        this.bulkhead = bulkhead;
+        this.circuitBreaker = circuitBreaker;
+        this.durationNanos = durationNanos;
+    }
+
+    <T> ResponseInputStream<T> holdUntilClosed(ResponseInputStream<T> objectStream) {
+        InputStream watched = new FilterInputStream(objectStream) {
+            @Override
+            public int read() throws IOException {
+                try {
+                    return super.read();
+                } catch (IOException e) {
+                    failure.compareAndSet(null, e);
+                    throw e;
+                }
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                try {
+                    return super.read(b, off, len);
+                } catch (IOException e) {
+                    failure.compareAndSet(null, e);
+                    throw e;
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    release();
+                }
+            }
+        };
+        Abortable abort = () -> {
+            try {
+                objectStream.abort();
+            } finally {
+                release();
+            }
+        };
+        return new ResponseInputStream<>(objectStream.response(), AbortableInputStream.create(watched, abort));
+    }
+
+    <T> Stream<T> holdUntilClosed(Stream<T> items) {
+        Iterator<T> iterator = items.iterator();
+        Iterator<T> watched = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                try {
+                    return iterator.hasNext();
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                    throw e;
+                }
+            }
+
+            @Override
+            public T next() {
+                try {
+                    return iterator.next();
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                    throw e;
+                }
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(watched, Spliterator.ORDERED), false)
+                .onClose(() -> {
+                    try {
+                        items.close();
+                    } finally {
+                        release();
+                    }
+                });
+    }
+
+    //Closing and aborting may both happen, only the first one counts
+    void release() {
+        if (!released.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            Throwable readFailure = failure.get();
+            if (readFailure == null) {
+                circuitBreaker.onSuccess(durationNanos, TimeUnit.NANOSECONDS);
+            } else {
+                circuitBreaker.onError(durationNanos, TimeUnit.NANOSECONDS, readFailure);
+            }
+        } finally {
+            bulkhead.onComplete();
+        }
+    }
+}
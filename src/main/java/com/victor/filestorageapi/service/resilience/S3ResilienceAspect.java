@@ -0,0 +1,127 @@
+package com.victor.filestorageapi.service.resilience;
+
+import com.victor.filestorageapi.config.ResilienceProperties;
+import com.victor.filestorageapi.exception.StorageUnavailableException;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestContextHolder;
+import software.amazon.awssdk.core.ResponseInputStream;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Guards the blocking S3 services with a bulkhead and a circuit breaker.
+ * Calls made while serving a request go through the interactive bulkhead, everything else, i.e. calls on executor
+ * threads, scheduled jobs and calls inside a {@link BulkOperation}, goes through the bulk bulkhead. Both share one
+ * breaker, which fails calls fast once S3 errors or latency cross their thresholds.
+ * A call that is rejected by either fails with a {@link StorageUnavailableException}. Object streams and paged
+ * listings hold their permit until they are closed, since they keep reading from S3 after the call returns.
+ * Only threads that don't serve a request wait longer than the bulk bulkhead's max wait for a permit.
+ * */
+@Aspect
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class S3ResilienceAspect {
+
+    //Their duration depends on the size of the content moved, so they only count towards the breaker when they fail
+    private static final Set<String> CONTENT_TRANSFER_METHODS = Set.of("uploadFile", "uploadInternalObject");
+    private static final ThreadLocal<Boolean> IN_BULK_OPERATION = ThreadLocal.withInitial(() -> false);
+
+    private final Bulkhead s3InteractiveBulkhead;
+    private final Bulkhead s3BulkBulkhead;
+    private final CircuitBreaker s3CircuitBreaker;
+    private final ResilienceProperties resilienceProperties;
+
+    @Around("@annotation(com.victor.filestorageapi.service.resilience.BulkOperation)")
+    public Object runAsBulkOperation(ProceedingJoinPoint joinPoint) throws Throwable {
+        boolean outerBulkOperation = IN_BULK_OPERATION.get();
+        IN_BULK_OPERATION.set(true);
+        try {
+            return joinPoint.proceed();
+        } finally {
+            IN_BULK_OPERATION.set(outerBulkOperation);
+        }
+    }
+
+    @Around("execution(* com.victor.filestorageapi.service.aws.ObjectStorageService.*(..))"
+            + " || execution(* com.victor.filestorageapi.service.aws.ObjectDeleteService.*(..))"
+            + " || execution(* com.victor.filestorageapi.service.aws.ObjectQueryService.*(..))")
+    public Object guardS3Call(ProceedingJoinPoint joinPoint) throws Throwable {
+        String methodName = joinPoint.getSignature().getName();
+        Bulkhead bulkhead = isInteractive() ? s3InteractiveBulkhead : s3BulkBulkhead;
+
+        try {
+            s3CircuitBreaker.acquirePermission();
+        } catch (CallNotPermittedException e) {
+            log.warn("Rejected S3 call '{}' since the S3 circuit breaker is {}.", methodName, s3CircuitBreaker.getState());
+            throw new StorageUnavailableException("The storage service is temporarily unavailable. Please try again later.", e);
+        }
+
+        try {
+            acquire(bulkhead);
+        } catch (BulkheadFullException e) {
+            s3CircuitBreaker.releasePermission();
+            log.warn("Rejected S3 call '{}' since the {} bulkhead is full.", methodName, bulkhead.getName());
+            throw new StorageUnavailableException("The storage service is busy. Please try again later.", e);
+        }
+
+        long start = System.nanoTime();
+        Object result;
+        try {
+            result = joinPoint.proceed();
+        } catch (Throwable throwable) {
+            s3CircuitBreaker.onError(durationOf(methodName, start), TimeUnit.NANOSECONDS, throwable);
+            bulkhead.onComplete();
+            throw throwable;
+        }
+
+        HeldS3Call call = new HeldS3Call(bulkhead, s3CircuitBreaker, durationOf(methodName, start));
+        if (result instanceof ResponseInputStream<?> objectStream) {
+            return call.holdUntilClosed(objectStream);
+        }
+        if (result instanceof Stream<?> items) {
+            return call.holdUntilClosed(items);
+        }
+        call.release();
+        return result;
+    }
+
+    //A request thread gives up after the bulkhead's own max wait, other threads keep waiting up to the background wait
+    private void acquire(Bulkhead bulkhead) {
+        if (RequestContextHolder.getRequestAttributes() != null) {
+            bulkhead.acquirePermission();
+            return;
+        }
+        long deadline = System.nanoTime() + resilienceProperties.getBackgroundMaxWait().toNanos();
+        while (true) {
+            try {
+                bulkhead.acquirePermission();
+                return;
+            } catch (BulkheadFullException e) {
+                if (System.nanoTime() - deadline >= 0) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    //Only the request thread itself has request attributes, executors started from it don't inherit them
+    private boolean isInteractive() {
+        return !IN_BULK_OPERATION.get() && RequestContextHolder.getRequestAttributes() != null;
+    }
+
+    private long durationOf(String methodName, long start) {
+        return CONTENT_TRANSFER_METHODS.contains(methodName) ? 0 : System.nanoTime() - start;
+    }
+}
@@ -1,51 +1,79 @@
 package com.victor.filestorageapi.service.snapshots.impl;
 
+import com.victor.filestorageapi.models.LatestObjectVersion;
+import com.victor.filestorageapi.models.entities.FileBlob;
+import com.victor.filestorageapi.models.entities.UserFile;
 import com.victor.filestorageapi.models.entities.UserFolderSnapshot;
 import com.victor.filestorageapi.models.entities.UserFolderSnapshotFileEntry;
-import com.victor.filestorageapi.service.aws.ObjectQueryService;
+import com.victor.filestorageapi.service.file.FileBlobService;
 import com.victor.filestorageapi.service.snapshots.UserFolderSnapshotFileEntryService;
 import com.victor.filestorageapi.service.utils.PathValidator;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
-import software.amazon.awssdk.services.s3.model.S3Object;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class UserFolderSnapshotFileEntryImpl implements UserFolderSnapshotFileEntryService {
 
-    private final ObjectQueryService objectQueryService;
     private final PathValidator pathValidator;
+    private final FileBlobService fileBlobService;
 
+    /**
+     * Builds a snapshot entry from the version listing of its key, without another request to S3.
+     *
+     * @param objectVersion The latest version of the key, as listed.
+     * @param fileType The content type of the entry, null if it is unknown.
+     * @param fileSize The size of the entry's content before it was compressed.
+     * @param folderSnapshot The snapshot the entry belongs to.
+     * @return The unsaved entry.
+     */
     @Override
-    public UserFolderSnapshotFileEntry buildFileEntry(S3Object s3Object, UserFolderSnapshot folderSnapshot) {
-        log.info("Building file entry snapshot for: {}", s3Object.key());
+    public UserFolderSnapshotFileEntry buildFileEntry(LatestObjectVersion objectVersion, String fileType, long fileSize, UserFolderSnapshot folderSnapshot) {
+        log.debug("Building file entry snapshot for: {}", objectVersion.s3Key());
 
-        String key = s3Object.key();
-        Long size = s3Object.size();
+        String key = objectVersion.s3Key();
         String fileEntryName = pathValidator.getKeyName(key);
-        String fileEntryType = objectQueryService.getObjectContentType(key);
-        String versionId;
-
-        try{
-            versionId = objectQueryService.getObjectVersionId(key);;
-        }catch (Exception e){
-            log.error("Failed to get version id for S3 object: {}", key);
-            throw new RuntimeException(String.format("Failed to get version id for S3 object: %s", key));
-        }
 
         return UserFolderSnapshotFileEntry
                 .builder()
                 .s3Key(key)
-                .s3VersionId(versionId)
-                .snapshotFileType(fileEntryType)
+                .s3VersionId(objectVersion.versionId())
+                .snapshotFileType(fileType)
                 .snapshotFileName(fileEntryName)
-                .snapshotFileSize(size)
+                .snapshotFileSize(fileSize)
                 .userFolderSnapshot(folderSnapshot)
                 .isDeletedInSnapshot(false)
                 .build();
 
     }
 
+    /**
+     * Builds a snapshot entry for a blob backed file from the DB, since the file has no object under the folder to
+     * list. The entry takes its own reference on the blob, so the content survives the file being overwritten or
+     * deleted.
+     *
+     * @param userFile The blob backed file.
+     * @param folderSnapshot The snapshot the entry belongs to.
+     * @return The unsaved entry.
+     */
+    @Override
+    public UserFolderSnapshotFileEntry buildBlobFileEntry(UserFile userFile, UserFolderSnapshot folderSnapshot) {
+        log.debug("Building blob file entry snapshot for: {}", userFile.getFilePath());
+        FileBlob fileBlob = fileBlobService.retainBlob(userFile.getBlob());
+
+        return UserFolderSnapshotFileEntry
+                .builder()
+                .s3Key(userFile.getFilePath())
+                .blob(fileBlob)
+                .blobSha256(fileBlob.getSha256())
+                .snapshotFileType(userFile.getFileType())
+                .snapshotFileName(pathValidator.getKeyName(userFile.getFilePath()))
+                .snapshotFileSize(userFile.getFileSize())
+                .userFolderSnapshot(folderSnapshot)
+                .isDeletedInSnapshot(false)
+                .build();
+    }
+
 }
@@ -8,12 +8,16 @@ import com.victor.filestorageapi.models.entities.*;
 import com.victor.filestorageapi.repository.UserFileRepository;
 import com.victor.filestorageapi.repository.UserFolderRepository;
 import com.victor.filestorageapi.repository.UserFolderSnapshotRepository;
-import com.victor.filestorageapi.service.aws.ObjectDeleteService;
+import com.victor.filestorageapi.service.aws.AsyncObjectStorageService;
 import com.victor.filestorageapi.service.aws.ObjectQueryService;
 import com.victor.filestorageapi.service.aws.ObjectStorageService;
+import com.victor.filestorageapi.service.file.FileBlobService;
 import com.victor.filestorageapi.service.folder.UserFolderDeleteService;
+import com.victor.filestorageapi.service.resilience.BulkOperation;
 import com.victor.filestorageapi.service.snapshots.UserFolderSnapshotRestoreService;
 import com.victor.filestorageapi.service.user.UserQueryService;
+import com.victor.filestorageapi.service.utils.BoundedAsyncRunner;
+import com.victor.filestorageapi.service.utils.S3Utils;
 import com.victor.filestorageapi.service.utils.UserFileUtils;
 import com.victor.filestorageapi.service.utils.UserFolderUtils;
 import jakarta.transaction.Transactional;
@@ -21,12 +25,16 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
 import software.amazon.awssdk.services.s3.model.S3Exception;
 import software.amazon.awssdk.services.s3.model.S3Object;
 
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @Slf4j
@@ -41,8 +49,11 @@ public class UserFolderSnapshotRestoreServiceImpl implements UserFolderSnapshotR
     private final UserFileRepository userFileRepository;
     private final UserFolderRepository userFolderRepository;
     private final ObjectStorageService objectStorageService;
-    private final ObjectDeleteService objectDeleteService;
+    private final AsyncObjectStorageService asyncObjectStorageService;
+    private final BoundedAsyncRunner asyncRunner;
     private final UserFileUtils userFileUtils;
+    private final FileBlobService fileBlobService;
+    private final S3Utils s3Utils;
 
     /**
      * Restores a folder's snapshot
@@ -53,6 +64,7 @@ public class UserFolderSnapshotRestoreServiceImpl implements UserFolderSnapshotR
      * */
     @Override
     @Transactional
+    @BulkOperation
     public void restoreFolderSnapshot(UUID userId, UUID snapshotId) {
         User user = userQueryService.findUserById(userId);
 
@@ -76,11 +88,6 @@ public class UserFolderSnapshotRestoreServiceImpl implements UserFolderSnapshotR
         List<UserFolderSnapshotFileEntry> entriesToRestore = snapshotToRestore.getFileEntries();
         log.info("Number of entries to restore: {}. First entry: {}", entriesToRestore.size(), entriesToRestore.getFirst());
 
-        //Gets all the objects under the current folders' prefix
-        List<S3Object> allObjectsUnderPrefix =
-                objectStorageService.listS3ObjectsByPrefix(userFolderBelongingToSnapshot.getFolderPath());
-        log.info("Number of objects found under: {}. First Object: {}", allObjectsUnderPrefix.size(), allObjectsUnderPrefix.getFirst());
-
         //A map of each active descendant user file and user folder of the user folder for the snapshot
         Map<String ,UserFile> activeDescendantUserFiles =
                 userFileRepository.findByUserAndFilePathStartingWithAndAndIsDeletedFalse(user, snapshotToRestore.getFolderPath())
@@ -92,37 +99,45 @@ public class UserFolderSnapshotRestoreServiceImpl implements UserFolderSnapshotR
         //Keeps track of the objects that have been restored.
         Map<String, String> restoredObjects = new HashMap<>();
         Map<String, String> deletedObjects = new HashMap<>();
+        Map<String, HeadObjectResponse> restoredObjectHeads = new HashMap<>();
+
+        //Blob backed entries have no object to copy back, they are restored by pointing the file at the blob again
+        List<UserFolderSnapshotFileEntry> objectEntriesToRestore = entriesToRestore
+                .stream()
+                .filter(fileEntry -> !fileEntry.isBlobBacked())
+                .toList();
 
         //Restore the current file entries in s3
         log.info("Attempting to restore each entry in snapshot: {}", snapshotToRestore.getFolderSnapShotVersionId());
         try{
-            //Loops through each entry and restores the version in s3
-            for(UserFolderSnapshotFileEntry fileEntry: entriesToRestore){
-                String s3Key = fileEntry.getS3Key();
-                String s3VersionId = fileEntry.getS3VersionId();
-
-                log.info("Before restore version call.");
-                //Get the versioned object and restore it
-                String newVersionId = objectStorageService.retrieveVersionedObject(s3Key, s3VersionId);
-                log.info("After restore version call.");
-                restoredObjects.put(s3Key, newVersionId);
-            }
-
+            //Restores each entry's version in s3 by copying it over the current one, with the copies in flight together
+            List<CompletableFuture<String>> restoreFutures = asyncRunner.runAll(objectEntriesToRestore,
+                    fileEntry -> asyncObjectStorageService.copyS3ObjectVersion(fileEntry.getS3Key(), fileEntry.getS3Key(), fileEntry.getS3VersionId(), null));
+            collectResults(objectEntriesToRestore.stream().map(UserFolderSnapshotFileEntry::getS3Key).toList(), restoreFutures, restoredObjects);
             log.info("Successfully restored {} objects", restoredObjects.size());
 
-
-            //Then delete objects that were not part of the restoration
-            for (S3Object s3Object: allObjectsUnderPrefix){
-                String s3Key = s3Object.key();
-
-                if(restoredObjects.containsKey(s3Key)){
-                    log.info("Object: {} was restored. Skipping deletion.", s3Key);
-                    continue;
-                }
-
-                String deleteMarkerId = objectDeleteService.softDeleteObject(s3Key);
-                deletedObjects.put(s3Key, deleteMarkerId);
+            //Entries keep the size of their content, only those taken before they did have it read from the object's metadata
+            List<String> restoredKeys = objectEntriesToRestore
+                    .stream()
+                    .filter(fileEntry -> fileEntry.getSnapshotFileSize() == null && restoredObjects.containsKey(fileEntry.getS3Key()))
+                    .map(UserFolderSnapshotFileEntry::getS3Key)
+                    .toList();
+            List<CompletableFuture<HeadObjectResponse>> headFutures = asyncRunner.runAll(restoredKeys,
+                    s3Key -> asyncObjectStorageService.headObjectVersion(s3Key, restoredObjects.get(s3Key)));
+            collectResults(restoredKeys, headFutures, restoredObjectHeads);
+
+
+            //Then delete objects that were not part of the restoration. The folder is listed page by page, only the keys to delete are kept
+            List<String> keysToDelete;
+            try (Stream<S3Object> objectsUnderPrefix = objectStorageService.streamS3ObjectsByPrefix(userFolderBelongingToSnapshot.getFolderPath())) {
+                keysToDelete = objectsUnderPrefix
+                        .map(S3Object::key)
+                        .filter(s3Key -> !restoredObjects.containsKey(s3Key))
+                        .toList();
             }
+            log.info("Found {} objects under: {} that are not part of the snapshot", keysToDelete.size(), userFolderBelongingToSnapshot.getFolderPath());
+            List<CompletableFuture<String>> deleteFutures = asyncRunner.runAll(keysToDelete, asyncObjectStorageService::softDeleteObject);
+            collectResults(keysToDelete, deleteFutures, deletedObjects);
             log.info("Deleted {} S3 objects", deletedObjects.size());
 
         }catch (S3Exception e){
@@ -137,9 +152,12 @@ public class UserFolderSnapshotRestoreServiceImpl implements UserFolderSnapshotR
 
         //These maps will store UserFolder/File entities as they are saved/updated, also links children to their parents
         Map<String, UserFolder> mapPathToSavedFolder = new HashMap<>();
+        //The tree takes the folder of each entry relative to the snapshot's folder, so files don't become folders
         List<String> entriesToRestoreKeys = snapshotToRestore.getFileEntries()
                 .stream()
                 .map(UserFolderSnapshotFileEntry::getS3Key)
+                .map(s3Key -> s3Key.endsWith("/") ? s3Key : userFolderUtils.extractParentPath(s3Key) + "/")
+                .map(folderPath -> folderPath.substring(snapshotToRestore.getFolderPath().length()))
                 .collect(Collectors.toList());
 
         //Add the snapshot to the map
@@ -150,9 +168,6 @@ public class UserFolderSnapshotRestoreServiceImpl implements UserFolderSnapshotR
 
         //Builds and properly arranges the folder tree, then flattens the tree
         FolderNode rootNodeOfSnapshot = userFolderUtils.buildFolderTree(snapshotToRestore.getFolderPath(), entriesToRestoreKeys);
-        Map<String, S3Object> allRestoredObjectsUnderPrefix = objectStorageService
-                .listS3ObjectsByPrefix(snapshotToRestore.getFolderPath())
-                .stream().collect(Collectors.toMap(S3Object::key, object -> object));
 
         try{
             //BFS to traverse through the folder node and map each path to its parent folder
@@ -169,7 +184,7 @@ public class UserFolderSnapshotRestoreServiceImpl implements UserFolderSnapshotR
                 //Determine the db parent folder
                 UserFolder dbParentFolder = null;
                 if(!currentFolderNode.getFullPath().equals(snapshotToRestore.getFolderPath())){
-                    String parentFullPath = userFolderUtils.extractParentPath(currentFolderNode.getFullPath());
+                    String parentFullPath = userFolderUtils.extractParentPath(currentFolderNode.getFullPath()) + "/";
                     dbParentFolder = mapPathToSavedFolder.get(parentFullPath);
                     if(dbParentFolder == null){
                         throw new SnapshotRestoreException(String.format("Critical error: Parent folder not found in DB for path: %s", folderFullPath));
@@ -200,6 +215,11 @@ public class UserFolderSnapshotRestoreServiceImpl implements UserFolderSnapshotR
                             .build();
                 }
 
+                //The folder is backed by its restored object again
+                if(restoredObjects.containsKey(folderFullPath)){
+                    dbFolder.setCurrentVersion(restoredObjects.get(folderFullPath));
+                }
+
                 userFolderRepository.save(dbFolder);
                 mapPathToSavedFolder.put(folderFullPath, dbFolder);
 
@@ -219,9 +239,11 @@ public class UserFolderSnapshotRestoreServiceImpl implements UserFolderSnapshotR
 
             for(UserFolderSnapshotFileEntry fileEntry: entriesToRestore){
                 String filePath = fileEntry.getS3Key();
+                //Folder entries have been restored with the folder tree above
+                if(filePath.endsWith("/")) continue;
                 desiredFileSnapshotPaths.add(filePath);
 
-                String parentPath = userFolderUtils.extractParentPath(filePath);
+                String parentPath = userFolderUtils.extractParentPath(filePath) + "/";
                 UserFolder dbParentFolder = mapPathToSavedFolder.get(parentPath);
 
                 if (dbParentFolder == null) {
@@ -247,11 +269,25 @@ public class UserFolderSnapshotRestoreServiceImpl implements UserFolderSnapshotR
                             .build();
                 }
 
+                if(fileEntry.isBlobBacked()){
+                    restoreBlobFile(dbFile, fileEntry);
+                    userFileRepository.save(dbFile);
+                    continue;
+                }
+
+                //The file is backed by its restored object again, so it drops the reference it held on a blob
+                if(dbFile.getBlob() != null){
+                    fileBlobService.releaseBlob(dbFile.getBlob());
+                    dbFile.setBlob(null);
+                }
                 dbFile.setCurrentVersion(restoredObjects.get(filePath));
-                S3Object s3Object = allRestoredObjectsUnderPrefix.get(filePath);
+                HeadObjectResponse restoredObjectHead = restoredObjectHeads.get(filePath);
 
-                if(s3Object != null){
-                    dbFile.setFileSize(s3Object.size());
+                //The entry keeps the size before compression, objects uploaded in parts don't carry it in their metadata
+                if(fileEntry.getSnapshotFileSize() != null){
+                    dbFile.setFileSize(fileEntry.getSnapshotFileSize());
+                }else if(restoredObjectHead != null){
+                    dbFile.setFileSize(s3Utils.readOriginalSize(restoredObjectHead.metadata(), restoredObjectHead.contentLength()));
                 }else{
                     log.warn("S3 Object not found for file: {}", filePath);
                     dbFile.setFileSize(0L);
@@ -266,6 +302,12 @@ public class UserFolderSnapshotRestoreServiceImpl implements UserFolderSnapshotR
                     oldFile.setDeletedAt(updatedAt);
                     oldFile.setIsDeleted(true);
 
+                    //Blob backed files have no object to put a delete marker on, they are only deleted in the DB
+                    if(oldFile.getBlob() != null){
+                        userFileRepository.save(oldFile);
+                        continue;
+                    }
+
                     //Get the file type from deleted objects else query aws for it
                     if(deletedObjects.containsKey(oldFile.getFilePath())){
                         oldFile.setCurrentVersion(deletedObjects.get(oldFile.getFilePath()));
@@ -292,13 +334,25 @@ public class UserFolderSnapshotRestoreServiceImpl implements UserFolderSnapshotR
             rollBackSnapshotRestore(snapshotToRestore, deletedObjects, restoredObjects);
             throw new SnapshotRestoreException(String.format("Failed to restore snapshot: %s for user: %s due to an integrity exception.", snapshotToRestore.getFolderSnapShotVersionId(), user.getUsername()));
         }catch (Exception e){
-            log.error("An error occurred while trying to restore snapshot: {} for user: {}", snapshotToRestore.getFolderSnapShotVersionId(), user.getUsername());
+            log.error("An error occurred while trying to restore snapshot: {} for user: {}", snapshotToRestore.getFolderSnapShotVersionId(), user.getUsername(), e);
             rollBackSnapshotRestore(snapshotToRestore, deletedObjects, restoredObjects);
-            throw new SnapshotRestoreException(String.format("An error occurred while trying to restore snapshot: %s for user: %s", snapshotToRestore.getFolderSnapShotVersionId(), user.getUsername()));
+            throw new SnapshotRestoreException(String.format("An error occurred while trying to restore snapshot: %s for user: %s", snapshotToRestore.getFolderSnapShotVersionId(), user.getUsername()), e);
 
         }
     }
 
+    //Points the file at the snapshot's blob, taking a reference for the file and releasing the one it held before
+    private void restoreBlobFile(UserFile dbFile, UserFolderSnapshotFileEntry fileEntry) {
+        FileBlob previousBlob = dbFile.getBlob();
+        if(previousBlob == null || !previousBlob.getId().equals(fileEntry.getBlob().getId())){
+            dbFile.setBlob(fileBlobService.retainBlob(fileEntry.getBlob()));
+            fileBlobService.releaseBlob(previousBlob);
+        }
+        dbFile.setCurrentVersion(null);
+        dbFile.setFileType(fileEntry.getSnapshotFileType());
+        dbFile.setFileSize(fileEntry.getBlob().getSize());
+    }
+
     @Override
     public void rollBackSnapshotRestore(UserFolderSnapshot snapshot, Map<String, String> objectsToRollback, Map<String, String> mapRestoredObjectKeysToVersionId){
         byte maxRetries = 5;
@@ -317,17 +371,9 @@ public class UserFolderSnapshotRestoreServiceImpl implements UserFolderSnapshotR
             //Permanently delete the restored objects
             log.info("Attempting to delete previously restored objects.");
 
-            for (Map.Entry<String, String> entrySet : objectsToProcessForDelete.entrySet()) {
-                String s3Key = entrySet.getKey();
-                String s3VersionId = entrySet.getValue();
-
-                //Ensure the current object hasn't been deleted before trying to delete it
-                    try{
-                        objectDeleteService.permanentDeleteObjectVersion(s3Key, s3VersionId);
-                    }catch (Exception e){
-                        log.error("Failed to delete restored object: {} (VERSION: {})", s3Key, s3VersionId);
-                        currentAttemptFailedToDelete.put(s3Key, s3VersionId);
-                    }
+            for (Map.Entry<String, String> failedEntry : permanentDeleteVersions(objectsToProcessForDelete).entrySet()) {
+                log.error("Failed to delete restored object: {} (VERSION: {})", failedEntry.getKey(), failedEntry.getValue());
+                currentAttemptFailedToDelete.put(failedEntry.getKey(), failedEntry.getValue());
             }
 
             if(currentAttemptFailedToDelete.isEmpty()){
@@ -337,18 +383,10 @@ public class UserFolderSnapshotRestoreServiceImpl implements UserFolderSnapshotR
             }
 
                 log.info("Attempting to restore previously deleted objects.");
-                for (Map.Entry<String, String> entrySet : objectsToProcessForRestore.entrySet()) {
-                    String s3Key = entrySet.getKey();
-                    String s3deleteMarkerId = entrySet.getValue();
-
-                    //Undelete the deleted object by deleting the delete marker
-                        try {
-                            objectDeleteService.permanentDeleteObjectVersion(s3Key, s3deleteMarkerId);
-                        }catch (Exception e){
-                            log.error("Failed to restore deleted object: {} (VERSION: {})", s3Key, s3deleteMarkerId);
-                            currentAttemptFailedToRestore.put(s3Key, s3deleteMarkerId);
-                        }
-
+                //Undelete the deleted objects by deleting their delete markers
+                for (Map.Entry<String, String> failedEntry : permanentDeleteVersions(objectsToProcessForRestore).entrySet()) {
+                    log.error("Failed to restore deleted object: {} (VERSION: {})", failedEntry.getKey(), failedEntry.getValue());
+                    currentAttemptFailedToRestore.put(failedEntry.getKey(), failedEntry.getValue());
                 }
 
                 if(currentAttemptFailedToRestore.isEmpty()){
@@ -379,6 +417,47 @@ public class UserFolderSnapshotRestoreServiceImpl implements UserFolderSnapshotR
     }
 
 
+    /**
+     * Waits for a call per key and records the result of every call that succeeded.
+     *
+     * @throws SnapshotRestoreException If any call failed, once the results of all the others have been recorded.
+     */
+    private <T> void collectResults(List<String> s3Keys, List<CompletableFuture<T>> futures, Map<String, T> results) {
+        asyncRunner.awaitAll(futures);
+        Throwable failure = null;
+        for (int i = 0; i < s3Keys.size(); i++) {
+            try {
+                results.put(s3Keys.get(i), futures.get(i).join());
+            } catch (CompletionException e) {
+                failure = BoundedAsyncRunner.unwrap(e);
+            }
+        }
+
+        if (failure != null) {
+            throw new SnapshotRestoreException(String.format("Failed to process %s of %s objects", s3Keys.size() - countSucceeded(futures), s3Keys.size()), failure);
+        }
+    }
+
+    private long countSucceeded(List<? extends CompletableFuture<?>> futures) {
+        return futures.stream().filter(future -> !future.isCompletedExceptionally()).count();
+    }
+
+    //Deletes the versions concurrently and returns the ones that could not be deleted
+    private Map<String, String> permanentDeleteVersions(Map<String, String> versionsByKey) {
+        List<String> s3Keys = new ArrayList<>(versionsByKey.keySet());
+        List<CompletableFuture<Void>> futures = asyncRunner.runAll(s3Keys,
+                s3Key -> asyncObjectStorageService.permanentDeleteObjectVersion(s3Key, versionsByKey.get(s3Key)));
+        asyncRunner.awaitAll(futures);
+
+        Map<String, String> failedVersions = new HashMap<>();
+        for (int i = 0; i < s3Keys.size(); i++) {
+            if (futures.get(i).isCompletedExceptionally()) {
+                failedVersions.put(s3Keys.get(i), versionsByKey.get(s3Keys.get(i)));
+            }
+        }
+        return failedVersions;
+    }
+
     private void retryRollBack(short retryTimeInMillis){
         try{
             Thread.sleep(retryTimeInMillis);
@@ -1,12 +1,16 @@
 package com.victor.filestorageapi.service.snapshots.impl;
 
 import com.victor.filestorageapi.exception.UserFolderSnapshotCreationException;
+import com.victor.filestorageapi.models.LatestObjectVersion;
+import com.victor.filestorageapi.models.entities.UserFile;
 import com.victor.filestorageapi.models.entities.UserFolder;
 import com.victor.filestorageapi.models.entities.UserFolderSnapshot;
 import com.victor.filestorageapi.models.entities.UserFolderSnapshotFileEntry;
+import com.victor.filestorageapi.repository.UserFileRepository;
 import com.victor.filestorageapi.repository.UserFolderSnapshotFileEntryRepository;
 import com.victor.filestorageapi.repository.UserFolderSnapshotRepository;
-import com.victor.filestorageapi.service.aws.ObjectStorageService;
+import com.victor.filestorageapi.service.aws.ObjectQueryService;
+import com.victor.filestorageapi.service.resilience.BulkOperation;
 import com.victor.filestorageapi.service.snapshots.UserFolderSnapshotFileEntryService;
 import com.victor.filestorageapi.service.snapshots.UserFolderSnapShotService;
 import com.victor.filestorageapi.service.utils.FolderSnapshotUtils;
@@ -15,10 +19,12 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
-import software.amazon.awssdk.services.s3.model.S3Object;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
 @Slf4j
@@ -30,21 +36,38 @@ public class UserFolderSnapshotServiceImpl implements UserFolderSnapShotService
     private final UserFolderSnapshotFileEntryRepository fileEntryRepository;
     private final FolderSnapshotUtils folderSnapshotUtils;
     private final UserFolderSnapshotFileEntryService folderSnapshotFileEntryService;
-    private final ObjectStorageService objectStorageService;
+    private final ObjectQueryService objectQueryService;
+    private final UserFileRepository userFileRepository;
+
+    private static final String FOLDER_CONTENT_TYPE = "application/x-directory";
 
     @Override
     @Transactional
+    @BulkOperation
     public UserFolderSnapshot createFolderSnapshot(UserFolder userFolder) {
         LocalDateTime timestamp = LocalDateTime.now();
         String folderPath = userFolder.getFolderPath();
 
-        List<S3Object> allKeysUnderPrefix = objectStorageService.listS3ObjectsByPrefix(folderPath);
-        List<UserFolderSnapshotFileEntry> fileEntriesToSave = null;
+        //The version listing carries each key's latest version ID, size and ETag, so no request per key is needed
+        List<LatestObjectVersion> latestVersionsUnderPrefix = objectQueryService.listLatestVersions(folderPath);
+        List<UserFile> activeFiles = userFileRepository.findByUserAndFilePathStartingWithAndAndIsDeletedFalse(userFolder.getUser(), folderPath);
+        Map<String, String> fileTypesByPath = findFileTypes(activeFiles);
+        Map<String, Long> fileSizesByVersion = findFileSizes(activeFiles);
+        List<UserFolderSnapshotFileEntry> fileEntriesToSave = new ArrayList<>();
 
             try {
-                fileEntriesToSave = allKeysUnderPrefix.stream()
-                        .map(object -> folderSnapshotFileEntryService.buildFileEntry(object, new UserFolderSnapshot()))
-                        .toList();
+                latestVersionsUnderPrefix.stream()
+                        .map(objectVersion -> folderSnapshotFileEntryService.buildFileEntry(objectVersion,
+                                resolveFileType(objectVersion.s3Key(), fileTypesByPath),
+                                fileSizesByVersion.getOrDefault(objectVersion.versionId(), objectVersion.size()),
+                                new UserFolderSnapshot()))
+                        .forEach(fileEntriesToSave::add);
+
+                //Blob backed files have no object under the folder, so they aren't in the listing and are taken from the DB
+                activeFiles.stream()
+                        .filter(userFile -> userFile.getBlob() != null)
+                        .map(userFile -> folderSnapshotFileEntryService.buildBlobFileEntry(userFile, new UserFolderSnapshot()))
+                        .forEach(fileEntriesToSave::add);
             } catch (Exception e) {
                 log.error("An error occurred while trying to build file entry snapshots for folder snapshot: {}", folderPath);
                 throw new UserFolderSnapshotCreationException(String.format("An error occurred while trying to build file entry snapshots for folder snapshot: %s", folderPath));
@@ -77,4 +100,31 @@ public class UserFolderSnapshotServiceImpl implements UserFolderSnapShotService
         }
 
     }
+
+    //Content types aren't part of a version listing, the ones recorded for the folder's files are used instead
+    private Map<String, String> findFileTypes(List<UserFile> activeFiles) {
+        Map<String, String> fileTypesByPath = new HashMap<>();
+        for (UserFile userFile : activeFiles) {
+            if (userFile.getFileType() != null) {
+                fileTypesByPath.put(userFile.getFilePath(), userFile.getFileType());
+            }
+        }
+        return fileTypesByPath;
+    }
+
+    //Listed sizes are those of the stored bytes, the DB keeps the size of the content before it was compressed.
+    //Sizes are keyed by version, so a file that changed since the listing keeps the listed size
+    private Map<String, Long> findFileSizes(List<UserFile> activeFiles) {
+        Map<String, Long> fileSizesByVersion = new HashMap<>();
+        for (UserFile userFile : activeFiles) {
+            if (userFile.getCurrentVersion() != null && userFile.getFileSize() != null) {
+                fileSizesByVersion.put(userFile.getCurrentVersion(), userFile.getFileSize());
+            }
+        }
+        return fileSizesByVersion;
+    }
+
+    private String resolveFileType(String s3Key, Map<String, String> fileTypesByPath) {
+        return s3Key.endsWith("/") ? FOLDER_CONTENT_TYPE : fileTypesByPath.get(s3Key);
+    }
 }
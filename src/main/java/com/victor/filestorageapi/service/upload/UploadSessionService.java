@@ -0,0 +1,25 @@
+package com.victor.filestorageapi.service.upload;
+
+import com.victor.filestorageapi.models.entities.UploadSession;
+import com.victor.filestorageapi.models.entities.UserFile;
+import jakarta.transaction.Transactional;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+
+import java.io.InputStream;
+import java.util.Set;
+import java.util.UUID;
+
+public interface UploadSessionService {
+    UploadSession createSession(UUID userId, UUID folderId, String fileName, String contentType, long totalSize, Long partSize);
+    UploadSession findSession(UUID userId, UUID sessionId);
+    Set<Integer> findUploadedPartNumbers(UploadSession uploadSession);
+    CompletedPart uploadPart(UUID userId, UUID sessionId, int partNumber, long contentLength, InputStream inputStream);
+
+    @Transactional
+    UserFile commitSession(UUID userId, UUID sessionId);
+
+    @Transactional
+    void abortSession(UUID userId, UUID sessionId);
+
+    void abortExpiredSessions();
+}
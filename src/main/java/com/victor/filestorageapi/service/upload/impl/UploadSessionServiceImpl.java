@@ -0,0 +1,314 @@
+package com.victor.filestorageapi.service.upload.impl;
+
+import com.victor.filestorageapi.config.UploadProperties;
+import com.victor.filestorageapi.exception.NoSuchUploadSessionException;
+import com.victor.filestorageapi.exception.UnsupportedStorageOperationException;
+import com.victor.filestorageapi.exception.UploadSessionException;
+import com.victor.filestorageapi.exception.UserFileUploadException;
+import com.victor.filestorageapi.models.MultipartUpload;
+import com.victor.filestorageapi.models.StoredObject;
+import com.victor.filestorageapi.models.entities.UploadSession;
+import com.victor.filestorageapi.models.entities.User;
+import com.victor.filestorageapi.models.entities.UserFile;
+import com.victor.filestorageapi.models.entities.UserFolder;
+import com.victor.filestorageapi.models.enums.UploadSessionStatus;
+import com.victor.filestorageapi.repository.UploadSessionRepository;
+import com.victor.filestorageapi.service.aws.MultipartUploadService;
+import com.victor.filestorageapi.service.aws.ObjectDeleteService;
+import com.victor.filestorageapi.service.file.UserFileCommandService;
+import com.victor.filestorageapi.service.folder.UserFolderQueryService;
+import com.victor.filestorageapi.service.upload.UploadSessionService;
+import com.victor.filestorageapi.service.user.UserQueryService;
+import com.victor.filestorageapi.service.utils.PathValidator;
+import com.victor.filestorageapi.service.utils.S3Utils;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.Part;
+
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
+
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class UploadSessionServiceImpl implements UploadSessionService {
+
+    private final UploadSessionRepository uploadSessionRepository;
+    private final UserQueryService userQueryService;
+    private final UserFolderQueryService userFolderQueryService;
+    private final UserFileCommandService userFileCommandService;
+    //Upload sessions are backed by S3 multipart uploads, so they are only offered when objects are stored in S3
+    private final ObjectProvider<MultipartUploadService> multipartUploadService;
+    private final ObjectDeleteService objectDeleteService;
+    private final UploadProperties uploadProperties;
+    private final PathValidator pathValidator;
+    private final S3Utils s3Utils;
+
+    /**
+     * Starts an upload session backed by an S3 multipart upload. The client uploads the file in numbered parts of
+     * {@code partSize} bytes, in any order and over as many connections as it likes, then commits the session.
+     *
+     * @param userId The id of the user uploading the file.
+     * @param folderId The id of the folder to upload into, defaults to the user's root folder when null.
+     * @param fileName The name of the file.
+     * @param contentType The content type of the file, may be null.
+     * @param totalSize The size of the whole file in bytes.
+     * @param partSize The requested part size in bytes. The configured part size is used when null.
+     * @return The saved upload session.
+     * @throws UserFileUploadException If the file name is invalid.
+     * @throws UploadSessionException If the part size is out of S3's bounds or the session could not be saved.
+     */
+    @Override
+    public UploadSession createSession(UUID userId, UUID folderId, String fileName, String contentType, long totalSize, Long partSize) {
+        if (!pathValidator.isValidFileName(fileName)) {
+            log.warn("Invalid file name: {} for user: {}", fileName, userId);
+            throw new UserFileUploadException(String.format("Invalid file name: '%s'. File names must not be empty or contain '/'.", fileName));
+        }
+
+        fileName = fileName.trim();
+        long resolvedPartSize = resolvePartSize(totalSize, partSize);
+        int totalParts = (int) ((totalSize + resolvedPartSize - 1) / resolvedPartSize);
+        User user = userQueryService.findUserById(userId);
+        UserFolder userFolder = userFolderQueryService.findActiveFolderOrRoot(user, folderId);
+        String s3Key = pathValidator.buildFileS3Key(userFolder.getFolderPath(), fileName);
+        String resolvedContentType = contentType == null || contentType.isBlank()
+                ? MediaType.APPLICATION_OCTET_STREAM_VALUE : contentType;
+
+        MultipartUpload multipartUpload = multipartUploadService().createMultipartUpload(s3Key, resolvedContentType, s3Utils.buildOwnerMetadata(user));
+
+        LocalDateTime now = LocalDateTime.now();
+        UploadSession uploadSession = UploadSession
+                .builder()
+                .fileName(fileName)
+                .s3Key(s3Key)
+                .s3UploadId(multipartUpload.uploadId())
+                .bucketName(multipartUpload.bucketName())
+                .contentType(resolvedContentType)
+                .totalSize(totalSize)
+                .partSize(resolvedPartSize)
+                .totalParts(totalParts)
+                .status(UploadSessionStatus.ACTIVE)
+                .createdAt(now)
+                .expiresAt(now.plus(uploadProperties.getSessionExpiry()))
+                .userFolder(userFolder)
+                .user(user)
+                .build();
+
+        try {
+            uploadSession = uploadSessionRepository.save(uploadSession);
+            log.info("Created upload session: {} for file: {} ({} parts of {} bytes) for user: {}", uploadSession.getId(), s3Key, totalParts, resolvedPartSize, user.getUsername());
+            return uploadSession;
+        } catch (Exception e) {
+            log.error("Failed to save upload session for file: {} for user: {}. Error: {}", s3Key, user.getUsername(), e.getMessage(), e);
+            multipartUploadService().abortMultipartUpload(multipartUpload);
+            throw new UploadSessionException(String.format("Failed to create upload session for file: %s", s3Key), e);
+        }
+    }
+
+    @Override
+    public UploadSession findSession(UUID userId, UUID sessionId) {
+        User user = userQueryService.findUserById(userId);
+        return uploadSessionRepository.findByUserAndId(user, sessionId)
+                .orElseThrow(() -> {
+                    log.warn("Upload session: {} not found for user: {}", sessionId, user.getUsername());
+                    return new NoSuchUploadSessionException(String.format("Upload session: %s not found", sessionId));
+                });
+    }
+
+    /**
+     * Returns the numbers of the parts S3 has received for an active session.
+     * S3 is the source of truth for uploaded parts, so concurrent part uploads never have to write to the DB.
+     */
+    @Override
+    public Set<Integer> findUploadedPartNumbers(UploadSession uploadSession) {
+        if (uploadSession.getStatus() != UploadSessionStatus.ACTIVE) {
+            return Set.of();
+        }
+
+        return listUploadedParts(uploadSession).keySet();
+    }
+
+    /**
+     * Streams one part of an upload session straight into S3. Parts may be sent in any order and in parallel,
+     * re-uploading a part number replaces the previously uploaded part.
+     *
+     * @param partNumber The 1-based number of the part.
+     * @param contentLength The length of the request body, which must match the part's expected size.
+     * @param inputStream The request body holding the part's bytes.
+     * @return The part number and ETag of the uploaded part.
+     * @throws UploadSessionException If the session is not active, has expired, or the part is out of range or has the wrong size.
+     */
+    @Override
+    public CompletedPart uploadPart(UUID userId, UUID sessionId, int partNumber, long contentLength, InputStream inputStream) {
+        UploadSession uploadSession = findSession(userId, sessionId);
+        assertSessionIsActive(uploadSession);
+
+        if (partNumber < 1 || partNumber > uploadSession.getTotalParts()) {
+            throw new UploadSessionException(String.format("Part number %s is out of range. Upload session: %s has %s parts.",
+                    partNumber, sessionId, uploadSession.getTotalParts()));
+        }
+
+        long expectedPartSize = uploadSession.expectedPartSize(partNumber);
+        if (contentLength != expectedPartSize) {
+            throw new UploadSessionException(String.format("Part %s must be exactly %s bytes but was %s bytes.",
+                    partNumber, expectedPartSize, contentLength));
+        }
+
+        return multipartUploadService().uploadPart(uploadSession.multipartUpload(),
+                partNumber,
+                RequestBody.fromInputStream(inputStream, contentLength));
+    }
+
+    /**
+     * Completes the session's multipart upload once every part has been received and records the file.
+     * If the file could not be recorded the assembled object version is removed so S3 and the DB stay consistent.
+     *
+     * @return The saved user file.
+     * @throws UploadSessionException If the session is not active, has expired, or parts are missing or have the wrong size.
+     * @throws UserFileUploadException If the file could not be recorded in the DB.
+     */
+    @Override
+    public UserFile commitSession(UUID userId, UUID sessionId) {
+        UploadSession uploadSession = findSession(userId, sessionId);
+        assertSessionIsActive(uploadSession);
+
+        Map<Integer, Part> uploadedParts = listUploadedParts(uploadSession);
+        List<Integer> missingParts = new ArrayList<>();
+        List<CompletedPart> completedParts = new ArrayList<>(uploadSession.getTotalParts());
+
+        for (int partNumber = 1; partNumber <= uploadSession.getTotalParts(); partNumber++) {
+            Part part = uploadedParts.get(partNumber);
+            if (part == null) {
+                missingParts.add(partNumber);
+                continue;
+            }
+
+            if (part.size() != uploadSession.expectedPartSize(partNumber)) {
+                throw new UploadSessionException(String.format("Part %s of upload session: %s has %s bytes but %s bytes were expected. Re-upload the part before committing.",
+                        partNumber, sessionId, part.size(), uploadSession.expectedPartSize(partNumber)));
+            }
+
+            completedParts.add(CompletedPart.builder().partNumber(partNumber).eTag(part.eTag()).build());
+        }
+
+        if (!missingParts.isEmpty()) {
+            log.warn("Cannot commit upload session: {}. Missing parts: {}", sessionId, missingParts);
+            throw new UploadSessionException(String.format("Cannot commit upload session: %s. Missing parts: %s", sessionId, missingParts));
+        }
+
+        String s3Key = uploadSession.getS3Key();
+        CompleteMultipartUploadResponse completeResponse = multipartUploadService().completeMultipartUpload(uploadSession.multipartUpload(),
+                completedParts);
+        StoredObject storedObject = new StoredObject(s3Key, completeResponse.versionId(), uploadSession.getTotalSize(), completeResponse.eTag());
+
+        try {
+            UserFile userFile = userFileCommandService.recordUploadedFile(uploadSession.getUser(),
+                    uploadSession.getUserFolder(),
+                    uploadSession.getFileName(),
+                    uploadSession.getContentType(),
+                    storedObject);
+            uploadSession.setStatus(UploadSessionStatus.COMPLETED);
+            uploadSession.setCompletedAt(LocalDateTime.now());
+            uploadSessionRepository.save(uploadSession);
+            log.info("Committed upload session: {} as file: {} (VERSION: {})", sessionId, s3Key, storedObject.versionId());
+            return userFile;
+        } catch (Exception e) {
+            log.error("Failed to save committed file: {} (VERSION: {}) to DB for upload session: {}. Error: {}", s3Key, storedObject.versionId(), sessionId, e.getMessage(), e);
+            try {
+                objectDeleteService.permanentDeleteObjectVersion(s3Key, storedObject.versionId());
+            } catch (Exception cleanupEx) {
+                log.error("CRITICAL: Failed to clean up S3 object {} (Version: {}) after DB save failure for upload session: {}. Manual intervention may be required.", s3Key, storedObject.versionId(), sessionId, cleanupEx);
+            }
+            throw new UserFileUploadException(String.format("Failed to save uploaded file: %s", s3Key), e);
+        }
+    }
+
+    @Override
+    public void abortSession(UUID userId, UUID sessionId) {
+        UploadSession uploadSession = findSession(userId, sessionId);
+        if (uploadSession.getStatus() != UploadSessionStatus.ACTIVE) {
+            throw new UploadSessionException(String.format("Upload session: %s is already %s", sessionId, uploadSession.getStatus()));
+        }
+
+        multipartUploadService().abortMultipartUpload(uploadSession.multipartUpload());
+        uploadSession.setStatus(UploadSessionStatus.ABORTED);
+        uploadSessionRepository.save(uploadSession);
+        log.info("Aborted upload session: {} for file: {}", sessionId, uploadSession.getS3Key());
+    }
+
+    /**
+     * Aborts the multipart uploads of expired sessions so their parts stop taking up storage.
+     */
+    @Override
+    @Scheduled(cron = "${cloud.storage.upload.session-cleanup-cron:0 */30 * * * *}")
+    public void abortExpiredSessions() {
+        List<UploadSession> expiredSessions = uploadSessionRepository
+                .findByStatusAndExpiresAtBefore(UploadSessionStatus.ACTIVE, LocalDateTime.now());
+
+        if (expiredSessions.isEmpty()) {
+            return;
+        }
+
+        log.info("Aborting {} expired upload sessions", expiredSessions.size());
+        for (UploadSession uploadSession : expiredSessions) {
+            multipartUploadService().abortMultipartUpload(uploadSession.multipartUpload());
+            uploadSession.setStatus(UploadSessionStatus.ABORTED);
+        }
+        uploadSessionRepository.saveAll(expiredSessions);
+    }
+
+    private long resolvePartSize(long totalSize, Long requestedPartSize) {
+        long minPartSize = UploadProperties.MIN_PART_SIZE.toBytes();
+        long maxPartSize = UploadProperties.MAX_PART_SIZE.toBytes();
+
+        if (requestedPartSize != null) {
+            if (requestedPartSize < minPartSize || requestedPartSize > maxPartSize) {
+                throw new UploadSessionException(String.format("Part size must be between %s and %s bytes.", minPartSize, maxPartSize));
+            }
+            if (totalSize > requestedPartSize * UploadProperties.MAX_PARTS) {
+                throw new UploadSessionException(String.format("A part size of %s bytes would need more than %s parts.", requestedPartSize, UploadProperties.MAX_PARTS));
+            }
+            return requestedPartSize;
+        }
+
+        //Grow the default part size for files too large to fit in the maximum number of parts
+        long minPartSizeForFile = (totalSize + UploadProperties.MAX_PARTS - 1) / UploadProperties.MAX_PARTS;
+        long partSize = Math.max(uploadProperties.getPartSizeInBytes(), minPartSizeForFile);
+        if (partSize > maxPartSize) {
+            throw new UploadSessionException(String.format("File size of %s bytes exceeds the maximum object size.", totalSize));
+        }
+        return partSize;
+    }
+
+    private Map<Integer, Part> listUploadedParts(UploadSession uploadSession) {
+        return multipartUploadService().listParts(uploadSession.multipartUpload())
+                .stream()
+                .collect(Collectors.toMap(Part::partNumber, part -> part, (first, second) -> second));
+    }
+
+    private void assertSessionIsActive(UploadSession uploadSession) {
+        if (uploadSession.getStatus() != UploadSessionStatus.ACTIVE) {
+            throw new UploadSessionException(String.format("Upload session: %s is %s", uploadSession.getId(), uploadSession.getStatus()));
+        }
+        if (uploadSession.getExpiresAt().isBefore(LocalDateTime.now())) {
+            throw new UploadSessionException(String.format("Upload session: %s has expired", uploadSession.getId()));
+        }
+    }
+
+    private MultipartUploadService multipartUploadService() {
+        MultipartUploadService service = multipartUploadService.getIfAvailable();
+        if (service == null) {
+            throw new UnsupportedStorageOperationException("Upload sessions are only available when files are stored in S3.");
+        }
+        return service;
+    }
+}
@@ -0,0 +1,199 @@
+package com.victor.filestorageapi.service.utils;
+
+import com.victor.filestorageapi.config.ThrottlingProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate of requests per key prefix with a token bucket whose rate adapts to the responses it gets back.
+ * Every success raises the rate by a fixed step and every throttling response cuts it by a factor (AIMD), so each
+ * prefix settles just below the rate S3 accepts for it. Since the buckets are per prefix, a tenant that gets throttled
+ * only slows itself down.
+ * Requests of the sync client wait on their own thread for their token with {@link #acquire}. The async client's
+ * threads must never block, so its requests are issued once the future of {@link #acquireAsync} completes, and the
+ * attempts it makes on its own take their token on credit with {@link #acquireOnCredit}.
+ * */
+@Component
+@Slf4j
+public class AdaptiveRateLimiter {
+
+    private final ThrottlingProperties throttlingProperties;
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final Counter throttledCounter;
+    private final Counter rejectedCounter;
+
+    public AdaptiveRateLimiter(ThrottlingProperties throttlingProperties, MeterRegistry meterRegistry) {
+        this.throttlingProperties = throttlingProperties;
+        this.throttledCounter = Counter.builder("s3.throttling.responses")
+                .description("Throttling responses received from S3")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("s3.throttling.rejected")
+                .description("Requests failed because they would have waited too long for their prefix's rate")
+                .register(meterRegistry);
+        Gauge.builder("s3.throttling.prefixes", buckets, Map::size)
+                .description("Key prefixes with their own rate")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Waits until the prefix's rate allows another request.
+     *
+     * @param prefix The key prefix the request targets.
+     * @return false if the request would have had to wait longer than the max wait, it is not counted against the rate.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    public boolean acquire(String prefix) throws InterruptedException {
+        long waitNanos = reserve(prefix);
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+        return waitNanos >= 0;
+    }
+
+    /**
+     * Like {@link #acquire}, but waits without holding a thread.
+     *
+     * @param prefix The key prefix the request targets.
+     * @return A future completing once the prefix's rate allows another request, with false if the request would have
+     * had to wait longer than the max wait.
+     */
+    public CompletableFuture<Boolean> acquireAsync(String prefix) {
+        long waitNanos = reserve(prefix);
+        if (waitNanos <= 0) {
+            return CompletableFuture.completedFuture(waitNanos == 0);
+        }
+        return CompletableFuture.supplyAsync(() -> true, CompletableFuture.delayedExecutor(waitNanos, TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * Takes a token without waiting for it, even if the prefix's rate doesn't allow another request yet. The requests
+     * that wait for their token after it wait that much longer.
+     *
+     * @param prefix The key prefix the request targets.
+     */
+    public void acquireOnCredit(String prefix) {
+        if (throttlingProperties.isEnabled()) {
+            bucketFor(prefix).reserve(Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Takes a token if the prefix's rate allows another request right now, without waiting for one.
+     *
+     * @param prefix The key prefix the request targets.
+     * @return false if the request would have had to wait, it is not counted against the rate.
+     */
+    public boolean tryAcquire(String prefix) {
+        if (!throttlingProperties.isEnabled()) {
+            return true;
+        }
+        return bucketFor(prefix).reserve(0) == 0;
+    }
+
+    public void onSuccess(String prefix) {
+        if (throttlingProperties.isEnabled()) {
+            bucketFor(prefix).increase();
+        }
+    }
+
+    public void onThrottled(String prefix) {
+        throttledCounter.increment();
+        if (throttlingProperties.isEnabled()) {
+            bucketFor(prefix).decrease(prefix);
+        }
+    }
+
+    //How long the request has to wait for its token, or -1 if that exceeds the max wait
+    private long reserve(String prefix) {
+        if (!throttlingProperties.isEnabled()) {
+            return 0;
+        }
+
+        long waitNanos = bucketFor(prefix).reserve(throttlingProperties.getMaxWait().toNanos());
+        if (waitNanos < 0) {
+            rejectedCounter.increment();
+            log.warn("Rejected a request to prefix '{}' since it would wait longer than {} for its rate.", prefix, throttlingProperties.getMaxWait());
+        }
+        return waitNanos;
+    }
+
+    private Bucket bucketFor(String prefix) {
+        Bucket bucket = buckets.get(prefix);
+        if (bucket != null) {
+            return bucket;
+        }
+
+        if (buckets.size() >= throttlingProperties.getMaxPrefixes()) {
+            evictIdleBuckets();
+        }
+        return buckets.computeIfAbsent(prefix, key -> new Bucket(throttlingProperties.getInitialRate()));
+    }
+
+    //Prefixes that went quiet fall back to the initial rate the next time they are used
+    private void evictIdleBuckets() {
+        long idleBefore = System.nanoTime() - throttlingProperties.getIdlePrefixExpiry().toNanos();
+        buckets.values().removeIf(bucket -> bucket.lastUsedNanos() < idleBefore);
+    }
+
+    private final class Bucket {
+        private double rate;
+        private double tokens;
+        private long refilledAtNanos;
+        private long decreasedAtNanos;
+
+        private Bucket(double rate) {
+            this.rate = rate;
+            this.tokens = rate;
+            this.refilledAtNanos = System.nanoTime();
+            this.decreasedAtNanos = refilledAtNanos - throttlingProperties.getDecreaseCooldown().toNanos();
+        }
+
+        //Takes a token, letting the balance go negative so concurrent callers queue up behind each other instead of
+        //all waking up at the same time. Returns how long the caller has to wait, or -1 if that exceeds the max wait
+        private synchronized long reserve(long maxWaitNanos) {
+            refill();
+            long waitNanos = tokens >= 1 ? 0 : (long) ((1 - tokens) / rate * TimeUnit.SECONDS.toNanos(1));
+            if (waitNanos > maxWaitNanos) {
+                return -1;
+            }
+            tokens -= 1;
+            return waitNanos;
+        }
+
+        private synchronized void increase() {
+            rate = Math.min(throttlingProperties.getMaxRate(), rate + throttlingProperties.getAdditiveIncrease());
+        }
+
+        private synchronized void decrease(String prefix) {
+            long now = System.nanoTime();
+            if (now - decreasedAtNanos < throttlingProperties.getDecreaseCooldown().toNanos()) {
+                return;
+            }
+
+            refill();
+            rate = Math.max(throttlingProperties.getMinRate(), rate * throttlingProperties.getMultiplicativeDecrease());
+            tokens = Math.min(tokens, rate);
+            decreasedAtNanos = now;
+            log.info("S3 throttled prefix '{}', lowered its rate to {} requests per second.", prefix, String.format("%.1f", rate));
+        }
+
+        private synchronized long lastUsedNanos() {
+            return refilledAtNanos;
+        }
+
+        //Burst capacity is one second worth of the current rate
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(rate, tokens + (now - refilledAtNanos) * rate / TimeUnit.SECONDS.toNanos(1));
+            refilledAtNanos = now;
+        }
+    }
+}
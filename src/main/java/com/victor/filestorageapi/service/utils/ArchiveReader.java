@@ -0,0 +1,17 @@
+package com.victor.filestorageapi.service.utils;
+
+import com.victor.filestorageapi.models.ArchiveEntry;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads the entries of an archive one after the other while it streams in, so the archive is never spooled.
+ * */
+public interface ArchiveReader extends Closeable {
+
+    /**
+     * @return The next entry, or null once the archive has no entries left.
+     * */
+    ArchiveEntry nextEntry() throws IOException;
+}
@@ -0,0 +1,108 @@
+package com.victor.filestorageapi.service.utils;
+
+import com.victor.filestorageapi.config.AsyncProperties;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Runs an async call per item while keeping at most a fixed number of calls in flight. A new call is started from
+ * the completion of a previous one, so no thread waits for a free slot.
+ * */
+@Component
+@RequiredArgsConstructor
+public class BoundedAsyncRunner {
+
+    private final AsyncProperties asyncProperties;
+
+    public <T, R> List<CompletableFuture<R>> runAll(List<T> items, Function<T, CompletableFuture<R>> call) {
+        return runAll(items, asyncProperties.getMaxInFlightRequests(), call);
+    }
+
+    /**
+     * Starts a call for every item, at most {@code maxInFlight} at a time.
+     *
+     * @param items The items to call for.
+     * @param maxInFlight How many calls may be in flight at once.
+     * @param call Starts the call for an item.
+     * @return The result of each call, in the order of the items. A failed call fails its own future only.
+     */
+    public <T, R> List<CompletableFuture<R>> runAll(List<T> items, int maxInFlight, Function<T, CompletableFuture<R>> call) {
+        List<CompletableFuture<R>> results = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            results.add(new CompletableFuture<>());
+        }
+
+        AtomicInteger nextItem = new AtomicInteger();
+        for (int i = 0; i < Math.min(Math.max(maxInFlight, 1), items.size()); i++) {
+            startNext(items, results, nextItem, call);
+        }
+        return results;
+    }
+
+    /**
+     * Waits until every future has completed, whether it succeeded or not.
+     * */
+    public void awaitAll(List<? extends CompletableFuture<?>> futures) {
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+                .exceptionally(throwable -> null)
+                .join();
+    }
+
+    //Strips the wrappers futures add around the exception a call failed with
+    public static Throwable unwrap(Throwable throwable) {
+        while ((throwable instanceof CompletionException || throwable instanceof ExecutionException) && throwable.getCause() != null) {
+            throwable = throwable.getCause();
+        }
+        return throwable;
+    }
+
+    //Calls that complete straight away are handled in the loop, so a run of them can't grow the stack
+    private <T, R> void startNext(List<T> items, List<CompletableFuture<R>> results, AtomicInteger nextItem, Function<T, CompletableFuture<R>> call) {
+        while (true) {
+            int index = nextItem.getAndIncrement();
+            if (index >= items.size()) {
+                return;
+            }
+
+            CompletableFuture<R> result = results.get(index);
+            CompletableFuture<R> inFlight = start(call, items.get(index));
+
+            if (inFlight.isDone()) {
+                complete(inFlight, result);
+                continue;
+            }
+
+            inFlight.whenComplete((value, throwable) -> {
+                complete(inFlight, result);
+                startNext(items, results, nextItem, call);
+            });
+            return;
+        }
+    }
+
+    private <T, R> CompletableFuture<R> start(Function<T, CompletableFuture<R>> call, T item) {
+        try {
+            return call.apply(item);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private <R> void complete(CompletableFuture<R> inFlight, CompletableFuture<R> result) {
+        inFlight.whenComplete((value, throwable) -> {
+            if (throwable != null) {
+                result.completeExceptionally(unwrap(throwable));
+            } else {
+                result.complete(value);
+            }
+        });
+    }
+}
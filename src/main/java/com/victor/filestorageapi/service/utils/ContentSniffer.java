@@ -0,0 +1,165 @@
+package com.victor.filestorageapi.service.utils;
+
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Detects a file's content type from its leading bytes rather than trusting its name or the client.
+ * */
+@Component
+public class ContentSniffer {
+
+    private static final List<Signature> SIGNATURES = List.of(
+            new Signature(0, bytes(0x25, 0x50, 0x44, 0x46, 0x2D), "application/pdf"),
+            new Signature(0, bytes(0x89, 0x50, 0x4E, 0x47, 0x0D, 0x0A, 0x1A, 0x0A), "image/png"),
+            new Signature(0, bytes(0xFF, 0xD8, 0xFF), "image/jpeg"),
+            new Signature(0, bytes(0x47, 0x49, 0x46, 0x38), "image/gif"),
+            new Signature(8, bytes(0x57, 0x45, 0x42, 0x50), "image/webp"),
+            new Signature(0, bytes(0x42, 0x4D), "image/bmp"),
+            new Signature(0, bytes(0x49, 0x49, 0x2A, 0x00), "image/tiff"),
+            new Signature(0, bytes(0x4D, 0x4D, 0x00, 0x2A), "image/tiff"),
+            new Signature(4, bytes(0x66, 0x74, 0x79, 0x70), "video/mp4"),
+            new Signature(0, bytes(0x1A, 0x45, 0xDF, 0xA3), "video/webm"),
+            new Signature(0, bytes(0x49, 0x44, 0x33), "audio/mpeg"),
+            new Signature(0, bytes(0x4F, 0x67, 0x67, 0x53), "audio/ogg"),
+            new Signature(0, bytes(0x66, 0x4C, 0x61, 0x43), "audio/flac"),
+            new Signature(0, bytes(0x50, 0x4B, 0x03, 0x04), "application/zip"),
+            new Signature(0, bytes(0x50, 0x4B, 0x05, 0x06), "application/zip"),
+            new Signature(0, bytes(0x1F, 0x8B), "application/gzip"),
+            new Signature(0, bytes(0x28, 0xB5, 0x2F, 0xFD), "application/zstd"),
+            new Signature(0, bytes(0x37, 0x7A, 0xBC, 0xAF, 0x27, 0x1C), "application/x-7z-compressed"),
+            new Signature(0, bytes(0x52, 0x61, 0x72, 0x21, 0x1A, 0x07), "application/vnd.rar"),
+            new Signature(257, bytes(0x75, 0x73, 0x74, 0x61, 0x72), "application/x-tar"),
+            new Signature(0, bytes(0x7F, 0x45, 0x4C, 0x46), "application/x-elf"),
+            new Signature(0, bytes(0x00, 0x61, 0x73, 0x6D), "application/wasm"),
+            new Signature(0, bytes(0xD0, 0xCF, 0x11, 0xE0, 0xA1, 0xB1, 0x1A, 0xE1), "application/x-ole-storage")
+    );
+
+    /**
+     * Detects the content type of a file from the start of its content. Binary formats are recognised by their
+     * signature. Containers whose signature is shared by many formats (zip, RIFF, OLE) are narrowed down by the file's
+     * extension, and text is reported as the type its extension implies when that type is textual.
+     *
+     * @param head The first bytes of the file, the more the better for text detection.
+     * @param fileName The name of the file, may be null.
+     * @return The detected content type, or {@code application/octet-stream} if the content is unrecognised binary.
+     */
+    public String sniff(byte[] head, String fileName) {
+        String nameType = fileName == null ? null : MediaTypeFactory
+                .getMediaType(fileName)
+                .map(MediaType::toString)
+                .orElse(null);
+
+        if (head.length == 0) {
+            return nameType != null ? nameType : MediaType.APPLICATION_OCTET_STREAM_VALUE;
+        }
+
+        for (Signature signature : SIGNATURES) {
+            if (signature.matches(head)) {
+                //Office documents, jars and epubs are all zips, their extension says which one it is
+                if (signature.isContainer() && nameType != null) {
+                    return nameType;
+                }
+                return signature.contentType();
+            }
+        }
+
+        String guessedType = guessFromMarkup(head);
+        if (guessedType != null) {
+            return guessedType;
+        }
+
+        if (isText(head)) {
+            return nameType != null && isTextual(nameType) ? nameType : MediaType.TEXT_PLAIN_VALUE;
+        }
+        return MediaType.APPLICATION_OCTET_STREAM_VALUE;
+    }
+
+    //The JDK recognises html and xml by their leading markup
+    private String guessFromMarkup(byte[] head) {
+        try {
+            return URLConnection.guessContentTypeFromStream(new ByteArrayInputStream(head));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    //Text has no NUL bytes and decodes as UTF-8, apart from a character cut off at the end of the head
+    private boolean isText(byte[] head) {
+        for (byte b : head) {
+            if (b == 0) {
+                return false;
+            }
+        }
+
+        int length = head.length;
+        //Drop a trailing multi byte sequence that may have been cut in half
+        for (int i = 1; i <= 3 && i <= head.length; i++) {
+            if ((head[head.length - i] & 0xC0) == 0xC0) {
+                length = head.length - i;
+                break;
+            }
+            if ((head[head.length - i] & 0x80) == 0) {
+                break;
+            }
+        }
+
+        try {
+            StandardCharsets.UTF_8
+                    .newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(head, 0, length));
+            return true;
+        } catch (CharacterCodingException e) {
+            return false;
+        }
+    }
+
+    private boolean isTextual(String contentType) {
+        return contentType.startsWith("text/")
+                || contentType.endsWith("json")
+                || contentType.endsWith("xml")
+                || contentType.endsWith("javascript")
+                || contentType.endsWith("yaml");
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    private record Signature(int offset, byte[] magic, String contentType) {
+
+        boolean matches(byte[] head) {
+            if (head.length < offset + magic.length) {
+                return false;
+            }
+            for (int i = 0; i < magic.length; i++) {
+                if (head[offset + i] != magic[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean isContainer() {
+            return contentType.equals("application/zip")
+                    || contentType.equals("application/x-ole-storage")
+                    || contentType.equals("video/mp4");
+        }
+    }
+}
@@ -0,0 +1,413 @@
+package com.victor.filestorageapi.service.utils;
+
+import com.victor.filestorageapi.config.FileSystemStorageProperties;
+import com.victor.filestorageapi.service.aws.BucketResolver;
+import jakarta.annotation.Nullable;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Stores versioned objects on a local or mounted filesystem with the semantics of a versioned S3 bucket.
+ * <p>
+ * Every key gets a version directory, found by mapping each {@code /} separated segment of the key to a directory
+ * under its bucket's directory. A version is a data file named {@code <versionId>.obj} next to a
+ * {@code <versionId>.meta} file with its content type, ETag and user metadata, a delete marker is an empty
+ * {@code <versionId>.del} file. Version IDs sort in the order they were created, so the latest version of a key is
+ * the greatest one in its directory. Files are written under a temporary name and renamed into place atomically, a
+ * version is therefore either fully visible or not at all.
+ * */
+@Component
+@Profile("filesystem")
+@RequiredArgsConstructor
+@Slf4j
+public class FileSystemObjectStore {
+
+    private static final String VERSIONS_DIRECTORY = "@versions";
+    //URL encoding never produces a lone '@', so it can stand for the empty segments of keys like "/user/folder/"
+    private static final String EMPTY_SEGMENT = "@";
+    private static final String DATA_SUFFIX = ".obj";
+    private static final String METADATA_SUFFIX = ".meta";
+    private static final String DELETE_MARKER_SUFFIX = ".del";
+    private static final String TEMP_PREFIX = ".tmp-";
+    private static final String CONTENT_TYPE_PROPERTY = "content-type";
+    private static final String ETAG_PROPERTY = "etag";
+    private static final String USER_METADATA_PREFIX = "x-meta-";
+
+    private static final AtomicLong lastVersionMicros = new AtomicLong();
+
+    private final FileSystemStorageProperties fileSystemStorageProperties;
+    private final BucketResolver bucketResolver;
+
+    @PostConstruct
+    public void initializeBuckets() throws IOException {
+        for (String bucket : bucketResolver.getBuckets()) {
+            Files.createDirectories(fileSystemStorageProperties.getRoot().resolve(bucket));
+        }
+        log.info("Storing objects on the filesystem at: {} (BUCKETS: {})", fileSystemStorageProperties.getRoot(), bucketResolver.getBuckets());
+    }
+
+    /**
+     * Describes one version of a key. Delete markers carry no content, so their size is 0 and their data file is null.
+     * */
+    public record ObjectVersion(String key, String versionId, boolean deleteMarker, long size, String eTag, String contentType,
+                                Map<String, String> metadata, Instant lastModified, Path dataFile) {
+    }
+
+    /**
+     * Streams the content into a new version of the key. The bytes go through a file channel into a temporary file,
+     * which is renamed into place once it is complete.
+     *
+     * @return The version that was written.
+     */
+    public ObjectVersion write(String key, String contentType, Map<String, String> metadata, InputStream content) throws IOException {
+        return write(key, contentType, () -> metadata, content);
+    }
+
+    /**
+     * Streams the content into a new version of the key like {@link #write(String, String, Map, InputStream)}, with
+     * user metadata that is only resolved once the content has been written, so it can describe the content.
+     *
+     * @return The version that was written.
+     */
+    public ObjectVersion write(String key, String contentType, Supplier<Map<String, String>> metadataSupplier, InputStream content) throws IOException {
+        Path versionsDirectory = versionsDirectory(key);
+        String versionId = newVersionId();
+        Path tempFile = createTempFile(versionsDirectory);
+        try {
+            MessageDigest md5 = md5();
+            long size = 0;
+            byte[] buffer = new byte[(int) fileSystemStorageProperties.getWriteBufferSize().toBytes()];
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE);
+                 InputStream digestStream = new DigestInputStream(content, md5)) {
+                int bytesRead;
+                while ((bytesRead = digestStream.readNBytes(buffer, 0, buffer.length)) > 0) {
+                    ByteBuffer source = ByteBuffer.wrap(buffer, 0, bytesRead);
+                    while (source.hasRemaining()) {
+                        channel.write(source);
+                    }
+                    size += bytesRead;
+                }
+                if (fileSystemStorageProperties.isFsync()) {
+                    channel.force(false);
+                }
+            }
+
+            String eTag = "\"" + HexFormat.of().formatHex(md5.digest()) + "\"";
+            Map<String, String> metadata = metadataSupplier.get();
+            writeMetadata(versionsDirectory, versionId, contentType, eTag, metadata);
+            Path dataFile = versionsDirectory.resolve(versionId + DATA_SUFFIX);
+            Files.move(tempFile, dataFile, StandardCopyOption.ATOMIC_MOVE);
+            return new ObjectVersion(key, versionId, false, size, eTag, contentType, metadata, Instant.now(), dataFile);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Copies a version of one key into a new version of another key (or the same one). Versions never change once
+     * written, so the copy is a hard link to the source's data file where the filesystem allows it and a
+     * {@link FileChannel#transferTo} copy otherwise.
+     *
+     * @param sourceVersionId The version to copy, the latest version is copied when null.
+     * @return The new version, or empty if the source version does not exist or is a delete marker.
+     */
+    public Optional<ObjectVersion> copy(String sourceKey, @Nullable String sourceVersionId, String targetKey) throws IOException {
+        Optional<ObjectVersion> source = findVersion(sourceKey, sourceVersionId).filter(version -> !version.deleteMarker());
+        if (source.isEmpty()) {
+            return Optional.empty();
+        }
+
+        ObjectVersion sourceVersion = source.get();
+        Path versionsDirectory = versionsDirectory(targetKey);
+        String versionId = newVersionId();
+        writeMetadata(versionsDirectory, versionId, sourceVersion.contentType(), sourceVersion.eTag(), sourceVersion.metadata());
+
+        Path dataFile = versionsDirectory.resolve(versionId + DATA_SUFFIX);
+        try {
+            Files.createLink(dataFile, sourceVersion.dataFile());
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            //The buckets live on different devices, or the filesystem has no hard links
+            copyData(sourceVersion.dataFile(), versionsDirectory, dataFile);
+        }
+        return Optional.of(new ObjectVersion(targetKey, versionId, false, sourceVersion.size(), sourceVersion.eTag(),
+                sourceVersion.contentType(), sourceVersion.metadata(), Instant.now(), dataFile));
+    }
+
+    /**
+     * Hides the key behind a new delete marker. Like S3, a marker is written even if the key has no live version.
+     *
+     * @return The version ID of the delete marker.
+     */
+    public String putDeleteMarker(String key) throws IOException {
+        Path versionsDirectory = versionsDirectory(key);
+        String versionId = newVersionId();
+        Path tempFile = createTempFile(versionsDirectory);
+        try {
+            Files.move(tempFile, versionsDirectory.resolve(versionId + DELETE_MARKER_SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        return versionId;
+    }
+
+    /**
+     * Removes a version or delete marker for good. Open channels on the version's data file keep reading it.
+     *
+     * @return True if the version existed.
+     */
+    public boolean deleteVersion(String key, String versionId) throws IOException {
+        Path versionsDirectory = versionsDirectory(key);
+        boolean deleted = Files.deleteIfExists(versionsDirectory.resolve(versionId + DATA_SUFFIX))
+                | Files.deleteIfExists(versionsDirectory.resolve(versionId + DELETE_MARKER_SUFFIX));
+        Files.deleteIfExists(versionsDirectory.resolve(versionId + METADATA_SUFFIX));
+
+        try {
+            Files.deleteIfExists(versionsDirectory);
+        } catch (DirectoryNotEmptyException e) {
+            //Other versions of the key are left
+        }
+        return deleted;
+    }
+
+    /**
+     * Finds a version of a key.
+     *
+     * @param versionId The version to find, the latest version (which may be a delete marker) is found when null.
+     * @return The version, or empty if it does not exist.
+     */
+    public Optional<ObjectVersion> findVersion(String key, @Nullable String versionId) throws IOException {
+        Path versionsDirectory = versionsDirectory(key);
+        if (versionId == null) {
+            return latestVersionId(versionsDirectory).map(latest -> readVersion(key, versionsDirectory, latest));
+        }
+        return Optional.ofNullable(readVersion(key, versionsDirectory, versionId));
+    }
+
+    /**
+     * Lists the latest version of every key under the prefix whose latest version isn't a delete marker, in key order.
+     * Like {@code ListObjectsV2}, only the subtree of directories the prefix can match is walked.
+     */
+    public List<ObjectVersion> listLatestVersions(String prefix) throws IOException {
+        String[] segments = prefix.split("/", -1);
+        Path directory = bucketDirectory(prefix);
+        for (int i = 0; i < segments.length - 1; i++) {
+            directory = directory.resolve(encodeSegment(segments[i]));
+        }
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+
+        Path bucketDirectory = bucketDirectory(prefix);
+        List<ObjectVersion> versions = new ArrayList<>();
+        Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) throws IOException {
+                if (!dir.getFileName().toString().equals(VERSIONS_DIRECTORY)) {
+                    return FileVisitResult.CONTINUE;
+                }
+
+                String key = decodeKey(bucketDirectory.relativize(dir.getParent()));
+                if (key.startsWith(prefix)) {
+                    latestVersionId(dir)
+                            .map(latest -> readVersion(key, dir, latest))
+                            .filter(version -> !version.deleteMarker())
+                            .ifPresent(versions::add);
+                }
+                return FileVisitResult.SKIP_SUBTREE;
+            }
+
+            //Keys are deleted while the tree is walked, their directories may be gone by the time they're visited
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                if (e instanceof NoSuchFileException) {
+                    return FileVisitResult.CONTINUE;
+                }
+                throw e;
+            }
+        });
+
+        versions.sort(Comparator.comparing(ObjectVersion::key));
+        return versions;
+    }
+
+    private Optional<String> latestVersionId(Path versionsDirectory) throws IOException {
+        if (!Files.isDirectory(versionsDirectory)) {
+            return Optional.empty();
+        }
+
+        String latest = null;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(versionsDirectory)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                String versionId = stripSuffix(fileName, DATA_SUFFIX);
+                if (versionId == null) {
+                    versionId = stripSuffix(fileName, DELETE_MARKER_SUFFIX);
+                }
+                if (versionId != null && (latest == null || versionId.compareTo(latest) > 0)) {
+                    latest = versionId;
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(latest);
+    }
+
+    //Returns null if the version does not exist, e.g. because it was deleted after it was listed
+    private ObjectVersion readVersion(String key, Path versionsDirectory, String versionId) {
+        try {
+            Path deleteMarker = versionsDirectory.resolve(versionId + DELETE_MARKER_SUFFIX);
+            if (Files.exists(deleteMarker)) {
+                return new ObjectVersion(key, versionId, true, 0, null, null, Map.of(),
+                        Files.getLastModifiedTime(deleteMarker).toInstant(), null);
+            }
+
+            Path dataFile = versionsDirectory.resolve(versionId + DATA_SUFFIX);
+            BasicFileAttributes attributes = Files.readAttributes(dataFile, BasicFileAttributes.class);
+            Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(versionsDirectory.resolve(versionId + METADATA_SUFFIX), StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            }
+
+            Map<String, String> metadata = new HashMap<>();
+            for (String name : properties.stringPropertyNames()) {
+                if (name.startsWith(USER_METADATA_PREFIX)) {
+                    metadata.put(name.substring(USER_METADATA_PREFIX.length()), properties.getProperty(name));
+                }
+            }
+            return new ObjectVersion(key, versionId, false, attributes.size(), properties.getProperty(ETAG_PROPERTY),
+                    properties.getProperty(CONTENT_TYPE_PROPERTY), metadata, attributes.lastModifiedTime().toInstant(), dataFile);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("Failed to read version '%s' of object '%s'", versionId, key), e);
+        }
+    }
+
+    private void writeMetadata(Path versionsDirectory, String versionId, String contentType, String eTag, Map<String, String> metadata) throws IOException {
+        Properties properties = new Properties();
+        if (contentType != null) {
+            properties.setProperty(CONTENT_TYPE_PROPERTY, contentType);
+        }
+        properties.setProperty(ETAG_PROPERTY, eTag);
+        if (metadata != null) {
+            metadata.forEach((name, value) -> properties.setProperty(USER_METADATA_PREFIX + name, value));
+        }
+
+        Path tempFile = createTempFile(versionsDirectory);
+        try {
+            try (OutputStream outputStream = Files.newOutputStream(tempFile)) {
+                properties.store(outputStream, null);
+            }
+            Files.move(tempFile, versionsDirectory.resolve(versionId + METADATA_SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private void copyData(Path source, Path versionsDirectory, Path target) throws IOException {
+        Path tempFile = createTempFile(versionsDirectory);
+        try {
+            try (FileChannel sourceChannel = FileChannel.open(source, StandardOpenOption.READ);
+                 FileChannel targetChannel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                long size = sourceChannel.size();
+                long position = 0;
+                while (position < size) {
+                    position += sourceChannel.transferTo(position, size - position, targetChannel);
+                }
+                if (fileSystemStorageProperties.isFsync()) {
+                    targetChannel.force(false);
+                }
+            }
+            Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    //A version directory can be removed by a concurrent delete of the key's last version right after it was created
+    private Path createTempFile(Path versionsDirectory) throws IOException {
+        Files.createDirectories(versionsDirectory);
+        try {
+            return Files.createTempFile(versionsDirectory, TEMP_PREFIX, null);
+        } catch (NoSuchFileException e) {
+            Files.createDirectories(versionsDirectory);
+            return Files.createTempFile(versionsDirectory, TEMP_PREFIX, null);
+        }
+    }
+
+    private Path bucketDirectory(String key) {
+        return fileSystemStorageProperties.getRoot().resolve(bucketResolver.resolve(key));
+    }
+
+    private Path versionsDirectory(String key) {
+        Path directory = bucketDirectory(key);
+        for (String segment : key.split("/", -1)) {
+            directory = directory.resolve(encodeSegment(segment));
+        }
+        return directory.resolve(VERSIONS_DIRECTORY);
+    }
+
+    private String encodeSegment(String segment) {
+        if (segment.isEmpty()) {
+            return EMPTY_SEGMENT;
+        }
+        String encoded = URLEncoder.encode(segment, StandardCharsets.UTF_8);
+        //"." and ".." would resolve to the current and parent directory
+        return encoded.chars().allMatch(c -> c == '.') ? encoded.replace(".", "%2E") : encoded;
+    }
+
+    private String decodeKey(Path relativeDirectory) {
+        StringJoiner key = new StringJoiner("/");
+        for (Path segment : relativeDirectory) {
+            String name = segment.toString();
+            key.add(name.equals(EMPTY_SEGMENT) ? "" : URLDecoder.decode(name, StandardCharsets.UTF_8));
+        }
+        return key.toString();
+    }
+
+    private String stripSuffix(String fileName, String suffix) {
+        return fileName.endsWith(suffix) && !fileName.startsWith(TEMP_PREFIX)
+                ? fileName.substring(0, fileName.length() - suffix.length())
+                : null;
+    }
+
+    //Microseconds since the epoch followed by a random part, so IDs sort by creation time even across instances
+    private String newVersionId() {
+        long nowMicros = Instant.now().toEpochMilli() * 1000;
+        long micros = lastVersionMicros.updateAndGet(last -> Math.max(last + 1, nowMicros));
+        return String.format("%016x%08x", micros, ThreadLocalRandom.current().nextInt());
+    }
+
+    private MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+}
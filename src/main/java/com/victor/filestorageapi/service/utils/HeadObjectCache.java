@@ -0,0 +1,70 @@
+package com.victor.filestorageapi.service.utils;
+
+import com.victor.filestorageapi.config.CacheProperties;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded, least recently used cache of HEAD responses keyed by key and version ID.
+ * A version's metadata never changes, so entries only leave when evicted or when their version is deleted.
+ * Lookups of the latest version are never answered from here, since the latest version can change at any time.
+ * */
+@Component
+@RequiredArgsConstructor
+public class HeadObjectCache {
+
+    private final CacheProperties cacheProperties;
+
+    //Access ordered, so the eldest entry is the least recently read one
+    private final LinkedHashMap<VersionKey, HeadObjectResponse> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<VersionKey, HeadObjectResponse> eldest) {
+            return size() > cacheProperties.getMetadataMaxEntries();
+        }
+    };
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public Optional<HeadObjectResponse> get(String s3Key, String versionId) {
+        if (versionId == null) {
+            return Optional.empty();
+        }
+
+        lock.lock();
+        try {
+            return Optional.ofNullable(entries.get(new VersionKey(s3Key, versionId)));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void put(String s3Key, HeadObjectResponse headObjectResponse) {
+        if (headObjectResponse.versionId() == null || cacheProperties.getMetadataMaxEntries() <= 0) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            entries.put(new VersionKey(s3Key, headObjectResponse.versionId()), headObjectResponse);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void evict(String s3Key, String versionId) {
+        lock.lock();
+        try {
+            entries.remove(new VersionKey(s3Key, versionId));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private record VersionKey(String s3Key, String versionId) {
+    }
+}
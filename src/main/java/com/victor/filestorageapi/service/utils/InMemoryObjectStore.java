@@ -0,0 +1,252 @@
+package com.victor.filestorageapi.service.utils;
+
+import com.victor.filestorageapi.models.constants.S3Constant;
+import jakarta.annotation.Nullable;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps versioned objects in memory with the semantics of a versioned S3 bucket, for tests and benchmarks that need a
+ * fast and deterministic backend.
+ * <p>
+ * Keys are held in a concurrent sorted map, so listing a prefix is a walk over a tail map just like
+ * {@code ListObjectsV2} pages through the keys of a bucket in order. Each key holds its own sorted map of versions.
+ * Version IDs come from a counter, so they sort in the order they were created and a run always produces the same
+ * ones. Keys are unique across buckets, so every bucket shares the one key space.
+ * */
+@Component
+@Profile("memory")
+public class InMemoryObjectStore {
+
+    private final ConcurrentSkipListMap<String, ConcurrentSkipListMap<String, ObjectVersion>> objects = new ConcurrentSkipListMap<>();
+    private final AtomicLong versionCounter = new AtomicLong();
+
+    /**
+     * One version of a key. Delete markers carry no content.
+     * */
+    public record ObjectVersion(String key, String versionId, boolean deleteMarker, byte[] content, String eTag,
+                                String contentType, Map<String, String> metadata, Instant lastModified) {
+        public long size() {
+            return content.length;
+        }
+    }
+
+    /**
+     * Stores the content as a new version of the key.
+     *
+     * @return The version that was stored.
+     */
+    public ObjectVersion put(String key, String contentType, Map<String, String> metadata, byte[] content) {
+        ObjectVersion version = new ObjectVersion(key, newVersionId(), false, content, eTagOf(content), contentType,
+                metadata == null ? Map.of() : Map.copyOf(metadata), Instant.now());
+        addVersion(version);
+        return version;
+    }
+
+    /**
+     * Copies a version of one key into a new version of another key (or the same one), keeping its content type and
+     * metadata like a CopyObject without a metadata directive.
+     *
+     * @param sourceVersionId The version to copy, the latest version is copied when null.
+     * @return The new version, or empty if the source version does not exist or is a delete marker.
+     */
+    public Optional<ObjectVersion> copy(String sourceKey, @Nullable String sourceVersionId, String targetKey) {
+        return findVersion(sourceKey, sourceVersionId)
+                .filter(source -> !source.deleteMarker())
+                .map(source -> {
+                    ObjectVersion copy = new ObjectVersion(targetKey, newVersionId(), false, source.content(), source.eTag(),
+                            source.contentType(), source.metadata(), Instant.now());
+                    addVersion(copy);
+                    return copy;
+                });
+    }
+
+    /**
+     * Hides the key behind a new delete marker. Like S3, a marker is written even if the key has no live version.
+     *
+     * @return The version ID of the delete marker.
+     */
+    public String putDeleteMarker(String key) {
+        ObjectVersion marker = new ObjectVersion(key, newVersionId(), true, new byte[0], null, null, Map.of(), Instant.now());
+        addVersion(marker);
+        return marker.versionId();
+    }
+
+    /**
+     * Removes a version or delete marker for good.
+     *
+     * @return True if the version existed.
+     */
+    public boolean deleteVersion(String key, String versionId) {
+        ConcurrentSkipListMap<String, ObjectVersion> versions = objects.get(key);
+        if (versions == null) {
+            return false;
+        }
+        synchronized (versions) {
+            if (versions.remove(versionId) == null) {
+                return false;
+            }
+            if (versions.isEmpty()) {
+                objects.remove(key, versions);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Finds a version of a key.
+     *
+     * @param versionId The version to find, the latest version (which may be a delete marker) is found when null.
+     * @return The version, or empty if it does not exist.
+     */
+    public Optional<ObjectVersion> findVersion(String key, @Nullable String versionId) {
+        ConcurrentSkipListMap<String, ObjectVersion> versions = objects.get(key);
+        if (versions == null) {
+            return Optional.empty();
+        }
+        if (versionId == null) {
+            return Optional.ofNullable(versions.lastEntry()).map(Map.Entry::getValue);
+        }
+        return Optional.ofNullable(versions.get(versionId));
+    }
+
+    /**
+     * Lists one page of the keys under a prefix whose latest version isn't a delete marker, in key order.
+     * The continuation token is the last key of the previous page, so a page resumes right after it.
+     *
+     * @param request The bucket is ignored, at most 1000 keys are returned per page like S3 does.
+     * @return The page, truncated with a continuation token if more keys follow.
+     */
+    public ListObjectsV2Response listObjectsV2(ListObjectsV2Request request) {
+        String prefix = request.prefix() == null ? "" : request.prefix();
+        int maxKeys = request.maxKeys() == null ? 1000 : Math.min(request.maxKeys(), 1000);
+        ConcurrentNavigableMap<String, ConcurrentSkipListMap<String, ObjectVersion>> tail = request.continuationToken() != null
+                ? objects.tailMap(request.continuationToken(), false)
+                : objects.tailMap(prefix, true);
+
+        List<S3Object> contents = new ArrayList<>();
+        String lastKey = null;
+        for (Map.Entry<String, ConcurrentSkipListMap<String, ObjectVersion>> entry : tail.entrySet()) {
+            if (!entry.getKey().startsWith(prefix)) {
+                break;
+            }
+            if (contents.size() == maxKeys) {
+                return ListObjectsV2Response
+                        .builder()
+                        .prefix(prefix)
+                        .contents(contents)
+                        .keyCount(contents.size())
+                        .isTruncated(true)
+                        .nextContinuationToken(lastKey)
+                        .build();
+            }
+
+            Map.Entry<String, ObjectVersion> latest = entry.getValue().lastEntry();
+            if (latest != null && !latest.getValue().deleteMarker()) {
+                ObjectVersion version = latest.getValue();
+                contents.add(S3Object
+                        .builder()
+                        .key(version.key())
+                        .size(version.size())
+                        .eTag(version.eTag())
+                        .lastModified(version.lastModified())
+                        .build());
+                lastKey = entry.getKey();
+            }
+        }
+
+        return ListObjectsV2Response
+                .builder()
+                .prefix(prefix)
+                .contents(contents)
+                .keyCount(contents.size())
+                .isTruncated(false)
+                .build();
+    }
+
+    /**
+     * Lists the latest version of every key under the prefix whose latest version isn't a delete marker, in key order.
+     */
+    public List<ObjectVersion> listLatestVersions(String prefix) {
+        List<ObjectVersion> latestVersions = new ArrayList<>();
+        for (Map.Entry<String, ConcurrentSkipListMap<String, ObjectVersion>> entry : objects.tailMap(prefix, true).entrySet()) {
+            if (!entry.getKey().startsWith(prefix)) {
+                break;
+            }
+            Map.Entry<String, ObjectVersion> latest = entry.getValue().lastEntry();
+            if (latest != null && !latest.getValue().deleteMarker()) {
+                latestVersions.add(latest.getValue());
+            }
+        }
+        return latestVersions;
+    }
+
+    /**
+     * Deletes a batch of objects like a versioned bucket's DeleteObjects: identifiers without a version ID get a
+     * delete marker, identifiers with one lose that version for good.
+     *
+     * @param request The bucket is ignored, S3 accepts at most 1000 identifiers per request and so does this.
+     * @return The deleted objects, with the delete marker's version ID where one was written.
+     * @throws IllegalArgumentException If the batch holds more than 1000 identifiers.
+     */
+    public DeleteObjectsResponse deleteObjects(DeleteObjectsRequest request) {
+        List<ObjectIdentifier> identifiers = request.delete().objects();
+        if (identifiers.size() > S3Constant.batch_size) {
+            throw new IllegalArgumentException(String.format("A DeleteObjects request can hold at most %s keys, got %s", S3Constant.batch_size, identifiers.size()));
+        }
+
+        List<DeletedObject> deleted = new ArrayList<>(identifiers.size());
+        for (ObjectIdentifier identifier : identifiers) {
+            if (identifier.versionId() == null) {
+                deleted.add(DeletedObject
+                        .builder()
+                        .key(identifier.key())
+                        .deleteMarker(true)
+                        .deleteMarkerVersionId(putDeleteMarker(identifier.key()))
+                        .build());
+            } else {
+                deleteVersion(identifier.key(), identifier.versionId());
+                deleted.add(DeletedObject
+                        .builder()
+                        .key(identifier.key())
+                        .versionId(identifier.versionId())
+                        .build());
+            }
+        }
+        return DeleteObjectsResponse.builder().deleted(deleted).build();
+    }
+
+    private void addVersion(ObjectVersion version) {
+        while (true) {
+            ConcurrentSkipListMap<String, ObjectVersion> versions = objects.computeIfAbsent(version.key(), key -> new ConcurrentSkipListMap<>());
+            //Deleting a key's last version drops its map, a put that raced with it starts over with a new one
+            synchronized (versions) {
+                if (objects.get(version.key()) == versions) {
+                    versions.put(version.versionId(), version);
+                    return;
+                }
+            }
+        }
+    }
+
+    private String newVersionId() {
+        return String.format("%016x", versionCounter.incrementAndGet());
+    }
+
+    private String eTagOf(byte[] content) {
+        try {
+            return "\"" + HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(content)) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.victor.filestorageapi.service.utils;
+
+import com.victor.filestorageapi.models.ArchiveEntry;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Presents the files of a multipart request as archive entries. Each part's file name is used as its path,
+ * so relative paths sent by directory uploads keep their folder structure.
+ * */
+public class MultipartArchiveReader implements ArchiveReader {
+
+    private final Iterator<MultipartFile> files;
+    private InputStream currentStream;
+
+    public MultipartArchiveReader(List<MultipartFile> files) {
+        this.files = files.iterator();
+    }
+
+    @Override
+    public ArchiveEntry nextEntry() throws IOException {
+        closeCurrentStream();
+        if (!files.hasNext()) {
+            return null;
+        }
+
+        MultipartFile file = files.next();
+        currentStream = file.getInputStream();
+        return new ArchiveEntry(file.getOriginalFilename(), false, file.getSize(), currentStream);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeCurrentStream();
+    }
+
+    private void closeCurrentStream() throws IOException {
+        if (currentStream != null) {
+            currentStream.close();
+            currentStream = null;
+        }
+    }
+}
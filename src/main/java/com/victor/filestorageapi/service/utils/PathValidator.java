@@ -1,5 +1,7 @@
 package com.victor.filestorageapi.service.utils;
 
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
 import org.springframework.stereotype.Component;
 
 @Component
@@ -18,16 +20,29 @@ public class PathValidator {
         return fullPath.endsWith("/") ? fullPath : fullPath + "/";
     }
 
+    //Unlike folder keys, file keys never end with a slash
+    public String buildFileS3Key(String folderPath, String fileName){
+        return folderPath.endsWith("/") ? folderPath + fileName : folderPath + "/" + fileName;
+    }
+
+    public boolean isValidFileName(String fileName){
+        return fileName != null
+                && !fileName.isBlank()
+                && !fileName.contains("/")
+                && !fileName.equals(".")
+                && !fileName.equals("..");
+    }
+
+    //Guesses from the extension only, the post upload processing replaces it with the type sniffed from the content
     public String getContentTypeSafe(String path) {
         if (path.endsWith("/")) {
             return "application/x-directory";
         }
 
-        int lastIndex = path.lastIndexOf(".");
-        if (lastIndex > 0 && lastIndex < path.length() - 1) {
-            return path.substring(lastIndex);
-        }
-        return "";
+        return MediaTypeFactory
+                .getMediaType(path)
+                .map(MediaType::toString)
+                .orElse(MediaType.APPLICATION_OCTET_STREAM_VALUE);
     }
 
     public String getKeyName(String key) {
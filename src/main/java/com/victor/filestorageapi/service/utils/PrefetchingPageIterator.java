@@ -0,0 +1,136 @@
+package com.victor.filestorageapi.service.utils;
+
+import com.victor.filestorageapi.exception.MyCustomS3Exception;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterates over the items of a paged listing while the next page is fetched in the background.
+ * <p>
+ * At most two pages are held at once: the one being consumed and the one being fetched. The next fetch only starts
+ * once the consumer moves on to the page before it, so a slow consumer never has more than one page waiting for it.
+ * Closing the iterator cancels the fetch in flight, so a consumer that stops early doesn't pay for the rest.
+ * */
+@Slf4j
+public class PrefetchingPageIterator<P, T> implements Iterator<T>, AutoCloseable {
+
+    private final String description;
+    private final Iterator<P> pages;
+    private final Function<P, ? extends Collection<T>> itemsOfPage;
+    private final ExecutorService executor;
+
+    private Iterator<T> currentPage = Collections.emptyIterator();
+    //Null once the last page was taken or the iterator was closed
+    private Future<P> nextPage;
+    private volatile boolean closed;
+
+    /**
+     * Starts fetching the first page straight away.
+     *
+     * @param description What is being listed, used in logs and error messages.
+     * @param pages The pages of the listing. Pages are taken one at a time, so it needn't be thread safe.
+     * @param itemsOfPage Extracts the items of a page.
+     * @param executor The pool the pages are fetched on.
+     */
+    public PrefetchingPageIterator(String description, Iterator<P> pages, Function<P, ? extends Collection<T>> itemsOfPage, ExecutorService executor) {
+        this.description = description;
+        this.pages = pages;
+        this.itemsOfPage = itemsOfPage;
+        this.executor = executor;
+        this.nextPage = fetchNextPage();
+    }
+
+    /**
+     * Wraps the iterator in a sequential stream that closes the iterator when the stream is closed. The stream should
+     * be consumed in a try-with-resources block so a consumer that stops early cancels the fetch in flight.
+     * */
+    public static <P, T> Stream<T> stream(String description, Iterator<P> pages, Function<P, ? extends Collection<T>> itemsOfPage, ExecutorService executor) {
+        PrefetchingPageIterator<P, T> iterator = new PrefetchingPageIterator<>(description, pages, itemsOfPage, executor);
+        return StreamSupport
+                .stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(iterator::close);
+    }
+
+    /**
+     * @throws MyCustomS3Exception If the next page could not be fetched, or the wait for it was interrupted.
+     */
+    @Override
+    public boolean hasNext() {
+        //Pages can be empty, so keep taking pages until one has items or the listing ends
+        while (!currentPage.hasNext()) {
+            if (nextPage == null) {
+                return false;
+            }
+            P page = awaitNextPage();
+            if (page == null) {
+                nextPage = null;
+                return false;
+            }
+            nextPage = fetchNextPage();
+            currentPage = itemsOfPage.apply(page).iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException(String.format("No more items in %s", description));
+        }
+        return currentPage.next();
+    }
+
+    /**
+     * Cancels the fetch in flight and drops the current page. Items can't be taken after the iterator is closed.
+     * */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (nextPage != null) {
+            nextPage.cancel(true);
+            nextPage = null;
+            log.debug("Stopped listing {} before the last page.", description);
+        }
+        currentPage = Collections.emptyIterator();
+    }
+
+    private Future<P> fetchNextPage() {
+        return executor.submit(() -> closed || !pages.hasNext() ? null : pages.next());
+    }
+
+    private P awaitNextPage() {
+        try {
+            return nextPage.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new MyCustomS3Exception(String.format("Listing %s was interrupted.", description), e);
+        } catch (CancellationException e) {
+            throw new MyCustomS3Exception(String.format("Listing %s was cancelled.", description), e);
+        } catch (ExecutionException e) {
+            close();
+            Throwable cause = BoundedAsyncRunner.unwrap(e);
+            log.error("Failed to fetch the next page of {}. Error: {}", description, cause.getMessage(), cause);
+            if (cause instanceof MyCustomS3Exception s3Exception) {
+                throw s3Exception;
+            }
+            throw new MyCustomS3Exception(String.format("Failed to fetch the next page of %s.", description), cause);
+        }
+    }
+}
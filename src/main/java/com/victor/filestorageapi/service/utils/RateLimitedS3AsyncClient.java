@@ -0,0 +1,50 @@
+package com.victor.filestorageapi.service.utils;
+
+import software.amazon.awssdk.awscore.AwsRequestOverrideConfiguration;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.services.s3.DelegatingS3AsyncClient;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.S3Request;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Holds back every request of the async client until its prefix's rate allows it, without holding a thread while it
+ * waits. Waiting before the request is issued keeps it from using up the SDK's attempts, which only retries should.
+ * Requests are marked as paced so the {@link S3ThrottlingInterceptor} doesn't take a second token for their first
+ * attempt.
+ * */
+public class RateLimitedS3AsyncClient extends DelegatingS3AsyncClient {
+
+    static final ExecutionAttribute<Boolean> PACED = new ExecutionAttribute<>("ThrottlingPaced");
+
+    private final AdaptiveRateLimiter rateLimiter;
+
+    public RateLimitedS3AsyncClient(S3AsyncClient delegate, AdaptiveRateLimiter rateLimiter) {
+        super(delegate);
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Override
+    protected <T extends S3Request, ReturnT> CompletableFuture<ReturnT> invokeOperation(T request, Function<T, CompletableFuture<ReturnT>> operation) {
+        String prefix = S3ThrottlingInterceptor.extractKeyPrefix(request);
+        return rateLimiter.acquireAsync(prefix).thenCompose(acquired -> {
+            if (!acquired) {
+                throw SdkClientException.create(String.format("Too many requests are queued for prefix '%s'.", prefix));
+            }
+            return operation.apply(paced(request));
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends S3Request> T paced(T request) {
+        AwsRequestOverrideConfiguration overrideConfiguration = request.overrideConfiguration()
+                .map(AwsRequestOverrideConfiguration::toBuilder)
+                .orElseGet(AwsRequestOverrideConfiguration::builder)
+                .putExecutionAttribute(PACED, true)
+                .build();
+        return (T) request.toBuilder().overrideConfiguration(overrideConfiguration).build();
+    }
+}
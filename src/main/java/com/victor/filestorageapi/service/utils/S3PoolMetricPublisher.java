@@ -0,0 +1,93 @@
+package com.victor.filestorageapi.service.utils;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.http.HttpMetric;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricPublisher;
+import software.amazon.awssdk.metrics.SdkMetric;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exports the connection pool state an S3 client reports with every call as Micrometer meters, tagged with the client
+ * it belongs to. The gauges hold the state seen by the most recent call, and every wait for a connection is recorded in
+ * {@code s3.http.pool.acquire}, so a pool that is too small shows up as a rising acquire time with no available
+ * connections left.
+ * */
+@Slf4j
+public class S3PoolMetricPublisher implements MetricPublisher {
+
+    private final AtomicInteger maxConnections = new AtomicInteger();
+    private final AtomicInteger leasedConnections = new AtomicInteger();
+    private final AtomicInteger availableConnections = new AtomicInteger();
+    private final AtomicInteger pendingAcquires = new AtomicInteger();
+    private final Timer acquireTimer;
+
+    public S3PoolMetricPublisher(MeterRegistry meterRegistry, String clientName) {
+        Gauge.builder("s3.http.pool.max", maxConnections, AtomicInteger::get)
+                .tag("client", clientName)
+                .description("Connections the pool may open")
+                .register(meterRegistry);
+        Gauge.builder("s3.http.pool.leased", leasedConnections, AtomicInteger::get)
+                .tag("client", clientName)
+                .description("Connections in use by requests")
+                .register(meterRegistry);
+        Gauge.builder("s3.http.pool.available", availableConnections, AtomicInteger::get)
+                .tag("client", clientName)
+                .description("Idle connections ready to be leased")
+                .register(meterRegistry);
+        Gauge.builder("s3.http.pool.pending", pendingAcquires, AtomicInteger::get)
+                .tag("client", clientName)
+                .description("Requests waiting for a connection")
+                .register(meterRegistry);
+        Gauge.builder("s3.http.pool.utilization", this, S3PoolMetricPublisher::utilization)
+                .tag("client", clientName)
+                .description("Share of the pool's connections in use")
+                .register(meterRegistry);
+        acquireTimer = Timer.builder("s3.http.pool.acquire")
+                .tag("client", clientName)
+                .description("Time requests waited for a connection")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void publish(MetricCollection metricCollection) {
+        try {
+            record(metricCollection);
+        } catch (Exception e) {
+            //Metrics must never fail the call they describe
+            log.debug("Failed to record S3 connection pool metrics. Error: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    //Pool metrics are reported on the HTTP client collection nested under each attempt of the call
+    private void record(MetricCollection metricCollection) {
+        update(metricCollection, HttpMetric.MAX_CONCURRENCY, maxConnections);
+        update(metricCollection, HttpMetric.LEASED_CONCURRENCY, leasedConnections);
+        update(metricCollection, HttpMetric.AVAILABLE_CONCURRENCY, availableConnections);
+        update(metricCollection, HttpMetric.PENDING_CONCURRENCY_ACQUIRES, pendingAcquires);
+        metricCollection.metricValues(HttpMetric.CONCURRENCY_ACQUIRE_DURATION).forEach(acquireTimer::record);
+
+        metricCollection.children().forEach(this::record);
+    }
+
+    private void update(MetricCollection metricCollection, SdkMetric<Integer> metric, AtomicInteger value) {
+        List<Integer> values = metricCollection.metricValues(metric);
+        if (!values.isEmpty()) {
+            value.set(values.get(values.size() - 1));
+        }
+    }
+
+    private double utilization() {
+        int max = maxConnections.get();
+        return max == 0 ? 0 : (double) leasedConnections.get() / max;
+    }
+}
@@ -0,0 +1,142 @@
+package com.victor.filestorageapi.service.utils;
+
+import com.victor.filestorageapi.config.ThrottlingProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.core.ClientType;
+import software.amazon.awssdk.core.SdkRequest;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Puts the {@link AdaptiveRateLimiter} in front of every attempt an S3 client makes, retries included, and feeds it
+ * the status of every response. Retries are also charged to a budget per operation: a retry costs tokens and a
+ * success refunds some, so an operation that keeps failing stops retrying instead of adding load to a bucket that is
+ * already throttling.
+ * <p>
+ * Sync requests wait on their own thread for their prefix's rate. Async requests run on the SDK's event loop threads,
+ * which must never block, so the {@link RateLimitedS3AsyncClient} waits for their first attempt's token before it
+ * issues them. Their retries, which the SDK already spaces out with its backoff, and the requests the client issues on
+ * its own, like the parts of a multipart upload, take their token on credit.
+ * */
+@Component
+@Slf4j
+public class S3ThrottlingInterceptor implements ExecutionInterceptor {
+
+    private static final ExecutionAttribute<Integer> ATTEMPT = new ExecutionAttribute<>("ThrottlingAttempt");
+    private static final ExecutionAttribute<String> KEY_PREFIX = new ExecutionAttribute<>("ThrottlingKeyPrefix");
+
+    private final AdaptiveRateLimiter rateLimiter;
+    private final ThrottlingProperties throttlingProperties;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, RetryBudget> retryBudgets = new ConcurrentHashMap<>();
+
+    public S3ThrottlingInterceptor(AdaptiveRateLimiter rateLimiter, ThrottlingProperties throttlingProperties, MeterRegistry meterRegistry) {
+        this.rateLimiter = rateLimiter;
+        this.throttlingProperties = throttlingProperties;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public void beforeExecution(Context.BeforeExecution context, ExecutionAttributes executionAttributes) {
+        executionAttributes.putAttribute(ATTEMPT, 0);
+        executionAttributes.putAttribute(KEY_PREFIX, extractKeyPrefix(context.request()));
+    }
+
+    @Override
+    public void beforeTransmission(Context.BeforeTransmission context, ExecutionAttributes executionAttributes) {
+        int attempt = executionAttributes.getAttribute(ATTEMPT) + 1;
+        executionAttributes.putAttribute(ATTEMPT, attempt);
+        String operation = executionAttributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME);
+
+        if (attempt > 1 && !retryBudgetFor(operation).tryAcquire()) {
+            meterRegistry.counter("s3.retry.budget.exhausted", "operation", operation).increment();
+            throw SdkClientException.create(String.format("The retry budget of %s is exhausted.", operation));
+        }
+
+        String prefix = executionAttributes.getAttribute(KEY_PREFIX);
+        if (executionAttributes.getAttribute(SdkExecutionAttribute.CLIENT_TYPE) == ClientType.ASYNC) {
+            if (attempt > 1 || !Boolean.TRUE.equals(executionAttributes.getAttribute(RateLimitedS3AsyncClient.PACED))) {
+                rateLimiter.acquireOnCredit(prefix);
+            }
+            return;
+        }
+
+        try {
+            if (!rateLimiter.acquire(prefix)) {
+                throw SdkClientException.create(String.format("Too many requests are queued for prefix '%s'.", prefix));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw SdkClientException.create("Interrupted while waiting for the S3 request rate.", e);
+        }
+    }
+
+    @Override
+    public void afterTransmission(Context.AfterTransmission context, ExecutionAttributes executionAttributes) {
+        int statusCode = context.httpResponse().statusCode();
+        String prefix = executionAttributes.getAttribute(KEY_PREFIX);
+        //S3 answers SlowDown with a 503, 429 is what throttling proxies in front of it use
+        if (statusCode == 503 || statusCode == 429) {
+            rateLimiter.onThrottled(prefix);
+        } else if (statusCode < 400) {
+            rateLimiter.onSuccess(prefix);
+        }
+    }
+
+    @Override
+    public void afterExecution(Context.AfterExecution context, ExecutionAttributes executionAttributes) {
+        retryBudgetFor(executionAttributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME)).refund();
+    }
+
+    private RetryBudget retryBudgetFor(String operation) {
+        return retryBudgets.computeIfAbsent(operation, key -> new RetryBudget(throttlingProperties.getRetryBudgetCapacity()));
+    }
+
+    //Rates are kept per top level folder, which is the user's root for user objects and the store for blobs and packs
+    static String extractKeyPrefix(SdkRequest request) {
+        String key = request.getValueForField("Key", String.class)
+                .or(() -> request.getValueForField("Prefix", String.class))
+                .orElse(null);
+        if (key == null && request instanceof DeleteObjectsRequest deleteObjectsRequest
+                && deleteObjectsRequest.delete() != null && !deleteObjectsRequest.delete().objects().isEmpty()) {
+            key = deleteObjectsRequest.delete().objects().get(0).key();
+        }
+        if (key == null) {
+            return "/";
+        }
+
+        String trimmed = key.startsWith("/") ? key.substring(1) : key;
+        int slashIndex = trimmed.indexOf('/');
+        return "/" + (slashIndex == -1 ? trimmed : trimmed.substring(0, slashIndex));
+    }
+
+    private final class RetryBudget {
+        private int tokens;
+
+        private RetryBudget(int tokens) {
+            this.tokens = tokens;
+        }
+
+        private synchronized boolean tryAcquire() {
+            if (tokens < throttlingProperties.getRetryCost()) {
+                return false;
+            }
+            tokens -= throttlingProperties.getRetryCost();
+            return true;
+        }
+
+        private synchronized void refund() {
+            tokens = Math.min(throttlingProperties.getRetryBudgetCapacity(), tokens + throttlingProperties.getSuccessRefund());
+        }
+    }
+}
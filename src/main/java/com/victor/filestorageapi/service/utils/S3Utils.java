@@ -1,6 +1,8 @@
 package com.victor.filestorageapi.service.utils;
 
 import com.victor.filestorageapi.exception.MyCustomS3Exception;
+import com.victor.filestorageapi.models.entities.User;
+import com.victor.filestorageapi.models.enums.StorageCodec;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
@@ -10,12 +12,21 @@ import software.amazon.awssdk.services.s3.model.*;
 import software.amazon.awssdk.services.s3.waiters.S3Waiter;
 import software.amazon.awssdk.utils.Validate;
 
+import java.util.HashMap;
+import java.util.Map;
+
 @Component
 @Slf4j
 @RequiredArgsConstructor
 public class S3Utils {
+    private static final String USER_ID_METADATA_KEY = "userId";
+    private static final String OWNER_METADATA_KEY = "owner";
+    private static final String CODEC_METADATA_KEY = "codec";
+    private static final String ORIGINAL_SIZE_METADATA_KEY = "original-size";
+
     /**
-     *
+     * Creates a bucket unless it already exists. us-east-1 is the default location and S3 rejects it as an explicit
+     * location constraint, so none is sent for it.
      * */
     public void initializeBucket(String bucketName, String region ,S3Client s3Client) {
         log.info("Attempting to create S3 bucket: {}", bucketName);
@@ -24,14 +35,16 @@ public class S3Utils {
         try{
             if(!doesBucketExist(bucketName, s3Client)){
                 log.info("Bucket: {} does not exist. Initializing creation.", bucketName);
-                CreateBucketRequest bucketRequest = CreateBucketRequest
+                CreateBucketRequest.Builder bucketRequestBuilder = CreateBucketRequest
                         .builder()
-                        .bucket(bucketName)
-                        .createBucketConfiguration(CreateBucketConfiguration
-                                .builder()
-                                .locationConstraint(region)
-                                .build())
-                        .build();
+                        .bucket(bucketName);
+                if (!"us-east-1".equals(region)) {
+                    bucketRequestBuilder.createBucketConfiguration(CreateBucketConfiguration
+                            .builder()
+                            .locationConstraint(region)
+                            .build());
+                }
+                CreateBucketRequest bucketRequest = bucketRequestBuilder.build();
                 s3Client.createBucket(bucketRequest);
 
                 HeadBucketRequest bucketRequestWait = HeadBucketRequest
@@ -69,6 +82,8 @@ public class S3Utils {
             s3Client.headBucket(request);
             log.info("Found S3 bucket: {}", bucketName);
             return true;
+        }catch (NoSuchBucketException e){
+            return false;
         }catch (S3Exception ase){
             log.error("Could not check for existence of bucket: {}", bucketName);
             throw new MyCustomS3Exception("Could not check for existence of bucket: " + bucketName);
@@ -103,4 +118,117 @@ public class S3Utils {
             return false;
         }
     }
+
+    /**
+     * Resolves an HTTP range the way S3 does for GetObject: {@code bytes=start-end}, {@code bytes=start-} and
+     * {@code bytes=-suffixLength} are supported, and an end past the object is clamped to its last byte.
+     *
+     * @param range The range, the whole object is selected when null.
+     * @param size The size of the object.
+     * @return The inclusive first and last byte of the range.
+     * @throws IllegalArgumentException If the range can't be satisfied for an object of that size.
+     * */
+    public long[] resolveRange(String range, long size) {
+        if (range == null) {
+            return new long[]{0, size - 1};
+        }
+
+        String spec = range.trim().substring("bytes=".length());
+        int dash = spec.indexOf('-');
+        String start = spec.substring(0, dash).trim();
+        String end = spec.substring(dash + 1).trim();
+        if (start.isEmpty()) {
+            return new long[]{Math.max(0, size - Long.parseLong(end)), size - 1};
+        }
+
+        long first = Long.parseLong(start);
+        long last = end.isEmpty() ? size - 1 : Math.min(Long.parseLong(end), size - 1);
+        if (first > last) {
+            throw new IllegalArgumentException(String.format("The range '%s' is not satisfiable for an object of %s bytes", range, size));
+        }
+        return new long[]{first, last};
+    }
+
+    /**
+     * Builds the user defined metadata that marks an object as belonging to a user.
+     * */
+    public Map<String, String> buildOwnerMetadata(User user) {
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put(USER_ID_METADATA_KEY, user.getId().toString());
+        metadata.put(OWNER_METADATA_KEY, user.getUsername());
+        return metadata;
+    }
+
+    /**
+     * Builds the owner metadata plus the codec the object's bytes are stored with, if they are encoded.
+     * */
+    public Map<String, String> buildOwnerMetadata(User user, StorageCodec codec) {
+        Map<String, String> metadata = buildOwnerMetadata(user);
+        if (codec != StorageCodec.IDENTITY) {
+            metadata.put(CODEC_METADATA_KEY, codec.getName());
+        }
+        return metadata;
+    }
+
+    /**
+     * Builds the owner metadata plus the codec the object's bytes are stored with and, if they are encoded, the size of
+     * the content before it was encoded. Only call this once the content has been read, so its size is final.
+     * */
+    public Map<String, String> buildOwnerMetadata(User user, StorageCodec codec, long originalSize) {
+        Map<String, String> metadata = buildOwnerMetadata(user, codec);
+        if (codec != StorageCodec.IDENTITY) {
+            metadata.put(ORIGINAL_SIZE_METADATA_KEY, Long.toString(originalSize));
+        }
+        return metadata;
+    }
+
+    /**
+     * Reads the size of an object's content before it was encoded from its user defined metadata.
+     *
+     * @param storedSize The size of the stored bytes, returned when the object isn't encoded or its original size
+     *                   wasn't recorded.
+     * */
+    public long readOriginalSize(Map<String, String> metadata, long storedSize) {
+        if (metadata == null) {
+            return storedSize;
+        }
+
+        return metadata.entrySet()
+                .stream()
+                .filter(entry -> ORIGINAL_SIZE_METADATA_KEY.equalsIgnoreCase(entry.getKey()))
+                .map(entry -> Long.parseLong(entry.getValue()))
+                .findFirst()
+                .orElse(storedSize);
+    }
+
+    /**
+     * Reads the codec an object's bytes are stored with from its user defined metadata.
+     * */
+    public StorageCodec readCodec(Map<String, String> metadata) {
+        if (metadata == null) {
+            return StorageCodec.IDENTITY;
+        }
+
+        return metadata.entrySet()
+                .stream()
+                .filter(entry -> CODEC_METADATA_KEY.equalsIgnoreCase(entry.getKey()))
+                .map(entry -> StorageCodec.fromName(entry.getValue()))
+                .findFirst()
+                .orElse(StorageCodec.IDENTITY);
+    }
+
+    /**
+     * Checks an object's user defined metadata was written for the given user.
+     * S3 may return metadata keys lower cased, so keys are compared ignoring case.
+     * */
+    public boolean isOwnedBy(Map<String, String> metadata, User user) {
+        if (metadata == null) {
+            return false;
+        }
+
+        return metadata.entrySet()
+                .stream()
+                .anyMatch(entry -> USER_ID_METADATA_KEY.equalsIgnoreCase(entry.getKey())
+                        && user.getId().toString().equals(entry.getValue()));
+    }
 }
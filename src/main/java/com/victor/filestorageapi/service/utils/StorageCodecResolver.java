@@ -0,0 +1,74 @@
+package com.victor.filestorageapi.service.utils;
+
+import com.victor.filestorageapi.config.CompressionProperties;
+import com.victor.filestorageapi.models.enums.StorageCodec;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class StorageCodecResolver {
+
+    private final CompressionProperties compressionProperties;
+
+    /**
+     * Picks the codec an object is stored with from its content type.
+     * */
+    public StorageCodec resolveCodec(String contentType) {
+        if (!compressionProperties.isEnabled() || contentType == null || contentType.isBlank()) {
+            return StorageCodec.IDENTITY;
+        }
+
+        try {
+            MediaType mediaType = MediaType.parseMediaType(contentType);
+            boolean compressible = compressionProperties.getCompressibleTypes()
+                    .stream()
+                    .map(MediaType::parseMediaType)
+                    .anyMatch(compressibleType -> compressibleType.includes(mediaType));
+            return compressible ? StorageCodec.DEFLATE : StorageCodec.IDENTITY;
+        } catch (InvalidMediaTypeException e) {
+            log.debug("Could not parse content type: {}. Storing without compression.", contentType);
+            return StorageCodec.IDENTITY;
+        }
+    }
+
+    /**
+     * Checks whether a client's Accept-Encoding header allows sending bytes encoded with the given codec as they are.
+     * */
+    public boolean isAcceptedEncoding(String acceptEncoding, StorageCodec codec) {
+        if (codec == StorageCodec.IDENTITY) {
+            return true;
+        }
+        if (acceptEncoding == null || acceptEncoding.isBlank()) {
+            return false;
+        }
+
+        for (String coding : List.of(acceptEncoding.split(","))) {
+            String[] parameters = coding.trim().split(";");
+            String name = parameters[0].trim();
+            if (!name.equalsIgnoreCase(codec.getName()) && !name.equals("*")) {
+                continue;
+            }
+
+            boolean refused = false;
+            for (int i = 1; i < parameters.length; i++) {
+                String parameter = parameters[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        refused = Double.parseDouble(parameter.substring(2)) == 0;
+                    } catch (NumberFormatException e) {
+                        refused = true;
+                    }
+                }
+            }
+            return !refused;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,227 @@
+package com.victor.filestorageapi.service.utils;
+
+import com.victor.filestorageapi.exception.InvalidArchiveException;
+import com.victor.filestorageapi.models.ArchiveEntry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads ustar archives, including the GNU long name and PAX path extensions most tar tools write for long paths.
+ * Links, devices and other special entries are skipped.
+ * */
+public class TarArchiveReader implements ArchiveReader {
+
+    private static final int BLOCK_SIZE = 512;
+    //GNU and PAX extension entries hold metadata for the entry after them, they are never larger than this in practice
+    private static final int MAX_EXTENSION_SIZE = 64 * 1024;
+
+    private final InputStream inputStream;
+    private long remainingEntryBytes;
+    private long remainingPaddingBytes;
+
+    public TarArchiveReader(InputStream inputStream) {
+        this.inputStream = inputStream;
+    }
+
+    @Override
+    public ArchiveEntry nextEntry() throws IOException {
+        skipRestOfEntry();
+        String extendedPath = null;
+
+        while (true) {
+            byte[] header = inputStream.readNBytes(BLOCK_SIZE);
+            //An archive ends with two zero blocks, but a missing end marker is tolerated
+            if (header.length == 0 || isZeroBlock(header)) {
+                return null;
+            }
+            if (header.length < BLOCK_SIZE || !hasValidChecksum(header)) {
+                throw new InvalidArchiveException("The tar archive is truncated or corrupt.");
+            }
+
+            long size = readNumber(header, 124, 12);
+            byte type = header[156];
+            remainingEntryBytes = size;
+            remainingPaddingBytes = (BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE;
+
+            if (type == 'L') {
+                extendedPath = readString(readExtension(size), 0, (int) size);
+                continue;
+            }
+            if (type == 'x') {
+                String paxPath = readPaxPath(readExtension(size));
+                extendedPath = paxPath != null ? paxPath : extendedPath;
+                continue;
+            }
+
+            String path = extendedPath != null ? extendedPath : readHeaderPath(header);
+            if (type == '5') {
+                skipRestOfEntry();
+                return new ArchiveEntry(path, true, 0, InputStream.nullInputStream());
+            }
+            if (type == '0' || type == 0 || type == '7') {
+                return new ArchiveEntry(path, false, size, new EntryInputStream());
+            }
+
+            //Links, devices, FIFOs and global PAX headers carry nothing to store
+            skipRestOfEntry();
+            extendedPath = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        inputStream.close();
+    }
+
+    private void skipRestOfEntry() throws IOException {
+        inputStream.skipNBytes(remainingEntryBytes + remainingPaddingBytes);
+        remainingEntryBytes = 0;
+        remainingPaddingBytes = 0;
+    }
+
+    private byte[] readExtension(long size) throws IOException {
+        if (size > MAX_EXTENSION_SIZE) {
+            throw new InvalidArchiveException(String.format("Tar extension header of %s bytes is too large.", size));
+        }
+
+        byte[] extension = inputStream.readNBytes((int) size);
+        if (extension.length < size) {
+            throw new InvalidArchiveException("The tar archive is truncated or corrupt.");
+        }
+        remainingEntryBytes = 0;
+        skipRestOfEntry();
+        return extension;
+    }
+
+    private String readHeaderPath(byte[] header) {
+        String name = readString(header, 0, 100);
+        String magic = readString(header, 257, 6);
+        if (magic.startsWith("ustar")) {
+            String prefix = readString(header, 345, 155);
+            if (!prefix.isEmpty()) {
+                return prefix + "/" + name;
+            }
+        }
+        return name;
+    }
+
+    //PAX records look like "<length> <key>=<value>\n"
+    private String readPaxPath(byte[] extension) {
+        String records = new String(extension, StandardCharsets.UTF_8);
+        int position = 0;
+        while (position < records.length()) {
+            int space = records.indexOf(' ', position);
+            if (space < 0) {
+                break;
+            }
+
+            int length;
+            try {
+                length = Integer.parseInt(records.substring(position, space));
+            } catch (NumberFormatException e) {
+                throw new InvalidArchiveException("The tar archive has a corrupt PAX header.", e);
+            }
+            if (length <= 0 || position + length > records.length()) {
+                throw new InvalidArchiveException("The tar archive has a corrupt PAX header.");
+            }
+
+            String record = records.substring(space + 1, position + length - 1);
+            if (record.startsWith("path=")) {
+                return record.substring("path=".length());
+            }
+            position += length;
+        }
+        return null;
+    }
+
+    private String readString(byte[] buffer, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && buffer[end] != 0) {
+            end++;
+        }
+        return new String(buffer, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    //Numbers are octal text, except sizes over 8GB which GNU tar writes as base-256 with the high bit set
+    private long readNumber(byte[] header, int offset, int length) {
+        if ((header[offset] & 0x80) != 0) {
+            long value = 0;
+            for (int i = offset + 1; i < offset + length; i++) {
+                value = (value << 8) | (header[i] & 0xff);
+            }
+            return value;
+        }
+
+        String octal = readString(header, offset, length).trim();
+        if (octal.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(octal, 8);
+        } catch (NumberFormatException e) {
+            throw new InvalidArchiveException("The tar archive has a corrupt header.", e);
+        }
+    }
+
+    //The checksum is the sum of the header's bytes with the checksum field itself counted as spaces
+    private boolean hasValidChecksum(byte[] header) {
+        long expected;
+        try {
+            expected = readNumber(header, 148, 8);
+        } catch (InvalidArchiveException e) {
+            return false;
+        }
+
+        long actual = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            actual += i >= 148 && i < 156 ? ' ' : header[i] & 0xff;
+        }
+        return actual == expected;
+    }
+
+    private boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //Reads the current entry's content, reporting EOF at the end of the entry instead of the archive
+    private class EntryInputStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            if (remainingEntryBytes <= 0) {
+                return -1;
+            }
+
+            int result = inputStream.read();
+            if (result == -1) {
+                throw new InvalidArchiveException("The tar archive is truncated or corrupt.");
+            }
+            remainingEntryBytes--;
+            return result;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remainingEntryBytes <= 0) {
+                return -1;
+            }
+            if (length == 0) {
+                return 0;
+            }
+
+            int bytesRead = inputStream.read(buffer, offset, (int) Math.min(length, remainingEntryBytes));
+            if (bytesRead == -1) {
+                throw new InvalidArchiveException("The tar archive is truncated or corrupt.");
+            }
+            remainingEntryBytes -= bytesRead;
+            return bytesRead;
+        }
+    }
+}
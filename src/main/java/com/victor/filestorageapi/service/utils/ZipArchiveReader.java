@@ -0,0 +1,38 @@
+package com.victor.filestorageapi.service.utils;
+
+import com.victor.filestorageapi.models.ArchiveEntry;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+public class ZipArchiveReader implements ArchiveReader {
+
+    private final ZipInputStream zipInputStream;
+
+    public ZipArchiveReader(InputStream inputStream) {
+        this.zipInputStream = new ZipInputStream(inputStream, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public ArchiveEntry nextEntry() throws IOException {
+        ZipEntry zipEntry = zipInputStream.getNextEntry();
+        if (zipEntry == null) {
+            return null;
+        }
+
+        //The zip stream reports EOF at the end of each entry, it must not be closed by whoever reads the entry
+        return new ArchiveEntry(zipEntry.getName(),
+                zipEntry.isDirectory(),
+                zipEntry.getSize(),
+                StreamUtils.nonClosing(zipInputStream));
+    }
+
+    @Override
+    public void close() throws IOException {
+        zipInputStream.close();
+    }
+}
@@ -0,0 +1,122 @@
+package com.victor.filestorageapi.models.enums;
+
+import com.victor.filestorageapi.config.CompressionProperties;
+import com.victor.filestorageapi.models.entities.User;
+import com.victor.filestorageapi.service.utils.S3Utils;
+import com.victor.filestorageapi.service.utils.StorageCodecResolver;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StorageCodecTest {
+
+    @Test
+    void everyCodecDecodesWhatItEncodes() throws Exception {
+        byte[] text = "a line of a log file\n".repeat(10_000).getBytes(StandardCharsets.UTF_8);
+        byte[] random = new byte[64 * 1024];
+        new Random(7).nextBytes(random);
+
+        for (StorageCodec codec : StorageCodec.values()) {
+            for (byte[] content : new byte[][]{text, random, new byte[0]}) {
+                assertArrayEquals(content, decode(codec, encode(codec, content)), codec.getName());
+            }
+        }
+    }
+
+    @Test
+    void deflateShrinksCompressibleContent() throws Exception {
+        byte[] text = "a line of a log file\n".repeat(10_000).getBytes(StandardCharsets.UTF_8);
+
+        assertTrue(encode(StorageCodec.DEFLATE, text).length < text.length / 10);
+        assertArrayEquals(text, encode(StorageCodec.IDENTITY, text));
+    }
+
+    @Test
+    void deflateIsTheZlibWrappedHttpCoding() throws Exception {
+        byte[] text = "hello, hello, hello".getBytes(StandardCharsets.UTF_8);
+
+        //Any HTTP client decodes "deflate" with a plain zlib inflater, so stored bytes can be sent as they are
+        try (InputStream inflated = new InflaterInputStream(new ByteArrayInputStream(encode(StorageCodec.DEFLATE, text)))) {
+            assertArrayEquals(text, inflated.readAllBytes());
+        }
+    }
+
+    @Test
+    void namesMatchTheHttpContentCodings() {
+        assertEquals(StorageCodec.DEFLATE, StorageCodec.fromName("deflate"));
+        assertEquals(StorageCodec.DEFLATE, StorageCodec.fromName("DEFLATE"));
+        assertEquals(StorageCodec.IDENTITY, StorageCodec.fromName("identity"));
+        assertEquals(StorageCodec.IDENTITY, StorageCodec.fromName("br"));
+        assertEquals(StorageCodec.IDENTITY, StorageCodec.fromName(null));
+    }
+
+    @Test
+    void theCodecAndOriginalSizeRoundTripThroughObjectMetadata() {
+        S3Utils s3Utils = new S3Utils();
+        User user = new User();
+        user.setId(UUID.randomUUID());
+        user.setUsername("alice");
+
+        Map<String, String> deflated = s3Utils.buildOwnerMetadata(user, StorageCodec.DEFLATE, 4096);
+        assertEquals(StorageCodec.DEFLATE, s3Utils.readCodec(deflated));
+        assertEquals(4096, s3Utils.readOriginalSize(deflated, 100));
+        assertTrue(s3Utils.isOwnedBy(deflated, user));
+
+        //S3 may hand metadata keys back in another case
+        assertEquals(4096, s3Utils.readOriginalSize(Map.of("Original-Size", "4096"), 100));
+        assertEquals(StorageCodec.DEFLATE, s3Utils.readCodec(Map.of("Codec", "deflate")));
+
+        Map<String, String> identity = s3Utils.buildOwnerMetadata(user, StorageCodec.IDENTITY, 4096);
+        assertEquals(StorageCodec.IDENTITY, s3Utils.readCodec(identity));
+        assertEquals(100, s3Utils.readOriginalSize(identity, 100));
+        assertEquals(100, s3Utils.readOriginalSize(null, 100));
+        assertEquals(StorageCodec.IDENTITY, s3Utils.readCodec(null));
+    }
+
+    @Test
+    void onlyCompressibleTypesAreDeflated() {
+        StorageCodecResolver resolver = new StorageCodecResolver(new CompressionProperties());
+
+        assertEquals(StorageCodec.DEFLATE, resolver.resolveCodec("text/plain"));
+        assertEquals(StorageCodec.DEFLATE, resolver.resolveCodec("text/csv; charset=utf-8"));
+        assertEquals(StorageCodec.IDENTITY, resolver.resolveCodec("image/jpeg"));
+        assertEquals(StorageCodec.IDENTITY, resolver.resolveCodec("not a media type"));
+        assertEquals(StorageCodec.IDENTITY, resolver.resolveCodec(null));
+
+        CompressionProperties disabled = new CompressionProperties();
+        disabled.setEnabled(false);
+        assertEquals(StorageCodec.IDENTITY, new StorageCodecResolver(disabled).resolveCodec("text/plain"));
+    }
+
+    @Test
+    void encodedBytesAreOnlySentToClientsAcceptingTheCoding() {
+        StorageCodecResolver resolver = new StorageCodecResolver(new CompressionProperties());
+
+        assertTrue(resolver.isAcceptedEncoding("gzip, deflate, br", StorageCodec.DEFLATE));
+        assertTrue(resolver.isAcceptedEncoding("*", StorageCodec.DEFLATE));
+        assertTrue(resolver.isAcceptedEncoding(null, StorageCodec.IDENTITY));
+        assertFalse(resolver.isAcceptedEncoding("gzip", StorageCodec.DEFLATE));
+        assertFalse(resolver.isAcceptedEncoding("deflate;q=0", StorageCodec.DEFLATE));
+        assertFalse(resolver.isAcceptedEncoding(null, StorageCodec.DEFLATE));
+    }
+
+    private byte[] encode(StorageCodec codec, byte[] content) throws Exception {
+        try (InputStream encoded = codec.encode(new ByteArrayInputStream(content))) {
+            return encoded.readAllBytes();
+        }
+    }
+
+    private byte[] decode(StorageCodec codec, byte[] content) throws Exception {
+        try (InputStream decoded = codec.decode(new ByteArrayInputStream(content))) {
+            return decoded.readAllBytes();
+        }
+    }
+}
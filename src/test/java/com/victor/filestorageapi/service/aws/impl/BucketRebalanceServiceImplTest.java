@@ -0,0 +1,396 @@
+package com.victor.filestorageapi.service.aws.impl;
+
+import com.victor.filestorageapi.config.BucketProperties;
+import com.victor.filestorageapi.models.entities.BucketPlacement;
+import com.victor.filestorageapi.models.enums.UploadSessionStatus;
+import com.victor.filestorageapi.repository.BucketPlacementRepository;
+import com.victor.filestorageapi.repository.FileBlobRepository;
+import com.victor.filestorageapi.repository.PackObjectRepository;
+import com.victor.filestorageapi.repository.UploadSessionRepository;
+import com.victor.filestorageapi.repository.UserFileRepository;
+import com.victor.filestorageapi.repository.UserFolderRepository;
+import com.victor.filestorageapi.repository.UserFolderSnapshotFileEntryRepository;
+import com.victor.filestorageapi.repository.UserFolderSnapshotRepository;
+import com.victor.filestorageapi.service.aws.BucketResolver;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.CopyObjectResponse;
+import software.amazon.awssdk.services.s3.model.DeleteMarkerEntry;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.ListMultipartUploadsRequest;
+import software.amazon.awssdk.services.s3.model.ListMultipartUploadsResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectVersionsRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectVersionsResponse;
+import software.amazon.awssdk.services.s3.model.MultipartUpload;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.ObjectVersion;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.paginators.ListObjectVersionsIterable;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BucketRebalanceServiceImplTest {
+
+    private static final String SHARD = "/alice/";
+    private static final String SOURCE = "old-bucket";
+    private static final String TARGET = "new-bucket";
+    private static final Instant T0 = Instant.parse("2026-01-01T00:00:00Z");
+
+    //What each bucket holds, the S3 client mock lists, copies and deletes against these
+    private final Map<String, List<StoredVersion>> buckets = new ConcurrentHashMap<>();
+    private final AtomicInteger versionSequence = new AtomicInteger();
+    //Keys of the multipart uploads in flight in each bucket
+    private final Map<String, List<String>> multipartUploads = new ConcurrentHashMap<>();
+    //Hooks that let a test change the buckets at a given point of the move
+    private Runnable afterCopy = () -> { };
+    private Runnable afterUploadsListed = () -> { };
+
+    private S3Client s3Client;
+    private BucketResolver bucketResolver;
+    private BucketPlacement placement;
+    private UploadSessionRepository uploadSessionRepository;
+    private FileBlobRepository fileBlobRepository;
+    private PackObjectRepository packObjectRepository;
+    private UserFolderSnapshotRepository userFolderSnapshotRepository;
+    private UserFolderSnapshotFileEntryRepository userFolderSnapshotFileEntryRepository;
+    private UserFileRepository userFileRepository;
+    private UserFolderRepository userFolderRepository;
+    private BucketRebalanceServiceImpl rebalanceService;
+
+    @BeforeEach
+    void setUp() {
+        buckets.put(SOURCE, new ArrayList<>());
+        buckets.put(TARGET, new ArrayList<>());
+        multipartUploads.put(SOURCE, new CopyOnWriteArrayList<>());
+        multipartUploads.put(TARGET, new CopyOnWriteArrayList<>());
+        s3Client = fakeS3Client();
+
+        bucketResolver = mock(BucketResolver.class);
+        when(bucketResolver.ringBucketFor(SHARD)).thenReturn(TARGET);
+
+        placement = BucketPlacement.builder().shardKey(SHARD).bucketName(SOURCE).build();
+        BucketPlacementRepository bucketPlacementRepository = mock(BucketPlacementRepository.class);
+        when(bucketPlacementRepository.findAll(any(Pageable.class))).thenReturn(new PageImpl<>(List.of(placement)));
+        when(bucketPlacementRepository.findById(SHARD)).thenReturn(Optional.of(placement));
+
+        BucketProperties bucketProperties = new BucketProperties();
+        bucketProperties.setCatchUpDelay(Duration.ZERO);
+        bucketProperties.setPlacementCacheTtl(Duration.ZERO);
+
+        uploadSessionRepository = mock(UploadSessionRepository.class);
+        fileBlobRepository = mock(FileBlobRepository.class);
+        packObjectRepository = mock(PackObjectRepository.class);
+        userFolderSnapshotRepository = mock(UserFolderSnapshotRepository.class);
+        userFolderSnapshotFileEntryRepository = mock(UserFolderSnapshotFileEntryRepository.class);
+        userFileRepository = mock(UserFileRepository.class);
+        userFolderRepository = mock(UserFolderRepository.class);
+        rebalanceService = new BucketRebalanceServiceImpl(s3Client, bucketResolver, bucketProperties,
+                bucketPlacementRepository,
+                uploadSessionRepository,
+                fileBlobRepository,
+                packObjectRepository,
+                userFolderSnapshotRepository,
+                userFolderSnapshotFileEntryRepository,
+                userFileRepository,
+                userFolderRepository,
+                new NoOpTransactionManager());
+    }
+
+    @Test
+    void everyVersionIdHeldInTheDatabaseIsRemapped() {
+        write(SOURCE, "/alice/a.txt", "v1", 1, false);
+        write(SOURCE, "/alice/a.txt", "v2", 2, false);
+        write(SOURCE, "/alice/folder/", "f1", 1, false);
+        write(SOURCE, "/alice/b.txt", "b1", 1, false);
+        write(SOURCE, "/alice/b.txt", "m1", 2, true);
+
+        rebalanceService.rebalance();
+
+        for (StoredVersion copied : buckets.get(TARGET)) {
+            String sourceVersionId = copied.sourceVersionId();
+            verify(fileBlobRepository).remapVersionId(copied.key(), sourceVersionId, copied.versionId());
+            verify(packObjectRepository).remapVersionId(copied.key(), sourceVersionId, copied.versionId());
+            verify(userFolderSnapshotRepository).remapVersionId(copied.key(), sourceVersionId, copied.versionId());
+            verify(userFolderSnapshotFileEntryRepository).remapVersionId(copied.key(), sourceVersionId, copied.versionId());
+            verify(userFileRepository).remapVersionId(copied.key(), sourceVersionId, copied.versionId());
+            verify(userFolderRepository).remapVersionId(copied.key(), sourceVersionId, copied.versionId());
+        }
+        assertEquals(5, buckets.get(TARGET).size());
+    }
+
+    @Test
+    void theShardMovesToItsRingBucketAndLeavesNothingBehind() {
+        write(SOURCE, "/alice/a.txt", "v1", 1, false);
+        write(SOURCE, "/alice/b.txt", "b1", 1, false);
+        write(SOURCE, "/alice/b.txt", "m1", 2, true);
+
+        rebalanceService.rebalance();
+
+        assertEquals(TARGET, placement.getBucketName());
+        verify(bucketResolver).updatePlacement(SHARD, TARGET);
+        assertTrue(buckets.get(SOURCE).isEmpty());
+        StoredVersion latestOfB = buckets.get(TARGET).stream().filter(version -> version.key().equals("/alice/b.txt")).toList().getLast();
+        assertTrue(latestOfB.deleteMarker(), "The delete marker must stay the latest version of its key");
+    }
+
+    @Test
+    void versionsAreReplayedOldestFirst() {
+        write(SOURCE, "/alice/a.txt", "v2", 2, false);
+        write(SOURCE, "/alice/a.txt", "v3", 3, false);
+        write(SOURCE, "/alice/a.txt", "v1", 1, false);
+
+        rebalanceService.rebalance();
+
+        InOrder copies = inOrder(s3Client);
+        for (String versionId : List.of("v1", "v2", "v3")) {
+            copies.verify(s3Client).copyObject(argThat((CopyObjectRequest request) -> versionId.equals(request.sourceVersionId())));
+        }
+    }
+
+    @Test
+    void writesThatLandedInTheOldBucketDuringTheMoveAreCaughtUp() {
+        write(SOURCE, "/alice/a.txt", "v1", 1, false);
+        //An instance that still resolved the old bucket writes to it right after the placement flipped
+        doAnswer(invocation -> {
+            write(SOURCE, "/alice/a.txt", "v2", 2, false);
+            return null;
+        }).when(bucketResolver).updatePlacement(SHARD, TARGET);
+
+        rebalanceService.rebalance();
+
+        StoredVersion caughtUp = buckets.get(TARGET).stream().filter(version -> "v2".equals(version.sourceVersionId())).findFirst().orElseThrow();
+        verify(userFileRepository).remapVersionId("/alice/a.txt", "v2", caughtUp.versionId());
+        verify(s3Client).copyObject(argThat((CopyObjectRequest request) -> "v1".equals(request.sourceVersionId())));
+        assertEquals(2, buckets.get(TARGET).size());
+        assertTrue(buckets.get(SOURCE).isEmpty());
+    }
+
+    @Test
+    void aFailedMoveKeepsThePlacementAndDropsThePartialCopy() {
+        write(SOURCE, "/alice/a.txt", "v1", 1, false);
+        write(SOURCE, "/alice/a.txt", "v2", 2, false);
+        when(s3Client.copyObject(argThat((CopyObjectRequest request) -> request != null && "v2".equals(request.sourceVersionId()))))
+                .thenThrow(S3Exception.builder().message("copy failed").build());
+
+        rebalanceService.rebalance();
+
+        assertEquals(SOURCE, placement.getBucketName());
+        verify(bucketResolver, never()).updatePlacement(anyString(), anyString());
+        verify(userFileRepository, never()).remapVersionId(anyString(), anyString(), anyString());
+        assertTrue(buckets.get(TARGET).isEmpty());
+        assertEquals(2, buckets.get(SOURCE).size());
+    }
+
+    @Test
+    void shardsWithAnActiveMultipartUploadAreSkipped() {
+        write(SOURCE, "/alice/a.txt", "v1", 1, false);
+        when(uploadSessionRepository.existsByStatusAndS3KeyStartingWith(UploadSessionStatus.ACTIVE, SHARD)).thenReturn(true);
+
+        rebalanceService.rebalance();
+
+        assertEquals(SOURCE, placement.getBucketName());
+        assertTrue(buckets.get(TARGET).isEmpty());
+        verify(s3Client, never()).copyObject(any(CopyObjectRequest.class));
+    }
+
+    @Test
+    void shardsWithAMultipartUploadInTheirBucketAreSkipped() {
+        write(SOURCE, "/alice/a.txt", "v1", 1, false);
+        //A streamed upload has no session, only S3 knows about it
+        multipartUploads.get(SOURCE).add("/alice/large.bin");
+
+        rebalanceService.rebalance();
+
+        assertEquals(SOURCE, placement.getBucketName());
+        verify(s3Client, never()).copyObject(any(CopyObjectRequest.class));
+        verify(s3Client).listMultipartUploads(argThat((ListMultipartUploadsRequest request) -> SOURCE.equals(request.bucket()) && SHARD.equals(request.prefix())));
+    }
+
+    @Test
+    void aMultipartUploadStartedWhileTheShardIsCopiedCancelsTheMove() {
+        write(SOURCE, "/alice/a.txt", "v1", 1, false);
+        afterCopy = () -> multipartUploads.get(SOURCE).add("/alice/large.bin");
+
+        rebalanceService.rebalance();
+
+        assertEquals(SOURCE, placement.getBucketName());
+        verify(bucketResolver, never()).updatePlacement(anyString(), anyString());
+        assertTrue(buckets.get(TARGET).isEmpty());
+        assertEquals(1, buckets.get(SOURCE).size());
+    }
+
+    @Test
+    void uploadsStillRunningInTheOldBucketAfterTheFlipAreCaughtUpOnceTheyComplete() {
+        write(SOURCE, "/alice/a.txt", "v1", 1, false);
+        //An instance that still resolved the old bucket starts an upload there, it completes during the first drain round
+        doAnswer(invocation -> {
+            multipartUploads.get(SOURCE).add("/alice/large.bin");
+            return null;
+        }).when(bucketResolver).updatePlacement(SHARD, TARGET);
+        afterUploadsListed = () -> {
+            if (multipartUploads.get(SOURCE).remove("/alice/large.bin")) {
+                write(SOURCE, "/alice/large.bin", "l1", 2, false);
+            }
+        };
+
+        rebalanceService.rebalance();
+
+        StoredVersion caughtUp = buckets.get(TARGET).stream().filter(version -> "l1".equals(version.sourceVersionId())).findFirst().orElseThrow();
+        verify(userFileRepository).remapVersionId("/alice/large.bin", "l1", caughtUp.versionId());
+        assertTrue(buckets.get(SOURCE).isEmpty());
+    }
+
+    @Test
+    void theOldVersionsAreKeptWhileUploadsKeepRunningInTheOldBucket() {
+        write(SOURCE, "/alice/a.txt", "v1", 1, false);
+        doAnswer(invocation -> {
+            multipartUploads.get(SOURCE).add("/alice/large.bin");
+            return null;
+        }).when(bucketResolver).updatePlacement(SHARD, TARGET);
+
+        rebalanceService.rebalance();
+
+        assertEquals(TARGET, placement.getBucketName());
+        assertEquals(1, buckets.get(SOURCE).size(), "The old versions must be kept for the upload still running");
+    }
+
+    @Test
+    void shardsAlreadyInTheirRingBucketAreLeftAlone() {
+        write(SOURCE, "/alice/a.txt", "v1", 1, false);
+        when(bucketResolver.ringBucketFor(SHARD)).thenReturn(SOURCE);
+
+        rebalanceService.rebalance();
+
+        verify(s3Client, never()).copyObject(any(CopyObjectRequest.class));
+        verify(userFileRepository, never()).remapVersionId(anyString(), anyString(), anyString());
+    }
+
+    private void write(String bucket, String key, String versionId, int minute, boolean deleteMarker) {
+        buckets.get(bucket).add(new StoredVersion(key, versionId, T0.plusSeconds(60L * minute), deleteMarker, null));
+    }
+
+    private S3Client fakeS3Client() {
+        S3Client client = mock(S3Client.class);
+        when(client.listObjectVersionsPaginator(any(ListObjectVersionsRequest.class)))
+                .thenAnswer(invocation -> new ListObjectVersionsIterable(client, invocation.getArgument(0)));
+        when(client.listObjectVersions(any(ListObjectVersionsRequest.class))).thenAnswer(invocation -> {
+            ListObjectVersionsRequest request = invocation.getArgument(0);
+            List<StoredVersion> versions = buckets.get(request.bucket()).stream().filter(version -> version.key().startsWith(request.prefix())).toList();
+            return ListObjectVersionsResponse.builder()
+                    .isTruncated(false)
+                    .versions(versions.stream().filter(version -> !version.deleteMarker()).map(version -> ObjectVersion.builder()
+                            .key(version.key())
+                            .versionId(version.versionId())
+                            .lastModified(version.lastModified())
+                            .isLatest(isLatest(request.bucket(), version))
+                            .build()).toList())
+                    .deleteMarkers(versions.stream().filter(StoredVersion::deleteMarker).map(version -> DeleteMarkerEntry.builder()
+                            .key(version.key())
+                            .versionId(version.versionId())
+                            .lastModified(version.lastModified())
+                            .isLatest(isLatest(request.bucket(), version))
+                            .build()).toList())
+                    .build();
+        });
+        when(client.listMultipartUploads(any(ListMultipartUploadsRequest.class))).thenAnswer(invocation -> {
+            ListMultipartUploadsRequest request = invocation.getArgument(0);
+            ListMultipartUploadsResponse response = ListMultipartUploadsResponse.builder()
+                    .uploads(multipartUploads.get(request.bucket()).stream()
+                            .filter(key -> key.startsWith(request.prefix()))
+                            .map(key -> MultipartUpload.builder().key(key).uploadId("upload-" + key).build())
+                            .toList())
+                    .build();
+            afterUploadsListed.run();
+            return response;
+        });
+        when(client.copyObject(any(CopyObjectRequest.class))).thenAnswer(invocation -> {
+            CopyObjectRequest request = invocation.getArgument(0);
+            String versionId = "copy-" + versionSequence.incrementAndGet();
+            buckets.get(request.destinationBucket()).add(new StoredVersion(request.destinationKey(), versionId, Instant.now(), false, request.sourceVersionId()));
+            afterCopy.run();
+            return CopyObjectResponse.builder().versionId(versionId).build();
+        });
+        when(client.deleteObject(any(DeleteObjectRequest.class))).thenAnswer(invocation -> {
+            DeleteObjectRequest request = invocation.getArgument(0);
+            String versionId = "marker-" + versionSequence.incrementAndGet();
+            //Only the rebalancer puts markers, always while replaying the source's marker of the same key
+            String sourceVersionId = buckets.get(SOURCE).stream()
+                    .filter(version -> version.deleteMarker() && version.key().equals(request.key()))
+                    .map(StoredVersion::versionId)
+                    .findFirst()
+                    .orElse(null);
+            buckets.get(request.bucket()).add(new StoredVersion(request.key(), versionId, Instant.now(), true, sourceVersionId));
+            return DeleteObjectResponse.builder().versionId(versionId).deleteMarker(true).build();
+        });
+        when(client.deleteObjects(any(DeleteObjectsRequest.class))).thenAnswer(invocation -> {
+            DeleteObjectsRequest request = invocation.getArgument(0);
+            for (ObjectIdentifier identifier : request.delete().objects()) {
+                buckets.get(request.bucket()).removeIf(version -> version.key().equals(identifier.key()) && version.versionId().equals(identifier.versionId()));
+            }
+            return DeleteObjectsResponse.builder().build();
+        });
+        return client;
+    }
+
+    private boolean isLatest(String bucket, StoredVersion version) {
+        return buckets.get(bucket).stream()
+                .filter(other -> other.key().equals(version.key()))
+                .max((first, second) -> first.lastModified().compareTo(second.lastModified()))
+                .map(latest -> latest == version)
+                .orElse(false);
+    }
+
+    //The source version ID is only known for versions the rebalancer wrote to the target
+    private record StoredVersion(String key, String versionId, Instant lastModified, boolean deleteMarker, String sourceVersionId) {
+    }
+
+    //Runs the rebalancer's transactions with synchronization, so placements are only published after a commit
+    private static final class NoOpTransactionManager extends AbstractPlatformTransactionManager {
+        @Override
+        protected Object doGetTransaction() {
+            return new Object();
+        }
+
+        @Override
+        protected void doBegin(Object transaction, TransactionDefinition definition) {
+        }
+
+        @Override
+        protected void doCommit(DefaultTransactionStatus status) {
+        }
+
+        @Override
+        protected void doRollback(DefaultTransactionStatus status) {
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.victor.filestorageapi.service.aws.impl;
+
+import com.victor.filestorageapi.config.CompressionProperties;
+import com.victor.filestorageapi.controlleradvice.GlobalExceptionHandler;
+import com.victor.filestorageapi.exception.InvalidRangeException;
+import com.victor.filestorageapi.models.StoredObject;
+import com.victor.filestorageapi.models.dtos.ApiError;
+import com.victor.filestorageapi.models.entities.User;
+import com.victor.filestorageapi.models.entities.UserFile;
+import com.victor.filestorageapi.service.aws.ObjectCacheService;
+import com.victor.filestorageapi.service.aws.PresignedUrlService;
+import com.victor.filestorageapi.service.file.UserFileQueryService;
+import com.victor.filestorageapi.service.user.UserQueryService;
+import com.victor.filestorageapi.service.utils.InMemoryObjectStore;
+import com.victor.filestorageapi.service.utils.S3Utils;
+import com.victor.filestorageapi.service.utils.StorageCodecResolver;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class FileDownloadServiceImplTest {
+
+    private static final String CONTENT = "0123456789";
+    private static final String S3_KEY = "/alice/folder/digits.bin";
+
+    private FileDownloadServiceImpl downloadService;
+    private User user;
+    private UserFile userFile;
+
+    @SuppressWarnings("unchecked")
+    @BeforeEach
+    void setUp() {
+        InMemoryObjectStore store = new InMemoryObjectStore();
+        S3Utils s3Utils = new S3Utils();
+        StorageCodecResolver storageCodecResolver = new StorageCodecResolver(new CompressionProperties());
+        InMemoryStorageService storageService = new InMemoryStorageService(store, s3Utils, storageCodecResolver);
+
+        user = new User();
+        user.setId(UUID.randomUUID());
+        user.setUsername("alice");
+        StoredObject stored = storageService.uploadFile(user, S3_KEY, "application/octet-stream",
+                new ByteArrayInputStream(CONTENT.getBytes(StandardCharsets.UTF_8)));
+        userFile = UserFile.builder()
+                .id(UUID.randomUUID())
+                .fileName("digits.bin")
+                .fileType("application/octet-stream")
+                .filePath(S3_KEY)
+                .currentVersion(stored.versionId())
+                .fileSize(stored.size())
+                .user(user)
+                .build();
+
+        UserQueryService userQueryService = mock(UserQueryService.class);
+        when(userQueryService.findUserById(user.getId())).thenReturn(user);
+        UserFileQueryService userFileQueryService = mock(UserFileQueryService.class);
+        when(userFileQueryService.findActiveFile(user, userFile.getId())).thenReturn(userFile);
+        ObjectCacheService objectCacheService = mock(ObjectCacheService.class);
+        when(objectCacheService.findCachedObject(anyString(), anyString())).thenReturn(Optional.empty());
+        when(objectCacheService.openFillingStream(anyString(), anyString(), anyLong()))
+                .thenAnswer(invocation -> storageService.openObjectStream(invocation.getArgument(0), invocation.getArgument(1), null));
+
+        downloadService = new FileDownloadServiceImpl(userQueryService,
+                userFileQueryService,
+                (ObjectProvider<PresignedUrlService>) mock(ObjectProvider.class),
+                storageService,
+                new InMemoryQueryService(store),
+                s3Utils,
+                storageCodecResolver,
+                objectCacheService);
+    }
+
+    @Test
+    void noRangeSendsTheWholeFile() throws Exception {
+        MockHttpServletResponse response = stream(null);
+
+        assertEquals(200, response.getStatus());
+        assertEquals(CONTENT, response.getContentAsString());
+        assertEquals(CONTENT.length(), response.getContentLengthLong());
+        assertEquals("bytes", response.getHeader(HttpHeaders.ACCEPT_RANGES));
+    }
+
+    @Test
+    void oneRangeSendsThePartialContent() throws Exception {
+        MockHttpServletResponse response = stream("bytes=2-5");
+
+        assertEquals(206, response.getStatus());
+        assertEquals("2345", response.getContentAsString());
+        assertEquals("bytes 2-5/10", response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals(4, response.getContentLengthLong());
+    }
+
+    @Test
+    void suffixAndOpenEndedRangesAreResolvedAgainstTheFileSize() throws Exception {
+        assertEquals("789", stream("bytes=-3").getContentAsString());
+        assertEquals("6789", stream("bytes=6-").getContentAsString());
+        assertEquals("89", stream("bytes=8-100").getContentAsString());
+    }
+
+    @Test
+    void severalRangesAreSentAsMultipartByteranges() throws Exception {
+        MockHttpServletResponse response = stream("bytes=0-1, 7-9");
+
+        assertEquals(206, response.getStatus());
+        assertTrue(response.getContentType().startsWith("multipart/byteranges; boundary="));
+        String boundary = response.getContentType().substring(response.getContentType().indexOf("boundary=") + "boundary=".length());
+        String expected = "\r\n--" + boundary + "\r\n"
+                + "Content-Type: application/octet-stream\r\n"
+                + "Content-Range: bytes 0-1/10\r\n\r\n"
+                + "01"
+                + "\r\n--" + boundary + "\r\n"
+                + "Content-Type: application/octet-stream\r\n"
+                + "Content-Range: bytes 7-9/10\r\n\r\n"
+                + "789"
+                + "\r\n--" + boundary + "--\r\n";
+        assertEquals(expected, response.getContentAsString());
+    }
+
+    @Test
+    void unsatisfiableRangesAreDroppedFromSeveralRanges() throws Exception {
+        MockHttpServletResponse response = stream("bytes=3-4, 20-30");
+
+        assertEquals(206, response.getStatus());
+        assertEquals("34", response.getContentAsString());
+        assertEquals("bytes 3-4/10", response.getHeader(HttpHeaders.CONTENT_RANGE));
+    }
+
+    @Test
+    void rangesThatCanNotBeSatisfiedAreRejected() {
+        assertThrows(InvalidRangeException.class, () -> stream("bytes=10-20"));
+        assertThrows(InvalidRangeException.class, () -> stream("bytes=20-30, 40-"));
+    }
+
+    @Test
+    void rejectedRangesReportTheFileSize() {
+        InvalidRangeException e = assertThrows(InvalidRangeException.class, () -> stream("bytes=10-20"));
+
+        ResponseEntity<ApiError> response = new GlobalExceptionHandler().handleInvalidRangeException(e);
+        assertEquals(416, response.getStatusCode().value());
+        assertEquals("bytes */10", response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+        assertEquals(10, assertThrows(InvalidRangeException.class, () -> stream("bytes=abc")).getResourceSize());
+    }
+
+    @Test
+    void malformedRangesAreRejected() {
+        assertThrows(InvalidRangeException.class, () -> stream("bytes=5-2"));
+        assertThrows(InvalidRangeException.class, () -> stream("lines=1-2"));
+        assertThrows(InvalidRangeException.class, () -> stream("bytes=abc"));
+    }
+
+    @Test
+    void theObjectStoreResolvesRangesTheSameWay() {
+        S3Utils s3Utils = new S3Utils();
+
+        assertArrayEquals(new long[]{0, 9}, s3Utils.resolveRange(null, 10));
+        assertArrayEquals(new long[]{2, 5}, s3Utils.resolveRange("bytes=2-5", 10));
+        assertArrayEquals(new long[]{7, 9}, s3Utils.resolveRange("bytes=-3", 10));
+        assertArrayEquals(new long[]{0, 9}, s3Utils.resolveRange("bytes=-30", 10));
+        assertArrayEquals(new long[]{6, 9}, s3Utils.resolveRange("bytes=6-", 10));
+        assertArrayEquals(new long[]{8, 9}, s3Utils.resolveRange("bytes=8-100", 10));
+        assertThrows(IllegalArgumentException.class, () -> s3Utils.resolveRange("bytes=10-20", 10));
+    }
+
+    private MockHttpServletResponse stream(String rangeHeader) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        downloadService.streamFile(user.getId(), userFile.getId(), rangeHeader, null, response);
+        return response;
+    }
+}
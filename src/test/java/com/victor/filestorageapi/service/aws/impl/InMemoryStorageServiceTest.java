@@ -0,0 +1,177 @@
+package com.victor.filestorageapi.service.aws.impl;
+
+import com.victor.filestorageapi.config.CompressionProperties;
+import com.victor.filestorageapi.exception.MyCustomS3Exception;
+import com.victor.filestorageapi.models.StoredObject;
+import com.victor.filestorageapi.models.entities.User;
+import com.victor.filestorageapi.models.enums.StorageCodec;
+import com.victor.filestorageapi.service.utils.InMemoryObjectStore;
+import com.victor.filestorageapi.service.utils.S3Utils;
+import com.victor.filestorageapi.service.utils.StorageCodecResolver;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemoryStorageServiceTest {
+
+    private static final String FOLDER = "/alice/folder/";
+
+    private InMemoryStorageService storageService;
+    private InMemoryDeleteService deleteService;
+    private InMemoryQueryService queryService;
+    private S3Utils s3Utils;
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+        InMemoryObjectStore store = new InMemoryObjectStore();
+        s3Utils = new S3Utils();
+        storageService = new InMemoryStorageService(store, s3Utils, new StorageCodecResolver(new CompressionProperties()));
+        deleteService = new InMemoryDeleteService(store);
+        queryService = new InMemoryQueryService(store);
+
+        user = new User();
+        user.setId(UUID.randomUUID());
+        user.setUsername("alice");
+    }
+
+    @Test
+    void uploadingAKeyAgainAddsANewLatestVersion() throws Exception {
+        StoredObject first = upload(FOLDER + "a.bin", "application/octet-stream", "first");
+        StoredObject second = upload(FOLDER + "a.bin", "application/octet-stream", "second");
+
+        assertNotEquals(first.versionId(), second.versionId());
+        assertEquals(second.versionId(), queryService.getObjectVersionId(FOLDER + "a.bin"));
+        assertEquals("second", read(FOLDER + "a.bin", null, null));
+        assertEquals("first", read(FOLDER + "a.bin", first.versionId(), null));
+    }
+
+    @Test
+    void uploadedObjectsAreOwnedByTheUploader() {
+        upload(FOLDER + "a.bin", "application/octet-stream", "content");
+
+        HeadObjectResponse head = queryService.headObjectVersion(FOLDER + "a.bin", null);
+        assertTrue(s3Utils.isOwnedBy(head.metadata(), user));
+    }
+
+    @Test
+    void compressibleUploadsRecordTheCodecAndTheOriginalSize() throws Exception {
+        String content = "line of a log file\n".repeat(1_000);
+        StoredObject stored = upload(FOLDER + "app.log", "text/plain", content);
+
+        HeadObjectResponse head = queryService.headObjectVersion(FOLDER + "app.log", stored.versionId());
+        assertEquals(StorageCodec.DEFLATE, s3Utils.readCodec(head.metadata()));
+        assertTrue(head.contentLength() < content.length());
+        assertEquals(content.length(), stored.size());
+        assertEquals(content.length(), s3Utils.readOriginalSize(head.metadata(), head.contentLength()));
+
+        try (ResponseInputStream<GetObjectResponse> objectStream = storageService.openObjectStream(FOLDER + "app.log", null, null)) {
+            assertEquals(content, new String(StorageCodec.DEFLATE.decode(objectStream).readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void rangedReadsReturnTheSliceAndItsContentRange() throws Exception {
+        upload(FOLDER + "a.bin", "application/octet-stream", "0123456789");
+
+        try (ResponseInputStream<GetObjectResponse> objectStream = storageService.openObjectStream(FOLDER + "a.bin", null, "bytes=2-5")) {
+            assertEquals("2345", new String(objectStream.readAllBytes(), StandardCharsets.UTF_8));
+            assertEquals("bytes 2-5/10", objectStream.response().contentRange());
+            assertEquals(4L, objectStream.response().contentLength());
+        }
+        assertEquals("789", read(FOLDER + "a.bin", null, "bytes=-3"));
+    }
+
+    @Test
+    void listingsOnlyHoldLiveObjectsUnderThePrefixInKeyOrder() {
+        upload(FOLDER + "b.bin", "application/octet-stream", "b");
+        upload(FOLDER + "a.bin", "application/octet-stream", "a");
+        upload(FOLDER + "sub/c.bin", "application/octet-stream", "c");
+        upload("/alice/other/d.bin", "application/octet-stream", "d");
+        deleteService.softDeleteObject(FOLDER + "b.bin");
+
+        List<String> keys = storageService.listS3ObjectsByPrefix(FOLDER).stream().map(S3Object::key).toList();
+        assertEquals(List.of(FOLDER + "a.bin", FOLDER + "sub/c.bin"), keys);
+        try (var stream = storageService.streamS3ObjectsByPrefix(FOLDER)) {
+            assertEquals(keys, stream.map(S3Object::key).toList());
+        }
+    }
+
+    @Test
+    void copiesKeepTheSourceVersionAndLeaveTheSourceInPlace() throws Exception {
+        StoredObject source = upload(FOLDER + "a.bin", "application/octet-stream", "content");
+
+        String copyVersionId = storageService.copyS3ObjectVersion("/alice/moved/a.bin", FOLDER + "a.bin", source.versionId(), null);
+
+        assertEquals(copyVersionId, queryService.getObjectVersionId("/alice/moved/a.bin"));
+        assertEquals("content", read("/alice/moved/a.bin", null, null));
+        assertEquals("content", read(FOLDER + "a.bin", null, null));
+    }
+
+    @Test
+    void copyingAMissingSourceFails() {
+        assertThrows(MyCustomS3Exception.class, () -> storageService.copyS3ObjectVersion(FOLDER + "b.bin", FOLDER + "missing.bin", null, null));
+    }
+
+    @Test
+    void deleteMarkersHideObjectsUntilAnOlderVersionIsRestored() throws Exception {
+        StoredObject stored = upload(FOLDER + "a.bin", "application/octet-stream", "content");
+        upload(FOLDER + "sub/b.bin", "application/octet-stream", "other");
+
+        Map<String, String> deleteMarkers = deleteService.putDeleteMarkersOnAllObjectsUnderPrefix(FOLDER);
+
+        assertEquals(2, deleteMarkers.size());
+        assertTrue(storageService.listS3ObjectsByPrefix(FOLDER).isEmpty());
+        assertNull(queryService.headObjectVersion(FOLDER + "a.bin", null));
+
+        String restoredVersionId = storageService.retrieveVersionedObject(FOLDER + "a.bin", stored.versionId());
+
+        assertNotEquals(stored.versionId(), restoredVersionId);
+        assertEquals(List.of(FOLDER + "a.bin"), storageService.listS3ObjectsByPrefix(FOLDER).stream().map(S3Object::key).toList());
+        assertEquals("content", read(FOLDER + "a.bin", null, null));
+    }
+
+    @Test
+    void deletingAFileKeepsItsVersionsBehindADeleteMarker() throws Exception {
+        StoredObject stored = upload(FOLDER + "a.bin", "application/octet-stream", "content");
+
+        storageService.deleteFile(FOLDER + "a.bin");
+
+        assertNull(queryService.headObjectVersion(FOLDER + "a.bin", null));
+        assertTrue(storageService.listS3ObjectsByPrefix(FOLDER).isEmpty());
+        assertEquals("content", read(FOLDER + "a.bin", stored.versionId(), null));
+    }
+
+    @Test
+    void permanentlyDeletedVersionsCanNoLongerBeRead() {
+        StoredObject first = upload(FOLDER + "a.bin", "application/octet-stream", "first");
+        upload(FOLDER + "a.bin", "application/octet-stream", "second");
+
+        deleteService.permanentDeleteObjectVersion(FOLDER + "a.bin", first.versionId());
+
+        assertNull(queryService.headObjectVersion(FOLDER + "a.bin", first.versionId()));
+        assertThrows(MyCustomS3Exception.class, () -> storageService.openObjectStream(FOLDER + "a.bin", first.versionId(), null));
+        assertNotNull(queryService.headObjectVersion(FOLDER + "a.bin", null));
+    }
+
+    private StoredObject upload(String s3Key, String contentType, String content) {
+        return storageService.uploadFile(user, s3Key, contentType, new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private String read(String s3Key, String versionId, String range) throws Exception {
+        try (ResponseInputStream<GetObjectResponse> objectStream = storageService.openObjectStream(s3Key, versionId, range)) {
+            return new String(objectStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
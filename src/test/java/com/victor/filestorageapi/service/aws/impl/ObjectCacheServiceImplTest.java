@@ -0,0 +1,370 @@
+package com.victor.filestorageapi.service.aws.impl;
+
+import com.victor.filestorageapi.config.CacheProperties;
+import com.victor.filestorageapi.config.CompressionProperties;
+import com.victor.filestorageapi.models.CachedObject;
+import com.victor.filestorageapi.models.StoredObject;
+import com.victor.filestorageapi.models.entities.User;
+import com.victor.filestorageapi.service.utils.InMemoryObjectStore;
+import com.victor.filestorageapi.service.utils.S3Utils;
+import com.victor.filestorageapi.service.utils.StorageCodecResolver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class ObjectCacheServiceImplTest {
+
+    @TempDir
+    Path directory;
+
+    private InMemoryStorageService storageService;
+    private CacheProperties cacheProperties;
+    private ObjectCacheServiceImpl cacheService;
+    private ExecutorService fillExecutor;
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+        storageService = spy(new InMemoryStorageService(new InMemoryObjectStore(), new S3Utils(), new StorageCodecResolver(new CompressionProperties())));
+        cacheProperties = new CacheProperties();
+        cacheProperties.setDirectory(directory);
+        cacheProperties.setMaxSize(DataSize.ofBytes(25));
+        cacheProperties.setMaxObjectSize(DataSize.ofBytes(20));
+        fillExecutor = Executors.newFixedThreadPool(2);
+        cacheService = new ObjectCacheServiceImpl(storageService, cacheProperties, fillExecutor);
+        cacheService.initializeCacheDirectory();
+
+        user = new User();
+        user.setId(UUID.randomUUID());
+        user.setUsername("alice");
+    }
+
+    @AfterEach
+    void tearDown() {
+        fillExecutor.shutdownNow();
+        cacheService.deleteCacheDirectory();
+    }
+
+    @Test
+    void aMissIsFetchedOnceAndThenServedFromDisk() throws Exception {
+        StoredObject stored = upload("/alice/a.bin", "0123456789");
+
+        assertEquals("0123456789", readThrough(stored));
+        assertEquals("0123456789", readThrough(stored));
+
+        verify(storageService, times(1)).openObjectStream(stored.s3Key(), stored.versionId(), null);
+    }
+
+    @Test
+    void concurrentMissesShareOneFill() throws Exception {
+        StoredObject stored = upload("/alice/a.bin", "0123456789");
+        CountDownLatch fillStarted = new CountDownLatch(1);
+        CountDownLatch releaseFill = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            fillStarted.countDown();
+            assertTrue(releaseFill.await(10, TimeUnit.SECONDS));
+            return invocation.callRealMethod();
+        }).when(storageService).openObjectStream(anyString(), anyString(), isNull());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> reads = new ArrayList<>();
+            reads.add(executor.submit(() -> readThrough(stored)));
+            assertTrue(fillStarted.await(10, TimeUnit.SECONDS));
+            for (int i = 0; i < 3; i++) {
+                reads.add(executor.submit(() -> readThrough(stored)));
+            }
+            releaseFill.countDown();
+
+            for (Future<String> read : reads) {
+                assertEquals("0123456789", read.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        verify(storageService, times(1)).openObjectStream(stored.s3Key(), stored.versionId(), null);
+    }
+
+    @Test
+    void theLeastRecentlyReadObjectIsEvictedFirst() throws Exception {
+        StoredObject a = upload("/alice/a.bin", "aaaaaaaaaa");
+        StoredObject b = upload("/alice/b.bin", "bbbbbbbbbb");
+        StoredObject c = upload("/alice/c.bin", "cccccccccc");
+
+        readThrough(a);
+        readThrough(b);
+        readThrough(a);
+        readThrough(c);
+
+        assertTrue(isCached(a));
+        assertFalse(isCached(b));
+        assertTrue(isCached(c));
+        assertEquals(2, cachedFileCount());
+    }
+
+    @Test
+    void anEvictedObjectStaysReadableThroughAnOpenChannel() throws Exception {
+        StoredObject a = upload("/alice/a.bin", "aaaaaaaaaa");
+        StoredObject b = upload("/alice/b.bin", "bbbbbbbbbb");
+        StoredObject c = upload("/alice/c.bin", "cccccccccc");
+
+        try (CachedObject cached = cacheService.readThrough(a.s3Key(), a.versionId(), a.size()).orElseThrow()) {
+            readThrough(b);
+            readThrough(c);
+
+            assertFalse(isCached(a));
+            assertEquals("aaaaaaaaaa", read(cached));
+        }
+    }
+
+    @Test
+    void objectsTooLargeOrWithoutAVersionAreNotCached() throws Exception {
+        StoredObject large = upload("/alice/large.bin", "x".repeat(21));
+        StoredObject small = upload("/alice/small.bin", "0123456789");
+
+        assertTrue(cacheService.readThrough(large.s3Key(), large.versionId(), large.size()).isEmpty());
+        assertTrue(cacheService.readThrough(small.s3Key(), null, small.size()).isEmpty());
+        try (ResponseInputStream<GetObjectResponse> objectStream = cacheService.openFillingStream(large.s3Key(), large.versionId(), large.size())) {
+            objectStream.readAllBytes();
+        }
+
+        assertEquals(0, cachedFileCount());
+    }
+
+    @Test
+    void aFillingStreamCachesTheObjectOnceItWasReadWhole() throws Exception {
+        StoredObject stored = upload("/alice/a.bin", "0123456789");
+
+        try (ResponseInputStream<GetObjectResponse> objectStream = cacheService.openFillingStream(stored.s3Key(), stored.versionId(), stored.size())) {
+            assertEquals("0123456789", new String(objectStream.readAllBytes(), StandardCharsets.UTF_8));
+            assertEquals(10L, objectStream.response().contentLength());
+        }
+
+        try (CachedObject cached = cacheService.findCachedObject(stored.s3Key(), stored.versionId()).orElseThrow()) {
+            assertEquals("0123456789", read(cached));
+        }
+        try (ResponseInputStream<GetObjectResponse> objectStream = cacheService.openFillingStream(stored.s3Key(), stored.versionId(), stored.size())) {
+            assertEquals("0123456789", new String(objectStream.readAllBytes(), StandardCharsets.UTF_8));
+            assertEquals(10L, objectStream.response().contentLength());
+        }
+        verify(storageService, times(1)).openObjectStream(stored.s3Key(), stored.versionId(), null);
+    }
+
+    @Test
+    void aFillingStreamServesBytesBeforeTheFillEnds() throws Exception {
+        StoredObject stored = upload("/alice/a.bin", "0123456789");
+        CountDownLatch releaseRest = new CountDownLatch(1);
+        stubObjectStream(stored, () -> new SequenceInputStream(
+                new ByteArrayInputStream("0123".getBytes(StandardCharsets.UTF_8)),
+                new GatedInputStream(releaseRest, "456789")));
+
+        try (ResponseInputStream<GetObjectResponse> objectStream = cacheService.openFillingStream(stored.s3Key(), stored.versionId(), stored.size())) {
+            assertEquals("0123", new String(objectStream.readNBytes(4), StandardCharsets.UTF_8));
+            assertFalse(isCached(stored));
+
+            releaseRest.countDown();
+            assertEquals("456789", new String(objectStream.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        assertTrue(isCached(stored));
+    }
+
+    @Test
+    void aFillingStreamClosedEarlyStillFillsTheCache() throws Exception {
+        StoredObject stored = upload("/alice/a.bin", "0123456789");
+
+        try (ResponseInputStream<GetObjectResponse> objectStream = cacheService.openFillingStream(stored.s3Key(), stored.versionId(), stored.size())) {
+            assertEquals(4, objectStream.readNBytes(4).length);
+        }
+
+        //Joins the fill if it is still running
+        assertEquals("0123456789", readThrough(stored));
+        assertEquals(1, cachedFileCount());
+        verify(storageService, times(1)).openObjectStream(stored.s3Key(), stored.versionId(), null);
+    }
+
+    @Test
+    void concurrentFillingStreamsShareOneGet() throws Exception {
+        StoredObject stored = upload("/alice/a.bin", "0123456789");
+        CountDownLatch fillStarted = new CountDownLatch(1);
+        CountDownLatch releaseFill = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            fillStarted.countDown();
+            assertTrue(releaseFill.await(10, TimeUnit.SECONDS));
+            return invocation.callRealMethod();
+        }).when(storageService).openObjectStream(anyString(), anyString(), isNull());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> reads = new ArrayList<>();
+            reads.add(executor.submit(() -> readFillingStream(stored)));
+            assertTrue(fillStarted.await(10, TimeUnit.SECONDS));
+            for (int i = 0; i < 3; i++) {
+                reads.add(executor.submit(() -> readFillingStream(stored)));
+            }
+            releaseFill.countDown();
+
+            for (Future<String> read : reads) {
+                assertEquals("0123456789", read.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        verify(storageService, times(1)).openObjectStream(stored.s3Key(), stored.versionId(), null);
+        assertEquals(1, cachedFileCount());
+    }
+
+    @Test
+    void aFailedFillFailsItsReadersAndLeavesNothingBehind() throws Exception {
+        StoredObject stored = upload("/alice/a.bin", "0123456789");
+        stubObjectStream(stored, () -> new SequenceInputStream(
+                new ByteArrayInputStream("0123".getBytes(StandardCharsets.UTF_8)),
+                new InputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        throw new IOException("connection reset");
+                    }
+                }));
+
+        try (ResponseInputStream<GetObjectResponse> objectStream = cacheService.openFillingStream(stored.s3Key(), stored.versionId(), stored.size())) {
+            assertThrows(IOException.class, objectStream::readAllBytes);
+        }
+
+        assertFalse(isCached(stored));
+        try (Stream<Path> files = Files.list(cacheDirectory())) {
+            assertEquals(0, files.count(), "The partial fill file must be deleted");
+        }
+    }
+
+    @Test
+    void instancesSharingADirectoryOnlyDeleteTheirOwnFiles() throws Exception {
+        Path foreignFile = Files.writeString(directory.resolve("kept.txt"), "not ours");
+        ObjectCacheServiceImpl otherInstance = new ObjectCacheServiceImpl(storageService, cacheProperties, fillExecutor);
+        otherInstance.initializeCacheDirectory();
+        StoredObject stored = upload("/alice/a.bin", "0123456789");
+        readThrough(stored);
+        otherInstance.readThrough(stored.s3Key(), stored.versionId(), stored.size()).orElseThrow().close();
+
+        otherInstance.deleteCacheDirectory();
+
+        assertTrue(Files.exists(foreignFile));
+        assertTrue(isCached(stored));
+        assertEquals(1, cachedFileCount());
+    }
+
+    private StoredObject upload(String s3Key, String content) {
+        return storageService.uploadFile(user, s3Key, "application/octet-stream", new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private String readThrough(StoredObject stored) throws Exception {
+        Optional<CachedObject> cachedObject = cacheService.readThrough(stored.s3Key(), stored.versionId(), stored.size());
+        try (CachedObject cached = cachedObject.orElseThrow()) {
+            return read(cached);
+        }
+    }
+
+    private String readFillingStream(StoredObject stored) throws Exception {
+        try (ResponseInputStream<GetObjectResponse> objectStream = cacheService.openFillingStream(stored.s3Key(), stored.versionId(), stored.size())) {
+            return new String(objectStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    //Serves the object's bytes from the given stream, with the response S3 would send for it
+    private void stubObjectStream(StoredObject stored, Supplier<InputStream> content) {
+        doAnswer(invocation -> {
+            GetObjectResponse objectResponse = GetObjectResponse.builder().contentLength(stored.size()).eTag(stored.eTag()).build();
+            return new ResponseInputStream<>(objectResponse, AbortableInputStream.create(content.get()));
+        }).when(storageService).openObjectStream(stored.s3Key(), stored.versionId(), null);
+    }
+
+    private boolean isCached(StoredObject stored) throws Exception {
+        Optional<CachedObject> cachedObject = cacheService.findCachedObject(stored.s3Key(), stored.versionId());
+        if (cachedObject.isPresent()) {
+            cachedObject.get().close();
+        }
+        return cachedObject.isPresent();
+    }
+
+    private String read(CachedObject cached) throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(cached.size()));
+        while (buffer.hasRemaining()) {
+            assertTrue(cached.channel().read(buffer, buffer.position()) > 0, "The cached file ended early");
+        }
+        return new String(buffer.array(), StandardCharsets.UTF_8);
+    }
+
+    //Holds back its bytes until the latch is released
+    private static final class GatedInputStream extends InputStream {
+        private final CountDownLatch gate;
+        private final InputStream content;
+
+        private GatedInputStream(CountDownLatch gate, String content) {
+            this.gate = gate;
+            this.content = new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                if (!gate.await(10, TimeUnit.SECONDS)) {
+                    throw new IOException("The gate was never opened");
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            return content.read();
+        }
+    }
+
+    //Every instance caches into a subdirectory of the configured directory
+    private Path cacheDirectory() throws Exception {
+        try (Stream<Path> instanceDirectories = Files.list(directory)) {
+            return instanceDirectories.filter(Files::isDirectory).findFirst().orElseThrow();
+        }
+    }
+
+    private long cachedFileCount() throws Exception {
+        try (Stream<Path> instanceDirectories = Files.list(directory)) {
+            long count = 0;
+            for (Path instanceDirectory : instanceDirectories.filter(Files::isDirectory).toList()) {
+                try (Stream<Path> files = Files.list(instanceDirectory)) {
+                    count += files.filter(file -> file.toString().endsWith(".object")).count();
+                }
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.victor.filestorageapi.service.aws.impl;
+
+import com.victor.filestorageapi.exception.MyCustomS3Exception;
+import com.victor.filestorageapi.service.aws.BucketResolver;
+import com.victor.filestorageapi.service.aws.PrefixListingService;
+import com.victor.filestorageapi.service.aws.WriteVerifier;
+import com.victor.filestorageapi.service.utils.HeadObjectCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.DeletedObject;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ObjectDeleteServiceImplTest {
+
+    private S3Client s3Client;
+    private PrefixListingService prefixListingService;
+    private ObjectDeleteServiceImpl deleteService;
+    //What happened in order, a listed part or a sent batch with its size
+    private final List<String> events = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        s3Client = mock(S3Client.class);
+        when(s3Client.deleteObjects(any(DeleteObjectsRequest.class))).thenAnswer(invocation -> {
+            DeleteObjectsRequest request = invocation.getArgument(0);
+            events.add("batch " + request.delete().objects().size());
+            return DeleteObjectsResponse
+                    .builder()
+                    .deleted(request.delete().objects().stream()
+                            .map(object -> DeletedObject.builder().key(object.key()).deleteMarker(true).deleteMarkerVersionId("marker-" + object.key()).build())
+                            .toList())
+                    .build();
+        });
+        BucketResolver bucketResolver = mock(BucketResolver.class);
+        when(bucketResolver.resolve(anyString())).thenReturn("bucket");
+        prefixListingService = mock(PrefixListingService.class);
+        deleteService = new ObjectDeleteServiceImpl(s3Client, mock(WriteVerifier.class), bucketResolver, mock(HeadObjectCache.class), prefixListingService);
+    }
+
+    @Test
+    void listedPartsAreDeletedInFullBatchesBeforeTheListingFinishes() {
+        handOver(part(0, 700), part(700, 700), part(1400, 100));
+
+        Map<String, String> deleteMarkers = deleteService.putDeleteMarkersOnAllObjectsUnderPrefix("p/");
+
+        assertEquals(1500, deleteMarkers.size());
+        assertEquals("marker-p/1499", deleteMarkers.get("p/1499"));
+        assertEquals(List.of("part 700", "part 700", "batch 1000", "part 100", "batch 500"), events);
+    }
+
+    @Test
+    void aFailedBatchStopsTheListing() {
+        handOver(part(0, 1000), part(1000, 10));
+        doAnswer(invocation -> {
+            events.add("batch failed");
+            throw S3Exception.builder().message("delete failed").statusCode(500).build();
+        }).when(s3Client).deleteObjects(any(DeleteObjectsRequest.class));
+
+        assertThrows(MyCustomS3Exception.class, () -> deleteService.putDeleteMarkersOnAllObjectsUnderPrefix("p/"));
+        assertEquals(List.of("part 1000", "batch failed"), events);
+    }
+
+    //Hands the parts over one after the other, like a listing whose sub-prefixes finish one by one
+    @SafeVarargs
+    private void handOver(List<S3Object>... parts) {
+        doAnswer(invocation -> {
+            Consumer<List<S3Object>> partConsumer = invocation.getArgument(1);
+            for (List<S3Object> part : parts) {
+                events.add("part " + part.size());
+                partConsumer.accept(part);
+            }
+            return null;
+        }).when(prefixListingService).forEachListedPart(eq("p/"), any());
+    }
+
+    private static List<S3Object> part(int from, int size) {
+        return IntStream.range(from, from + size).mapToObj(i -> S3Object.builder().key("p/" + i).build()).toList();
+    }
+}
@@ -0,0 +1,186 @@
+package com.victor.filestorageapi.service.aws.impl;
+
+import com.victor.filestorageapi.config.AsyncProperties;
+import com.victor.filestorageapi.config.ListingProperties;
+import com.victor.filestorageapi.exception.MyCustomS3Exception;
+import com.victor.filestorageapi.service.aws.BucketResolver;
+import com.victor.filestorageapi.service.utils.BoundedAsyncRunner;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CommonPrefix;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.paginators.ListObjectsV2Iterable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PrefixListingServiceImplTest {
+
+    private final NavigableSet<String> keys = new ConcurrentSkipListSet<>();
+    private S3Client s3Client;
+    private ExecutorService prefixListingExecutor;
+    private PrefixListingServiceImpl listingService;
+
+    //Pages of three keys, two sub-prefixes listed at a time
+    @BeforeEach
+    void setUp() {
+        s3Client = mock(S3Client.class);
+        when(s3Client.listObjectsV2(any(ListObjectsV2Request.class))).thenAnswer(invocation -> list(invocation.getArgument(0)));
+        when(s3Client.listObjectsV2Paginator(any(ListObjectsV2Request.class))).thenAnswer(invocation -> new ListObjectsV2Iterable(s3Client, invocation.getArgument(0)));
+        BucketResolver bucketResolver = mock(BucketResolver.class);
+        when(bucketResolver.resolve(anyString())).thenReturn("bucket");
+
+        ListingProperties listingProperties = new ListingProperties();
+        listingProperties.setPageSize(3);
+        listingProperties.setMaxParallelPrefixes(2);
+        prefixListingExecutor = Executors.newFixedThreadPool(4);
+        listingService = new PrefixListingServiceImpl(s3Client, bucketResolver, new BoundedAsyncRunner(new AsyncProperties()), listingProperties, prefixListingExecutor);
+    }
+
+    @AfterEach
+    void tearDown() {
+        prefixListingExecutor.shutdownNow();
+    }
+
+    @Test
+    void aFirstPageEndingInsideASubPrefixListsTheRestOfItOnce() {
+        keys.addAll(List.of("p/a/1", "p/a/2", "p/a/3", "p/a/4", "p/a/5", "p/b/1", "p/b/2"));
+
+        assertEquals(List.copyOf(keys), listedKeys("p/"));
+        assertEquals(List.copyOf(keys), partKeys("p/").stream().sorted().toList());
+    }
+
+    @Test
+    void objectsDirectlyUnderThePrefixAreMergedBetweenTheSubPrefixesInKeyOrder() {
+        keys.addAll(List.of("p/0.txt", "p/a/1", "p/a/2", "p/b.txt", "p/b/1", "p/b/2", "p/c.txt", "p/d/1", "p/e.txt", "q/other.txt"));
+
+        List<String> expected = keys.headSet("q/").stream().toList();
+        assertEquals(expected, listedKeys("p/"));
+        assertEquals(expected, partKeys("p/").stream().sorted().toList());
+    }
+
+    @Test
+    void aSubPrefixThatFailsToListFailsTheWholeListing() {
+        keys.addAll(List.of("p/a/1", "p/a/2", "p/a/3", "p/b/1", "p/c/1", "p/d/1"));
+        doAnswer(invocation -> {
+            ListObjectsV2Request request = invocation.getArgument(0);
+            if (request.prefix().equals("p/c/")) {
+                throw S3Exception.builder().message("listing failed").statusCode(500).build();
+            }
+            return list(request);
+        }).when(s3Client).listObjectsV2(any(ListObjectsV2Request.class));
+
+        assertThrows(MyCustomS3Exception.class, () -> listingService.listObjectsUnderPrefix("p/"));
+        List<String> handedOver = new ArrayList<>();
+        assertThrows(MyCustomS3Exception.class, () -> listingService.forEachListedPart("p/", part -> part.forEach(s3Object -> handedOver.add(s3Object.key()))));
+        assertFalse(handedOver.contains("p/c/1"));
+    }
+
+    @Test
+    void aSubPrefixEmptiedAfterItWasFoundIsSkipped() {
+        keys.addAll(List.of("p/a/1", "p/a/2", "p/a/3", "p/b/1", "p/b/2", "p/c/1"));
+        //The objects of p/b/ are deleted between the delimiter listing that finds it and its own listing
+        doAnswer(invocation -> {
+            ListObjectsV2Request request = invocation.getArgument(0);
+            ListObjectsV2Response response = list(request);
+            if (request.delimiter() != null) {
+                keys.removeIf(key -> key.startsWith("p/b/"));
+            }
+            return response;
+        }).when(s3Client).listObjectsV2(any(ListObjectsV2Request.class));
+
+        List<List<String>> parts = new ArrayList<>();
+        listingService.forEachListedPart("p/", part -> parts.add(part.stream().map(S3Object::key).toList()));
+
+        assertEquals(List.of("p/a/1", "p/a/2", "p/a/3", "p/c/1"), parts.stream().flatMap(List::stream).sorted().toList());
+        assertTrue(parts.stream().noneMatch(List::isEmpty), "An empty sub-prefix must not be handed over");
+    }
+
+    @Test
+    void partsAreHandedOverWhileOtherSubPrefixesAreStillListing() {
+        keys.addAll(List.of("p/a/1", "p/a/2", "p/a/3", "p/b/1", "p/c/1"));
+        //Listing p/c/ only finishes once a part of another sub-prefix has been handed over
+        CountDownLatch partHandedOver = new CountDownLatch(1);
+        AtomicBoolean waitedForThePart = new AtomicBoolean();
+        doAnswer(invocation -> {
+            ListObjectsV2Request request = invocation.getArgument(0);
+            if (request.prefix().equals("p/c/")) {
+                waitedForThePart.set(partHandedOver.await(5, TimeUnit.SECONDS));
+            }
+            return list(request);
+        }).when(s3Client).listObjectsV2(any(ListObjectsV2Request.class));
+
+        List<String> handedOver = new ArrayList<>();
+        listingService.forEachListedPart("p/", part -> {
+            part.forEach(s3Object -> handedOver.add(s3Object.key()));
+            if (part.getFirst().key().startsWith("p/b/")) {
+                partHandedOver.countDown();
+            }
+        });
+
+        assertTrue(waitedForThePart.get(), "p/b/ must be handed over before p/c/ has finished listing");
+        assertEquals(List.copyOf(keys), handedOver.stream().sorted().toList());
+    }
+
+    private List<String> listedKeys(String prefix) {
+        return listingService.listObjectsUnderPrefix(prefix).stream().map(S3Object::key).toList();
+    }
+
+    private List<String> partKeys(String prefix) {
+        List<String> handedOver = new ArrayList<>();
+        listingService.forEachListedPart(prefix, part -> part.forEach(s3Object -> handedOver.add(s3Object.key())));
+        return handedOver;
+    }
+
+    //Lists like S3 does: keys sharing a sub-prefix after the delimiter are rolled up into it, and a page resumes after
+    //the continuation token or the start-after key when that sorts after the prefix
+    private ListObjectsV2Response list(ListObjectsV2Request request) {
+        String prefix = request.prefix() == null ? "" : request.prefix();
+        String resumeAfter = request.continuationToken() != null ? request.continuationToken() : request.startAfter();
+        NavigableSet<String> tail = resumeAfter != null && resumeAfter.compareTo(prefix) >= 0 ? keys.tailSet(resumeAfter, false) : keys.tailSet(prefix, true);
+
+        List<S3Object> contents = new ArrayList<>();
+        List<CommonPrefix> commonPrefixes = new ArrayList<>();
+        String lastKey = null;
+        for (String key : tail) {
+            if (!key.startsWith(prefix)) {
+                break;
+            }
+            int delimiterIndex = request.delimiter() == null ? -1 : key.indexOf(request.delimiter(), prefix.length());
+            String commonPrefix = delimiterIndex < 0 ? null : key.substring(0, delimiterIndex + 1);
+            if (commonPrefix != null && !commonPrefixes.isEmpty() && commonPrefixes.getLast().prefix().equals(commonPrefix)) {
+                lastKey = key;
+                continue;
+            }
+            if (contents.size() + commonPrefixes.size() == request.maxKeys()) {
+                return ListObjectsV2Response.builder().contents(contents).commonPrefixes(commonPrefixes).isTruncated(true).nextContinuationToken(lastKey).build();
+            }
+            if (commonPrefix != null) {
+                commonPrefixes.add(CommonPrefix.builder().prefix(commonPrefix).build());
+            } else {
+                contents.add(S3Object.builder().key(key).build());
+            }
+            lastKey = key;
+        }
+        return ListObjectsV2Response.builder().contents(contents).commonPrefixes(commonPrefixes).isTruncated(false).build();
+    }
+}
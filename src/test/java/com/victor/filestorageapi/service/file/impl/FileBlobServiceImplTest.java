@@ -0,0 +1,298 @@
+package com.victor.filestorageapi.service.file.impl;
+
+import com.victor.filestorageapi.config.CompressionProperties;
+import com.victor.filestorageapi.config.DedupProperties;
+import com.victor.filestorageapi.config.PackProperties;
+import com.victor.filestorageapi.exception.UserFileUploadException;
+import com.victor.filestorageapi.models.PackSlice;
+import com.victor.filestorageapi.models.entities.FileBlob;
+import com.victor.filestorageapi.models.entities.PackObject;
+import com.victor.filestorageapi.models.entities.User;
+import com.victor.filestorageapi.repository.FileBlobRepository;
+import com.victor.filestorageapi.repository.UserFileRepository;
+import com.victor.filestorageapi.service.aws.ObjectCopyService;
+import com.victor.filestorageapi.service.aws.impl.BlockingObjectCopyService;
+import com.victor.filestorageapi.service.aws.impl.InMemoryDeleteService;
+import com.victor.filestorageapi.service.aws.impl.InMemoryQueryService;
+import com.victor.filestorageapi.service.aws.impl.InMemoryStorageService;
+import com.victor.filestorageapi.service.file.PackService;
+import com.victor.filestorageapi.service.utils.InMemoryObjectStore;
+import com.victor.filestorageapi.service.utils.S3Utils;
+import com.victor.filestorageapi.service.utils.StorageCodecResolver;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class FileBlobServiceImplTest {
+
+    //Bigger than the pack threshold, so it gets a blob object of its own
+    private static final String LARGE_CONTENT = "a".repeat(100 * 1024);
+
+    //The blob rows, keyed by id. The repository mock applies its updates to these the way the queries would
+    private final Map<UUID, FileBlob> blobs = new ConcurrentHashMap<>();
+
+    private FileBlobServiceImpl fileBlobService;
+    private InMemoryStorageService storageService;
+    private InMemoryQueryService queryService;
+    private PackService packService;
+    private ObjectCopyService objectCopyService;
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+        InMemoryObjectStore store = new InMemoryObjectStore();
+        storageService = new InMemoryStorageService(store, new S3Utils(), new StorageCodecResolver(new CompressionProperties()));
+        queryService = new InMemoryQueryService(store);
+        packService = mock(PackService.class);
+        objectCopyService = spy(new BlockingObjectCopyService(storageService));
+
+        DedupProperties dedupProperties = new DedupProperties();
+        dedupProperties.setGcGracePeriod(Duration.ofHours(1));
+        fileBlobService = new FileBlobServiceImpl(blobRepository(),
+                mock(UserFileRepository.class),
+                storageService,
+                new InMemoryDeleteService(store),
+                objectCopyService,
+                dedupProperties,
+                new PackProperties(),
+                packService);
+
+        user = new User();
+        user.setId(UUID.randomUUID());
+        user.setUsername("alice");
+    }
+
+    @Test
+    void storingTheSameContentTwiceReferencesOneBlob() {
+        FileBlob first = store(LARGE_CONTENT);
+        FileBlob second = store(LARGE_CONTENT);
+
+        assertEquals(first.getId(), second.getId());
+        assertEquals(1, blobs.size());
+        assertEquals(2L, blob(first).getRefCount());
+        assertEquals(LARGE_CONTENT.length(), blob(first).getSize());
+        assertNotNull(queryService.headObjectVersion(first.getS3Key(), first.getVersionId()));
+        assertTrue(storageService.listS3ObjectsByPrefix("/.staging/").isEmpty());
+    }
+
+    @Test
+    void contentThatDoesNotMatchTheClientsHashIsRejected() {
+        assertThrows(UserFileUploadException.class, () -> fileBlobService.storeContent(user, "text/plain", "0".repeat(64),
+                new ByteArrayInputStream(LARGE_CONTENT.getBytes(StandardCharsets.UTF_8))));
+
+        assertTrue(blobs.isEmpty());
+        assertTrue(storageService.listS3ObjectsByPrefix("/.staging/").isEmpty());
+        assertTrue(storageService.listS3ObjectsByPrefix("/.blobs/").isEmpty(), "The mismatched version must be deleted");
+    }
+
+    @Test
+    void contentSentWithItsHashIsStoredWithoutStagingOrCopying() {
+        String sha256 = sha256(LARGE_CONTENT);
+
+        FileBlob fileBlob = storeWithHash(LARGE_CONTENT, sha256);
+
+        assertEquals("/.blobs/" + sha256, fileBlob.getS3Key());
+        assertNotNull(queryService.headObjectVersion(fileBlob.getS3Key(), fileBlob.getVersionId()));
+        verify(objectCopyService, never()).copy(any());
+    }
+
+    @Test
+    void contentSentWithTheHashOfAStoredBlobReferencesIt() {
+        FileBlob stored = store(LARGE_CONTENT);
+
+        FileBlob referenced = storeWithHash(LARGE_CONTENT, sha256(LARGE_CONTENT));
+
+        assertEquals(stored.getId(), referenced.getId());
+        assertEquals(stored.getVersionId(), blob(stored).getVersionId());
+        assertEquals(2L, blob(stored).getRefCount());
+    }
+
+    @Test
+    void stagedContentIsCopiedThroughTheCopyService() {
+        FileBlob fileBlob = store(LARGE_CONTENT);
+
+        verify(objectCopyService).copy(argThat(copy -> copy.targetKey().equals(fileBlob.getS3Key())
+                && copy.sourceKey().startsWith("/.staging/")
+                && copy.sourceSizeHint() == LARGE_CONTENT.length()));
+    }
+
+    @Test
+    void retainingABlobTakesAnotherReference() {
+        FileBlob fileBlob = store(LARGE_CONTENT);
+
+        fileBlobService.retainBlob(fileBlob);
+
+        assertEquals(2L, blob(fileBlob).getRefCount());
+    }
+
+    @Test
+    void releasingNeverTakesTheRefCountBelowZero() {
+        FileBlob fileBlob = store(LARGE_CONTENT);
+
+        fileBlobService.releaseBlob(fileBlob);
+        fileBlobService.releaseBlob(fileBlob);
+
+        assertEquals(0L, blob(fileBlob).getRefCount());
+    }
+
+    @Test
+    void unreferencedBlobsAreCollectedAfterTheGracePeriod() {
+        FileBlob fileBlob = store(LARGE_CONTENT);
+        store(LARGE_CONTENT);
+        fileBlobService.releaseBlob(fileBlob);
+        fileBlobService.releaseBlob(fileBlob);
+
+        fileBlobService.collectUnreferencedBlobs();
+        assertTrue(blobs.containsKey(fileBlob.getId()), "A blob released within the grace period must be kept");
+
+        age(fileBlob, Duration.ofHours(2));
+        fileBlobService.collectUnreferencedBlobs();
+
+        assertFalse(blobs.containsKey(fileBlob.getId()));
+        assertNull(queryService.headObjectVersion(fileBlob.getS3Key(), fileBlob.getVersionId()));
+    }
+
+    @Test
+    void blobsStillReferencedAreNotCollected() {
+        FileBlob fileBlob = store(LARGE_CONTENT);
+        age(fileBlob, Duration.ofHours(2));
+
+        fileBlobService.collectUnreferencedBlobs();
+
+        assertTrue(blobs.containsKey(fileBlob.getId()));
+        assertNotNull(queryService.headObjectVersion(fileBlob.getS3Key(), fileBlob.getVersionId()));
+    }
+
+    @Test
+    void contentStoredAgainBeforeCollectionRevivesTheBlob() {
+        FileBlob fileBlob = store(LARGE_CONTENT);
+        fileBlobService.releaseBlob(fileBlob);
+        age(fileBlob, Duration.ofHours(2));
+
+        FileBlob revived = store(LARGE_CONTENT);
+        fileBlobService.collectUnreferencedBlobs();
+
+        assertEquals(fileBlob.getId(), revived.getId());
+        assertEquals(1L, blob(fileBlob).getRefCount());
+        assertNotNull(queryService.headObjectVersion(fileBlob.getS3Key(), fileBlob.getVersionId()));
+    }
+
+    @Test
+    void smallContentIsPackedAndReleasedFromItsPackWhenCollected() {
+        PackObject pack = PackObject.builder().id(UUID.randomUUID()).s3Key("/.packs/1").versionId("v1").build();
+        when(packService.appendToPack(any())).thenAnswer(invocation -> new PackSlice(pack, 128, ((byte[]) invocation.getArgument(0)).length));
+
+        FileBlob fileBlob = store("small");
+        FileBlob duplicate = store("small");
+
+        assertEquals(fileBlob.getId(), duplicate.getId());
+        assertTrue(fileBlob.isPacked());
+        assertEquals(128L, fileBlob.getPackOffset());
+        verify(packService).appendToPack(any());
+
+        fileBlobService.releaseBlob(fileBlob);
+        fileBlobService.releaseBlob(fileBlob);
+        age(fileBlob, Duration.ofHours(2));
+        fileBlobService.collectUnreferencedBlobs();
+
+        assertTrue(blobs.isEmpty());
+        verify(packService).releaseSlice(pack, "small".length());
+        verify(packService, never()).compactPacks();
+    }
+
+    private FileBlob store(String content) {
+        return fileBlobService.storeContent(user, "text/plain", null, new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private FileBlob storeWithHash(String content, String sha256) {
+        return fileBlobService.storeContent(user, "text/plain", sha256, new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private String sha256(String content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private FileBlob blob(FileBlob fileBlob) {
+        return blobs.get(fileBlob.getId());
+    }
+
+    private void age(FileBlob fileBlob, Duration age) {
+        FileBlob row = blob(fileBlob);
+        row.setUpdatedAt(row.getUpdatedAt().minus(age));
+    }
+
+    private FileBlobRepository blobRepository() {
+        FileBlobRepository repository = mock(FileBlobRepository.class);
+        when(repository.saveAndFlush(any(FileBlob.class))).thenAnswer(invocation -> {
+            FileBlob fileBlob = invocation.getArgument(0);
+            if (findBySha256(fileBlob.getSha256()).isPresent()) {
+                throw new DataIntegrityViolationException("Duplicate sha256: " + fileBlob.getSha256());
+            }
+            fileBlob.setId(UUID.randomUUID());
+            blobs.put(fileBlob.getId(), fileBlob);
+            return fileBlob;
+        });
+        when(repository.findBySha256(anyString())).thenAnswer(invocation -> findBySha256(invocation.getArgument(0)));
+        when(repository.incrementRefCount(anyString(), any())).thenAnswer(invocation -> findBySha256(invocation.getArgument(0))
+                .map(fileBlob -> {
+                    fileBlob.setRefCount(fileBlob.getRefCount() + 1);
+                    fileBlob.setUpdatedAt(invocation.getArgument(1));
+                    return 1;
+                })
+                .orElse(0));
+        when(repository.decrementRefCount(any(), any())).thenAnswer(invocation -> {
+            FileBlob fileBlob = blobs.get(invocation.<UUID>getArgument(0));
+            if (fileBlob == null || fileBlob.getRefCount() == 0) {
+                return 0;
+            }
+            fileBlob.setRefCount(fileBlob.getRefCount() - 1);
+            fileBlob.setUpdatedAt(invocation.getArgument(1));
+            return 1;
+        });
+        when(repository.findByRefCountAndUpdatedAtBefore(anyLong(), any())).thenAnswer(invocation -> blobs.values()
+                .stream()
+                .filter(fileBlob -> fileBlob.getRefCount().equals(invocation.getArgument(0))
+                        && fileBlob.getUpdatedAt().isBefore(invocation.<LocalDateTime>getArgument(1)))
+                .toList());
+        when(repository.deleteIfUnreferenced(any())).thenAnswer(invocation -> {
+            FileBlob fileBlob = blobs.get(invocation.<UUID>getArgument(0));
+            if (fileBlob == null || fileBlob.getRefCount() != 0) {
+                return 0;
+            }
+            blobs.remove(fileBlob.getId());
+            return 1;
+        });
+        return repository;
+    }
+
+    private Optional<FileBlob> findBySha256(String sha256) {
+        return blobs.values().stream().filter(fileBlob -> fileBlob.getSha256().equals(sha256)).findFirst();
+    }
+}
@@ -0,0 +1,304 @@
+package com.victor.filestorageapi.service.file.impl;
+
+import com.victor.filestorageapi.config.CompressionProperties;
+import com.victor.filestorageapi.config.PackProperties;
+import com.victor.filestorageapi.models.PackSlice;
+import com.victor.filestorageapi.models.StoredObject;
+import com.victor.filestorageapi.models.entities.FileBlob;
+import com.victor.filestorageapi.models.entities.PackObject;
+import com.victor.filestorageapi.repository.FileBlobRepository;
+import com.victor.filestorageapi.repository.PackObjectRepository;
+import com.victor.filestorageapi.service.aws.impl.InMemoryDeleteService;
+import com.victor.filestorageapi.service.aws.impl.InMemoryQueryService;
+import com.victor.filestorageapi.service.aws.impl.InMemoryStorageService;
+import com.victor.filestorageapi.service.utils.InMemoryObjectStore;
+import com.victor.filestorageapi.service.utils.S3Utils;
+import com.victor.filestorageapi.service.utils.StorageCodecResolver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PackServiceImplTest {
+
+    //The pack and blob rows, keyed by id. The repository mocks apply their updates to these the way the queries would
+    private final Map<UUID, PackObject> packs = new ConcurrentHashMap<>();
+    private final Map<UUID, FileBlob> blobs = new ConcurrentHashMap<>();
+
+    private PackServiceImpl packService;
+    private PackProperties packProperties;
+    private FileBlobRepository blobRepository;
+    private InMemoryStorageService storageService;
+    private InMemoryQueryService queryService;
+
+    @BeforeEach
+    void setUp() {
+        InMemoryObjectStore store = new InMemoryObjectStore();
+        storageService = new InMemoryStorageService(store, new S3Utils(), new StorageCodecResolver(new CompressionProperties()));
+        queryService = new InMemoryQueryService(store);
+        packProperties = new PackProperties();
+        packProperties.setTargetPackSize(DataSize.ofBytes(10));
+        packProperties.setMaxPackDelay(Duration.ofMinutes(1));
+        blobRepository = blobRepository();
+        packService = new PackServiceImpl(packRepository(), blobRepository, storageService, new InMemoryDeleteService(store), packProperties);
+    }
+
+    @AfterEach
+    void tearDown() {
+        packService.shutdown();
+    }
+
+    @Test
+    void concurrentAppendsAreWrittenToOnePack() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<PackSlice> first = executor.submit(() -> packService.appendToPack(bytes("aaaa")));
+            Future<PackSlice> second = executor.submit(() -> packService.appendToPack(bytes("bbbbbb")));
+            PackSlice firstSlice = first.get(10, TimeUnit.SECONDS);
+            PackSlice secondSlice = second.get(10, TimeUnit.SECONDS);
+
+            assertEquals(firstSlice.pack().getId(), secondSlice.pack().getId());
+            assertEquals(1, packs.size());
+            assertEquals(10L, firstSlice.pack().getSize());
+            assertEquals(10L, firstSlice.pack().getLiveBytes());
+            assertEquals("aaaa", readSlice(firstSlice.pack(), firstSlice.offset(), firstSlice.length()));
+            assertEquals("bbbbbb", readSlice(secondSlice.pack(), secondSlice.offset(), secondSlice.length()));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void aPartialPackIsWrittenOnceTheMaxDelayPassed() {
+        packProperties.setMaxPackDelay(Duration.ofMillis(20));
+
+        PackSlice slice = packService.appendToPack(bytes("abc"));
+
+        assertEquals(0L, slice.offset());
+        assertEquals(3L, slice.pack().getSize());
+        assertEquals("abc", readSlice(slice.pack(), slice.offset(), slice.length()));
+    }
+
+    @Test
+    void releasingASliceOnlyDropsItsLiveBytes() {
+        PackObject pack = writePack("aaaa", "bbbbbb").getFirst().pack();
+
+        packService.releaseSlice(pack, 4);
+
+        assertEquals(6L, packs.get(pack.getId()).getLiveBytes());
+        assertEquals(10L, packs.get(pack.getId()).getSize());
+    }
+
+    @Test
+    void mostlyDeadPacksAreRewrittenWithOnlyTheirLiveBlobs() {
+        List<PackSlice> slices = writePack("aaaa", "bbbbbb");
+        PackObject oldPack = slices.getFirst().pack();
+        FileBlob deadBlob = blob(slices.get(1));
+        FileBlob liveBlob = blob(slices.get(0));
+        blobs.remove(deadBlob.getId());
+        packService.releaseSlice(oldPack, deadBlob.getSize());
+        age(oldPack);
+
+        packService.compactPacks();
+
+        FileBlob movedBlob = blobs.get(liveBlob.getId());
+        PackObject newPack = movedBlob.getPack();
+        assertNotEquals(oldPack.getId(), newPack.getId());
+        assertEquals(newPack.getS3Key(), movedBlob.getS3Key());
+        assertEquals(newPack.getVersionId(), movedBlob.getVersionId());
+        assertEquals(4L, newPack.getSize());
+        assertEquals(4L, newPack.getLiveBytes());
+        assertEquals("aaaa", readSlice(newPack, movedBlob.getPackOffset(), movedBlob.getSize()));
+
+        PackObject retiredPack = packs.get(oldPack.getId());
+        assertNotNull(retiredPack.getRetiredAt());
+        assertEquals(0L, retiredPack.getLiveBytes());
+        assertNotNull(queryService.headObjectVersion(oldPack.getS3Key(), oldPack.getVersionId()), "Reads in flight may still need the retired pack");
+    }
+
+    @Test
+    void packsWithEnoughLiveBytesAreLeftAlone() {
+        List<PackSlice> slices = writePack("aaaa", "bbbbbb");
+        PackObject pack = slices.getFirst().pack();
+        blob(slices.get(0));
+        blob(slices.get(1));
+        packService.releaseSlice(pack, 4);
+        age(pack);
+
+        packService.compactPacks();
+
+        assertEquals(1, packs.size());
+        assertNull(packs.get(pack.getId()).getRetiredAt());
+    }
+
+    @Test
+    void aBlobCollectedDuringTheCompactionIsDeadInTheNewPack() {
+        List<PackSlice> slices = writePack("aaaa", "bbbbbb");
+        PackObject oldPack = slices.getFirst().pack();
+        FileBlob collectedBlob = blob(slices.get(0));
+        blob(slices.get(1));
+        packService.releaseSlice(oldPack, 6);
+        age(oldPack);
+        //Both blobs are still live when the compaction lists them, one is collected before it is relocated
+        doAnswer(invocation -> {
+            List<FileBlob> liveBlobs = findByPack(invocation.getArgument(0));
+            blobs.remove(collectedBlob.getId());
+            return liveBlobs;
+        }).when(blobRepository).findByPack(any());
+
+        packService.compactPacks();
+
+        PackObject newPack = packs.values().stream().filter(pack -> !pack.getId().equals(oldPack.getId())).findFirst().orElseThrow();
+        assertEquals(10L, newPack.getSize());
+        assertEquals(6L, newPack.getLiveBytes());
+    }
+
+    @Test
+    void retiredPacksAreDeletedAfterTheGracePeriod() {
+        PackObject pack = writePack("aaaa", "bbbbbb").getFirst().pack();
+        pack.setLiveBytes(0L);
+        pack.setRetiredAt(LocalDateTime.now().minus(packProperties.getRetiredPackGracePeriod()).minusMinutes(1));
+
+        packService.compactPacks();
+
+        assertTrue(packs.isEmpty());
+        assertNull(queryService.headObjectVersion(pack.getS3Key(), pack.getVersionId()));
+    }
+
+    //Writes a pack holding the contents back to back, the way a flush of appended contents would
+    private List<PackSlice> writePack(String... contents) {
+        String packContent = String.join("", contents);
+        String packKey = "/.packs/" + UUID.randomUUID();
+        StoredObject storedPack = storageService.uploadInternalObject(packKey, "application/octet-stream", new ByteArrayInputStream(bytes(packContent)));
+        LocalDateTime now = LocalDateTime.now();
+        PackObject pack = PackObject.builder()
+                .id(UUID.randomUUID())
+                .s3Key(packKey)
+                .versionId(storedPack.versionId())
+                .size((long) packContent.length())
+                .liveBytes((long) packContent.length())
+                .createdAt(now)
+                .updatedAt(now)
+                .build();
+        packs.put(pack.getId(), pack);
+
+        List<PackSlice> slices = new ArrayList<>();
+        long offset = 0;
+        for (String content : contents) {
+            slices.add(new PackSlice(pack, offset, content.length()));
+            offset += content.length();
+        }
+        return slices;
+    }
+
+    private FileBlob blob(PackSlice slice) {
+        FileBlob fileBlob = FileBlob.builder()
+                .id(UUID.randomUUID())
+                .sha256(UUID.randomUUID().toString())
+                .s3Key(slice.pack().getS3Key())
+                .versionId(slice.pack().getVersionId())
+                .pack(slice.pack())
+                .packOffset(slice.offset())
+                .size(slice.length())
+                .refCount(1L)
+                .build();
+        blobs.put(fileBlob.getId(), fileBlob);
+        return fileBlob;
+    }
+
+    private void age(PackObject pack) {
+        PackObject row = packs.get(pack.getId());
+        row.setCreatedAt(row.getCreatedAt().minusMinutes(1));
+    }
+
+    private String readSlice(PackObject pack, long offset, long length) {
+        try (ResponseInputStream<GetObjectResponse> packStream = storageService.openObjectStream(pack.getS3Key(), pack.getVersionId(),
+                "bytes=" + offset + "-" + (offset + length - 1))) {
+            return new String(packStream.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private List<FileBlob> findByPack(PackObject pack) {
+        return blobs.values().stream().filter(fileBlob -> fileBlob.getPack().getId().equals(pack.getId())).toList();
+    }
+
+    private PackObjectRepository packRepository() {
+        PackObjectRepository repository = mock(PackObjectRepository.class);
+        when(repository.save(any(PackObject.class))).thenAnswer(invocation -> {
+            PackObject pack = invocation.getArgument(0);
+            if (pack.getId() == null) {
+                pack.setId(UUID.randomUUID());
+            }
+            packs.put(pack.getId(), pack);
+            return pack;
+        });
+        doAnswer(invocation -> packs.remove(invocation.<PackObject>getArgument(0).getId()))
+                .when(repository).delete(any(PackObject.class));
+        when(repository.findByRetiredAtBefore(any())).thenAnswer(invocation -> packs.values()
+                .stream()
+                .filter(pack -> pack.getRetiredAt() != null && pack.getRetiredAt().isBefore(invocation.getArgument(0)))
+                .toList());
+        when(repository.findCompactionCandidates(any(), anyDouble())).thenAnswer(invocation -> packs.values()
+                .stream()
+                .filter(pack -> pack.getRetiredAt() == null
+                        && pack.getCreatedAt().isBefore(invocation.getArgument(0))
+                        && pack.getLiveBytes() < pack.getSize() * invocation.<Double>getArgument(1))
+                .toList());
+        when(repository.decrementLiveBytes(any(), anyLong(), any())).thenAnswer(invocation -> {
+            PackObject pack = packs.get(invocation.<UUID>getArgument(0));
+            if (pack == null) {
+                return 0;
+            }
+            pack.setLiveBytes(pack.getLiveBytes() - invocation.<Long>getArgument(1));
+            return 1;
+        });
+        return repository;
+    }
+
+    private FileBlobRepository blobRepository() {
+        FileBlobRepository repository = mock(FileBlobRepository.class);
+        when(repository.findByPack(any())).thenAnswer(invocation -> findByPack(invocation.getArgument(0)));
+        when(repository.relocatePackedBlob(any(), any(), anyLong(), any(), any())).thenAnswer(invocation -> {
+            FileBlob fileBlob = blobs.get(invocation.<UUID>getArgument(0));
+            if (fileBlob == null) {
+                return 0;
+            }
+            fileBlob.setPack(invocation.getArgument(1));
+            fileBlob.setPackOffset(invocation.getArgument(2));
+            fileBlob.setS3Key(invocation.getArgument(3));
+            fileBlob.setVersionId(invocation.getArgument(4));
+            return 1;
+        });
+        return repository;
+    }
+}
@@ -0,0 +1,333 @@
+package com.victor.filestorageapi.service.folder.impl;
+
+import com.victor.filestorageapi.config.AsyncProperties;
+import com.victor.filestorageapi.config.CompressionProperties;
+import com.victor.filestorageapi.models.LatestObjectVersion;
+import com.victor.filestorageapi.models.StoredObject;
+import com.victor.filestorageapi.models.entities.User;
+import com.victor.filestorageapi.models.entities.UserFile;
+import com.victor.filestorageapi.models.entities.UserFolder;
+import com.victor.filestorageapi.models.entities.UserFolderSnapshot;
+import com.victor.filestorageapi.models.entities.UserFolderSnapshotFileEntry;
+import com.victor.filestorageapi.repository.UserFileRepository;
+import com.victor.filestorageapi.repository.UserFolderRepository;
+import com.victor.filestorageapi.repository.UserFolderSnapshotFileEntryRepository;
+import com.victor.filestorageapi.repository.UserFolderSnapshotRepository;
+import com.victor.filestorageapi.service.aws.impl.BlockingAsyncObjectStorageService;
+import com.victor.filestorageapi.service.aws.impl.BlockingObjectCopyService;
+import com.victor.filestorageapi.service.aws.impl.InMemoryDeleteService;
+import com.victor.filestorageapi.service.aws.impl.InMemoryQueryService;
+import com.victor.filestorageapi.service.aws.impl.InMemoryStorageService;
+import com.victor.filestorageapi.service.file.FileBlobService;
+import com.victor.filestorageapi.service.snapshots.impl.UserFolderSnapshotFileEntryImpl;
+import com.victor.filestorageapi.service.snapshots.impl.UserFolderSnapshotRestoreServiceImpl;
+import com.victor.filestorageapi.service.snapshots.impl.UserFolderSnapshotServiceImpl;
+import com.victor.filestorageapi.service.user.UserQueryService;
+import com.victor.filestorageapi.service.utils.BoundedAsyncRunner;
+import com.victor.filestorageapi.service.utils.FolderSnapshotUtils;
+import com.victor.filestorageapi.service.utils.InMemoryObjectStore;
+import com.victor.filestorageapi.service.utils.PathValidator;
+import com.victor.filestorageapi.service.utils.S3Utils;
+import com.victor.filestorageapi.service.utils.StorageCodecResolver;
+import com.victor.filestorageapi.service.utils.UserFileUtils;
+import com.victor.filestorageapi.service.utils.UserFolderUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Runs the folder move, recursive delete and snapshot restore services against a folder of more than 100,000 files
+ * on the in-memory backend, with the repositories kept in maps. It takes a while and a few hundred MB of heap, so it
+ * only runs when asked for: {@code mvn test -Dtest=FolderOperationsScaleTest -Dscale.tests=true}
+ * */
+@Tag("scale")
+@EnabledIfSystemProperty(named = "scale.tests", matches = "true")
+class FolderOperationsScaleTest {
+
+    private static final int DIRECTORIES = 100;
+    private static final int FILES_PER_DIRECTORY = 1_000;
+    private static final int FILES = DIRECTORIES * FILES_PER_DIRECTORY;
+
+    private InMemoryObjectStore store;
+    private InMemoryStorageService storageService;
+    private InMemoryQueryService queryService;
+    private UserFolderMoveServiceImpl moveService;
+    private UserFolderDeletionServiceImpl deletionService;
+    private UserFolderSnapshotServiceImpl snapshotService;
+    private UserFolderSnapshotRestoreServiceImpl restoreService;
+
+    private final Map<UUID, UserFolder> folders = new HashMap<>();
+    private final Map<UUID, UserFile> files = new HashMap<>();
+    private final Map<UUID, UserFolderSnapshot> snapshots = new HashMap<>();
+
+    private User user;
+    private UserFolder projects;
+    private UserFolder archive;
+
+    @BeforeEach
+    void setUp() {
+        store = new InMemoryObjectStore();
+        S3Utils s3Utils = new S3Utils();
+        storageService = new InMemoryStorageService(store, s3Utils, new StorageCodecResolver(new CompressionProperties()));
+        InMemoryDeleteService deleteService = new InMemoryDeleteService(store);
+        queryService = new InMemoryQueryService(store);
+        BlockingAsyncObjectStorageService asyncStorageService = new BlockingAsyncObjectStorageService(storageService, deleteService, queryService);
+        BoundedAsyncRunner asyncRunner = new BoundedAsyncRunner(new AsyncProperties());
+        UserFolderUtils folderUtils = new UserFolderUtils();
+        PathValidator pathValidator = new PathValidator();
+        FileBlobService fileBlobService = mock(FileBlobService.class);
+
+        user = new User();
+        user.setId(UUID.randomUUID());
+        user.setUsername("alice");
+        UserQueryService userQueryService = mock(UserQueryService.class);
+        when(userQueryService.findUserById(user.getId())).thenReturn(user);
+
+        UserFolderRepository folderRepository = folderRepository();
+        UserFileRepository fileRepository = fileRepository();
+        UserFolderSnapshotRepository snapshotRepository = snapshotRepository();
+
+        deletionService = new UserFolderDeletionServiceImpl(folderRepository, fileRepository, null, deleteService, folderUtils, userQueryService);
+        moveService = new UserFolderMoveServiceImpl(folderRepository, deleteService, asyncStorageService, new BlockingObjectCopyService(storageService),
+                asyncRunner, fileRepository, folderUtils, null, new UserFileUtils(), pathValidator, userQueryService);
+        snapshotService = new UserFolderSnapshotServiceImpl(snapshotRepository, mock(UserFolderSnapshotFileEntryRepository.class), new FolderSnapshotUtils(),
+                new UserFolderSnapshotFileEntryImpl(pathValidator, fileBlobService), queryService, fileRepository);
+        restoreService = new UserFolderSnapshotRestoreServiceImpl(userQueryService, deletionService, queryService, folderUtils, snapshotRepository,
+                fileRepository, folderRepository, storageService, asyncStorageService, asyncRunner, new UserFileUtils(), fileBlobService, s3Utils);
+
+        UserFolder root = createFolder(null, "/" + user.getId() + "/");
+        projects = createFolder(root, root.getFolderPath() + "projects/");
+        archive = createFolder(root, root.getFolderPath() + "archive/");
+        for (int d = 0; d < DIRECTORIES; d++) {
+            UserFolder directory = createFolder(projects, directoryPath(d));
+            for (int f = 0; f < FILES_PER_DIRECTORY; f++) {
+                createFile(directory, directory.getFolderPath() + "file-" + f + ".txt");
+            }
+        }
+    }
+
+    @Test
+    void movingAFolderMovesEveryDescendant() throws IOException {
+        String oldPath = projects.getFolderPath();
+        moveService.moveFolder(user.getId(), projects.getId(), archive.getId());
+
+        String movedPath = archive.getFolderPath() + "projects/";
+        assertTrue(queryService.listLatestVersions(oldPath).isEmpty(), "The objects at the old path must have been deleted");
+        Map<String, String> latestVersions = latestVersions(movedPath);
+        assertEquals(FILES + DIRECTORIES + 1, latestVersions.size());
+
+        assertEquals(movedPath, projects.getFolderPath());
+        assertSame(archive, projects.getParentFolder());
+        List<UserFile> movedFiles = activeFiles(movedPath);
+        assertEquals(FILES, movedFiles.size());
+        for (UserFile file : movedFiles) {
+            assertEquals(latestVersions.get(file.getFilePath()), file.getCurrentVersion());
+            assertEquals(file.getFilePath().substring(0, file.getFilePath().lastIndexOf('/') + 1), file.getUserFolder().getFolderPath());
+        }
+        for (UserFolder folder : activeFolders(movedPath)) {
+            assertEquals(latestVersions.get(folder.getFolderPath()), folder.getCurrentVersion());
+        }
+        String movedFile = movedPath + "dir-42/file-7.txt";
+        assertEquals(contentOf(directoryPath(42) + "file-7.txt"), read(movedFile));
+    }
+
+    @Test
+    void deletingAFolderDeletesEveryDescendant() {
+        deletionService.recursiveSoftDeleteFolder(user.getId(), projects.getId());
+
+        assertTrue(queryService.listLatestVersions(projects.getFolderPath()).isEmpty());
+        assertTrue(activeFiles(projects.getFolderPath()).isEmpty());
+        assertTrue(activeFolders(projects.getFolderPath()).isEmpty());
+        for (UserFile file : files.values()) {
+            assertTrue(store.findVersion(file.getFilePath(), file.getCurrentVersion()).orElseThrow().deleteMarker(),
+                    "A deleted file must point at its delete marker");
+        }
+        assertFalse(archive.getIsDeleted());
+    }
+
+    @Test
+    void restoringASnapshotUndoesEverythingChangedSinceIt() throws IOException {
+        UserFolderSnapshot snapshot = snapshotService.createFolderSnapshot(projects);
+        assertEquals(FILES + DIRECTORIES + 1, snapshot.getFileEntries().size());
+        Set<String> snapshotKeys = snapshot.getFileEntries().stream().map(UserFolderSnapshotFileEntry::getS3Key).collect(Collectors.toSet());
+
+        //Delete half of the directories, overwrite a file in each of the others and add a directory the snapshot doesn't have
+        for (UserFolder directory : activeFolders(projects.getFolderPath())) {
+            int index = directory.getFolderPath().equals(projects.getFolderPath()) ? -1 : directoryIndex(directory);
+            if (index >= 0 && index < DIRECTORIES / 2) {
+                deletionService.recursiveSoftDeleteFolder(user.getId(), directory.getId());
+            }
+        }
+        for (UserFile file : activeFiles(projects.getFolderPath())) {
+            if (file.getFilePath().endsWith("/file-0.txt")) {
+                file.setCurrentVersion(upload(file.getFilePath(), "overwritten").versionId());
+            }
+        }
+        UserFolder added = createFolder(projects, projects.getFolderPath() + "added/");
+        for (int f = 0; f < FILES_PER_DIRECTORY; f++) {
+            createFile(added, added.getFolderPath() + "file-" + f + ".txt");
+        }
+
+        restoreService.restoreFolderSnapshot(user.getId(), snapshot.getId());
+
+        Map<String, String> latestVersions = latestVersions(projects.getFolderPath());
+        assertEquals(snapshotKeys, latestVersions.keySet());
+        List<UserFile> restoredFiles = activeFiles(projects.getFolderPath());
+        assertEquals(FILES, restoredFiles.size());
+        for (UserFile file : restoredFiles) {
+            assertEquals(latestVersions.get(file.getFilePath()), file.getCurrentVersion());
+            assertEquals(file.getFilePath().substring(0, file.getFilePath().lastIndexOf('/') + 1), file.getUserFolder().getFolderPath());
+        }
+        assertEquals(DIRECTORIES + 1, activeFolders(projects.getFolderPath()).size());
+        assertTrue(added.getIsDeleted());
+        assertEquals(contentOf(directoryPath(0) + "file-0.txt"), read(directoryPath(0) + "file-0.txt"));
+        assertEquals(contentOf(directoryPath(99) + "file-0.txt"), read(directoryPath(99) + "file-0.txt"));
+    }
+
+    private String directoryPath(int index) {
+        return "/" + user.getId() + "/projects/dir-" + index + "/";
+    }
+
+    private int directoryIndex(UserFolder directory) {
+        return Integer.parseInt(directory.getName().substring("dir-".length()));
+    }
+
+    private static String contentOf(String filePath) {
+        return "content of " + filePath;
+    }
+
+    private UserFolder createFolder(UserFolder parentFolder, String folderPath) {
+        LocalDateTime now = LocalDateTime.now();
+        UserFolder folder = UserFolder
+                .builder()
+                .id(UUID.randomUUID())
+                .name(new UserFolderUtils().extractFolderName(folderPath))
+                .folderPath(folderPath)
+                .parentFolder(parentFolder)
+                .isRoot(parentFolder == null)
+                .isDeleted(false)
+                .currentVersion(storageService.createObject(user, folderPath))
+                .user(user)
+                .createdAt(now)
+                .updatedAt(now)
+                .build();
+        folders.put(folder.getId(), folder);
+        return folder;
+    }
+
+    private void createFile(UserFolder folder, String filePath) {
+        String content = contentOf(filePath);
+        StoredObject stored = upload(filePath, content);
+        LocalDateTime now = LocalDateTime.now();
+        UserFile file = UserFile
+                .builder()
+                .id(UUID.randomUUID())
+                .fileName(new UserFileUtils().extractFileName(filePath))
+                .filePath(filePath)
+                .fileType("application/octet-stream")
+                .fileSize(stored.size())
+                .currentVersion(stored.versionId())
+                .userFolder(folder)
+                .user(user)
+                .isDeleted(false)
+                .createdAt(now)
+                .updatedAt(now)
+                .build();
+        files.put(file.getId(), file);
+    }
+
+    private StoredObject upload(String s3Key, String content) {
+        return storageService.uploadFile(user, s3Key, "application/octet-stream", new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private String read(String s3Key) throws IOException {
+        try (ResponseInputStream<GetObjectResponse> objectStream = storageService.openObjectStream(s3Key, null, null)) {
+            return new String(objectStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private Map<String, String> latestVersions(String prefix) {
+        return queryService.listLatestVersions(prefix)
+                .stream()
+                .collect(Collectors.toMap(LatestObjectVersion::s3Key, LatestObjectVersion::versionId));
+    }
+
+    private List<UserFolder> activeFolders(String prefix) {
+        return folders.values().stream().filter(folder -> !folder.getIsDeleted() && folder.getFolderPath().startsWith(prefix)).toList();
+    }
+
+    private List<UserFile> activeFiles(String prefix) {
+        return files.values().stream().filter(file -> !file.getIsDeleted() && file.getFilePath().startsWith(prefix)).toList();
+    }
+
+    //The repositories only answer the queries the services make. Their mocks don't record calls, which at this scale
+    //would hold on to every entity passed to them
+    private UserFolderRepository folderRepository() {
+        UserFolderRepository folderRepository = mock(UserFolderRepository.class, withSettings().stubOnly());
+        when(folderRepository.findByUserAndIdAndIsDeletedFalse(any(), any())).thenAnswer(invocation ->
+                Optional.ofNullable(folders.get(invocation.<UUID>getArgument(1))).filter(folder -> !folder.getIsDeleted()));
+        when(folderRepository.findByUserAndFolderPathAndIsDeletedFalse(any(), anyString())).thenAnswer(invocation ->
+                activeFolders(invocation.getArgument(1)).stream().filter(folder -> folder.getFolderPath().equals(invocation.getArgument(1))).findFirst());
+        when(folderRepository.findByUserAndFolderPathStartingWithAndIsDeletedFalse(any(), anyString())).thenAnswer(invocation ->
+                new ArrayList<>(activeFolders(invocation.getArgument(1))));
+        when(folderRepository.save(any(UserFolder.class))).thenAnswer(invocation -> save(folders, invocation.getArgument(0), UserFolder::getId, UserFolder::setId));
+        when(folderRepository.saveAll(any())).thenAnswer(invocation -> saveAll(folders, invocation.getArgument(0), UserFolder::getId, UserFolder::setId));
+        return folderRepository;
+    }
+
+    private UserFileRepository fileRepository() {
+        UserFileRepository fileRepository = mock(UserFileRepository.class, withSettings().stubOnly());
+        when(fileRepository.findByUserAndFilePathStartingWithAndAndIsDeletedFalse(any(), anyString())).thenAnswer(invocation ->
+                new ArrayList<>(activeFiles(invocation.getArgument(1))));
+        when(fileRepository.save(any(UserFile.class))).thenAnswer(invocation -> save(files, invocation.getArgument(0), UserFile::getId, UserFile::setId));
+        when(fileRepository.saveAll(any())).thenAnswer(invocation -> saveAll(files, invocation.getArgument(0), UserFile::getId, UserFile::setId));
+        return fileRepository;
+    }
+
+    private UserFolderSnapshotRepository snapshotRepository() {
+        UserFolderSnapshotRepository snapshotRepository = mock(UserFolderSnapshotRepository.class, withSettings().stubOnly());
+        when(snapshotRepository.save(any(UserFolderSnapshot.class))).thenAnswer(invocation ->
+                save(snapshots, invocation.getArgument(0), UserFolderSnapshot::getId, UserFolderSnapshot::setId));
+        when(snapshotRepository.findById(any())).thenAnswer(invocation -> Optional.ofNullable(snapshots.get(invocation.<UUID>getArgument(0))));
+        return snapshotRepository;
+    }
+
+    private static <T> T save(Map<UUID, T> records, T entity, Function<T, UUID> getId, BiConsumer<T, UUID> setId) {
+        if (getId.apply(entity) == null) {
+            setId.accept(entity, UUID.randomUUID());
+        }
+        records.put(getId.apply(entity), entity);
+        return entity;
+    }
+
+    private static <T> List<T> saveAll(Map<UUID, T> records, Collection<T> entities, Function<T, UUID> getId, BiConsumer<T, UUID> setId) {
+        entities.forEach(entity -> save(records, entity, getId, setId));
+        return new ArrayList<>(entities);
+    }
+}
@@ -0,0 +1,118 @@
+package com.victor.filestorageapi.service.resilience;
+
+import com.victor.filestorageapi.config.ResilienceProperties;
+import com.victor.filestorageapi.exception.MyCustomS3Exception;
+import com.victor.filestorageapi.exception.StorageUnavailableException;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.Signature;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.ByteArrayInputStream;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class S3ResilienceAspectTest {
+
+    private Bulkhead bulkBulkhead;
+    private CircuitBreaker circuitBreaker;
+    private S3ResilienceAspect aspect;
+
+    //One permit and no waiting, so a held permit shows up as a rejected call
+    @BeforeEach
+    void setUp() {
+        BulkheadConfig onePermit = BulkheadConfig.custom().maxConcurrentCalls(1).maxWaitDuration(Duration.ZERO).build();
+        bulkBulkhead = Bulkhead.of("s3-bulk", onePermit);
+        circuitBreaker = CircuitBreaker.ofDefaults("s3");
+        ResilienceProperties resilienceProperties = new ResilienceProperties();
+        resilienceProperties.setBackgroundMaxWait(Duration.ZERO);
+        aspect = new S3ResilienceAspect(Bulkhead.of("s3-interactive", onePermit), bulkBulkhead, circuitBreaker, resilienceProperties);
+    }
+
+    @Test
+    void anObjectStreamHoldsItsPermitUntilItIsClosed() throws Throwable {
+        @SuppressWarnings("unchecked")
+        ResponseInputStream<GetObjectResponse> objectStream = (ResponseInputStream<GetObjectResponse>) aspect.guardS3Call(call("openObjectStream", objectStream("content")));
+
+        assertEquals(0, bulkBulkhead.getMetrics().getAvailableConcurrentCalls());
+        assertThrows(StorageUnavailableException.class, () -> aspect.guardS3Call(call("objectExists", true)));
+
+        assertEquals("content", new String(objectStream.readAllBytes()));
+        objectStream.close();
+
+        assertEquals(1, bulkBulkhead.getMetrics().getAvailableConcurrentCalls());
+        assertEquals(true, aspect.guardS3Call(call("objectExists", true)));
+    }
+
+    @Test
+    void anAbortedObjectStreamReleasesItsPermitOnce() throws Throwable {
+        ResponseInputStream<?> objectStream = (ResponseInputStream<?>) aspect.guardS3Call(call("openObjectStream", objectStream("content")));
+
+        objectStream.abort();
+        objectStream.close();
+
+        assertEquals(1, bulkBulkhead.getMetrics().getAvailableConcurrentCalls());
+        assertEquals(1, circuitBreaker.getMetrics().getNumberOfSuccessfulCalls());
+    }
+
+    @Test
+    void aListingHoldsItsPermitUntilItIsClosed() throws Throwable {
+        @SuppressWarnings("unchecked")
+        Stream<String> listing = (Stream<String>) aspect.guardS3Call(call("streamS3ObjectsByPrefix", Stream.of("a", "b")));
+
+        assertEquals(List.of("a", "b"), listing.toList());
+        assertEquals(0, bulkBulkhead.getMetrics().getAvailableConcurrentCalls());
+
+        listing.close();
+        assertEquals(1, bulkBulkhead.getMetrics().getAvailableConcurrentCalls());
+    }
+
+    @Test
+    void aPageThatFailsToLoadCountsTowardsTheBreaker() throws Throwable {
+        Stream<String> failingPages = Stream.generate(() -> {
+            throw new MyCustomS3Exception("listing failed");
+        });
+
+        @SuppressWarnings("unchecked")
+        Stream<String> listing = (Stream<String>) aspect.guardS3Call(call("streamS3ObjectsByPrefix", failingPages));
+        try (listing) {
+            assertThrows(MyCustomS3Exception.class, listing::toList);
+        }
+
+        assertEquals(1, bulkBulkhead.getMetrics().getAvailableConcurrentCalls());
+        assertEquals(1, circuitBreaker.getMetrics().getNumberOfFailedCalls());
+    }
+
+    @Test
+    void otherResultsReleaseTheirPermitWhenTheCallReturns() throws Throwable {
+        assertEquals(true, aspect.guardS3Call(call("objectExists", true)));
+
+        assertEquals(1, bulkBulkhead.getMetrics().getAvailableConcurrentCalls());
+        assertEquals(1, circuitBreaker.getMetrics().getNumberOfSuccessfulCalls());
+    }
+
+    private ProceedingJoinPoint call(String methodName, Object result) throws Throwable {
+        Signature signature = mock(Signature.class);
+        when(signature.getName()).thenReturn(methodName);
+        ProceedingJoinPoint joinPoint = mock(ProceedingJoinPoint.class);
+        when(joinPoint.getSignature()).thenReturn(signature);
+        when(joinPoint.proceed()).thenReturn(result);
+        return joinPoint;
+    }
+
+    private ResponseInputStream<GetObjectResponse> objectStream(String content) {
+        return new ResponseInputStream<>(GetObjectResponse.builder().build(),
+                AbortableInputStream.create(new ByteArrayInputStream(content.getBytes())));
+    }
+}
@@ -0,0 +1,121 @@
+package com.victor.filestorageapi.service.utils;
+
+import com.victor.filestorageapi.config.ThrottlingProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveRateLimiterTest {
+
+    private static final String PREFIX = "/alice";
+
+    private ThrottlingProperties throttlingProperties;
+    private SimpleMeterRegistry meterRegistry;
+    private AdaptiveRateLimiter rateLimiter;
+
+    //Rates are kept low so the tokens refilled while a test runs never add up to a whole token
+    @BeforeEach
+    void setUp() {
+        throttlingProperties = new ThrottlingProperties();
+        throttlingProperties.setInitialRate(4);
+        throttlingProperties.setMinRate(1);
+        throttlingProperties.setMaxRate(100);
+        throttlingProperties.setAdditiveIncrease(1);
+        throttlingProperties.setMultiplicativeDecrease(0.5);
+        throttlingProperties.setMaxWait(Duration.ofMillis(200));
+        meterRegistry = new SimpleMeterRegistry();
+        rateLimiter = new AdaptiveRateLimiter(throttlingProperties, meterRegistry);
+    }
+
+    @Test
+    void aNewPrefixCanBurstOneSecondOfItsInitialRate() {
+        assertEquals(4, drain(PREFIX));
+    }
+
+    @Test
+    void aThrottlingResponseCutsTheRateByTheDecreaseFactor() {
+        rateLimiter.onThrottled(PREFIX);
+
+        assertEquals(2, drain(PREFIX));
+        assertEquals(1.0, meterRegistry.counter("s3.throttling.responses").count());
+    }
+
+    @Test
+    void throttlingResponsesWithinTheCooldownOnlyCutTheRateOnce() {
+        rateLimiter.onThrottled(PREFIX);
+        rateLimiter.onThrottled(PREFIX);
+        rateLimiter.onThrottled(PREFIX);
+
+        assertEquals(2, drain(PREFIX));
+    }
+
+    @Test
+    void theRateNeverDropsBelowTheMinimum() {
+        throttlingProperties.setDecreaseCooldown(Duration.ZERO);
+
+        for (int i = 0; i < 10; i++) {
+            rateLimiter.onThrottled(PREFIX);
+        }
+
+        assertEquals(1, drain(PREFIX));
+    }
+
+    @Test
+    void successesRaiseTheRateAdditively() throws Exception {
+        drain(PREFIX);
+        //At 4 requests per second the next token is 250ms away, more than the max wait
+        assertFalse(rateLimiter.acquire(PREFIX));
+        assertEquals(1.0, meterRegistry.counter("s3.throttling.rejected").count());
+
+        for (int i = 0; i < 4; i++) {
+            rateLimiter.onSuccess(PREFIX);
+        }
+
+        //At 8 requests per second it is 125ms away
+        assertTrue(rateLimiter.acquire(PREFIX));
+    }
+
+    @Test
+    void theRateNeverRisesAboveTheMaximum() throws Exception {
+        throttlingProperties.setMaxRate(4);
+        drain(PREFIX);
+
+        for (int i = 0; i < 100; i++) {
+            rateLimiter.onSuccess(PREFIX);
+        }
+
+        assertFalse(rateLimiter.acquire(PREFIX));
+    }
+
+    @Test
+    void prefixesAreLimitedIndependently() {
+        rateLimiter.onThrottled(PREFIX);
+        drain(PREFIX);
+
+        assertEquals(4, drain("/bob"));
+        assertFalse(rateLimiter.tryAcquire(PREFIX));
+    }
+
+    @Test
+    void nothingIsLimitedWhenDisabled() throws Exception {
+        throttlingProperties.setEnabled(false);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(rateLimiter.tryAcquire(PREFIX));
+            assertTrue(rateLimiter.acquire(PREFIX));
+        }
+    }
+
+    //Takes every token available right now and returns how many there were
+    private int drain(String prefix) {
+        int taken = 0;
+        while (taken < 1_000 && rateLimiter.tryAcquire(prefix)) {
+            taken++;
+        }
+        return taken;
+    }
+}
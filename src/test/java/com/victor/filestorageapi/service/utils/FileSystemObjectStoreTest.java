@@ -0,0 +1,168 @@
+package com.victor.filestorageapi.service.utils;
+
+import com.victor.filestorageapi.config.FileSystemStorageProperties;
+import com.victor.filestorageapi.service.aws.BucketResolver;
+import com.victor.filestorageapi.service.utils.FileSystemObjectStore.ObjectVersion;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class FileSystemObjectStoreTest {
+
+    private static final Path SHARED_MEMORY = Path.of("/dev/shm");
+
+    @TempDir
+    private Path root;
+    private BucketResolver bucketResolver;
+    private FileSystemObjectStore store;
+
+    //Keys under "/far/" live in their own bucket, every other key in the default one
+    @BeforeEach
+    void setUp() throws IOException {
+        FileSystemStorageProperties properties = new FileSystemStorageProperties();
+        properties.setRoot(root);
+        properties.setFsync(false);
+        bucketResolver = mock(BucketResolver.class);
+        when(bucketResolver.resolve(anyString())).thenAnswer(invocation -> invocation.<String>getArgument(0).startsWith("/far/") ? "far" : "bucket");
+        when(bucketResolver.getBuckets()).thenReturn(List.of("bucket", "far"));
+        store = new FileSystemObjectStore(properties, bucketResolver);
+    }
+
+    @Test
+    void theLatestVersionIsTheNewestOneWritten() throws IOException {
+        store.initializeBuckets();
+        List<String> versionIds = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            versionIds.add(write("/alice/a.txt", "content " + i).versionId());
+        }
+
+        assertEquals(versionIds.stream().sorted().toList(), versionIds, "Version IDs must sort in the order they were written");
+        ObjectVersion latest = store.findVersion("/alice/a.txt", null).orElseThrow();
+        assertEquals(versionIds.get(49), latest.versionId());
+        assertEquals("content 49", read(latest));
+        assertEquals("content 0", read(store.findVersion("/alice/a.txt", versionIds.get(0)).orElseThrow()));
+    }
+
+    @Test
+    void aDeleteMarkerHidesTheKeyUntilItIsRemoved() throws IOException {
+        store.initializeBuckets();
+        ObjectVersion written = write("/alice/a.txt", "content");
+        String deleteMarkerVersionId = store.putDeleteMarker("/alice/a.txt");
+
+        ObjectVersion latest = store.findVersion("/alice/a.txt", null).orElseThrow();
+        assertTrue(latest.deleteMarker());
+        assertEquals(deleteMarkerVersionId, latest.versionId());
+        assertTrue(store.listLatestVersions("/alice/").isEmpty());
+        assertTrue(store.copy("/alice/a.txt", null, "/alice/b.txt").isEmpty(), "A delete marker has nothing to copy");
+        assertEquals("content", read(store.findVersion("/alice/a.txt", written.versionId()).orElseThrow()));
+
+        assertTrue(store.deleteVersion("/alice/a.txt", deleteMarkerVersionId));
+        assertEquals(written.versionId(), store.findVersion("/alice/a.txt", null).orElseThrow().versionId());
+    }
+
+    @Test
+    void deletingTheLastVersionRemovesTheKey() throws IOException {
+        store.initializeBuckets();
+        ObjectVersion written = write("/alice/a.txt", "content");
+
+        assertTrue(store.deleteVersion("/alice/a.txt", written.versionId()));
+
+        assertTrue(store.findVersion("/alice/a.txt", null).isEmpty());
+        assertFalse(store.deleteVersion("/alice/a.txt", written.versionId()));
+    }
+
+    @Test
+    void keysWithSpecialSegmentsRoundTripAndStayInsideTheirBucket() throws IOException {
+        store.initializeBuckets();
+        List<String> keys = List.of("/alice/folder/", "/alice/../escape.txt", "/alice/./here.txt", "/alice/@versions/a.txt",
+                "/alice/@/b.txt", "/alice/a b%20c.txt", "/alice/..");
+        for (String key : keys) {
+            write(key, key);
+        }
+
+        List<ObjectVersion> listed = store.listLatestVersions("/alice/");
+        assertEquals(keys.stream().sorted().toList(), listed.stream().map(ObjectVersion::key).toList());
+        for (ObjectVersion version : listed) {
+            assertEquals(version.key(), read(version));
+        }
+        try (Stream<Path> files = Files.walk(root)) {
+            assertTrue(files.allMatch(file -> file.equals(root) || file.startsWith(root.resolve("bucket")) || file.startsWith(root.resolve("far"))),
+                    "A key wrote outside of its bucket directory");
+        }
+    }
+
+    @Test
+    void prefixWalksMatchPartialSegmentsLikeS3() throws IOException {
+        store.initializeBuckets();
+        for (String key : List.of("/alice/docs/a.txt", "/alice/docs/sub/b.txt", "/alice/docs2/c.txt", "/alice/doc", "/bob/docs/d.txt")) {
+            write(key, key);
+        }
+
+        assertEquals(List.of("/alice/docs/a.txt", "/alice/docs/sub/b.txt", "/alice/docs2/c.txt"),
+                store.listLatestVersions("/alice/docs").stream().map(ObjectVersion::key).toList());
+        assertEquals(List.of("/alice/docs/a.txt", "/alice/docs/sub/b.txt"),
+                store.listLatestVersions("/alice/docs/").stream().map(ObjectVersion::key).toList());
+        assertTrue(store.listLatestVersions("/carol/").isEmpty());
+    }
+
+    @Test
+    void copiesWithinABucketAreHardLinks() throws IOException {
+        store.initializeBuckets();
+        ObjectVersion source = write("/alice/a.txt", "content");
+
+        ObjectVersion copy = store.copy("/alice/a.txt", source.versionId(), "/alice/b.txt").orElseThrow();
+
+        assertTrue(Files.isSameFile(source.dataFile(), copy.dataFile()));
+        assertEquals(source.eTag(), copy.eTag());
+        assertEquals(source.metadata(), copy.metadata());
+        assertEquals("content", read(store.findVersion("/alice/b.txt", null).orElseThrow()));
+    }
+
+    @Test
+    void copiesAcrossDevicesFallBackToCopyingTheData() throws IOException {
+        assumeTrue(Files.isDirectory(SHARED_MEMORY) && !Files.getFileStore(SHARED_MEMORY).equals(Files.getFileStore(root)),
+                "Needs a second filesystem to copy across");
+        Path farBucket = Files.createTempDirectory(SHARED_MEMORY, "far-bucket");
+        try {
+            Files.createSymbolicLink(root.resolve("far"), farBucket);
+            store.initializeBuckets();
+            ObjectVersion source = write("/alice/a.txt", "content");
+
+            ObjectVersion copy = store.copy("/alice/a.txt", source.versionId(), "/far/a.txt").orElseThrow();
+
+            assertFalse(Files.isSameFile(source.dataFile(), copy.dataFile()));
+            assertEquals("content", read(store.findVersion("/far/a.txt", null).orElseThrow()));
+        } finally {
+            try (Stream<Path> files = Files.walk(farBucket)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private ObjectVersion write(String key, String content) throws IOException {
+        return store.write(key, "text/plain", Map.of("owner", "alice"), new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private String read(ObjectVersion version) throws IOException {
+        return Files.readString(version.dataFile(), StandardCharsets.UTF_8);
+    }
+}
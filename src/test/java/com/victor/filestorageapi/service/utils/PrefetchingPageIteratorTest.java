@@ -0,0 +1,181 @@
+package com.victor.filestorageapi.service.utils;
+
+import com.victor.filestorageapi.exception.MyCustomS3Exception;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PrefetchingPageIteratorTest {
+
+    private ExecutorService executor;
+
+    //A single thread runs the fetches in the order they were submitted
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void itemsComeInPageOrderSkippingEmptyPages() {
+        CountingPages pages = new CountingPages(List.of(List.of(1, 2), List.of(), List.of(3), List.of(), List.of(4, 5)));
+
+        try (Stream<Integer> items = PrefetchingPageIterator.stream("numbers", pages, Function.identity(), executor)) {
+            assertEquals(List.of(1, 2, 3, 4, 5), items.toList());
+        }
+        assertEquals(5, pages.taken.get());
+    }
+
+    @Test
+    void atMostOnePageIsFetchedAhead() throws Exception {
+        CountingPages pages = new CountingPages(List.of(List.of(1, 2), List.of(3, 4), List.of(5, 6), List.of(7, 8)));
+
+        try (PrefetchingPageIterator<List<Integer>, Integer> iterator = new PrefetchingPageIterator<>("numbers", pages, Function.identity(), executor)) {
+            assertEquals(1, iterator.next());
+            assertEquals(2, iterator.next());
+            awaitQuiet();
+
+            assertEquals(2, pages.taken.get(), "Only the page after the one being consumed may be fetched");
+        }
+    }
+
+    @Test
+    void closingCancelsTheFetchInFlight() throws Exception {
+        CountDownLatch fetchStarted = new CountDownLatch(1);
+        CountDownLatch fetchInterrupted = new CountDownLatch(1);
+        Iterator<List<Integer>> pages = new Iterator<>() {
+            private boolean first = true;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public List<Integer> next() {
+                if (first) {
+                    first = false;
+                    return List.of(1);
+                }
+                fetchStarted.countDown();
+                try {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+                } catch (InterruptedException e) {
+                    fetchInterrupted.countDown();
+                }
+                return List.of(2);
+            }
+        };
+
+        PrefetchingPageIterator<List<Integer>, Integer> iterator = new PrefetchingPageIterator<>("numbers", pages, Function.identity(), executor);
+        assertEquals(1, iterator.next());
+        assertTrue(fetchStarted.await(5, TimeUnit.SECONDS));
+
+        iterator.close();
+
+        assertTrue(fetchInterrupted.await(5, TimeUnit.SECONDS), "Closing must interrupt the fetch in flight");
+        assertFalse(iterator.hasNext());
+        assertThrows(NoSuchElementException.class, iterator::next);
+    }
+
+    @Test
+    void closingAStreamEarlyStopsFetchingPages() throws Exception {
+        CountingPages pages = new CountingPages(List.of(List.of(1), List.of(2), List.of(3), List.of(4), List.of(5)));
+
+        try (Stream<Integer> items = PrefetchingPageIterator.stream("numbers", pages, Function.identity(), executor)) {
+            assertEquals(List.of(1), items.limit(1).toList());
+        }
+        awaitQuiet();
+
+        assertTrue(pages.taken.get() <= 2, "Pages were fetched after the stream was closed: " + pages.taken.get());
+    }
+
+    @Test
+    void aPageThatFailsToLoadFailsTheIteration() {
+        Iterator<List<Integer>> pages = List.of(List.of(1)).iterator();
+        Iterator<List<Integer>> failingPages = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public List<Integer> next() {
+                if (pages.hasNext()) {
+                    return pages.next();
+                }
+                throw new IllegalStateException("listing failed");
+            }
+        };
+
+        try (PrefetchingPageIterator<List<Integer>, Integer> iterator = new PrefetchingPageIterator<>("numbers", failingPages, Function.identity(), executor)) {
+            assertEquals(1, iterator.next());
+            MyCustomS3Exception e = assertThrows(MyCustomS3Exception.class, iterator::hasNext);
+            assertInstanceOf(IllegalStateException.class, e.getCause());
+            assertFalse(iterator.hasNext(), "A failed iteration is closed");
+        }
+    }
+
+    @Test
+    void storageExceptionsArePassedOnAsTheyAre() {
+        MyCustomS3Exception failure = new MyCustomS3Exception("bucket gone");
+        Iterator<List<Integer>> failingPages = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public List<Integer> next() {
+                throw failure;
+            }
+        };
+
+        try (PrefetchingPageIterator<List<Integer>, Integer> iterator = new PrefetchingPageIterator<>("numbers", failingPages, Function.identity(), executor)) {
+            assertSame(failure, assertThrows(MyCustomS3Exception.class, iterator::hasNext));
+        }
+    }
+
+    //Lets every fetch that was already submitted finish
+    private void awaitQuiet() throws Exception {
+        executor.submit(() -> { }).get(5, TimeUnit.SECONDS);
+    }
+
+    private static final class CountingPages implements Iterator<List<Integer>> {
+        private final Iterator<List<Integer>> pages;
+        private final AtomicInteger taken = new AtomicInteger();
+
+        private CountingPages(List<List<Integer>> pages) {
+            this.pages = new ArrayList<>(pages).iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return pages.hasNext();
+        }
+
+        @Override
+        public List<Integer> next() {
+            taken.incrementAndGet();
+            return pages.next();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.victor.filestorageapi.service.utils;
+
+import com.victor.filestorageapi.config.ThrottlingProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class RateLimitedS3AsyncClientTest {
+
+    private ThrottlingProperties throttlingProperties;
+    private S3AsyncClient delegate;
+    private ConcurrentLinkedQueue<Long> issuedAtNanos;
+    private ConcurrentLinkedQueue<HeadObjectRequest> issuedRequests;
+    private RateLimitedS3AsyncClient client;
+
+    @BeforeEach
+    void setUp() {
+        throttlingProperties = new ThrottlingProperties();
+        throttlingProperties.setInitialRate(10);
+        throttlingProperties.setMaxWait(Duration.ofSeconds(5));
+        issuedAtNanos = new ConcurrentLinkedQueue<>();
+        issuedRequests = new ConcurrentLinkedQueue<>();
+        delegate = mock(S3AsyncClient.class);
+        when(delegate.headObject(any(HeadObjectRequest.class))).thenAnswer(invocation -> {
+            issuedAtNanos.add(System.nanoTime());
+            issuedRequests.add(invocation.getArgument(0));
+            return CompletableFuture.completedFuture(HeadObjectResponse.builder().build());
+        });
+        client = new RateLimitedS3AsyncClient(delegate, new AdaptiveRateLimiter(throttlingProperties, new SimpleMeterRegistry()));
+    }
+
+    @Test
+    void requestsPastTheRateAreIssuedLaterInsteadOfFailing() {
+        long start = System.nanoTime();
+        List<CompletableFuture<HeadObjectResponse>> responses = new ArrayList<>();
+        for (int i = 0; i < 15; i++) {
+            responses.add(client.headObject(HeadObjectRequest.builder().bucket("bucket").key("/alice/" + i + ".bin").build()));
+        }
+
+        CompletableFuture.allOf(responses.toArray(CompletableFuture[]::new)).join();
+
+        //Every request reached S3 exactly once, so none of them used up an attempt on waiting
+        verify(delegate, times(15)).headObject(any(HeadObjectRequest.class));
+        //Ten tokens are there right away, the other five come at 10 per second
+        long issuedLater = issuedAtNanos.stream().filter(issuedAt -> issuedAt - start >= TimeUnit.MILLISECONDS.toNanos(50)).count();
+        assertTrue(issuedLater >= 5, "Only " + issuedLater + " requests waited for the rate");
+        assertTrue(issuedRequests.stream().allMatch(request -> request.overrideConfiguration()
+                .map(overrideConfiguration -> overrideConfiguration.executionAttributes().getAttribute(RateLimitedS3AsyncClient.PACED))
+                .orElse(false)));
+    }
+
+    @Test
+    void requestsThatWouldWaitTooLongFailWithoutBeingIssued() {
+        throttlingProperties.setInitialRate(1);
+        throttlingProperties.setMaxWait(Duration.ofMillis(100));
+
+        client.headObject(HeadObjectRequest.builder().bucket("bucket").key("/alice/a.bin").build()).join();
+        CompletableFuture<HeadObjectResponse> rejected = client.headObject(HeadObjectRequest.builder().bucket("bucket").key("/alice/b.bin").build());
+
+        CompletionException e = assertThrows(CompletionException.class, rejected::join);
+        assertInstanceOf(SdkClientException.class, e.getCause());
+        verify(delegate, times(1)).headObject(any(HeadObjectRequest.class));
+    }
+}
@@ -0,0 +1,161 @@
+package com.victor.filestorageapi.service.utils;
+
+import com.victor.filestorageapi.config.ThrottlingProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.ClientType;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+import software.amazon.awssdk.http.SdkHttpResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class S3ThrottlingInterceptorTest {
+
+    private ThrottlingProperties throttlingProperties;
+    private SimpleMeterRegistry meterRegistry;
+    private AdaptiveRateLimiter rateLimiter;
+    private S3ThrottlingInterceptor interceptor;
+
+    @BeforeEach
+    void setUp() {
+        throttlingProperties = new ThrottlingProperties();
+        throttlingProperties.setRetryBudgetCapacity(10);
+        throttlingProperties.setRetryCost(5);
+        throttlingProperties.setSuccessRefund(1);
+        meterRegistry = new SimpleMeterRegistry();
+        rateLimiter = new AdaptiveRateLimiter(throttlingProperties, meterRegistry);
+        interceptor = new S3ThrottlingInterceptor(rateLimiter, throttlingProperties, meterRegistry);
+    }
+
+    @Test
+    void retriesAreChargedToTheOperationsBudget() {
+        ExecutionAttributes execution = execute("/alice/a.bin", "GetObject", ClientType.SYNC);
+
+        attempt(execution);
+        attempt(execution);
+        attempt(execution);
+
+        assertThrows(SdkClientException.class, () -> attempt(execution));
+        assertEquals(1.0, meterRegistry.counter("s3.retry.budget.exhausted", "operation", "GetObject").count());
+    }
+
+    @Test
+    void firstAttemptsAreNeverCharged() {
+        for (int i = 0; i < 20; i++) {
+            attempt(execute("/alice/a.bin", "GetObject", ClientType.SYNC));
+        }
+
+        ExecutionAttributes execution = execute("/alice/a.bin", "GetObject", ClientType.SYNC);
+        attempt(execution);
+        attempt(execution);
+        attempt(execution);
+    }
+
+    @Test
+    void successesRefundTheBudget() {
+        ExecutionAttributes exhausted = execute("/alice/a.bin", "GetObject", ClientType.SYNC);
+        attempt(exhausted);
+        attempt(exhausted);
+        attempt(exhausted);
+
+        for (int i = 0; i < 5; i++) {
+            interceptor.afterExecution(null, execute("/alice/b.bin", "GetObject", ClientType.SYNC));
+        }
+
+        ExecutionAttributes execution = execute("/alice/a.bin", "GetObject", ClientType.SYNC);
+        attempt(execution);
+        attempt(execution);
+        assertThrows(SdkClientException.class, () -> attempt(execution));
+    }
+
+    @Test
+    void everyOperationHasItsOwnBudget() {
+        ExecutionAttributes exhausted = execute("/alice/a.bin", "DeleteObjects", ClientType.SYNC);
+        attempt(exhausted);
+        attempt(exhausted);
+        attempt(exhausted);
+        assertThrows(SdkClientException.class, () -> attempt(exhausted));
+
+        ExecutionAttributes execution = execute("/alice/a.bin", "GetObject", ClientType.SYNC);
+        attempt(execution);
+        attempt(execution);
+    }
+
+    @Test
+    void pacedAsyncRequestsTakeNoSecondTokenForTheirFirstAttempt() {
+        throttlingProperties.setInitialRate(1);
+        ExecutionAttributes execution = execute("/alice/a.bin", "GetObject", ClientType.ASYNC);
+        execution.putAttribute(RateLimitedS3AsyncClient.PACED, true);
+
+        attempt(execution);
+
+        assertTrue(rateLimiter.tryAcquire("/alice"));
+    }
+
+    @Test
+    void asyncAttemptsOverTheRateTakeTheirTokenOnCreditInsteadOfFailing() {
+        throttlingProperties.setInitialRate(1);
+        ExecutionAttributes execution = execute("/alice/a.bin", "GetObject", ClientType.ASYNC);
+        execution.putAttribute(RateLimitedS3AsyncClient.PACED, true);
+
+        long start = System.nanoTime();
+        attempt(execution);
+        attempt(execution);
+        attempt(execute("/alice/b.bin", "UploadPart", ClientType.ASYNC));
+        assertTrue(System.nanoTime() - start < 100_000_000L, "An async attempt must not wait for the rate");
+
+        assertFalse(rateLimiter.tryAcquire("/alice"), "The retry and the unpaced request must count against the rate");
+    }
+
+    @Test
+    void ratesAreKeptPerTopLevelFolder() {
+        throttlingProperties.setInitialRate(1);
+        attempt(execute("/alice/a.bin", "GetObject", ClientType.ASYNC));
+
+        assertFalse(rateLimiter.tryAcquire("/alice"));
+        assertTrue(rateLimiter.tryAcquire("/bob"));
+    }
+
+    @Test
+    void throttlingResponsesLowerThePrefixesRate() {
+        ExecutionAttributes execution = execute("/alice/a.bin", "GetObject", ClientType.ASYNC);
+        attempt(execution);
+
+        interceptor.afterTransmission(responseWithStatus(503), execution);
+        interceptor.afterTransmission(responseWithStatus(200), execution);
+
+        assertEquals(1.0, meterRegistry.counter("s3.throttling.responses").count());
+        int available = 0;
+        while (available < 1_000 && rateLimiter.tryAcquire("/alice")) {
+            available++;
+        }
+        assertTrue(available < throttlingProperties.getInitialRate() / 2 + 2, "The rate should have been halved, got " + available + " tokens");
+    }
+
+    private ExecutionAttributes execute(String key, String operation, ClientType clientType) {
+        ExecutionAttributes executionAttributes = new ExecutionAttributes();
+        executionAttributes.putAttribute(SdkExecutionAttribute.OPERATION_NAME, operation);
+        executionAttributes.putAttribute(SdkExecutionAttribute.CLIENT_TYPE, clientType);
+        Context.BeforeExecution context = mock(Context.BeforeExecution.class);
+        when(context.request()).thenReturn(GetObjectRequest.builder().bucket("bucket").key(key).build());
+        interceptor.beforeExecution(context, executionAttributes);
+        return executionAttributes;
+    }
+
+    private void attempt(ExecutionAttributes executionAttributes) {
+        interceptor.beforeTransmission(null, executionAttributes);
+    }
+
+    private Context.AfterTransmission responseWithStatus(int statusCode) {
+        Context.AfterTransmission context = mock(Context.AfterTransmission.class);
+        when(context.httpResponse()).thenReturn(SdkHttpResponse.builder().statusCode(statusCode).build());
+        return context;
+    }
+}
@@ -0,0 +1,176 @@
+package com.victor.filestorageapi.service.utils;
+
+import com.victor.filestorageapi.exception.InvalidArchiveException;
+import com.victor.filestorageapi.models.ArchiveEntry;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TarArchiveReaderTest {
+
+    private static final int BLOCK_SIZE = 512;
+
+    @Test
+    void ustarPrefixesAreJoinedWithTheName() throws IOException {
+        TarBuilder tar = new TarBuilder().entry("report.pdf", "docs/2024/quarterly", '0', bytes("pdf"));
+
+        try (TarArchiveReader reader = tar.reader()) {
+            ArchiveEntry entry = reader.nextEntry();
+            assertEquals("docs/2024/quarterly/report.pdf", entry.path());
+            assertEquals("pdf", new String(entry.content().readAllBytes(), StandardCharsets.UTF_8));
+            assertNull(reader.nextEntry());
+        }
+    }
+
+    @Test
+    void gnuLongNamesReplaceTheHeaderName() throws IOException {
+        String longPath = "a/".repeat(80) + "file.txt";
+        TarBuilder tar = new TarBuilder()
+                .entry("././@LongLink", null, 'L', bytes(longPath + "\0"))
+                .entry(longPath.substring(0, 99), null, '0', bytes("content"))
+                .entry("short.txt", null, '0', bytes("next"));
+
+        try (TarArchiveReader reader = tar.reader()) {
+            ArchiveEntry entry = reader.nextEntry();
+            assertEquals(longPath, entry.path());
+            assertEquals("content", new String(entry.content().readAllBytes(), StandardCharsets.UTF_8));
+            assertEquals("short.txt", reader.nextEntry().path(), "A long name only applies to the entry after it");
+        }
+    }
+
+    @Test
+    void paxPathsReplaceTheHeaderName() throws IOException {
+        String longPath = "b/".repeat(90) + "photo.jpg";
+        byte[] paxRecords = concat(paxRecord("mtime", "1700000000.5"), paxRecord("path", longPath));
+        TarBuilder tar = new TarBuilder()
+                .entry("PaxHeaders/photo.jpg", null, 'x', paxRecords)
+                .entry("photo.jpg", null, '0', bytes("jpeg"));
+
+        try (TarArchiveReader reader = tar.reader()) {
+            ArchiveEntry entry = reader.nextEntry();
+            assertEquals(longPath, entry.path());
+            assertEquals(4, entry.size());
+        }
+    }
+
+    @Test
+    void unreadContentAndSpecialEntriesAreSkipped() throws IOException {
+        TarBuilder tar = new TarBuilder()
+                .entry("docs/", null, '5', new byte[0])
+                .entry("docs/big.bin", null, '0', new byte[1500])
+                .entry("docs/link", null, '2', new byte[0])
+                .entry("docs/small.txt", null, '0', bytes("small"));
+
+        try (TarArchiveReader reader = tar.reader()) {
+            ArchiveEntry directory = reader.nextEntry();
+            assertTrue(directory.directory());
+            assertEquals("docs/big.bin", reader.nextEntry().path());
+
+            ArchiveEntry small = reader.nextEntry();
+            assertEquals("docs/small.txt", small.path());
+            assertEquals("small", new String(small.content().readAllBytes(), StandardCharsets.UTF_8));
+            assertNull(reader.nextEntry());
+        }
+    }
+
+    @Test
+    void truncatedContentFailsTheRead() throws IOException {
+        byte[] archive = new TarBuilder().entry("cut.bin", null, '0', new byte[2000]).build();
+
+        try (TarArchiveReader reader = new TarArchiveReader(new ByteArrayInputStream(Arrays.copyOf(archive, BLOCK_SIZE + 700)))) {
+            ArchiveEntry entry = reader.nextEntry();
+            assertThrows(InvalidArchiveException.class, () -> entry.content().readAllBytes());
+        }
+    }
+
+    @Test
+    void truncatedHeadersFailTheArchive() throws IOException {
+        byte[] archive = new TarBuilder().entry("a.txt", null, '0', bytes("a")).entry("b.txt", null, '0', bytes("b")).build();
+
+        try (TarArchiveReader reader = new TarArchiveReader(new ByteArrayInputStream(Arrays.copyOf(archive, 2 * BLOCK_SIZE + 300)))) {
+            assertEquals("a.txt", reader.nextEntry().path());
+            assertThrows(InvalidArchiveException.class, reader::nextEntry);
+        }
+    }
+
+    @Test
+    void corruptChecksumsFailTheArchive() throws IOException {
+        byte[] archive = new TarBuilder().entry("a.txt", null, '0', bytes("a")).build();
+        archive[10] ^= 1;
+
+        try (TarArchiveReader reader = new TarArchiveReader(new ByteArrayInputStream(archive))) {
+            assertThrows(InvalidArchiveException.class, reader::nextEntry);
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] joined = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, joined, first.length, second.length);
+        return joined;
+    }
+
+    //A record's length counts its own digits, so it is grown until it fits
+    private static byte[] paxRecord(String key, String value) {
+        String body = " " + key + "=" + value + "\n";
+        int length = body.length();
+        while (String.valueOf(length).length() + body.length() != length) {
+            length = String.valueOf(length).length() + body.length();
+        }
+        return bytes(length + body);
+    }
+
+    //Writes ustar headers the way GNU tar does, with the content padded to whole blocks
+    private static final class TarBuilder {
+        private final ByteArrayOutputStream archive = new ByteArrayOutputStream();
+
+        private TarBuilder entry(String name, String prefix, char type, byte[] content) {
+            byte[] header = new byte[BLOCK_SIZE];
+            put(header, 0, 100, name);
+            put(header, 100, 8, "0000644");
+            put(header, 124, 12, String.format("%011o", content.length));
+            put(header, 136, 12, String.format("%011o", 0));
+            header[156] = (byte) type;
+            put(header, 257, 6, "ustar");
+            put(header, 263, 2, "00");
+            if (prefix != null) {
+                put(header, 345, 155, prefix);
+            }
+
+            long checksum = 0;
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                checksum += i >= 148 && i < 156 ? ' ' : header[i] & 0xff;
+            }
+            put(header, 148, 8, String.format("%06o", checksum));
+            header[155] = ' ';
+
+            archive.writeBytes(header);
+            archive.writeBytes(content);
+            archive.writeBytes(new byte[(BLOCK_SIZE - content.length % BLOCK_SIZE) % BLOCK_SIZE]);
+            return this;
+        }
+
+        private byte[] build() {
+            byte[] entries = archive.toByteArray();
+            return Arrays.copyOf(entries, entries.length + 2 * BLOCK_SIZE);
+        }
+
+        private TarArchiveReader reader() {
+            return new TarArchiveReader(new ByteArrayInputStream(build()));
+        }
+
+        private static void put(byte[] header, int offset, int length, String value) {
+            byte[] encoded = bytes(value);
+            System.arraycopy(encoded, 0, header, offset, Math.min(length, encoded.length));
+        }
+    }
+}